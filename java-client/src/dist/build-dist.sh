@@ -0,0 +1,82 @@
+#!/bin/bash
+# Build a startup-optimized distribution of the client in target/dist:
+#   runtime/   jlink image with only the JDK and JavaFX modules the client uses
+#   lib/       the client and its libraries, and class-data sharing archives
+#   bin/sfx    launcher
+#
+# Run by `mvn -Pdist package`, which first copies the dependencies to target/lib.
+# The class-data sharing archives are created by training runs that start the
+# desktop client to its first frame and list files with the headless client. The
+# desktop run needs a display; without one it is run under xvfb-run if
+# installed, and otherwise skipped, in which case the first start creates the
+# archive instead.
+
+set -euo pipefail
+shopt -s nullglob
+
+TARGET_DIR=$(cd "${1:-target}" && pwd)
+SOURCE_DIR=$(cd "$(dirname "$0")" && pwd)
+DIST_DIR="$TARGET_DIR/dist"
+JAVA_HOME=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")}
+
+APP_JAR=
+for jar in "$TARGET_DIR"/sfx-client-*.jar; do
+    case "$jar" in
+        *-sources.jar|*-javadoc.jar) ;;
+        *) APP_JAR="$jar" ;;
+    esac
+done
+if [ -z "$APP_JAR" ]; then
+    echo "No client jar in $TARGET_DIR; run mvn package first" >&2
+    exit 1
+fi
+
+echo "Building distribution in $DIST_DIR"
+rm -rf "$DIST_DIR"
+mkdir -p "$DIST_DIR/lib" "$DIST_DIR/bin"
+cp "$APP_JAR" "$DIST_DIR/lib/sfx-client.jar"
+
+# JavaFX goes into the runtime image as modules; the platform-specific jars
+# hold the modules, the others are empty placeholders
+JAVAFX_MODULE_PATH=
+for jar in "$TARGET_DIR"/lib/*.jar; do
+    name=$(basename "$jar")
+    case "$name" in
+        javafx-*-linux*.jar|javafx-*-mac*.jar|javafx-*-win*.jar)
+            JAVAFX_MODULE_PATH="${JAVAFX_MODULE_PATH:+$JAVAFX_MODULE_PATH:}$jar" ;;
+        javafx-*)
+            ;;
+        *)
+            cp "$jar" "$DIST_DIR/lib/" ;;
+    esac
+done
+
+# Only the JDK modules the client and its libraries use
+JDK_MODULES=$("$JAVA_HOME/bin/jdeps" --ignore-missing-deps --multi-release 17 --print-module-deps \
+    --class-path "$DIST_DIR/lib/*" "$DIST_DIR/lib/sfx-client.jar")
+MODULES="$JDK_MODULES,javafx.controls,javafx.fxml"
+echo "Linking runtime with $MODULES"
+"$JAVA_HOME/bin/jlink" \
+    --module-path "$JAVA_HOME/jmods${JAVAFX_MODULE_PATH:+:$JAVAFX_MODULE_PATH}" \
+    --add-modules "$MODULES" \
+    --strip-debug --no-header-files --no-man-pages --compress=2 \
+    --output "$DIST_DIR/runtime"
+
+# The default archive of JDK classes, which the application archives extend
+"$DIST_DIR/runtime/bin/java" -Xshare:dump > /dev/null
+
+cp "$SOURCE_DIR/bin/sfx" "$DIST_DIR/bin/sfx"
+chmod +x "$DIST_DIR/bin/sfx"
+
+echo "Training class-data sharing archives"
+# Nothing listens on the discard port, so the listing fails after loading the client's classes
+"$DIST_DIR/bin/sfx" cli --server http://127.0.0.1:9 ls > /dev/null 2>&1 || true
+if [ -n "${DISPLAY:-}${WAYLAND_DISPLAY:-}" ] || [ "$(uname)" = "Darwin" ]; then
+    SFX_STARTUP_PROBE=1 "$DIST_DIR/bin/sfx" > /dev/null 2>&1 || true
+elif command -v xvfb-run > /dev/null; then
+    SFX_STARTUP_PROBE=1 xvfb-run -a "$DIST_DIR/bin/sfx" > /dev/null 2>&1 || true
+else
+    echo "No display for the desktop training run; its archive is created on first start"
+fi
+
+echo "Done: $DIST_DIR/bin/sfx"
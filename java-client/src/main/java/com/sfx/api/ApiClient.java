@@ -2,31 +2,136 @@ package com.sfx.api;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.bundle.BundleReader;
+import com.sfx.bundle.BundleRequestBody;
+import com.sfx.cache.DownloadCache;
+import com.sfx.crypto.TreeHash;
+import com.sfx.crypto.TreeHasher;
+import com.sfx.delta.DeltaEncoder;
+import com.sfx.events.FileEventListener;
+import com.sfx.events.FileEventStream;
+import com.sfx.events.FileWatch;
+import com.sfx.io.BufferPool;
+import com.sfx.resilience.ResilienceInterceptor;
+import com.sfx.resilience.RetryPolicy;
+import com.sfx.session.SessionKey;
+import com.sfx.transfer.BandwidthInterceptor;
+import com.sfx.transfer.EncryptedRequestBody;
+import com.sfx.transfer.FileRequestBody;
+import com.sfx.transfer.PipelinedRequestBody;
+import com.sfx.transfer.StreamRequestBody;
+import com.sfx.transfer.TransferPipeline;
+import com.sfx.transfer.TransferScheduler;
+import com.sfx.transfer.TreeHashingRequestBody;
 import okhttp3.*;
+import okio.BufferedSink;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 /**
  * Client for interacting with the SecureFileXchange API
  */
 public class ApiClient {
+    /**
+     * Response header carrying the tree hash of a downloaded file's stored content
+     */
+    public static final String TREE_HASH_HEADER = "X-Content-Tree-Hash";
+
+    /**
+     * Request header naming the key exchange whose session key encrypts an upload
+     */
+    public static final String ENCRYPTION_SESSION_HEADER = "X-Encryption-Session";
+
+    public static final int DEFAULT_BULK_TRANSFERS = 4;
+    private static final int EVENT_STREAM_READ_TIMEOUT_SECONDS = 60;
+    // Files per listing request; the server caps pages at 10,000
+    private static final int LIST_PAGE_SIZE = 1000;
+    // Files per bundle request and bytes per bundled upload; the server accepts up to 10,000 files
+    private static final int BUNDLE_MAX_FILES = 1000;
+    private static final long BUNDLE_MAX_BYTES = 16L * 1024 * 1024;
+
     private final OkHttpClient client;
     private final ObjectMapper objectMapper;
     private final String baseUrl;
+    private final ResilienceInterceptor resilience;
+    private final TransferScheduler scheduler;
+    private volatile DownloadCache downloadCache;
 
     public ApiClient(String baseUrl) {
+        this(baseUrl, new ResilienceInterceptor(RetryPolicy.defaults()));
+    }
+
+    /**
+     * Create a client with custom retry, circuit breaker and concurrency settings
+     * @param baseUrl The server URL
+     * @param resilience Interceptor applied to every call
+     */
+    public ApiClient(String baseUrl, ResilienceInterceptor resilience) {
+        this(baseUrl, resilience, new TransferScheduler(DEFAULT_BULK_TRANSFERS));
+    }
+
+    /**
+     * Create a client with custom retry settings and transfer scheduling
+     * @param baseUrl The server URL
+     * @param resilience Interceptor applied to every call
+     * @param scheduler Scheduler whose bandwidth limits apply to every call
+     */
+    public ApiClient(String baseUrl, ResilienceInterceptor resilience, TransferScheduler scheduler) {
         this.baseUrl = baseUrl;
+        this.resilience = resilience;
+        this.scheduler = scheduler;
+        // Shaping sits inside the retry loop, so every attempt is metered
         this.client = new OkHttpClient.Builder()
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
+                .addInterceptor(resilience)
+                .addInterceptor(new BandwidthInterceptor(scheduler))
                 .build();
         this.objectMapper = new ObjectMapper();
     }
 
+    /**
+     * @return The interceptor holding this client's circuit breakers and concurrency limits
+     */
+    public ResilienceInterceptor getResilience() {
+        return resilience;
+    }
+
+    /**
+     * Keep downloads in a local cache and restore unchanged files from it
+     * @param downloadCache The cache, or null to always download
+     */
+    public void setDownloadCache(DownloadCache downloadCache) {
+        this.downloadCache = downloadCache;
+    }
+
+    public DownloadCache getDownloadCache() {
+        return downloadCache;
+    }
+
+    /**
+     * @return The scheduler that prioritizes this client's transfers and limits their bandwidth
+     */
+    public TransferScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * Check API health
      * @return true if API is healthy
@@ -52,8 +157,10 @@ public class ApiClient {
      * @return KeyExchangeResponse containing session ID, public key, and parameters
      */
     public KeyExchangeResponse initiateKeyExchange() throws IOException {
+        // Repeating an init only leaves an unused exchange behind, so it is safe to retry
         Request request = new Request.Builder()
                 .url(baseUrl + "/api/key-exchange/init")
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
                 .post(RequestBody.create("", MediaType.get("application/json")))
                 .build();
 
@@ -74,10 +181,25 @@ public class ApiClient {
      * @return true if exchange was successful
      */
     public boolean completeKeyExchange(String sessionId, String publicKey) throws IOException {
-        String requestBody = objectMapper.writeValueAsString(Map.of(
-                "session_id", sessionId,
-                "public_key", publicKey
-        ));
+        return completeKeyExchange(sessionId, publicKey, null);
+    }
+
+    /**
+     * Complete a key exchange for a user. The server then keeps the user's
+     * session key, so uploads encrypted with it can name it by the session ID.
+     * @param sessionId Session ID returned from initiateKeyExchange
+     * @param publicKey Our public key to send to the server
+     * @param userId The user the key belongs to, or null to keep no key on the server
+     * @return true if exchange was successful
+     */
+    public boolean completeKeyExchange(String sessionId, String publicKey, String userId) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("session_id", sessionId);
+        fields.put("public_key", publicKey);
+        if (userId != null) {
+            fields.put("user_id", userId);
+        }
+        String requestBody = objectMapper.writeValueAsString(fields);
 
         Request request = new Request.Builder()
                 .url(baseUrl + "/api/key-exchange/complete")
@@ -99,25 +221,359 @@ public class ApiClient {
      * @return Information about the uploaded file
      */
     public FileUploadResponse uploadFile(File file, String userId) throws IOException {
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("file", file.getName(),
-                        RequestBody.create(file, MediaType.parse("application/octet-stream")))
-                .addFormDataPart("user_id", userId)
+        return uploadFile(file, userId, null);
+    }
+
+    /**
+     * Upload a file to the server through a transfer pipeline, which reads,
+     * transforms and sends chunks on separate threads
+     * @param file The file to upload
+     * @param userId The user ID (optional)
+     * @param pipeline Pipeline to stream the file through, or null to send it as is
+     * @return Information about the uploaded file
+     */
+    public FileUploadResponse uploadFile(File file, String userId, TransferPipeline pipeline) throws IOException {
+        MediaType mediaType = MediaType.parse("application/octet-stream");
+        return uploadRaw(pipeline != null
+                ? new PipelinedRequestBody(file, pipeline, mediaType)
+                : new FileRequestBody(file, mediaType), file.getName(), userId, null);
+    }
+
+    /**
+     * Upload data of unknown length, such as the output of another process,
+     * while it is being produced. It is sent with chunked transfer encoding and
+     * never held in memory or a temporary file as a whole.
+     * @param in Stream to read until end of stream
+     * @param filename Name to store the data under
+     * @param userId The user ID (optional)
+     * @param pipeline Pipeline to transform the data through, e.g. to encrypt it, or null to send it as is
+     * @return Information about the uploaded file
+     */
+    public FileUploadResponse uploadStream(InputStream in, String filename, String userId, TransferPipeline pipeline)
+            throws IOException {
+        return uploadStream(Channels.newChannel(in), filename, userId, pipeline, null);
+    }
+
+    /**
+     * Upload data of unknown length encrypted with a session key. The server
+     * decrypts it and stores what an unencrypted upload would have stored.
+     * @param in Stream to read until end of stream
+     * @param filename Name to store the data under
+     * @param userId The user ID, which the session key must belong to
+     * @param pipeline Pipeline to transform the data through before encryption, or null
+     * @param sessionKey Key from a {@link com.sfx.session.SessionManager} exchange with this server
+     * @return Information about the uploaded file
+     */
+    public FileUploadResponse uploadStream(InputStream in, String filename, String userId, TransferPipeline pipeline,
+                                           SessionKey sessionKey) throws IOException {
+        return uploadStream(Channels.newChannel(in), filename, userId, pipeline, sessionKey);
+    }
+
+    /**
+     * Upload data of unknown length from a channel while it is being produced.
+     * The channel can only be read once, so a failed upload is not retried.
+     * @param source Channel to read until end of stream
+     * @param filename Name to store the data under
+     * @param userId The user ID (optional)
+     * @param pipeline Pipeline to transform the data through, e.g. to encrypt it, or null to send it as is
+     * @return Information about the uploaded file
+     */
+    public FileUploadResponse uploadStream(ReadableByteChannel source, String filename, String userId,
+                                           TransferPipeline pipeline) throws IOException {
+        return uploadStream(source, filename, userId, pipeline, null);
+    }
+
+    /**
+     * Upload data of unknown length from a channel, encrypted with a session key
+     * @param sessionKey Key from a key exchange with this server, or null to send the data unencrypted
+     * @see #uploadStream(InputStream, String, String, TransferPipeline, SessionKey)
+     */
+    public FileUploadResponse uploadStream(ReadableByteChannel source, String filename, String userId,
+                                           TransferPipeline pipeline, SessionKey sessionKey) throws IOException {
+        return uploadRaw(new StreamRequestBody(source, pipeline, MediaType.parse("application/octet-stream")),
+                filename, userId, sessionKey);
+    }
+
+    private FileUploadResponse uploadRaw(RequestBody body, String filename, String userId, SessionKey sessionKey)
+            throws IOException {
+        // The hash covers the content the server stores, so it is taken before encryption
+        TreeHashingRequestBody fileBody = new TreeHashingRequestBody(body);
+
+        // The body is the file itself, which the server writes to disk as it arrives
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/upload/raw")
+                .newBuilder()
+                .addQueryParameter("filename", filename)
+                .addQueryParameter("user_id", userId)
                 .build();
 
+        // The server stores the file once per key, so retries cannot create duplicates.
+        // Encrypted frames are bound to the key, so they cannot be spliced into another upload.
+        String uploadId = UUID.randomUUID().toString();
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY_HEADER, uploadId);
+        if (sessionKey != null) {
+            builder.header(ENCRYPTION_SESSION_HEADER, sessionKey.getSessionId())
+                    .post(new EncryptedRequestBody(fileBody, sessionKey, uploadId));
+        } else {
+            builder.post(fileBody);
+        }
+        Request request = builder.build();
+
+        FileUploadResponse uploaded;
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to upload file: " + response.code());
+            }
+
+            String responseBody = response.body().string();
+            uploaded = objectMapper.readValue(responseBody, FileUploadResponse.class);
+        }
+
+        // The hash is only complete once the body is sent, so the server reports
+        // its own and a mismatching copy is removed again
+        try {
+            verifyRootHash(filename, fileBody.getRootHash(), uploaded.getRootHash());
+        } catch (IOException e) {
+            try {
+                deleteFile(uploaded.getStoredFilename(), userId);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
+        return uploaded;
+    }
+
+    /**
+     * Upload several files. Small files are packed into bundles, so each
+     * bundle costs one request instead of one per file; larger files are
+     * uploaded on their own.
+     * @param files The files to upload
+     * @param userId The user ID (optional)
+     * @return Information about each uploaded file, in the order given
+     */
+    public List<FileUploadResponse> uploadFiles(List<File> files, String userId) throws IOException {
+        FileUploadResponse[] uploaded = new FileUploadResponse[files.size()];
+        List<Integer> indices = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            indices.add(i);
+        }
+        for (List<Integer> batch : bundleBatches(indices, i -> files.get(i).length())) {
+            File first = files.get(batch.get(0));
+            if (first.length() > BundleRequestBody.MAX_FILE_SIZE) {
+                uploaded[batch.get(0)] = uploadFile(first, userId);
+            } else {
+                uploadBatch(files, batch, uploaded, userId);
+            }
+        }
+        return Arrays.asList(uploaded);
+    }
+
+    /**
+     * Group items the way {@link #uploadFiles} and {@link #downloadFiles} send
+     * them: small ones into bundles of up to a thousand items or 16 MB, each
+     * sent in one request, and those larger than
+     * {@link BundleRequestBody#MAX_FILE_SIZE} on their own
+     * @param items Items to group, in order
+     * @param sizeOf Size of an item in bytes, or 0 to group by count only
+     * @return The groups, in the order of the items
+     */
+    public static <T> List<List<T>> bundleBatches(List<T> items, ToLongFunction<T> sizeOf) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (T item : items) {
+            long size = sizeOf.applyAsLong(item);
+            if (size > BundleRequestBody.MAX_FILE_SIZE) {
+                batches.add(List.of(item));
+                continue;
+            }
+            batch.add(item);
+            batchBytes += size;
+            if (batch.size() >= BUNDLE_MAX_FILES || batchBytes >= BUNDLE_MAX_BYTES) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private void uploadBatch(List<File> files, List<Integer> batch, FileUploadResponse[] uploaded, String userId)
+            throws IOException {
+        List<File> bundled = new ArrayList<>(batch.size());
+        for (int index : batch) {
+            bundled.add(files.get(index));
+        }
+        List<FileUploadResponse> responses = uploadBundle(bundled, userId);
+        for (int i = 0; i < batch.size(); i++) {
+            uploaded[batch.get(i)] = responses.get(i);
+        }
+    }
+
+    /**
+     * Upload small files as one bundle. The server checks every file against
+     * the tree hash sent with it and stores either all of them or none.
+     * @param files The files to upload, each at most {@link BundleRequestBody#MAX_FILE_SIZE} bytes
+     * @param userId The user ID (optional)
+     * @return Information about each uploaded file, in the order given
+     */
+    public List<FileUploadResponse> uploadBundle(List<File> files, String userId) throws IOException {
+        BundleRequestBody bundleBody = new BundleRequestBody(files);
+
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/upload/bundle")
+                .newBuilder()
+                .addQueryParameter("user_id", userId)
+                .build();
+
+        // The server stores the bundle once per key, so retries cannot create duplicates
         Request request = new Request.Builder()
-                .url(baseUrl + "/api/files/upload")
-                .post(requestBody)
+                .url(url)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+                .post(bundleBody)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
             if (!response.isSuccessful()) {
-                throw new IOException("Failed to upload file: " + response.code());
+                throw new IOException("Failed to upload bundle: " + response.code());
             }
 
             String responseBody = response.body().string();
-            return objectMapper.readValue(responseBody, FileUploadResponse.class);
+            List<FileUploadResponse> uploaded = objectMapper.readValue(responseBody, BundleUploadResponse.class)
+                    .getFiles();
+            if (uploaded == null || uploaded.size() != files.size()) {
+                throw new IOException("Bundle upload returned " + (uploaded == null ? 0 : uploaded.size())
+                        + " files for " + files.size() + " sent");
+            }
+            // A replayed response may answer a body that was never fully written on this attempt
+            List<String> sentHashes = bundleBody.getRootHashes();
+            if (sentHashes != null) {
+                for (int i = 0; i < files.size(); i++) {
+                    verifyRootHash(files.get(i).getName(), sentHashes.get(i), uploaded.get(i).getRootHash());
+                }
+            }
+            return uploaded;
+        }
+    }
+
+    /**
+     * Delete a stored file from the server
+     * @param filename The stored filename on the server
+     * @param userId The user ID (optional)
+     */
+    public void deleteFile(String filename, String userId) throws IOException {
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/" + filename)
+                .newBuilder()
+                .addQueryParameter("user_id", userId)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(url)
+                .delete()
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to delete file: " + response.code());
+            }
+        }
+    }
+
+    /**
+     * Get the block signatures of a stored file, for computing a delta against it
+     * @param filename The stored filename on the server
+     * @param blockSize Requested block size in bytes
+     * @param userId The user ID (optional)
+     * @return Weak and strong signatures of every block
+     */
+    public BlockSignaturesResponse getBlockSignatures(String filename, int blockSize, String userId) throws IOException {
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/signatures/" + filename)
+                .newBuilder()
+                .addQueryParameter("block_size", String.valueOf(blockSize))
+                .addQueryParameter("user_id", userId)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to get block signatures: " + response.code());
+            }
+
+            String responseBody = response.body().string();
+            return objectMapper.readValue(responseBody, BlockSignaturesResponse.class);
+        }
+    }
+
+    /**
+     * Replace a stored file with a new local version by sending only the
+     * blocks that changed. The delta is computed while the request streams.
+     * The server applies it only to the version its blocks were read from,
+     * and keeps the result only if it matches the local file's hash.
+     * @param file The new local version of the file
+     * @param storedFilename The stored filename on the server to update
+     * @param userId The user ID (optional)
+     * @return Information about the updated file
+     */
+    public FileUploadResponse uploadDelta(File file, String storedFilename, String userId) throws IOException {
+        // Hash the local file on other cores while the signatures are fetched
+        CompletableFuture<String> localRootHash = CompletableFuture.supplyAsync(() -> {
+            try {
+                return TreeHash.toHex(TreeHash.of(file.toPath()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        BlockSignaturesResponse signatures = getBlockSignatures(
+                storedFilename, DeltaEncoder.chooseBlockSize(file.length()), userId);
+        DeltaEncoder encoder = new DeltaEncoder(signatures);
+
+        RequestBody requestBody = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.get("application/octet-stream");
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                encoder.encode(file.toPath(), sink.outputStream());
+            }
+        };
+
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/delta/" + storedFilename)
+                .newBuilder()
+                .addQueryParameter("user_id", userId)
+                .build();
+
+        // A delta must not be applied twice, so the server deduplicates retries by key.
+        // If-Match names the version the delta refers to: a file replaced since is
+        // refused with 412, and a rebuilt file that does not match the local one with 422.
+        String expectedRootHash = joinHash(localRootHash);
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+                .header(TREE_HASH_HEADER, expectedRootHash);
+        if (signatures.getRootHash() != null) {
+            builder.header("If-Match", "\"" + signatures.getRootHash() + "\"");
+        }
+        Request request = builder.post(requestBody).build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to upload delta: " + response.code());
+            }
+
+            String responseBody = response.body().string();
+            FileUploadResponse updated = objectMapper.readValue(responseBody, FileUploadResponse.class);
+            verifyRootHash(file.getName(), expectedRootHash, updated.getRootHash());
+            return updated;
         }
     }
 
@@ -129,44 +585,251 @@ public class ApiClient {
      * @return true if download was successful
      */
     public boolean downloadFile(String filename, File destinationFile, String userId) throws IOException {
+        return downloadFile(filename, destinationFile, userId, null);
+    }
+
+    /**
+     * Download a file that was uploaded through a transfer pipeline, reversing its transformations
+     * @param filename The name of the file to download
+     * @param destinationFile The destination file to save the downloaded content
+     * @param userId The user ID (optional)
+     * @param pipeline Pipeline the file was uploaded with, or null if it was sent as is
+     * @return true if download was successful
+     */
+    public boolean downloadFile(String filename, File destinationFile, String userId, TransferPipeline pipeline)
+            throws IOException {
         HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/download/" + filename)
                 .newBuilder()
                 .addQueryParameter("user_id", userId)
                 .build();
 
+        // With a cached copy, ask the server to send the file only if it changed
+        DownloadCache cache = downloadCache;
+        String identity = cache != null ? DownloadCache.identity(baseUrl, userId, filename) : null;
+        DownloadCache.NameEntry cached = cache != null ? cache.lookup(identity) : null;
+
+        Request.Builder requestBuilder = new Request.Builder().url(url);
+        if (cached != null) {
+            requestBuilder.header("If-None-Match", cached.getEtag());
+        }
+        Request request = requestBuilder.build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 304 && cached != null) {
+                if (restoreFromCache(cache, cached, destinationFile, pipeline)) {
+                    return true;
+                }
+                // The cached copy is gone or damaged, so fetch the file in full
+                cache.invalidate(identity);
+                return downloadFile(filename, destinationFile, userId, pipeline);
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to download file: " + response.code());
+            }
+
+            String expected = response.header(TREE_HASH_HEADER);
+            String etag = response.header("ETag");
+            DownloadCache.Writer cacheWriter = cache != null && expected != null && etag != null
+                    ? cache.newWriter(expected, response.body().contentLength())
+                    : null;
+
+            // Save the file through a pooled buffer, hashing and caching the received bytes on the way
+            try (TreeHasher hasher = new TreeHasher();
+                 java.io.OutputStream out = java.nio.file.Files.newOutputStream(destinationFile.toPath())) {
+                InputStream in = hasher.hashing(response.body().byteStream());
+                if (cacheWriter != null) {
+                    in = cacheWriter.capturing(in);
+                }
+                if (pipeline != null) {
+                    pipeline.decode(in, out);
+                } else {
+                    BufferPool.shared().copy(in, out);
+                }
+
+                if (expected != null && !expected.equalsIgnoreCase(hasher.hexDigest())) {
+                    out.close();
+                    java.nio.file.Files.deleteIfExists(destinationFile.toPath());
+                    throw new IOException("Integrity check failed for " + filename
+                            + ": downloaded content does not match the server's tree hash");
+                }
+
+                // Only content that passed the integrity check is cached
+                if (cacheWriter != null) {
+                    cacheWriter.commit(identity, etag);
+                }
+            } finally {
+                if (cacheWriter != null) {
+                    cacheWriter.close();
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Download several stored files into a directory, streamed back as
+     * bundles of up to a thousand files per request. Each file is checked
+     * against the tree hash the server sends with it.
+     * @param filenames The stored filenames on the server
+     * @param directory Directory to save the files in, under their stored names
+     * @param userId The user ID (optional)
+     * @return The saved files, in the order given
+     */
+    public List<File> downloadFiles(List<String> filenames, File directory, String userId) throws IOException {
+        List<File> saved = new ArrayList<>(filenames.size());
+        // Sizes are not known before downloading, so bundles are limited by count only
+        for (List<String> batch : bundleBatches(filenames, filename -> 0)) {
+            saved.addAll(downloadBundle(batch, directory, userId));
+        }
+        return saved;
+    }
+
+    private List<File> downloadBundle(List<String> filenames, File directory, String userId) throws IOException {
+        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/download/bundle")
+                .newBuilder()
+                .addQueryParameter("user_id", userId)
+                .build();
+
+        RequestBody requestBody = RequestBody.create(
+                objectMapper.writeValueAsString(Map.of("filenames", filenames)),
+                MediaType.get("application/json"));
+
+        // Nothing is stored by this request, so a key only marks it as safe to retry
         Request request = new Request.Builder()
                 .url(url)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+                .post(requestBody)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
             if (!response.isSuccessful()) {
-                throw new IOException("Failed to download file: " + response.code());
+                throw new IOException("Failed to download bundle: " + response.code());
             }
 
-            // Save the file
-            java.nio.file.Files.copy(
-                    response.body().byteStream(),
-                    destinationFile.toPath(),
-                    java.nio.file.StandardCopyOption.REPLACE_EXISTING
-            );
+            BundleReader reader = new BundleReader(response.body().byteStream());
+            List<File> saved = new ArrayList<>(filenames.size());
+            BundleReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                // Entries come back in the order asked, which also keeps names from leaving the directory
+                if (saved.size() >= filenames.size() || !entry.getName().equals(filenames.get(saved.size()))) {
+                    throw new IOException("Unexpected file in bundle: " + entry.getName());
+                }
+                File destinationFile = new File(directory, entry.getName());
+                try (TreeHasher hasher = new TreeHasher();
+                     java.io.OutputStream out = java.nio.file.Files.newOutputStream(destinationFile.toPath())) {
+                    BufferPool.shared().copy(hasher.hashing(reader.content()), out);
+                    if (!entry.getRootHash().equalsIgnoreCase(hasher.hexDigest())) {
+                        out.close();
+                        java.nio.file.Files.deleteIfExists(destinationFile.toPath());
+                        throw new IOException("Integrity check failed for " + entry.getName()
+                                + ": downloaded content does not match the server's tree hash");
+                    }
+                }
+                saved.add(destinationFile);
+            }
+            if (saved.size() != filenames.size()) {
+                throw new IOException("Bundle ended after " + saved.size() + " of " + filenames.size() + " files");
+            }
+            return saved;
+        }
+    }
 
+    /**
+     * Write a cached file to its destination, reversing the pipeline's transformations if one is given
+     * @return false if the cached copy could not be read
+     */
+    private static boolean restoreFromCache(DownloadCache cache, DownloadCache.NameEntry cached,
+                                            File destinationFile, TransferPipeline pipeline) {
+        try {
+            if (pipeline == null) {
+                cache.copyTo(cached.getRootHash(), destinationFile.toPath());
+            } else {
+                try (InputStream in = cache.open(cached.getRootHash());
+                     java.io.OutputStream out = java.nio.file.Files.newOutputStream(destinationFile.toPath())) {
+                    pipeline.decode(in, out);
+                }
+            }
             return true;
+        } catch (IOException e) {
+            System.err.println("Cached copy of " + destinationFile.getName() + " unusable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void verifyRootHash(String name, String local, String remote) throws IOException {
+        if (remote != null && !remote.equalsIgnoreCase(local)) {
+            throw new IOException("Integrity check failed for " + name
+                    + ": server tree hash " + remote + " does not match local " + local);
+        }
+    }
+
+    private static String joinHash(CompletableFuture<String> hash) throws IOException {
+        try {
+            return hash.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException
+                    ? ((UncheckedIOException) e.getCause()).getCause()
+                    : new IOException("Failed to hash file", e.getCause());
         }
     }
 
     /**
-     * Get a list of available files
+     * Subscribe to file changes pushed by the server, instead of polling
+     * {@link #listFiles}. The subscription reconnects by itself and starts with
+     * a reset event, after which the caller loads the full list once.
+     * @param listener Receives events on the subscription's thread
+     * @return Handle that ends the subscription when closed
+     */
+    public FileWatch watchFiles(FileEventListener listener) {
+        // A long-lived stream must not hold a concurrency slot or a bandwidth share,
+        // and its read timeout only has to outlast the server's keepalive comments
+        OkHttpClient.Builder streamClient = client.newBuilder()
+                .readTimeout(EVENT_STREAM_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        streamClient.interceptors().clear();
+        return new FileEventStream(streamClient.build(), baseUrl + "/api/files/events", listener).start();
+    }
+
+    /**
+     * Get a list of available files, fetched from the server page by page
      * @param userId The user ID (optional)
      * @return List of file information
      */
     public FileListResponse listFiles(String userId) throws IOException {
-        HttpUrl url = HttpUrl.parse(baseUrl + "/api/files/list")
+        List<FileListResponse.FileInfo> files = new ArrayList<>();
+        String cursor = null;
+        do {
+            FileListResponse page = listFiles(userId, null, cursor, LIST_PAGE_SIZE);
+            if (page.getFiles() != null) {
+                files.addAll(page.getFiles());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return new FileListResponse(files);
+    }
+
+    /**
+     * Get one page of available files in filename order
+     * @param userId The user ID (optional)
+     * @param owner Only list files uploaded by this user, or null for all files
+     * @param cursor The previous page's next cursor, or null for the first page
+     * @param limit Maximum number of files on the page
+     * @return The page, with the cursor for the next one
+     */
+    public FileListResponse listFiles(String userId, String owner, String cursor, int limit) throws IOException {
+        HttpUrl.Builder url = HttpUrl.parse(baseUrl + "/api/files/list")
                 .newBuilder()
                 .addQueryParameter("user_id", userId)
-                .build();
+                .addQueryParameter("limit", String.valueOf(limit));
+        if (owner != null) {
+            url.addQueryParameter("owner", owner);
+        }
+        if (cursor != null) {
+            url.addQueryParameter("cursor", cursor);
+        }
 
         Request request = new Request.Builder()
-                .url(url)
+                .url(url.build())
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
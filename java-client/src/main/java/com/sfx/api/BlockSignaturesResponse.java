@@ -0,0 +1,131 @@
+package com.sfx.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Response model for the block signatures of a stored file, used for delta uploads
+ */
+public class BlockSignaturesResponse {
+    @JsonProperty("filename")
+    private String filename;
+
+    @JsonProperty("block_size")
+    private int blockSize;
+
+    @JsonProperty("size_bytes")
+    private long sizeBytes;
+
+    @JsonProperty("root_hash")
+    private String rootHash;
+
+    @JsonProperty("blocks")
+    private List<Block> blocks;
+
+    // Default constructor for Jackson
+    public BlockSignaturesResponse() {}
+
+    public BlockSignaturesResponse(String filename, int blockSize, long sizeBytes, List<Block> blocks) {
+        this.filename = filename;
+        this.blockSize = blockSize;
+        this.sizeBytes = sizeBytes;
+        this.blocks = blocks;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    /**
+     * @return Hex encoded tree hash of the version the blocks describe
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public void setRootHash(String rootHash) {
+        this.rootHash = rootHash;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public void setBlocks(List<Block> blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Signature of one block of the stored file
+     */
+    public static class Block {
+        @JsonProperty("index")
+        private int index;
+
+        @JsonProperty("weak")
+        private int weak;
+
+        @JsonProperty("strong")
+        private String strong;
+
+        // Default constructor for Jackson
+        public Block() {}
+
+        public Block(int index, int weak, String strong) {
+            this.index = index;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return Adler-32 checksum of the block
+         */
+        public int getWeak() {
+            return weak;
+        }
+
+        public void setWeak(int weak) {
+            this.weak = weak;
+        }
+
+        /**
+         * @return Hex encoded SHA-256 hash of the block
+         */
+        public String getStrong() {
+            return strong;
+        }
+
+        public void setStrong(String strong) {
+            this.strong = strong;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sfx.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Response model for uploading a bundle of small files
+ */
+public class BundleUploadResponse {
+    @JsonProperty("files")
+    private List<FileUploadResponse> files;
+
+    @JsonProperty("message")
+    private String message;
+
+    // Default constructor for Jackson
+    public BundleUploadResponse() {}
+
+    public BundleUploadResponse(List<FileUploadResponse> files, String message) {
+        this.files = files;
+        this.message = message;
+    }
+
+    /**
+     * @return One response per bundled file, in the order they were sent
+     */
+    public List<FileUploadResponse> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<FileUploadResponse> files) {
+        this.files = files;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
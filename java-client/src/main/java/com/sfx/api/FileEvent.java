@@ -0,0 +1,63 @@
+package com.sfx.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Change to the server's files, pushed over the event stream
+ */
+public class FileEvent {
+    public static final String FILE_ADDED = "file_added";
+    public static final String FILE_UPDATED = "file_updated";
+    public static final String FILE_REMOVED = "file_removed";
+    /** The client may have missed changes and should reload the full file list */
+    public static final String RESET = "reset";
+
+    @JsonProperty("sequence")
+    private long sequence;
+
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("file")
+    private FileListResponse.FileInfo file;
+
+    // Default constructor for Jackson
+    public FileEvent() {}
+
+    public FileEvent(long sequence, String type, FileListResponse.FileInfo file) {
+        this.sequence = sequence;
+        this.type = type;
+        this.file = file;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return The file after the change; only the name is set for removals, and nothing for resets
+     */
+    public FileListResponse.FileInfo getFile() {
+        return file;
+    }
+
+    public void setFile(FileListResponse.FileInfo file) {
+        this.file = file;
+    }
+
+    public boolean isReset() {
+        return RESET.equals(type);
+    }
+}
@@ -11,6 +11,9 @@ public class FileListResponse {
     @JsonProperty("files")
     private List<FileInfo> files;
 
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
     // Default constructor for Jackson
     public FileListResponse() {}
 
@@ -18,6 +21,11 @@ public class FileListResponse {
         this.files = files;
     }
 
+    public FileListResponse(List<FileInfo> files, String nextCursor) {
+        this.files = files;
+        this.nextCursor = nextCursor;
+    }
+
     public List<FileInfo> getFiles() {
         return files;
     }
@@ -26,6 +34,17 @@ public class FileListResponse {
         this.files = files;
     }
 
+    /**
+     * @return Cursor for the next page of a paged listing, or null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     /**
      * Information about a file on the server
      */
@@ -39,6 +58,9 @@ public class FileListResponse {
         @JsonProperty("created_at")
         private String createdAt;
 
+        @JsonProperty("root_hash")
+        private String rootHash;
+
         // Default constructor for Jackson
         public FileInfo() {}
 
@@ -71,5 +93,16 @@ public class FileListResponse {
         public void setCreatedAt(String createdAt) {
             this.createdAt = createdAt;
         }
+
+        /**
+         * @return Hex encoded tree hash of the stored content, or null if the server has none yet
+         */
+        public String getRootHash() {
+            return rootHash;
+        }
+
+        public void setRootHash(String rootHash) {
+            this.rootHash = rootHash;
+        }
     }
 }
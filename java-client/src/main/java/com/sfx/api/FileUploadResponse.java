@@ -15,6 +15,12 @@ public class FileUploadResponse {
     @JsonProperty("message")
     private String message;
 
+    @JsonProperty("size_bytes")
+    private long sizeBytes;
+
+    @JsonProperty("root_hash")
+    private String rootHash;
+
     // Default constructor for Jackson
     public FileUploadResponse() {}
 
@@ -47,4 +53,23 @@ public class FileUploadResponse {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    /**
+     * @return Hex encoded tree hash of the stored content, as computed by the server
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    public void setRootHash(String rootHash) {
+        this.rootHash = rootHash;
+    }
 }
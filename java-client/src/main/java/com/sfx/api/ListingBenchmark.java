@@ -0,0 +1,57 @@
+package com.sfx.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures file listing latency against a running server: the full listing
+ * fetched page by page, and single pages from the start, from the middle and
+ * for one owner. Fill the server's catalog first, for example with
+ * {@code python seed_catalog.py 100000} in the server directory.
+ *
+ * Usage: {@code ListingBenchmark [serverUrl] [iterations] [owner]}
+ */
+public class ListingBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String serverUrl = args.length > 0 ? args[0] : "http://localhost:8000";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String owner = args.length > 2 ? args[2] : "bench-user-0";
+        ApiClient apiClient = new ApiClient(serverUrl);
+
+        // Warm up connections, the JIT and the server's page cache
+        List<FileListResponse.FileInfo> files = apiClient.listFiles("bench").getFiles();
+        String middle = files.isEmpty() ? null : files.get(files.size() / 2).getFilename();
+        System.out.printf("%d files on %s%n%n", files.size(), serverUrl);
+
+        System.out.printf("%-22s %10s %10s %10s%n", "Request", "p50 ms", "p99 ms", "Files");
+        int fullRuns = Math.max(1, Math.min(iterations, 2_000_000 / Math.max(files.size(), 1)));
+        measure("full listing", fullRuns, () -> apiClient.listFiles("bench").getFiles().size());
+        measure("first page", iterations, () -> apiClient.listFiles("bench", null, null, PAGE_SIZE).getFiles().size());
+        measure("middle page", iterations, () -> apiClient.listFiles("bench", null, middle, PAGE_SIZE).getFiles().size());
+        measure("owner page", iterations, () -> apiClient.listFiles("bench", owner, null, PAGE_SIZE).getFiles().size());
+    }
+
+    private static void measure(String name, int iterations, Listing listing) throws Exception {
+        long[] nanos = new long[iterations];
+        int count = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            count = listing.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-22s %10.2f %10.2f %10d%n", name, percentile(nanos, 0.50) / 1e6,
+                percentile(nanos, 0.99) / 1e6, count);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    @FunctionalInterface
+    private interface Listing {
+        int run() throws Exception;
+    }
+}
@@ -0,0 +1,145 @@
+package com.sfx.bundle;
+
+import com.sfx.crypto.TreeHash;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the entries of a bundle streamed by the server, in the format
+ * described in {@link BundleRequestBody}. Each entry's content is read from
+ * {@link #content()} before moving to the next entry; unread content is skipped.
+ */
+public class BundleReader {
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    private final DataInputStream in;
+    private long remaining;
+
+    /**
+     * @param in Bundle stream, positioned at its start
+     * @throws IOException if the stream is not a bundle of a supported version
+     */
+    public BundleReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        byte[] magic = new byte[BundleRequestBody.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, BundleRequestBody.MAGIC)) {
+            throw new IOException("Not a bundle");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != BundleRequestBody.VERSION) {
+            throw new IOException("Unsupported bundle version " + version);
+        }
+    }
+
+    /**
+     * @return The next entry, or null at the end of the bundle
+     */
+    public Entry next() throws IOException {
+        skipContent();
+        byte op = in.readByte();
+        if (op == BundleRequestBody.OP_END) {
+            return null;
+        }
+        if (op != BundleRequestBody.OP_FILE) {
+            throw new IOException("Unknown bundle entry " + op);
+        }
+
+        int nameLength = in.readInt();
+        if (nameLength <= 0 || nameLength > MAX_NAME_LENGTH) {
+            throw new IOException("Invalid bundle entry name length " + nameLength);
+        }
+        byte[] name = new byte[nameLength];
+        in.readFully(name);
+        long size = in.readLong();
+        if (size < 0) {
+            throw new IOException("Invalid bundle entry size " + size);
+        }
+        byte[] hash = new byte[BundleRequestBody.HASH_SIZE];
+        in.readFully(hash);
+
+        remaining = size;
+        return new Entry(new String(name, StandardCharsets.UTF_8), size, TreeHash.toHex(hash));
+    }
+
+    /**
+     * @return The content of the current entry, ending with it
+     */
+    public InputStream content() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int b = in.read();
+                if (b == -1) {
+                    throw new EOFException("Bundle ended inside an entry");
+                }
+                remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Bundle ended inside an entry");
+                }
+                remaining -= read;
+                return read;
+            }
+        };
+    }
+
+    private void skipContent() throws IOException {
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Bundle ended inside an entry");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Header of one bundled file
+     */
+    public static class Entry {
+        private final String name;
+        private final long size;
+        private final String rootHash;
+
+        public Entry(String name, long size, String rootHash) {
+            this.name = name;
+            this.size = size;
+            this.rootHash = rootHash;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Hex encoded tree hash of the content
+         */
+        public String getRootHash() {
+            return rootHash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sfx.bundle;
+
+import com.sfx.crypto.TreeHash;
+import com.sfx.io.BufferPool;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request body that packs many small files into one bundle, so uploading them
+ * costs one request instead of one each. Every entry carries the tree hash of
+ * its content, which the server checks before storing anything.
+ *
+ * Bundle format (big-endian): magic {@code SFXB}, version byte, then entries
+ * until {@link #OP_END}: {@link #OP_FILE}, name length (int), UTF-8 name,
+ * content size (long), 32-byte tree hash of the content, then the content.
+ * Files must not be larger than one tree hash leaf, so each is read and
+ * hashed in one piece.
+ */
+public class BundleRequestBody extends RequestBody {
+    public static final byte[] MAGIC = {'S', 'F', 'X', 'B'};
+    public static final int VERSION = 1;
+    public static final byte OP_FILE = 'F';
+    public static final byte OP_END = 'E';
+    public static final int HASH_SIZE = 32;
+    public static final long MAX_FILE_SIZE = TreeHash.LEAF_SIZE;
+    public static final MediaType MEDIA_TYPE = MediaType.get("application/x-sfx-bundle");
+
+    private final List<File> files;
+    private final BufferPool pool;
+    private volatile List<String> rootHashes;
+
+    public BundleRequestBody(List<File> files) {
+        this(files, BufferPool.shared());
+    }
+
+    public BundleRequestBody(List<File> files, BufferPool pool) {
+        for (File file : files) {
+            if (file.length() > MAX_FILE_SIZE) {
+                throw new IllegalArgumentException(file + " is too large for a bundle");
+            }
+        }
+        this.files = files;
+        this.pool = pool;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+        long length = MAGIC.length + 1 + 1;
+        for (File file : files) {
+            length += 1 + 4 + nameBytes(file).length + 8 + HASH_SIZE + file.length();
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        List<String> hashes = new ArrayList<>(files.size());
+        sink.write(MAGIC);
+        sink.writeByte(VERSION);
+        for (File file : files) {
+            int size = (int) file.length();
+            ByteBuffer content = pool.acquire(size);
+            try {
+                readFully(file, content);
+                byte[] hash = TreeHash.leaf(content.duplicate());
+                hashes.add(TreeHash.toHex(hash));
+
+                byte[] name = nameBytes(file);
+                sink.writeByte(OP_FILE);
+                sink.writeInt(name.length);
+                sink.write(name);
+                sink.writeLong(size);
+                sink.write(hash);
+                sink.write(content.array(), 0, size);
+            } finally {
+                pool.release(content);
+            }
+        }
+        sink.writeByte(OP_END);
+        rootHashes = hashes;
+    }
+
+    /**
+     * @return Hex encoded tree hashes of the files sent by the last complete write, in order, or null
+     */
+    public List<String> getRootHashes() {
+        return rootHashes;
+    }
+
+    private static byte[] nameBytes(File file) {
+        return file.getName().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(File file, ByteBuffer content) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The declared length was taken earlier; a file that changed since would corrupt the bundle
+            if (channel.size() != content.remaining()) {
+                throw new IOException(file + " changed while it was being sent");
+            }
+            while (content.hasRemaining()) {
+                if (channel.read(content) == -1) {
+                    throw new IOException(file + " changed while it was being sent");
+                }
+            }
+            content.flip();
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package com.sfx.cache;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.crypto.AESEncryption;
+import com.sfx.crypto.KeyDerivation;
+import com.sfx.io.BufferPool;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * On-disk cache of downloaded files, so a file that has not changed on the
+ * server is restored from local disk instead of fetched again.
+ *
+ * Content is stored once per tree hash, however many server files or users
+ * refer to it. A download's identity (server, user and file name) maps to the
+ * tree hash and ETag it had; the client sends that ETag as If-None-Match and
+ * restores the content on a 304. Entries are evicted least recently used
+ * first once the cache exceeds its size limit.
+ *
+ * Content is encrypted at rest with AES-GCM in 1 MiB records under a key
+ * derived per entry from the cache's master key. Each record is bound to the
+ * entry, its index and whether it is the last one, so records cannot be
+ * reordered, swapped between entries or truncated unnoticed. Hits are read
+ * through memory mappings and decrypted straight from the mapped pages.
+ */
+public class DownloadCache {
+    public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int RECORD_SIZE = AESEncryption.encryptedLength(CHUNK_SIZE);
+    private static final int RECORD_OVERHEAD = RECORD_SIZE - CHUNK_SIZE;
+    // Records mapped at once when reading; a window never splits a record
+    private static final int WINDOW_RECORDS = 64;
+    private static final String INDEX_FILENAME = "index.json";
+    private static final String CONTENT_SUFFIX = ".enc";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEY_INFO = "sfx-download-cache-v1";
+
+    private static DownloadCache shared;
+    private static boolean sharedOpened;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final byte[] masterKey;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Content by tree hash, least recently used first
+    private final LinkedHashMap<String, ContentEntry> contents = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, NameEntry> names = new HashMap<>();
+    private long storedBytes;
+
+    /**
+     * Open a cache directory, creating it if needed
+     * @param directory Directory holding the encrypted content and the index
+     * @param maxBytes Size limit of the stored content
+     * @param masterKey 32-byte key all content keys are derived from
+     */
+    public DownloadCache(Path directory, long maxBytes, byte[] masterKey) throws IOException {
+        if (masterKey.length != 32) {
+            throw new IllegalArgumentException("Master key must be 32 bytes");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.masterKey = masterKey.clone();
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Open a cache directory with the master key kept in a file beside it,
+     * generating the key on first use
+     */
+    public static DownloadCache open(Path directory, long maxBytes) throws IOException {
+        Path keyFile = directory.resolveSibling(directory.getFileName() + ".key");
+        return new DownloadCache(directory, maxBytes, loadOrCreateKey(keyFile));
+    }
+
+    /**
+     * @return The cache in {@code ~/.sfx/cache}, or null if it is disabled or cannot be opened.
+     *         The system properties {@code sfx.cache.dir} and {@code sfx.cache.maxBytes} override
+     *         the location and the 2 GB limit; a limit of 0 disables the cache.
+     */
+    public static synchronized DownloadCache shared() {
+        if (!sharedOpened) {
+            sharedOpened = true;
+            long maxBytes = Long.getLong("sfx.cache.maxBytes", DEFAULT_MAX_BYTES);
+            Path directory = Path.of(System.getProperty("sfx.cache.dir",
+                    Path.of(System.getProperty("user.home"), ".sfx", "cache").toString()));
+            if (maxBytes > 0) {
+                try {
+                    shared = open(directory, maxBytes);
+                } catch (IOException e) {
+                    System.err.println("Download cache disabled, cannot open " + directory + ": " + e.getMessage());
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @return Key identifying one file as seen by one user of one server
+     */
+    public static String identity(String server, String userId, String filename) {
+        return server + "|" + userId + "|" + filename;
+    }
+
+    /**
+     * @return The cached version of a download, or null if there is none
+     */
+    public synchronized NameEntry lookup(String identity) {
+        NameEntry name = names.get(identity);
+        if (name == null || !contents.containsKey(name.getRootHash())) {
+            return null;
+        }
+        return name;
+    }
+
+    /**
+     * Forget a download's cached version, e.g. after it failed to restore
+     */
+    public synchronized void invalidate(String identity) throws IOException {
+        if (names.remove(identity) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Restore cached content into a file, decrypting it from a memory mapping
+     * @return Number of bytes written
+     */
+    public long copyTo(String rootHash, Path destination) throws IOException {
+        touch(rootHash);
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer chunk = pool.acquireDirect(CHUNK_SIZE);
+        try (RecordReader reader = new RecordReader(rootHash);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            while (reader.next(chunk)) {
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk);
+                }
+            }
+            return written;
+        } finally {
+            pool.release(chunk);
+        }
+    }
+
+    /**
+     * @return A stream of cached content, for callers that process it further
+     */
+    public InputStream open(String rootHash) throws IOException {
+        touch(rootHash);
+        RecordReader reader = new RecordReader(rootHash);
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer chunk = pool.acquire(CHUNK_SIZE);
+        chunk.limit(0);
+
+        return new InputStream() {
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (!chunk.hasRemaining() && !reader.next(chunk)) {
+                    return -1;
+                }
+                int count = Math.min(len, chunk.remaining());
+                chunk.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    pool.release(chunk);
+                    reader.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Start caching a download as it streams
+     * @param rootHash Tree hash of the content, which addresses it in the cache
+     * @param expectedLength Content length if known, or -1
+     * @return A writer, or null if the content would not fit in the cache
+     */
+    public Writer newWriter(String rootHash, long expectedLength) throws IOException {
+        if (expectedLength > maxBytes) {
+            return null;
+        }
+        return new Writer(rootHash);
+    }
+
+    public synchronized int getEntryCount() {
+        return contents.size();
+    }
+
+    /**
+     * @return Bytes the encrypted content takes on disk
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    private synchronized void touch(String rootHash) throws IOException {
+        if (contents.get(rootHash) == null) {
+            throw new IOException("Content " + rootHash + " is not cached");
+        }
+    }
+
+    private synchronized void install(String identity, String rootHash, String etag, Path temp, long size)
+            throws IOException {
+        Path content = contentPath(rootHash);
+        if (contents.containsKey(rootHash)) {
+            // Someone cached the same content meanwhile
+            Files.deleteIfExists(temp);
+        } else {
+            Files.move(temp, content, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ContentEntry entry = new ContentEntry(rootHash, size, Files.size(content));
+            contents.put(rootHash, entry);
+            storedBytes += entry.getStoredBytes();
+        }
+        names.put(identity, new NameEntry(rootHash, etag));
+        evict();
+        save();
+    }
+
+    private void evict() throws IOException {
+        Iterator<ContentEntry> eldest = contents.values().iterator();
+        while (storedBytes > maxBytes && eldest.hasNext()) {
+            ContentEntry entry = eldest.next();
+            eldest.remove();
+            storedBytes -= entry.getStoredBytes();
+            // Readers holding a mapping keep the data until they finish
+            Files.deleteIfExists(contentPath(entry.getRootHash()));
+        }
+        names.values().removeIf(name -> !contents.containsKey(name.getRootHash()));
+    }
+
+    private void load() throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILENAME);
+        if (Files.exists(indexFile)) {
+            Index index = objectMapper.readValue(indexFile.toFile(), Index.class);
+            for (ContentEntry entry : index.contents) {
+                if (Files.exists(contentPath(entry.getRootHash()))) {
+                    contents.put(entry.getRootHash(), entry);
+                    storedBytes += entry.getStoredBytes();
+                }
+            }
+            names.putAll(index.names);
+            names.values().removeIf(name -> !contents.containsKey(name.getRootHash()));
+        }
+
+        // Drop files of interrupted writes and content the index no longer knows
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean indexed = name.endsWith(CONTENT_SUFFIX)
+                        && contents.containsKey(name.substring(0, name.length() - CONTENT_SUFFIX.length()));
+                if (!indexed && !name.equals(INDEX_FILENAME)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Index index = new Index();
+        index.contents = new ArrayList<>(contents.values());
+        index.names = names;
+
+        Path tempFile = directory.resolve(INDEX_FILENAME + TEMP_SUFFIX);
+        objectMapper.writeValue(tempFile.toFile(), index);
+        Files.move(tempFile, directory.resolve(INDEX_FILENAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path contentPath(String rootHash) {
+        if (!rootHash.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("Not a tree hash: " + rootHash);
+        }
+        return directory.resolve(rootHash.toLowerCase() + CONTENT_SUFFIX);
+    }
+
+    private byte[] contentKey(String rootHash) throws IOException {
+        try {
+            return KeyDerivation.hkdf(masterKey, rootHash.toLowerCase().getBytes(StandardCharsets.US_ASCII),
+                    KEY_INFO, 32);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to derive cache key", e);
+        }
+    }
+
+    /**
+     * @return Additional data binding a record to its entry, position and finality
+     */
+    private static byte[] recordAad(String rootHash, long index, boolean last) {
+        byte[] hash = rootHash.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(hash.length + 9).put(hash).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    private static byte[] loadOrCreateKey(Path keyFile) throws IOException {
+        if (Files.exists(keyFile)) {
+            byte[] key = Files.readAllBytes(keyFile);
+            if (key.length != 32) {
+                throw new IOException("Invalid cache key file: " + keyFile);
+            }
+            return key;
+        }
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        Files.createDirectories(keyFile.toAbsolutePath().getParent());
+        try {
+            try {
+                Files.createFile(keyFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createFile(keyFile);
+            }
+            Files.write(keyFile, key);
+            return key;
+        } catch (FileAlreadyExistsException e) {
+            // Another process created it first
+            return loadOrCreateKey(keyFile);
+        }
+    }
+
+    /**
+     * Stream that encrypts a download into a temporary file, which becomes a
+     * cache entry on {@link #commit}. Closing an uncommitted writer discards it.
+     */
+    public class Writer extends OutputStream {
+        private final String rootHash;
+        private final byte[] key;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteBuffer plain;
+        private final ByteBuffer record;
+        private long recordIndex;
+        private long size;
+        private boolean finished;
+
+        private Writer(String rootHash) throws IOException {
+            this.rootHash = rootHash;
+            this.key = contentKey(rootHash);
+            this.temp = directory.resolve(UUID.randomUUID() + TEMP_SUFFIX);
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            BufferPool pool = BufferPool.shared();
+            this.plain = pool.acquireDirect(CHUNK_SIZE);
+            this.record = pool.acquireDirect(RECORD_SIZE);
+        }
+
+        /**
+         * Wrap a stream so everything read from it is also cached. Failures to
+         * write the cache discard the entry without failing the download.
+         */
+        public InputStream capturing(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int value = super.read();
+                    if (value >= 0) {
+                        capture(new byte[] {(byte) value}, 0, 1);
+                    }
+                    return value;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        capture(b, off, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (finished) {
+                return;
+            }
+            try {
+                write(b, off, len);
+            } catch (IOException e) {
+                System.err.println("Not caching " + rootHash + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("Cache writer is closed");
+            }
+            size += len;
+            if (size > maxBytes) {
+                throw new IOException("Content exceeds the cache size limit");
+            }
+            while (len > 0) {
+                // A full chunk is only sealed once more data arrives, so the last record is never empty
+                if (!plain.hasRemaining()) {
+                    writeRecord(false);
+                }
+                int count = Math.min(len, plain.remaining());
+                plain.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void writeRecord(boolean last) throws IOException {
+            plain.flip();
+            record.clear();
+            try {
+                AESEncryption.encrypt(plain, record, key, recordAad(rootHash, recordIndex++, last));
+            } catch (Exception e) {
+                throw new IOException("Failed to encrypt cache record", e);
+            }
+            record.flip();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            plain.clear();
+        }
+
+        /**
+         * Seal the content and make it available under the download's identity
+         * @param identity Value from {@link DownloadCache#identity}
+         * @param etag Validator to send when asking whether the content changed
+         */
+        public void commit(String identity, String etag) throws IOException {
+            if (finished) {
+                throw new IOException("Cache writer is closed");
+            }
+            try {
+                writeRecord(true);
+                channel.close();
+                finish();
+                install(identity, rootHash, etag, temp, size);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Discard the entry unless it was committed
+         */
+        @Override
+        public void close() {
+            if (!finished) {
+                finish();
+            }
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // Left for the next load to clean up
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            BufferPool pool = BufferPool.shared();
+            pool.release(plain);
+            pool.release(record);
+        }
+    }
+
+    /**
+     * Reads the records of a cached entry in order through memory mappings
+     */
+    private class RecordReader implements AutoCloseable {
+        private final String rootHash;
+        private final byte[] key;
+        private final FileChannel channel;
+        private final long size;
+        private final long records;
+        private long index;
+        private long windowStart = -1;
+        private MappedByteBuffer window;
+
+        RecordReader(String rootHash) throws IOException {
+            this.rootHash = rootHash;
+            this.key = contentKey(rootHash);
+            this.channel = FileChannel.open(contentPath(rootHash), StandardOpenOption.READ);
+            this.size = channel.size();
+            this.records = Math.max(1, (size + RECORD_SIZE - 1) / RECORD_SIZE);
+            if (size < RECORD_OVERHEAD) {
+                channel.close();
+                throw new IOException("Cached content " + rootHash + " is truncated");
+            }
+        }
+
+        /**
+         * Decrypt the next record into the buffer, leaving it ready to read
+         * @return false once every record has been read
+         */
+        boolean next(ByteBuffer output) throws IOException {
+            if (index >= records) {
+                return false;
+            }
+            long position = index * RECORD_SIZE;
+            long start = (index / WINDOW_RECORDS) * WINDOW_RECORDS * RECORD_SIZE;
+            if (start != windowStart) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min((long) WINDOW_RECORDS * RECORD_SIZE, size - start));
+                windowStart = start;
+            }
+
+            int length = (int) Math.min(RECORD_SIZE, size - position);
+            ByteBuffer encrypted = window.slice((int) (position - start), length);
+            output.clear();
+            try {
+                AESEncryption.decrypt(encrypted, output, key, recordAad(rootHash, index, index == records - 1));
+            } catch (Exception e) {
+                throw new IOException("Cached content " + rootHash + " failed authentication", e);
+            }
+            index++;
+            output.flip();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stored content, addressed by its tree hash
+     */
+    public static class ContentEntry {
+        @JsonProperty("root_hash")
+        private String rootHash;
+
+        @JsonProperty("size_bytes")
+        private long sizeBytes;
+
+        @JsonProperty("stored_bytes")
+        private long storedBytes;
+
+        // Default constructor for Jackson
+        public ContentEntry() {}
+
+        public ContentEntry(String rootHash, long sizeBytes, long storedBytes) {
+            this.rootHash = rootHash;
+            this.sizeBytes = sizeBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        public String getRootHash() {
+            return rootHash;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+    }
+
+    /**
+     * The version of a download the cache holds
+     */
+    public static class NameEntry {
+        @JsonProperty("root_hash")
+        private String rootHash;
+
+        @JsonProperty("etag")
+        private String etag;
+
+        // Default constructor for Jackson
+        public NameEntry() {}
+
+        public NameEntry(String rootHash, String etag) {
+            this.rootHash = rootHash;
+            this.etag = etag;
+        }
+
+        public String getRootHash() {
+            return rootHash;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * Persistent form of the cache, with content in least recently used order
+     */
+    static class Index {
+        @JsonProperty("contents")
+        List<ContentEntry> contents = new ArrayList<>();
+
+        @JsonProperty("names")
+        Map<String, NameEntry> names = new HashMap<>();
+    }
+}
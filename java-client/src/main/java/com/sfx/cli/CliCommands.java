@@ -0,0 +1,481 @@
+package com.sfx.cli;
+
+import com.sfx.api.ApiClient;
+import com.sfx.api.FileEvent;
+import com.sfx.api.FileListResponse;
+import com.sfx.api.FileUploadResponse;
+import com.sfx.session.SessionKey;
+import com.sfx.sync.SyncEngine;
+import com.sfx.transfer.CompressionTransformer;
+import com.sfx.transfer.TransferPipeline;
+import com.sfx.transfer.TransferScheduler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the headless client commands. Every command returns one
+ * result entry per file so the caller can render it as text or JSON.
+ */
+public class CliCommands {
+    /**
+     * Name standard input is stored under by {@code put -} without {@code --name}
+     */
+    public static final String STDIN_NAME = "stdin";
+
+    private static final long WATCH_QUIET_MILLIS = 1000;
+
+    private final CliSession session;
+    private final CliOptions options;
+    private final Path workingDir;
+    private final InputStream stdin;
+
+    public CliCommands(CliSession session, CliOptions options, Path workingDir) {
+        this(session, options, workingDir, null);
+    }
+
+    /**
+     * @param stdin Standard input for {@code put -}, or null if there is none, as for daemon jobs
+     */
+    public CliCommands(CliSession session, CliOptions options, Path workingDir, InputStream stdin) {
+        this.session = session;
+        this.options = options;
+        this.workingDir = workingDir;
+        this.stdin = stdin;
+    }
+
+    /**
+     * Run the command named in the options
+     * @return One result entry per processed file
+     */
+    public List<Map<String, Object>> execute() throws IOException {
+        String command = options.getCommand();
+        if (command == null) {
+            throw new IllegalArgumentException("No command given");
+        }
+        if (options.getRateLimit() != null) {
+            // A daemon session keeps the limit for later jobs until one sets another
+            session.getApiClient().getScheduler().setGlobalRate(options.getRateLimit());
+        }
+
+        switch (command) {
+            case "put":
+                return put(options.getArguments());
+            case "get":
+                return get(options.getArguments());
+            case "ls":
+                return ls(options.getArguments());
+            case "sync":
+                return sync(options.getArguments());
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Upload every local file matching one of the glob patterns, or standard input for {@code -}
+     */
+    public List<Map<String, Object>> put(List<String> patterns) throws IOException {
+        if (patterns.isEmpty()) {
+            throw new IllegalArgumentException("put requires at least one file pattern");
+        }
+        if (patterns.contains("-")) {
+            if (patterns.size() != 1) {
+                throw new IllegalArgumentException("put - cannot be combined with file patterns");
+            }
+            return putStdin();
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (String pattern : patterns) {
+            files.addAll(expandLocalGlob(workingDir, pattern));
+        }
+        return upload(files);
+    }
+
+    /**
+     * Upload standard input while it is still being written, without a temporary
+     * file, encrypted with the user's session key
+     */
+    private List<Map<String, Object>> putStdin() throws IOException {
+        if (stdin == null) {
+            throw new IllegalArgumentException("put - needs standard input, which daemon jobs do not have");
+        }
+
+        String name = options.getName() != null ? options.getName() : STDIN_NAME;
+        ApiClient apiClient = session.getApiClient();
+        SessionKey sessionKey = session.getSessionKey();
+        Map<String, Object> result = result("put", name);
+        FileUploadResponse response = apiClient.getScheduler().run(TransferScheduler.Priority.BULK,
+                transfer -> apiClient.uploadStream(stdin, name, session.getUserId(), transferPipeline(), sessionKey));
+        result.put("stored_filename", response.getStoredFilename());
+        result.put("size_bytes", response.getSizeBytes());
+        result.put("root_hash", response.getRootHash());
+        return List.of(result);
+    }
+
+    /**
+     * Download every server file whose name matches the glob pattern
+     */
+    public List<Map<String, Object>> get(List<String> patterns) throws IOException {
+        if (patterns.size() != 1) {
+            throw new IllegalArgumentException("get requires exactly one file pattern");
+        }
+
+        Path destination = workingDir.resolve(options.getDestination()).normalize();
+        Files.createDirectories(destination);
+
+        // Names come from the server, so none may lead outside the destination
+        List<FileListResponse.FileInfo> matches = listMatching(patterns.get(0));
+        for (FileListResponse.FileInfo fileInfo : matches) {
+            downloadTarget(destination, fileInfo.getFilename());
+        }
+        ApiClient apiClient = session.getApiClient();
+
+        // Compressed files must be decoded one by one; the rest can come back in bundles
+        List<List<FileListResponse.FileInfo>> batches = options.isCompress()
+                ? singletons(matches)
+                : ApiClient.bundleBatches(matches, FileListResponse.FileInfo::getSizeBytes);
+
+        return runParallelBatches(batches, FileListResponse.FileInfo::getFilename, batch -> {
+            // Someone is waiting for these files, so they go ahead of background uploads
+            if (batch.size() == 1) {
+                FileListResponse.FileInfo fileInfo = batch.get(0);
+                apiClient.getScheduler().run(TransferScheduler.Priority.INTERACTIVE, transfer -> apiClient.downloadFile(
+                        fileInfo.getFilename(), downloadTarget(destination, fileInfo.getFilename()).toFile(),
+                        session.getUserId(), transferPipeline()));
+            } else {
+                List<String> filenames = batch.stream()
+                        .map(FileListResponse.FileInfo::getFilename)
+                        .collect(Collectors.toList());
+                apiClient.getScheduler().run(TransferScheduler.Priority.INTERACTIVE, transfer -> apiClient.downloadFiles(
+                        filenames, destination.toFile(), session.getUserId()));
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (FileListResponse.FileInfo fileInfo : batch) {
+                Path target = downloadTarget(destination, fileInfo.getFilename());
+                Map<String, Object> result = result("get", fileInfo.getFilename());
+                result.put("destination", target.toString());
+                result.put("size_bytes", Files.size(target));
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
+    /**
+     * List server files, optionally filtered by a glob pattern
+     */
+    public List<Map<String, Object>> ls(List<String> patterns) throws IOException {
+        String pattern = patterns.isEmpty() ? "*" : patterns.get(0);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (FileListResponse.FileInfo fileInfo : listMatching(pattern)) {
+            Map<String, Object> result = result("ls", fileInfo.getFilename());
+            result.put("size_bytes", fileInfo.getSizeBytes());
+            result.put("created_at", fileInfo.getCreatedAt());
+            result.put("root_hash", fileInfo.getRootHash());
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * List server files, then keep reporting changes to matching files as the
+     * server pushes them. The listing is repeated whenever the server signals
+     * that changes may have been missed. Only returns when interrupted.
+     * @param patterns Optional glob pattern
+     * @param onChange Receives the full listing, then one entry per change
+     */
+    public void watchLs(List<String> patterns, Consumer<List<Map<String, Object>>> onChange) throws IOException {
+        String pattern = patterns.isEmpty() ? "*" : patterns.get(0);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        BlockingQueue<FileEvent> events = new LinkedBlockingQueue<>();
+
+        try (Closeable watch = session.getApiClient().watchFiles(events::add)) {
+            while (true) {
+                FileEvent event = events.take();
+                if (event.isReset()) {
+                    onChange.accept(ls(patterns));
+                } else if (matcher.matches(Path.of(event.getFile().getFilename()))) {
+                    Map<String, Object> result = result("watch", event.getFile().getFilename());
+                    result.put("event", event.getType());
+                    result.put("size_bytes", event.getFile().getSizeBytes());
+                    result.put("root_hash", event.getFile().getRootHash());
+                    onChange.accept(List.of(result));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Upload the new and changed files below a local directory
+     * @param arguments Directory, optionally followed by a glob relative to it
+     */
+    public List<Map<String, Object>> sync(List<String> arguments) throws IOException {
+        try (SyncEngine engine = createSyncEngine(arguments)) {
+            return syncResults(engine.sync());
+        }
+    }
+
+    /**
+     * Synchronize a directory, then keep watching it and synchronize again
+     * whenever changes settle. Only returns when interrupted.
+     * @param arguments Directory, optionally followed by a glob relative to it
+     * @param onPass Receives the results of every pass
+     */
+    public void watchSync(List<String> arguments, Consumer<List<Map<String, Object>>> onPass) throws IOException {
+        try (SyncEngine engine = createSyncEngine(arguments)) {
+            engine.startWatching();
+            while (true) {
+                onPass.accept(syncResults(engine.sync()));
+                engine.awaitChanges(WATCH_QUIET_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private SyncEngine createSyncEngine(List<String> arguments) throws IOException {
+        if (arguments.isEmpty() || arguments.size() > 2) {
+            throw new IllegalArgumentException("sync requires a directory and an optional file pattern");
+        }
+
+        Path directory = workingDir.resolve(arguments.get(0)).normalize();
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+
+        String pattern = arguments.size() == 2 ? arguments.get(1) : "**";
+        return new SyncEngine(session.getApiClient(), session.getUserId(), directory, pattern,
+                options.getParallelism());
+    }
+
+    private static List<Map<String, Object>> syncResults(SyncEngine.SyncResult syncResult) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String path : syncResult.getUploaded()) {
+            results.add(result("sync", path));
+        }
+        for (Map.Entry<String, String> failure : syncResult.getFailed().entrySet()) {
+            Map<String, Object> result = result("sync", failure.getKey());
+            result.put("status", "error");
+            result.put("error", failure.getValue());
+            results.add(result);
+        }
+        return results;
+    }
+
+    private List<Map<String, Object>> upload(List<Path> files) throws IOException {
+        ApiClient apiClient = session.getApiClient();
+
+        // Compressed files go through the pipeline one by one; the rest can be sent in bundles
+        List<List<Path>> batches = options.isCompress()
+                ? singletons(files)
+                : ApiClient.bundleBatches(files, path -> path.toFile().length());
+
+        return runParallelBatches(batches, Path::toString, batch -> {
+            List<FileUploadResponse> responses;
+            if (batch.size() == 1) {
+                FileUploadResponse response = apiClient.getScheduler().run(TransferScheduler.Priority.BULK,
+                        transfer -> apiClient.uploadFile(batch.get(0).toFile(), session.getUserId(),
+                                transferPipeline()));
+                responses = List.of(response);
+            } else {
+                List<File> bundled = batch.stream().map(Path::toFile).collect(Collectors.toList());
+                responses = apiClient.getScheduler().run(TransferScheduler.Priority.BULK,
+                        transfer -> apiClient.uploadFiles(bundled, session.getUserId()));
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                Path path = batch.get(i);
+                Map<String, Object> result = result("put", path.toString());
+                result.put("stored_filename", responses.get(i).getStoredFilename());
+                result.put("size_bytes", Files.size(path));
+                result.put("root_hash", responses.get(i).getRootHash());
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
+    private static <T> List<List<T>> singletons(List<T> items) {
+        return items.stream().map(List::of).collect(Collectors.toList());
+    }
+
+    /**
+     * @return The pipeline selected by the options, or null to transfer files unchanged
+     */
+    private TransferPipeline transferPipeline() {
+        if (!options.isCompress()) {
+            return null;
+        }
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() / options.getParallelism());
+        return new TransferPipeline(TransferPipeline.DEFAULT_CHUNK_SIZE, workers, 2 * workers,
+                List.of(new CompressionTransformer()));
+    }
+
+    private List<FileListResponse.FileInfo> listMatching(String pattern) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        FileListResponse response = session.getApiClient().listFiles(session.getUserId());
+
+        List<FileListResponse.FileInfo> matches = new ArrayList<>();
+        if (response.getFiles() != null) {
+            for (FileListResponse.FileInfo fileInfo : response.getFiles()) {
+                if (matcher.matches(Path.of(fileInfo.getFilename()))) {
+                    matches.add(fileInfo);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Resolve where a server file is saved
+     * @param destination Normalized directory downloads are saved in
+     * @param filename Name from the server's listing
+     * @return Path of the file inside the destination
+     * @throws IOException If the name is absolute or leads outside the destination
+     */
+    public static Path downloadTarget(Path destination, String filename) throws IOException {
+        Path target = destination.resolve(filename).normalize();
+        if (!target.startsWith(destination) || target.equals(destination)) {
+            throw new IOException("Refusing to save " + filename + " outside " + destination);
+        }
+        return target;
+    }
+
+    /**
+     * Expand a glob pattern against the local file system. The leading path
+     * segments without wildcards select the directory to walk, the rest is
+     * matched against paths relative to it.
+     * @param workingDir Directory relative patterns are resolved against
+     * @param pattern File name, path or glob such as {@code *.csv} or {@code logs/**.gz}
+     * @return Matching regular files in sorted order
+     */
+    public static List<Path> expandLocalGlob(Path workingDir, String pattern) throws IOException {
+        Path patternPath = workingDir.resolve(pattern);
+        Path base = patternPath.getRoot() != null ? patternPath.getRoot() : workingDir;
+        int firstGlobSegment = -1;
+
+        for (int i = 0; i < patternPath.getNameCount(); i++) {
+            String segment = patternPath.getName(i).toString();
+            if (isGlob(segment)) {
+                firstGlobSegment = i;
+                break;
+            }
+            base = base.resolve(segment);
+        }
+
+        if (firstGlobSegment < 0) {
+            return Files.isRegularFile(patternPath) ? List.of(patternPath) : List.of();
+        }
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+
+        Path relativePattern = patternPath.subpath(firstGlobSegment, patternPath.getNameCount());
+        String glob = relativePattern.toString().replace('\\', '/');
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        int maxDepth = glob.contains("**") ? Integer.MAX_VALUE : relativePattern.getNameCount();
+        Path walkRoot = base;
+
+        try (Stream<Path> stream = Files.walk(walkRoot, maxDepth)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(walkRoot.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.contains("*") || segment.contains("?")
+                || segment.contains("[") || segment.contains("{");
+    }
+
+    private static Map<String, Object> result(String operation, String name) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("operation", operation);
+        result.put("name", name);
+        result.put("status", "ok");
+        return result;
+    }
+
+    /**
+     * An operation on a group of files that may fail with an I/O error,
+     * returning one result per file
+     */
+    private interface BatchTask<T> {
+        List<Map<String, Object>> run(List<T> batch) throws Exception;
+    }
+
+    /**
+     * Run a task for every batch on a pool bounded by the parallelism option.
+     * Failures are reported in the results of the batch's items instead of
+     * aborting the others.
+     */
+    private <T> List<Map<String, Object>> runParallelBatches(List<List<T>> batches, Function<T, String> nameOf,
+                                                              BatchTask<T> task) throws IOException {
+        if (batches.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int threads = Math.min(options.getParallelism(), batches.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Map<String, Object>>>> futures = new ArrayList<>();
+            for (List<T> batch : batches) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        return task.run(batch);
+                    } catch (Exception e) {
+                        List<Map<String, Object>> failures = new ArrayList<>();
+                        for (T item : batch) {
+                            Map<String, Object> failure = result(options.getCommand(), nameOf.apply(item));
+                            failure.put("status", "error");
+                            failure.put("error", e.getMessage());
+                            failures.add(failure);
+                        }
+                        return failures;
+                    }
+                }));
+            }
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (Future<List<Map<String, Object>>> future : futures) {
+                results.addAll(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transferring files", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Transfer failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
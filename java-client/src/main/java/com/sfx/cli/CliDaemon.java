@@ -0,0 +1,235 @@
+package com.sfx.cli;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running headless client. Jobs are sent over a loopback socket as one
+ * JSON line ({@code {"cwd": ..., "args": [...]}}) and answered with one JSON
+ * line holding the exit code and captured output. Sessions are kept by the
+ * shared {@link SfxCli} instance, so key exchange and HTTP connections are
+ * reused across jobs.
+ * <p>
+ * Other local users can reach a loopback port too, so each job must carry the
+ * token the daemon writes to an owner-only file when it starts. Jobs that
+ * would never finish, such as {@code --watch}, are refused.
+ */
+public class CliDaemon {
+    private static final int TOKEN_SIZE = 32;
+
+    private final SfxCli cli;
+    private final int port;
+    private final Path tokenFile;
+    private final PrintStream log;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private volatile ServerSocket serverSocket;
+    private volatile byte[] token;
+
+    /**
+     * @param cli CLI that runs the jobs and keeps their sessions
+     * @param port Loopback port to accept jobs on
+     * @param tokenFile File the job token is written to, see {@link #tokenFile(int)}
+     * @param log Stream for the daemon's own messages
+     */
+    public CliDaemon(SfxCli cli, int port, Path tokenFile, PrintStream log) {
+        this.cli = cli;
+        this.port = port;
+        this.tokenFile = tokenFile;
+        this.log = log;
+    }
+
+    /**
+     * @return The token file of the daemon on a port, in {@code ~/.sfx} unless
+     *         the system property {@code sfx.daemon.dir} names another directory
+     */
+    public static Path tokenFile(int port) {
+        Path directory = Path.of(System.getProperty("sfx.daemon.dir",
+                Path.of(System.getProperty("user.home"), ".sfx").toString()));
+        return directory.resolve("daemon-" + port + ".token");
+    }
+
+    /**
+     * Accept jobs until a {@code stop} command is received
+     */
+    public void serve() throws IOException {
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket = socket;
+            token = writeToken(tokenFile);
+            log.println("SFX daemon listening on " + socket.getLocalSocketAddress());
+
+            while (!socket.isClosed()) {
+                Socket connection;
+                try {
+                    connection = socket.accept();
+                } catch (IOException e) {
+                    if (socket.isClosed()) {
+                        break;
+                    }
+                    throw e;
+                }
+                executorService.submit(() -> handle(connection));
+            }
+        } finally {
+            executorService.shutdown();
+            if (token != null) {
+                Files.deleteIfExists(tokenFile);
+            }
+            log.println("SFX daemon stopped");
+        }
+    }
+
+    /**
+     * Write a new random token to a file only its owner can read
+     */
+    private static byte[] writeToken(Path tokenFile) throws IOException {
+        byte[] token = new byte[TOKEN_SIZE];
+        new SecureRandom().nextBytes(token);
+        Files.createDirectories(tokenFile.toAbsolutePath().getParent());
+        // Recreate the file, so a file left by another user is never reused
+        Files.deleteIfExists(tokenFile);
+        try {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tokenFile);
+        }
+        Files.writeString(tokenFile, HexFormat.of().formatHex(token));
+        return token;
+    }
+
+    private void handle(Socket connection) {
+        try (Socket socket = connection;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+
+            String line = reader.readLine();
+            if (line == null) {
+                return;
+            }
+            Map<String, Object> job = objectMapper.readValue(line, new TypeReference<Map<String, Object>>() {});
+            @SuppressWarnings("unchecked")
+            List<String> args = (List<String>) job.get("args");
+            Path workingDir = Path.of((String) job.get("cwd"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            int exitCode;
+            String refusal = refusal(job, args);
+            if (refusal != null) {
+                exitCode = 2;
+                err.writeBytes(("Error: " + refusal + "\n").getBytes(StandardCharsets.UTF_8));
+            } else if (isStopCommand(args)) {
+                exitCode = 0;
+                serverSocket.close();
+            } else {
+                exitCode = cli.run(args.toArray(new String[0]), workingDir,
+                        new PrintStream(out, true, StandardCharsets.UTF_8),
+                        new PrintStream(err, true, StandardCharsets.UTF_8));
+            }
+
+            writer.write(objectMapper.writeValueAsString(Map.of(
+                    "exit_code", exitCode,
+                    "stdout", out.toString(StandardCharsets.UTF_8),
+                    "stderr", err.toString(StandardCharsets.UTF_8)
+            )));
+            writer.write('\n');
+            writer.flush();
+        } catch (Exception e) {
+            log.println("Daemon job failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Why the daemon will not run a job, or null if it will
+     */
+    private String refusal(Map<String, Object> job, List<String> args) {
+        Object jobToken = job.get("token");
+        byte[] presented;
+        try {
+            presented = jobToken instanceof String ? HexFormat.of().parseHex((String) jobToken) : null;
+        } catch (IllegalArgumentException e) {
+            presented = null;
+        }
+        if (presented == null || !MessageDigest.isEqual(presented, token)) {
+            return "Daemon job rejected: missing or wrong token";
+        }
+        try {
+            if (CliOptions.parse(args.toArray(new String[0])).isWatch()) {
+                return "--watch cannot be run through the daemon";
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported by the command itself
+        }
+        return null;
+    }
+
+    private static boolean isStopCommand(List<String> args) {
+        try {
+            return "stop".equals(CliOptions.parse(args.toArray(new String[0])).getCommand());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send a job to a running daemon and relay its output
+     * @param tokenFile Token file written by the daemon
+     * @return The exit code reported by the daemon
+     */
+    public static int forward(int port, Path tokenFile, List<String> args, Path workingDir, PrintStream out,
+                              PrintStream err) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String token;
+        try {
+            token = Files.readString(tokenFile).trim();
+        } catch (IOException e) {
+            throw new IOException("Cannot read the daemon token " + tokenFile + ": " + e.getMessage(), e);
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+
+            writer.write(objectMapper.writeValueAsString(Map.of(
+                    "cwd", workingDir.toAbsolutePath().toString(),
+                    "args", args,
+                    "token", token
+            )));
+            writer.write('\n');
+            writer.flush();
+
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Daemon closed the connection without a response");
+            }
+            Map<String, Object> response = objectMapper.readValue(line, new TypeReference<Map<String, Object>>() {});
+            out.print(response.get("stdout"));
+            err.print(response.get("stderr"));
+            return ((Number) response.get("exit_code")).intValue();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.sfx.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed command line options for the headless SFX client
+ */
+public class CliOptions {
+    public static final String DEFAULT_SERVER_URL = "http://localhost:8000";
+    public static final String DEFAULT_USER_ID = "sfx-cli-user";
+    public static final int DEFAULT_DAEMON_PORT = 7420;
+
+    private String serverUrl = DEFAULT_SERVER_URL;
+    private String userId = DEFAULT_USER_ID;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean json;
+    private boolean watch;
+    private boolean compress;
+    private Integer daemonPort;
+    private Long rateLimit;
+    private String destination = ".";
+    private String name;
+    private String command;
+    private final List<String> arguments = new ArrayList<>();
+
+    /**
+     * Parse command line arguments
+     * @param args Raw arguments, options first and then the command with its arguments
+     * @return Parsed options
+     * @throws IllegalArgumentException if an option is unknown or missing its value
+     */
+    public static CliOptions parse(String[] args) {
+        CliOptions options = new CliOptions();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--server":
+                case "-s":
+                    options.serverUrl = requireValue(args, ++i, arg);
+                    break;
+                case "--user":
+                case "-u":
+                    options.userId = requireValue(args, ++i, arg);
+                    break;
+                case "--parallel":
+                case "-p":
+                    options.parallelism = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--dest":
+                case "-d":
+                    options.destination = requireValue(args, ++i, arg);
+                    break;
+                case "--name":
+                case "-n":
+                    options.name = requireValue(args, ++i, arg);
+                    break;
+                case "--daemon":
+                    options.daemonPort = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--json":
+                    options.json = true;
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    break;
+                case "--compress":
+                    options.compress = true;
+                    break;
+                case "--limit-rate":
+                    options.rateLimit = parseRate(requireValue(args, ++i, arg), arg);
+                    break;
+                default:
+                    if (arg.startsWith("-") && arg.length() > 1) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    if (options.command == null) {
+                        options.command = arg;
+                    } else {
+                        options.arguments.add(arg);
+                    }
+            }
+        }
+
+        return options;
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int parsePositiveInt(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 1) {
+                throw new IllegalArgumentException(option + " must be at least 1");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    /**
+     * Parse a rate in bytes per second with an optional K, M or G suffix, e.g. 512K
+     */
+    static long parseRate(String value, String option) {
+        String digits = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (digits.endsWith("K") || digits.endsWith("M") || digits.endsWith("G")) {
+            multiplier = 1L << (10 * ("KMG".indexOf(digits.charAt(digits.length() - 1)) + 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long parsed = Long.parseLong(digits);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(option + " must not be negative");
+            }
+            return parsed * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate for " + option + ": " + value);
+        }
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isJson() {
+        return json;
+    }
+
+    /**
+     * @return true if sync should keep watching the directory, or ls the server, for changes
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * @return true if put and get should stream files through a compressing transfer pipeline
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * @return Port of a running daemon to forward the command to, or null to run in-process
+     */
+    public Integer getDaemonPort() {
+        return daemonPort;
+    }
+
+    /**
+     * @return Global bandwidth limit in bytes per second, 0 for unlimited, or null to leave it unchanged
+     */
+    public Long getRateLimit() {
+        return rateLimit;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return Name to store standard input under for {@code put -}, or null for the default
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+}
@@ -0,0 +1,65 @@
+package com.sfx.cli;
+
+import com.sfx.api.ApiClient;
+import com.sfx.session.SessionKey;
+import com.sfx.session.SessionManager;
+
+import java.io.IOException;
+
+/**
+ * A connection to one server, or a cluster of servers, for one user. The API
+ * client is shared by every user of the server, and the key established
+ * through the Diffie-Hellman exchange, when a command needs one, is held by a
+ * shared {@link SessionManager}, which rotates it in the background. The daemon keeps these alive between jobs
+ * so the handshake and the HTTP connection pool stay warm.
+ */
+public class CliSession {
+    private final String serverUrl;
+    private final String userId;
+    private final ApiClient apiClient;
+    private final SessionManager keys;
+    private boolean healthy;
+
+    public CliSession(String serverUrl, String userId, ApiClient apiClient, SessionManager keys) {
+        this.serverUrl = serverUrl;
+        this.userId = userId;
+        this.apiClient = apiClient;
+        this.keys = keys;
+    }
+
+    /**
+     * Check server health. The session key is established only when a command
+     * first asks for it, see {@link #getSessionKey()}.
+     */
+    public synchronized void connect() throws IOException {
+        if (!healthy) {
+            if (!apiClient.healthCheck()) {
+                throw new IOException("Server is not healthy: " + serverUrl);
+            }
+            healthy = true;
+        }
+    }
+
+    public synchronized boolean isConnected() {
+        return healthy;
+    }
+
+    public ApiClient getApiClient() {
+        return apiClient;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return The user's current session key, established first if needed
+     */
+    public SessionKey getSessionKey() throws IOException {
+        return keys.key(serverUrl, userId);
+    }
+}
@@ -0,0 +1,201 @@
+package com.sfx.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.api.ApiClient;
+import com.sfx.cache.DownloadCache;
+import com.sfx.cluster.ClusterClient;
+import com.sfx.session.SessionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Headless entry point of the SecureFileXchange client for scripts and batch jobs.
+ * It uses the same API client and key exchange as the JavaFX application but
+ * never initializes a JavaFX toolkit.
+ */
+public class SfxCli {
+    private final Map<String, CliSession> sessions = new ConcurrentHashMap<>();
+    // One client per server, shared by its users so they share the connection pool
+    private final Map<String, ApiClient> clients = new ConcurrentHashMap<>();
+    private final SessionManager keys = new SessionManager(this::clientFor);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Main method to run a single command, or the daemon
+     */
+    public static void main(String[] args) {
+        int exitCode = new SfxCli().run(args, Path.of("").toAbsolutePath(), System.in, System.out, System.err);
+        System.exit(exitCode);
+    }
+
+    /**
+     * Run one command line
+     * @param args Command line arguments
+     * @param workingDir Directory relative paths are resolved against
+     * @param out Stream for command results
+     * @param err Stream for errors
+     * @return Process exit code: 0 on success, 1 if any transfer failed, 2 on usage errors
+     */
+    public int run(String[] args, Path workingDir, PrintStream out, PrintStream err) {
+        return run(args, workingDir, null, out, err);
+    }
+
+    /**
+     * Run one command line that may read standard input
+     * @param args Command line arguments
+     * @param workingDir Directory relative paths are resolved against
+     * @param in Standard input for {@code put -}, or null if there is none
+     * @param out Stream for command results
+     * @param err Stream for errors
+     * @return Process exit code: 0 on success, 1 if any transfer failed, 2 on usage errors
+     */
+    public int run(String[] args, Path workingDir, InputStream in, PrintStream out, PrintStream err) {
+        CliOptions options;
+        try {
+            options = CliOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            printUsage(err);
+            return 2;
+        }
+
+        if (options.getCommand() == null || "help".equals(options.getCommand())) {
+            printUsage(options.getCommand() == null ? err : out);
+            return options.getCommand() == null ? 2 : 0;
+        }
+
+        try {
+            if ("daemon".equals(options.getCommand())) {
+                int port = options.getArguments().isEmpty()
+                        ? CliOptions.DEFAULT_DAEMON_PORT
+                        : Integer.parseInt(options.getArguments().get(0));
+                new CliDaemon(this, port, CliDaemon.tokenFile(port), err).serve();
+                return 0;
+            }
+
+            if (options.getDaemonPort() != null) {
+                return CliDaemon.forward(options.getDaemonPort(), CliDaemon.tokenFile(options.getDaemonPort()),
+                        withoutDaemonOption(args), workingDir, out, err);
+            }
+
+            CliSession session = sessionFor(options);
+            session.connect();
+
+            CliCommands commands = new CliCommands(session, options, workingDir, in);
+            if (options.isWatch() && "sync".equals(options.getCommand())) {
+                commands.watchSync(options.getArguments(), results -> print(results, options, out, err));
+                return 0;
+            }
+            if (options.isWatch() && "ls".equals(options.getCommand())) {
+                commands.watchLs(options.getArguments(), results -> print(results, options, out, err));
+                return 0;
+            }
+
+            List<Map<String, Object>> results = commands.execute();
+            printResults(results, options, out);
+            return results.stream().allMatch(result -> "ok".equals(result.get("status"))) ? 0 : 1;
+        } catch (IllegalArgumentException e) {
+            err.println("Error: " + e.getMessage());
+            printUsage(err);
+            return 2;
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Get the cached session for the server and user, creating it if needed
+     */
+    private CliSession sessionFor(CliOptions options) {
+        String key = options.getServerUrl() + "|" + options.getUserId();
+        return sessions.computeIfAbsent(key, k -> new CliSession(options.getServerUrl(), options.getUserId(),
+                clientFor(options.getServerUrl()), keys));
+    }
+
+    /**
+     * Get the client for a server URL, or comma-separated cluster URLs, creating it if needed
+     */
+    private ApiClient clientFor(String serverUrl) {
+        return clients.computeIfAbsent(serverUrl, url -> {
+            ApiClient apiClient = ClusterClient.forServers(url);
+            apiClient.setDownloadCache(DownloadCache.shared());
+            return apiClient;
+        });
+    }
+
+    private static List<String> withoutDaemonOption(String[] args) {
+        List<String> forwarded = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--daemon".equals(args[i])) {
+                i++;
+            } else {
+                forwarded.add(args[i]);
+            }
+        }
+        return forwarded;
+    }
+
+    private void print(List<Map<String, Object>> results, CliOptions options, PrintStream out, PrintStream err) {
+        try {
+            printResults(results, options, out);
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void printResults(List<Map<String, Object>> results, CliOptions options, PrintStream out)
+            throws IOException {
+        if (options.isJson()) {
+            out.println(objectMapper.writeValueAsString(results));
+            return;
+        }
+
+        for (Map<String, Object> result : results) {
+            if (!"ok".equals(result.get("status"))) {
+                out.println("error\t" + result.get("name") + "\t" + result.get("error"));
+            } else if ("watch".equals(result.get("operation"))) {
+                out.println(result.get("event") + "\t" + result.get("name") + "\t" + result.get("size_bytes"));
+            } else if ("ls".equals(result.get("operation"))) {
+                out.println(result.get("name") + "\t" + result.get("size_bytes") + "\t" + result.get("created_at"));
+            } else {
+                Object detail = result.containsKey("stored_filename")
+                        ? result.get("stored_filename")
+                        : result.get("destination");
+                out.println(result.get("operation") + "\t" + result.get("name") + "\t" + detail);
+            }
+        }
+    }
+
+    private static void printUsage(PrintStream out) {
+        out.println("Usage: sfx [options] <command> [arguments]");
+        out.println();
+        out.println("Commands:");
+        out.println("  put <glob>...          Upload local files matching the patterns");
+        out.println("  put -                  Upload standard input as it is produced, e.g. a dump piped in");
+        out.println("  get <glob>             Download server files matching the pattern");
+        out.println("  ls [glob]              List server files");
+        out.println("  sync <dir> [glob]      Upload new and changed files below a directory");
+        out.println("  daemon [port]          Keep sessions warm and accept jobs on a local port");
+        out.println("  stop                   Stop the daemon given by --daemon");
+        out.println();
+        out.println("Options:");
+        out.println("  -s, --server <url>     Server URL (default " + CliOptions.DEFAULT_SERVER_URL + "), or comma-separated URLs of a cluster");
+        out.println("  -u, --user <id>        User ID (default " + CliOptions.DEFAULT_USER_ID + ")");
+        out.println("  -p, --parallel <n>     Number of concurrent transfers");
+        out.println("  -d, --dest <dir>       Download directory for get (default .)");
+        out.println("  -n, --name <name>      Name to store standard input under for put - (default " + CliCommands.STDIN_NAME + ")");
+        out.println("      --daemon <port>    Run the command in the daemon on this port");
+        out.println("      --watch            Keep syncing as files change, or keep listing changes pushed by the server");
+        out.println("      --compress         Compress put/get transfers in a parallel pipeline");
+        out.println("      --limit-rate <r>   Limit bandwidth in bytes per second, e.g. 512K or 10M (0 = unlimited)");
+        out.println("      --json             Print results as JSON");
+    }
+}
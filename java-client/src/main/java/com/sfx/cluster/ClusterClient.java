@@ -0,0 +1,648 @@
+package com.sfx.cluster;
+
+import com.sfx.api.ApiClient;
+import com.sfx.api.BlockSignaturesResponse;
+import com.sfx.api.FileEvent;
+import com.sfx.api.FileListResponse;
+import com.sfx.api.FileUploadResponse;
+import com.sfx.api.KeyExchangeResponse;
+import com.sfx.cache.DownloadCache;
+import com.sfx.events.FileEventListener;
+import com.sfx.events.FileWatch;
+import com.sfx.resilience.CircuitOpenException;
+import com.sfx.resilience.ResilienceInterceptor;
+import com.sfx.resilience.RetryPolicy;
+import com.sfx.session.SessionKey;
+import com.sfx.transfer.TransferPipeline;
+import com.sfx.transfer.TransferScheduler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client for several servers that share the load. Uploads are placed on a
+ * consistent hash ring by user and file name, so each server holds a stable
+ * slice of the files; when the owning server is unreachable the next one on
+ * the ring takes the upload. Downloads go to the server that holds the file,
+ * and listings ask every server in parallel and merge the results.
+ *
+ * A background task checks each server's health so calls skip servers that
+ * are known to be down.
+ */
+public class ClusterClient extends ApiClient implements Closeable {
+    public static final long DEFAULT_HEALTH_INTERVAL_MILLIS = 5000;
+    // Completed key exchanges remembered; keys rotate hourly, so this covers many users
+    private static final int MAX_KEY_HOLDERS = 10_000;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final ConsistentHashRing<Node> ring = new ConsistentHashRing<>();
+    // Stored filename -> server holding it, learned from uploads and listings
+    private final Map<String, Node> locations = new ConcurrentHashMap<>();
+    // Key exchange session -> server that started it
+    private final Map<String, Node> keyExchanges = new ConcurrentHashMap<>();
+    // Completed key exchange session -> server holding its session key, oldest dropped first
+    private final Map<String, Node> keyHolders = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Node> eldest) {
+            return size() > MAX_KEY_HOLDERS;
+        }
+    });
+    private final ExecutorService fanOut;
+    private final ScheduledExecutorService healthChecker;
+
+    public ClusterClient(List<String> endpoints) {
+        this(endpoints, new ResilienceInterceptor(RetryPolicy.defaults()),
+                new TransferScheduler(DEFAULT_BULK_TRANSFERS), DEFAULT_HEALTH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Create a cluster client
+     * @param endpoints Server URLs
+     * @param resilience Interceptor shared by the per-server clients; circuit breakers stay per server
+     * @param scheduler Scheduler whose bandwidth limits apply across all servers
+     * @param healthIntervalMillis Time between background health checks, or 0 to check only on demand
+     */
+    public ClusterClient(List<String> endpoints, ResilienceInterceptor resilience, TransferScheduler scheduler,
+                         long healthIntervalMillis) {
+        super(requireEndpoints(endpoints).get(0), resilience, scheduler);
+        // Probes fail fast rather than retrying, so a down server is noticed on the first miss
+        ResilienceInterceptor probeResilience = new ResilienceInterceptor(RetryPolicy.none());
+        for (String endpoint : endpoints) {
+            Node node = new Node(endpoint, new ApiClient(endpoint, resilience, scheduler),
+                    new ApiClient(endpoint, probeResilience, scheduler));
+            nodes.add(node);
+            ring.add(endpoint, node);
+        }
+
+        this.fanOut = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sfx-cluster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sfx-cluster-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (healthIntervalMillis > 0) {
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, healthIntervalMillis, healthIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Create a client for one server, or a cluster client for a comma-separated list
+     * @param serverUrls One URL, or several separated by commas
+     */
+    public static ApiClient forServers(String serverUrls) {
+        List<String> endpoints = parseEndpoints(serverUrls);
+        return endpoints.size() == 1 ? new ApiClient(endpoints.get(0)) : new ClusterClient(endpoints);
+    }
+
+    /**
+     * @return The URLs in a comma-separated list, trimmed and without blanks
+     */
+    public static List<String> parseEndpoints(String serverUrls) {
+        List<String> endpoints = new ArrayList<>();
+        for (String url : serverUrls.split(",")) {
+            if (!url.isBlank()) {
+                endpoints.add(url.trim());
+            }
+        }
+        return endpoints;
+    }
+
+    private static List<String> requireEndpoints(List<String> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one server is required");
+        }
+        return endpoints;
+    }
+
+    /**
+     * Probe every server in parallel and record which are up
+     */
+    public void checkHealth() {
+        CompletableFuture<?>[] probes = nodes.stream()
+                .map(node -> CompletableFuture.runAsync(node::probe, fanOut))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(probes).join();
+    }
+
+    /**
+     * @return Servers that passed their last health check or call
+     */
+    public List<String> getHealthyEndpoints() {
+        List<String> healthy = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.healthy) {
+                healthy.add(node.endpoint);
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Check every server
+     * @return true if at least one server is healthy
+     */
+    @Override
+    public boolean healthCheck() {
+        checkHealth();
+        return !getHealthyEndpoints().isEmpty();
+    }
+
+    /**
+     * Start a key exchange with the first healthy server; it is completed on the same server
+     */
+    @Override
+    public KeyExchangeResponse initiateKeyExchange() throws IOException {
+        return withFailover(candidates("key-exchange"), node -> {
+            KeyExchangeResponse response = node.client.initiateKeyExchange();
+            keyExchanges.put(response.getSessionId(), node);
+            return response;
+        });
+    }
+
+    @Override
+    public boolean completeKeyExchange(String sessionId, String publicKey, String userId) throws IOException {
+        Node node = keyExchanges.remove(sessionId);
+        if (node == null) {
+            throw new IOException("Unknown key exchange session: " + sessionId);
+        }
+        boolean completed = node.client.completeKeyExchange(sessionId, publicKey, userId);
+        if (completed && userId != null) {
+            keyHolders.put(sessionId, node);
+        }
+        return completed;
+    }
+
+    /**
+     * Upload to the server that owns the file on the ring, failing over to the next
+     * one when it cannot be reached
+     */
+    @Override
+    public FileUploadResponse uploadFile(File file, String userId, TransferPipeline pipeline) throws IOException {
+        return withFailover(candidates(userId + "/" + file.getName()), node -> {
+            FileUploadResponse response = node.client.uploadFile(file, userId, pipeline);
+            if (response.getStoredFilename() != null) {
+                locations.put(response.getStoredFilename(), node);
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Upload a stream to the server that owns its name on the ring. Only failures
+     * to connect fail over, and those happen before any of the stream is read.
+     * An encrypted stream goes to the server that holds its session key instead.
+     */
+    @Override
+    public FileUploadResponse uploadStream(ReadableByteChannel source, String filename, String userId,
+                                           TransferPipeline pipeline, SessionKey sessionKey) throws IOException {
+        if (sessionKey != null) {
+            Node holder = keyHolders.get(sessionKey.getSessionId());
+            if (holder == null) {
+                throw new IOException("No server holds the session key " + sessionKey.getSessionId());
+            }
+            FileUploadResponse response = holder.client.uploadStream(source, filename, userId, pipeline, sessionKey);
+            if (response.getStoredFilename() != null) {
+                locations.put(response.getStoredFilename(), holder);
+            }
+            return response;
+        }
+        return withFailover(candidates(userId + "/" + filename), node -> {
+            FileUploadResponse response = node.client.uploadStream(source, filename, userId, pipeline);
+            if (response.getStoredFilename() != null) {
+                locations.put(response.getStoredFilename(), node);
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Upload each server's share of the files as its own bundles, failing over
+     * per share like single uploads do
+     */
+    @Override
+    public List<FileUploadResponse> uploadFiles(List<File> files, String userId) throws IOException {
+        Map<Node, List<Integer>> shares = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            Node owner = candidates(userId + "/" + files.get(i).getName()).get(0);
+            shares.computeIfAbsent(owner, node -> new ArrayList<>()).add(i);
+        }
+
+        FileUploadResponse[] uploaded = new FileUploadResponse[files.size()];
+        for (List<Integer> share : shares.values()) {
+            List<File> shareFiles = new ArrayList<>(share.size());
+            for (int index : share) {
+                shareFiles.add(files.get(index));
+            }
+            List<FileUploadResponse> responses = withFailover(
+                    candidates(userId + "/" + shareFiles.get(0).getName()), node -> {
+                        List<FileUploadResponse> result = node.client.uploadFiles(shareFiles, userId);
+                        for (FileUploadResponse response : result) {
+                            if (response.getStoredFilename() != null) {
+                                locations.put(response.getStoredFilename(), node);
+                            }
+                        }
+                        return result;
+                    });
+            for (int i = 0; i < share.size(); i++) {
+                uploaded[share.get(i)] = responses.get(i);
+            }
+        }
+        return Arrays.asList(uploaded);
+    }
+
+    @Override
+    public List<FileUploadResponse> uploadBundle(List<File> files, String userId) throws IOException {
+        return uploadFiles(files, userId);
+    }
+
+    @Override
+    public BlockSignaturesResponse getBlockSignatures(String filename, int blockSize, String userId)
+            throws IOException {
+        return onHolder(filename, node -> node.client.getBlockSignatures(filename, blockSize, userId));
+    }
+
+    @Override
+    public FileUploadResponse uploadDelta(File file, String storedFilename, String userId) throws IOException {
+        return onHolder(storedFilename, node -> node.client.uploadDelta(file, storedFilename, userId));
+    }
+
+    @Override
+    public void deleteFile(String filename, String userId) throws IOException {
+        onHolder(filename, node -> {
+            node.client.deleteFile(filename, userId);
+            return null;
+        });
+        locations.remove(filename);
+    }
+
+    @Override
+    public boolean downloadFile(String filename, File destinationFile, String userId, TransferPipeline pipeline)
+            throws IOException {
+        return onHolder(filename, node -> node.client.downloadFile(filename, destinationFile, userId, pipeline));
+    }
+
+    /**
+     * Download files known to be on the same server as one bundle stream. Files
+     * whose server is unknown, or whose server's bundle fails, are looked up
+     * one at a time.
+     */
+    @Override
+    public List<File> downloadFiles(List<String> filenames, File directory, String userId) throws IOException {
+        Map<Node, List<String>> known = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String filename : filenames) {
+            Node node = locations.get(filename);
+            if (node != null) {
+                known.computeIfAbsent(node, n -> new ArrayList<>()).add(filename);
+            } else {
+                unknown.add(filename);
+            }
+        }
+
+        for (Map.Entry<Node, List<String>> share : known.entrySet()) {
+            try {
+                share.getKey().client.downloadFiles(share.getValue(), directory, userId);
+            } catch (IOException e) {
+                if (isUnreachable(e)) {
+                    share.getKey().markDown(e);
+                }
+                unknown.addAll(share.getValue());
+            }
+        }
+        for (String filename : unknown) {
+            onHolder(filename, node -> node.client.downloadFiles(List.of(filename), directory, userId));
+        }
+
+        List<File> saved = new ArrayList<>(filenames.size());
+        for (String filename : filenames) {
+            saved.add(new File(directory, filename));
+        }
+        return saved;
+    }
+
+    /**
+     * List files on every healthy server in parallel and merge the results. Servers
+     * that fail are left out; the call fails only if none answers.
+     */
+    @Override
+    public FileListResponse listFiles(String userId) throws IOException {
+        List<Node> queried = new ArrayList<>();
+        List<CompletableFuture<FileListResponse>> listings = new ArrayList<>();
+        for (Node node : candidates(userId == null ? "" : userId)) {
+            if (node.healthy) {
+                queried.add(node);
+                listings.add(CompletableFuture.supplyAsync(() -> call(node, n -> n.client.listFiles(userId)), fanOut));
+            }
+        }
+        if (queried.isEmpty()) {
+            // Health information may be stale; ask everyone rather than nobody
+            for (Node node : nodes) {
+                queried.add(node);
+                listings.add(CompletableFuture.supplyAsync(() -> call(node, n -> n.client.listFiles(userId)), fanOut));
+            }
+        }
+
+        Map<String, FileListResponse.FileInfo> merged = new LinkedHashMap<>();
+        IOException failure = null;
+        int answered = 0;
+        for (int i = 0; i < listings.size(); i++) {
+            try {
+                FileListResponse listing = listings.get(i).join();
+                answered++;
+                if (listing.getFiles() != null) {
+                    for (FileListResponse.FileInfo file : listing.getFiles()) {
+                        merged.putIfAbsent(file.getFilename(), file);
+                        locations.putIfAbsent(file.getFilename(), queried.get(i));
+                    }
+                }
+            } catch (CompletionException e) {
+                IOException cause = unwrap(e);
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (answered == 0) {
+            throw failure;
+        }
+        return new FileListResponse(new ArrayList<>(merged.values()));
+    }
+
+    /**
+     * Get one page of the merged listing. Every server pages in filename order,
+     * so the first {@code limit} names across their pages after the same cursor
+     * form the cluster's page.
+     */
+    @Override
+    public FileListResponse listFiles(String userId, String owner, String cursor, int limit) throws IOException {
+        List<Node> queried = new ArrayList<>();
+        List<CompletableFuture<FileListResponse>> pages = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.healthy) {
+                queried.add(node);
+                pages.add(CompletableFuture.supplyAsync(
+                        () -> call(node, n -> n.client.listFiles(userId, owner, cursor, limit)), fanOut));
+            }
+        }
+        if (queried.isEmpty()) {
+            throw new IOException("No healthy servers");
+        }
+
+        List<FileListResponse.FileInfo> merged = new ArrayList<>();
+        boolean more = false;
+        IOException failure = null;
+        int answered = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            try {
+                FileListResponse page = pages.get(i).join();
+                answered++;
+                more |= page.getNextCursor() != null;
+                if (page.getFiles() != null) {
+                    for (FileListResponse.FileInfo file : page.getFiles()) {
+                        merged.add(file);
+                        locations.putIfAbsent(file.getFilename(), queried.get(i));
+                    }
+                }
+            } catch (CompletionException e) {
+                failure = addFailure(failure, unwrap(e));
+            }
+        }
+        if (answered == 0) {
+            throw failure;
+        }
+
+        merged.sort(Comparator.comparing(FileListResponse.FileInfo::getFilename));
+        if (merged.size() > limit) {
+            merged = new ArrayList<>(merged.subList(0, limit));
+            more = true;
+        }
+        String nextCursor = more && !merged.isEmpty() ? merged.get(merged.size() - 1).getFilename() : null;
+        return new FileListResponse(merged, nextCursor);
+    }
+
+    /**
+     * Subscribe to file changes on every server. A reset from any server means
+     * the merged list may be stale, so the listener reloads all of it.
+     */
+    @Override
+    public FileWatch watchFiles(FileEventListener listener) {
+        List<FileWatch> streams = new ArrayList<>();
+        for (Node node : nodes) {
+            streams.add(node.client.watchFiles(event -> {
+                if (event.getFile() != null && event.getFile().getFilename() != null) {
+                    if (FileEvent.FILE_REMOVED.equals(event.getType())) {
+                        locations.remove(event.getFile().getFilename(), node);
+                    } else {
+                        locations.put(event.getFile().getFilename(), node);
+                    }
+                }
+                listener.onEvent(event);
+            }));
+        }
+        return new FileWatch() {
+            @Override
+            public boolean isConnected() {
+                return streams.stream().allMatch(FileWatch::isConnected);
+            }
+
+            @Override
+            public void close() throws IOException {
+                for (FileWatch stream : streams) {
+                    stream.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setDownloadCache(DownloadCache downloadCache) {
+        super.setDownloadCache(downloadCache);
+        for (Node node : nodes) {
+            node.client.setDownloadCache(downloadCache);
+        }
+    }
+
+    /**
+     * Stop background health checks
+     */
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+        fanOut.shutdownNow();
+    }
+
+    /**
+     * @return Servers in the order a key should try them: healthy ones by ring
+     *         preference, then the rest in case their health has changed
+     */
+    private List<Node> candidates(String key) {
+        List<Node> preference = ring.preferenceList(key);
+        List<Node> ordered = new ArrayList<>(preference.size());
+        for (Node node : preference) {
+            if (node.healthy) {
+                ordered.add(node);
+            }
+        }
+        for (Node node : preference) {
+            if (!node.healthy) {
+                ordered.add(node);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Run a call on the first server that can be reached. Errors from a reachable
+     * server are returned as is, because another server would not know the request's
+     * outcome and could apply it twice.
+     */
+    private <T> T withFailover(List<Node> candidates, NodeCall<T> call) throws IOException {
+        IOException failure = null;
+        for (Node node : candidates) {
+            try {
+                return call.apply(node);
+            } catch (IOException e) {
+                if (!isUnreachable(e)) {
+                    throw e;
+                }
+                node.markDown(e);
+                failure = addFailure(failure, e);
+            }
+        }
+        throw failure != null ? failure : new IOException("No servers configured");
+    }
+
+    /**
+     * Run a call on the server holding a file: the one it was last seen on, then
+     * the others by ring preference. A server without the file fails and the next
+     * is tried.
+     */
+    private <T> T onHolder(String filename, NodeCall<T> call) throws IOException {
+        Node known = locations.get(filename);
+        List<Node> ordered = new ArrayList<>();
+        if (known != null) {
+            ordered.add(known);
+        }
+        for (Node node : candidates(filename)) {
+            if (node != known) {
+                ordered.add(node);
+            }
+        }
+
+        IOException failure = null;
+        for (Node node : ordered) {
+            try {
+                T result = call.apply(node);
+                locations.put(filename, node);
+                return result;
+            } catch (IOException e) {
+                if (isUnreachable(e)) {
+                    node.markDown(e);
+                }
+                failure = addFailure(failure, e);
+            }
+        }
+        throw failure != null ? failure : new IOException("No servers configured");
+    }
+
+    private static <T> T call(Node node, NodeCall<T> call) {
+        try {
+            return call.apply(node);
+        } catch (IOException e) {
+            if (isUnreachable(e)) {
+                node.markDown(e);
+            }
+            throw new CompletionException(e);
+        }
+    }
+
+    private static IOException addFailure(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    private static IOException unwrap(CompletionException e) {
+        return e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+
+    /**
+     * @return true if the request never reached the server, so another server may safely take it
+     */
+    static boolean isUnreachable(IOException e) {
+        return e instanceof ConnectException
+                || e instanceof NoRouteToHostException
+                || e instanceof UnknownHostException
+                || e instanceof CircuitOpenException;
+    }
+
+    @FunctionalInterface
+    private interface NodeCall<T> {
+        T apply(Node node) throws IOException;
+    }
+
+    /**
+     * One server and what is known about its health
+     */
+    private static final class Node {
+        private final String endpoint;
+        private final ApiClient client;
+        private final ApiClient probeClient;
+        // Optimistic until a check or call says otherwise
+        private volatile boolean healthy = true;
+
+        private Node(String endpoint, ApiClient client, ApiClient probeClient) {
+            this.endpoint = endpoint;
+            this.client = client;
+            this.probeClient = probeClient;
+        }
+
+        private void probe() {
+            boolean up;
+            try {
+                up = probeClient.healthCheck();
+            } catch (IOException e) {
+                up = false;
+            }
+            if (up != healthy) {
+                System.err.println("Server " + endpoint + (up ? " is back up" : " is down"));
+            }
+            healthy = up;
+        }
+
+        private void markDown(IOException cause) {
+            if (healthy) {
+                System.err.println("Server " + endpoint + " is unreachable: " + cause.getMessage());
+            }
+            healthy = false;
+        }
+    }
+}
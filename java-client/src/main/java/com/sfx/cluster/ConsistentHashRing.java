@@ -0,0 +1,102 @@
+package com.sfx.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring. Each node is placed at many points on the ring, and a
+ * key belongs to the first node clockwise from the key's hash; the following
+ * distinct nodes are its fallbacks. Adding or removing a node moves only the
+ * keys next to its points, about 1/n of all keys.
+ */
+public class ConsistentHashRing<T> {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int virtualNodes;
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final Map<String, T> nodes = new HashMap<>();
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes Points per node; more points spread keys more evenly
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one virtual node is required");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Add a node under a stable ID, such as its endpoint URL
+     */
+    public synchronized void add(String id, T node) {
+        if (nodes.putIfAbsent(id, node) != null) {
+            throw new IllegalArgumentException("Node already on the ring: " + id);
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(id + "#" + i), node);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        T node = nodes.remove(id);
+        if (node != null) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.remove(hash(id + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return Every node in the order a key should try them: owner first, then fallbacks
+     */
+    public synchronized List<T> preferenceList(String key) {
+        Set<T> ordered = new LinkedHashSet<>();
+        long hash = hash(key);
+        for (T node : ring.tailMap(hash, true).values()) {
+            if (ordered.add(node) && ordered.size() == nodes.size()) {
+                return new ArrayList<>(ordered);
+            }
+        }
+        for (T node : ring.headMap(hash, false).values()) {
+            if (ordered.add(node) && ordered.size() == nodes.size()) {
+                break;
+            }
+        }
+        return new ArrayList<>(ordered);
+    }
+
+    /**
+     * @return The node owning a key, or null if the ring is empty
+     */
+    public T nodeFor(String key) {
+        List<T> preference = preferenceList(key);
+        return preference.isEmpty() ? null : preference.get(0);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,26 +1,38 @@
 package com.sfx.crypto;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.sfx.io.BufferPool;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.Security;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Base64;
 
 /**
  * AES encryption utility for secure file content encryption/decryption
  */
 public class AESEncryption {
-    // Static initialization of security provider
-    static {
-        Security.addProvider(new BouncyCastleProvider());
-    }
-
     private static final String ALGORITHM = "AES/GCM/NoPadding";
     private static final int GCM_IV_LENGTH = 12; // 96 bits
     private static final int GCM_TAG_LENGTH = 128;
 
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Cipher lookup is expensive, so each thread keeps its own instance and re-initializes it per call.
+    // The JDK's AES-GCM is preferred over Bouncy Castle's: it runs on AES-NI and carry-less multiply
+    // intrinsics, tens of times faster, and its output is the same standard format.
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM not available", e);
+        }
+    });
+
     /**
      * Encrypt data with AES-GCM
      * @param plaintext Data to encrypt
@@ -28,27 +40,17 @@ public class AESEncryption {
      * @return Base64 encoded encrypted data with IV prepended
      */
     public static String encrypt(byte[] plaintext, byte[] key) throws Exception {
-        // Generate random IV
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new java.security.SecureRandom().nextBytes(iv);
-
-        // Initialize cipher for encryption
-        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        
-        Cipher cipher = Cipher.getInstance(ALGORITHM, "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmSpec);
-        
-        // Encrypt
-        byte[] ciphertext = cipher.doFinal(plaintext);
-        
-        // Prepend IV to ciphertext
-        byte[] encryptedData = new byte[iv.length + ciphertext.length];
-        System.arraycopy(iv, 0, encryptedData, 0, iv.length);
-        System.arraycopy(ciphertext, 0, encryptedData, iv.length, ciphertext.length);
-        
-        // Return Base64 encoded result
-        return Base64.getEncoder().encodeToString(encryptedData);
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer encryptedData = pool.acquire(encryptedLength(plaintext.length));
+        try {
+            encrypt(ByteBuffer.wrap(plaintext), encryptedData, key);
+            encryptedData.flip();
+            
+            // Return Base64 encoded result
+            return new String(Base64.getEncoder().encode(encryptedData).array(), StandardCharsets.ISO_8859_1);
+        } finally {
+            pool.release(encryptedData);
+        }
     }
 
     /**
@@ -60,22 +62,98 @@ public class AESEncryption {
     public static byte[] decrypt(String encryptedBase64, byte[] key) throws Exception {
         // Decode Base64
         byte[] encryptedData = Base64.getDecoder().decode(encryptedBase64);
+        byte[] plaintext = new byte[decryptedLength(encryptedData.length)];
+        decrypt(ByteBuffer.wrap(encryptedData), ByteBuffer.wrap(plaintext), key);
         
-        // Extract IV
+        return plaintext;
+    }
+
+    /**
+     * Encrypt a buffer with AES-GCM, without Base64 encoding
+     * @param plaintext Data to encrypt, consumed from its position to its limit
+     * @param output Receives the IV followed by the ciphertext; needs
+     *               {@link #encryptedLength} bytes remaining
+     * @param key Encryption key
+     * @return Number of bytes written to {@code output}
+     */
+    public static int encrypt(ByteBuffer plaintext, ByteBuffer output, byte[] key) throws Exception {
+        return encrypt(plaintext, output, key, null);
+    }
+
+    /**
+     * Encrypt a buffer with AES-GCM, authenticating additional data that is not encrypted
+     * @param aad Data the ciphertext is bound to, such as its position in a file, or null
+     * @see #encrypt(ByteBuffer, ByteBuffer, byte[])
+     */
+    public static int encrypt(ByteBuffer plaintext, ByteBuffer output, byte[] key, byte[] aad) throws Exception {
+        // Generate random IV and prepend it to the ciphertext
         byte[] iv = new byte[GCM_IV_LENGTH];
-        byte[] ciphertext = new byte[encryptedData.length - GCM_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        output.put(iv);
+
+        // Initialize cipher for encryption
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         
-        System.arraycopy(encryptedData, 0, iv, 0, iv.length);
-        System.arraycopy(encryptedData, iv.length, ciphertext, 0, ciphertext.length);
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmSpec);
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        
+        return iv.length + cipher.doFinal(plaintext, output);
+    }
+
+    /**
+     * Decrypt a buffer encrypted by {@link #encrypt(ByteBuffer, ByteBuffer, byte[])}
+     * @param encryptedData IV followed by ciphertext, consumed from its position to its limit
+     * @param output Receives the decrypted data; needs {@link #decryptedLength} bytes remaining
+     * @param key Decryption key
+     * @return Number of bytes written to {@code output}
+     */
+    public static int decrypt(ByteBuffer encryptedData, ByteBuffer output, byte[] key) throws Exception {
+        return decrypt(encryptedData, output, key, null);
+    }
+
+    /**
+     * Decrypt a buffer encrypted by {@link #encrypt(ByteBuffer, ByteBuffer, byte[], byte[])}
+     * @param aad The additional data given when encrypting, or null
+     * @see #decrypt(ByteBuffer, ByteBuffer, byte[])
+     */
+    public static int decrypt(ByteBuffer encryptedData, ByteBuffer output, byte[] key, byte[] aad) throws Exception {
+        // Extract IV
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        encryptedData.get(iv);
         
         // Initialize cipher for decryption
         SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
         GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         
-        Cipher cipher = Cipher.getInstance(ALGORITHM, "BC");
+        Cipher cipher = CIPHER.get();
         cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmSpec);
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
         
         // Decrypt and return
-        return cipher.doFinal(ciphertext);
+        return cipher.doFinal(encryptedData, output);
+    }
+
+    /**
+     * @return Size of the encrypted form of {@code plaintextLength} bytes, including IV and tag
+     */
+    public static int encryptedLength(int plaintextLength) {
+        return GCM_IV_LENGTH + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
+
+    /**
+     * @return Size of the plaintext in {@code encryptedLength} bytes of encrypted data
+     */
+    public static int decryptedLength(int encryptedLength) throws GeneralSecurityException {
+        int length = encryptedLength - GCM_IV_LENGTH - GCM_TAG_LENGTH / 8;
+        if (length < 0) {
+            throw new AEADBadTagException("Encrypted data is too short");
+        }
+        return length;
     }
 }
@@ -0,0 +1,39 @@
+package com.sfx.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * Security providers loaded on demand. The JDK's providers cover every
+ * algorithm the client uses, so Bouncy Castle, which takes a noticeable part
+ * of startup to load and register, is only loaded the first time something
+ * needs it.
+ */
+public final class CryptoProviders {
+
+    private CryptoProviders() {}
+
+    /**
+     * @return The Bouncy Castle provider, registered on first use
+     */
+    public static Provider bouncyCastle() {
+        return BouncyCastleHolder.PROVIDER;
+    }
+
+    // Loaded by the JVM only when bouncyCastle() is first called
+    private static final class BouncyCastleHolder {
+        private static final Provider PROVIDER = register();
+
+        private static Provider register() {
+            Provider registered = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+            if (registered != null) {
+                return registered;
+            }
+            Provider provider = new BouncyCastleProvider();
+            Security.addProvider(provider);
+            return provider;
+        }
+    }
+}
@@ -1,45 +1,62 @@
 package com.sfx.crypto;
 
 import javax.crypto.KeyAgreement;
+import javax.crypto.interfaces.DHPublicKey;
+import javax.crypto.spec.DHParameterSpec;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 /**
  * Implementation of Diffie-Hellman key exchange for secure communication
  */
 public class DHKeyExchange {
-    
-    private static final BouncyCastleProvider PROVIDER;
-    
-    static {
-        PROVIDER = new BouncyCastleProvider();
-        if (Security.getProvider("BC") == null) {
-            Security.addProvider(PROVIDER);
-            System.out.println("Added Bouncy Castle provider");
-        } else {
-            System.out.println("Bouncy Castle provider already registered");
-        }
-    }
 
-    private KeyPair keyPair;
+    private static final int KEY_SIZE = 2048;
+    private static final String PEM_BEGIN = "-----BEGIN ";
+
+    private final KeyPair keyPair;
 
     /**
-     * Initialize Diffie-Hellman key exchange
+     * Initialize Diffie-Hellman key exchange in the provider's default group
      */
     public DHKeyExchange() {
         try {
-            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("DH");
-            keyPairGenerator.initialize(2048);
-            this.keyPair = keyPairGenerator.generateKeyPair();
-            System.out.println("Generated DH key pair successfully");
-        } catch (Exception e) {
-            e.printStackTrace();
+            this.keyPair = generateKeyPair(null);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("Failed to initialize DH key exchange: " + e.getMessage(), e);
         }
     }
 
+    private DHKeyExchange(KeyPair keyPair) {
+        this.keyPair = keyPair;
+    }
+
+    /**
+     * Start the answer to a peer's public key, with a key pair in the peer's
+     * group so both sides agree on the parameters
+     * @param peerPublicKeyBase64 Peer's public key, as for {@link #computeSharedSecret}
+     */
+    public static DHKeyExchange forPeer(String peerPublicKeyBase64) throws GeneralSecurityException {
+        DHParameterSpec group = ((DHPublicKey) decodePublicKey(peerPublicKeyBase64)).getParams();
+        return new DHKeyExchange(generateKeyPair(group));
+    }
+
+    /**
+     * @param group Group parameters, or null for the provider's default group of {@link #KEY_SIZE} bits
+     */
+    private static KeyPair generateKeyPair(DHParameterSpec group) throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("DH");
+        if (group != null) {
+            keyPairGenerator.initialize(group);
+        } else {
+            keyPairGenerator.initialize(KEY_SIZE);
+        }
+        return keyPairGenerator.generateKeyPair();
+    }
+
     /**
      * Get the public key in Base64 format
      */
@@ -47,34 +64,60 @@ public class DHKeyExchange {
         return Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
     }
 
+    /**
+     * Decode a peer's public key: Base64 of either the DER encoding or a PEM
+     * document, which is how the server sends its key. The JDK reads the usual
+     * PKCS#3 keys; only other encodings, such as X9.42, need Bouncy Castle.
+     */
+    static PublicKey decodePublicKey(String peerPublicKeyBase64) throws GeneralSecurityException {
+        byte[] encoded = Base64.getDecoder().decode(peerPublicKeyBase64);
+        String text = new String(encoded, StandardCharsets.US_ASCII);
+        if (text.startsWith(PEM_BEGIN)) {
+            // Strip the armour lines and decode the Base64 DER between them
+            String body = text.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+            encoded = Base64.getDecoder().decode(body);
+        }
+
+        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(encoded);
+        try {
+            return KeyFactory.getInstance("DH").generatePublic(keySpec);
+        } catch (InvalidKeySpecException e) {
+            return KeyFactory.getInstance("DH", CryptoProviders.bouncyCastle()).generatePublic(keySpec);
+        }
+    }
+
     /**
      * Compute the shared secret using the peer's public key
      * @param peerPublicKeyBase64 Peer's public key in Base64 format
      * @return Shared secret key in bytes
+     * @throws GeneralSecurityException If the peer's key is unusable or the agreement fails
      */
-    public byte[] computeSharedSecret(String peerPublicKeyBase64) {
+    public byte[] computeSharedSecret(String peerPublicKeyBase64) throws GeneralSecurityException {
+        PublicKey peerPublicKey;
         try {
-            System.out.println("Computing shared secret");
-            byte[] peerPublicKeyBytes = Base64.getDecoder().decode(peerPublicKeyBase64);
-            
-            KeyFactory keyFactory = KeyFactory.getInstance("DH");
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(peerPublicKeyBytes);
-            PublicKey peerPublicKey = keyFactory.generatePublic(keySpec);
-            
-            KeyAgreement keyAgreement = KeyAgreement.getInstance("DH");
-            keyAgreement.init(keyPair.getPrivate());
-            keyAgreement.doPhase(peerPublicKey, true);
-            
-            byte[] secret = keyAgreement.generateSecret();
-            System.out.println("Generated shared secret of length: " + secret.length);
-            return secret;
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("Failed to compute shared secret: " + e.getMessage());
-            // Return a default key for now to prevent blocking the application
-            // This is not secure but allows the app to continue working
-            return new byte[32]; // 256 bits
+            peerPublicKey = decodePublicKey(peerPublicKeyBase64);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeyException("Peer public key is not valid Base64", e);
+        }
+
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("DH");
+        keyAgreement.init(keyPair.getPrivate());
+        keyAgreement.doPhase(peerPublicKey, true);
+
+        // A secret anyone could guess must never become a key
+        byte[] secret = keyAgreement.generateSecret();
+        if (isAllZero(secret)) {
+            throw new InvalidKeyException("Key agreement produced an all-zero secret");
+        }
+        return secret;
+    }
+
+    private static boolean isAllZero(byte[] bytes) {
+        int bits = 0;
+        for (byte b : bytes) {
+            bits |= b;
         }
+        return bits == 0;
     }
 
     /**
@@ -87,10 +130,8 @@ public class DHKeyExchange {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             return digest.digest(sharedSecret);
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            System.out.println("Failed to derive encryption key: " + e.getMessage());
-            // Return a default key for now
-            return new byte[32]; // 256 bits
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
 }
@@ -0,0 +1,53 @@
+package com.sfx.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * HKDF with HMAC-SHA256 (RFC 5869) for deriving independent keys for
+ * different purposes from one secret
+ */
+public class KeyDerivation {
+    private static final String HMAC = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private KeyDerivation() {
+    }
+
+    /**
+     * Derive a key
+     * @param secret Input key material
+     * @param salt Non-secret value that separates derivations from the same secret, or null
+     * @param info Purpose of the key, so keys for different uses never coincide
+     * @param length Key length in bytes, at most 8160
+     * @return The derived key
+     */
+    public static byte[] hkdf(byte[] secret, byte[] salt, String info, int length) throws GeneralSecurityException {
+        if (length < 1 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Invalid HKDF output length: " + length);
+        }
+
+        // Extract: concentrate the secret's entropy into a pseudorandom key
+        Mac mac = Mac.getInstance(HMAC);
+        mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[HASH_LENGTH], HMAC));
+        byte[] pseudorandomKey = mac.doFinal(secret);
+
+        // Expand: chain HMAC blocks over the info string until enough bytes exist
+        mac.init(new SecretKeySpec(pseudorandomKey, HMAC));
+        byte[] infoBytes = info.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[length];
+        byte[] block = new byte[0];
+        for (int offset = 0, counter = 1; offset < length; counter++) {
+            mac.update(block);
+            mac.update(infoBytes);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            int chunk = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, output, offset, chunk);
+            offset += chunk;
+        }
+        return output;
+    }
+}
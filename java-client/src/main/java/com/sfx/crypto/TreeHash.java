@@ -0,0 +1,148 @@
+package com.sfx.crypto;
+
+import com.sfx.delta.MappedFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SHA-256 Merkle tree hash of file content, shared with the server. Content is
+ * split into {@link #LEAF_SIZE} leaves; leaves are hashed as
+ * {@code SHA-256(0x00 || data)} and inner nodes as
+ * {@code SHA-256(0x01 || left || right)}. A level with an odd node count
+ * splits at the largest power of two below it, as in RFC 6962, so the root
+ * depends only on the content. Empty content is a single empty leaf.
+ *
+ * Leaves are independent, so they are hashed in parallel on a fork-join
+ * pool and whole-file verification runs at about the speed the file can be read.
+ */
+public class TreeHash {
+    public static final int LEAF_SIZE = 1024 * 1024;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    // Leaves per fork-join task below which the task hashes sequentially
+    private static final int SEQUENTIAL_LEAVES = 4;
+
+    /**
+     * Hash a whole file, reading it through a memory mapping on the common fork-join pool
+     * @return Root hash
+     */
+    public static byte[] of(Path file) throws IOException {
+        return of(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Hash a whole file on the given pool
+     * @return Root hash
+     */
+    public static byte[] of(Path file, ForkJoinPool pool) throws IOException {
+        try (MappedFile mapped = new MappedFile(file)) {
+            long leaves = Math.max(1, (mapped.size() + LEAF_SIZE - 1) / LEAF_SIZE);
+            return pool.invoke(new SubtreeTask(mapped, 0, leaves));
+        }
+    }
+
+    /**
+     * Hash one leaf
+     * @param data Leaf content, consumed from its position to its limit
+     */
+    public static byte[] leaf(ByteBuffer data) {
+        MessageDigest digest = sha256();
+        digest.update(LEAF_PREFIX);
+        digest.update(data);
+        return digest.digest();
+    }
+
+    /**
+     * Combine two subtree hashes
+     */
+    public static byte[] node(byte[] left, byte[] right) {
+        MessageDigest digest = sha256();
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    /**
+     * Compute the root from leaf hashes in content order
+     */
+    public static byte[] root(List<byte[]> leaves) {
+        if (leaves.isEmpty()) {
+            return leaf(ByteBuffer.allocate(0));
+        }
+        return subtreeRoot(leaves, 0, leaves.size());
+    }
+
+    private static byte[] subtreeRoot(List<byte[]> leaves, int from, int to) {
+        if (to - from == 1) {
+            return leaves.get(from);
+        }
+        int split = from + splitPoint(to - from);
+        return node(subtreeRoot(leaves, from, split), subtreeRoot(leaves, split, to));
+    }
+
+    /**
+     * @return Largest power of two strictly below {@code count}, for {@code count >= 2}
+     */
+    private static long splitPoint(long count) {
+        return Long.highestOneBit(count - 1);
+    }
+
+    private static int splitPoint(int count) {
+        return Integer.highestOneBit(count - 1);
+    }
+
+    public static String toHex(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Computes the root of the subtree over leaves {@code [from, to)}
+     */
+    private static class SubtreeTask extends RecursiveTask<byte[]> {
+        private final MappedFile file;
+        private final long from;
+        private final long to;
+
+        SubtreeTask(MappedFile file, long from, long to) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            if (to - from == 1) {
+                long position = from * LEAF_SIZE;
+                return leaf(file.slice(position, (int) Math.min(LEAF_SIZE, file.size() - position)));
+            }
+
+            long split = from + splitPoint(to - from);
+            if (to - from <= SEQUENTIAL_LEAVES) {
+                return node(new SubtreeTask(file, from, split).compute(), new SubtreeTask(file, split, to).compute());
+            }
+            SubtreeTask left = new SubtreeTask(file, from, split);
+            left.fork();
+            byte[] right = new SubtreeTask(file, split, to).compute();
+            return node(left.join(), right);
+        }
+    }
+}
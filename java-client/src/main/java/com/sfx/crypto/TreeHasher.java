@@ -0,0 +1,141 @@
+package com.sfx.crypto;
+
+import com.sfx.io.BufferPool;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Computes a {@link TreeHash} root incrementally while data streams past.
+ * Every completed leaf is handed to the fork-join pool, so hashing runs on
+ * other cores while the transfer continues. The number of leaves waiting to be
+ * hashed is bounded, so a slow pool slows the stream instead of buffering it.
+ *
+ * Bytes written to this stream are hashed, not stored. Not thread-safe.
+ */
+public class TreeHasher extends OutputStream {
+    private final ForkJoinPool pool;
+    private final int maxPending;
+    private final BufferPool buffers = BufferPool.shared();
+    private final List<byte[]> completedLeaves = new ArrayList<>();
+    private final Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+    private ByteBuffer leaf;
+    private byte[] root;
+
+    public TreeHasher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public TreeHasher(ForkJoinPool pool) {
+        this.pool = pool;
+        this.maxPending = 2 * pool.getParallelism();
+    }
+
+    /**
+     * Wrap a stream so everything read from it is also hashed
+     */
+    public InputStream hashing(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value >= 0) {
+                    TreeHasher.this.write(value);
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    TreeHasher.this.write(b, off, read);
+                }
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        if (root != null) {
+            throw new IllegalStateException("Root hash already computed");
+        }
+        while (length > 0) {
+            if (leaf == null) {
+                leaf = buffers.acquire(TreeHash.LEAF_SIZE);
+            }
+            int chunk = Math.min(length, leaf.remaining());
+            leaf.put(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+            if (!leaf.hasRemaining()) {
+                submitLeaf();
+            }
+        }
+    }
+
+    private void submitLeaf() {
+        ByteBuffer full = leaf.flip();
+        leaf = null;
+        if (pending.size() >= maxPending) {
+            completedLeaves.add(pending.removeFirst().join());
+        }
+        pending.addLast(pool.submit(() -> {
+            try {
+                return TreeHash.leaf(full);
+            } finally {
+                buffers.release(full);
+            }
+        }));
+    }
+
+    /**
+     * Finish hashing. Further writes are rejected.
+     * @return Root hash of everything written
+     */
+    public byte[] digest() {
+        if (root == null) {
+            if (leaf != null && leaf.position() > 0) {
+                submitLeaf();
+            } else if (leaf != null) {
+                buffers.release(leaf);
+                leaf = null;
+            }
+            while (!pending.isEmpty()) {
+                completedLeaves.add(pending.removeFirst().join());
+            }
+            root = TreeHash.root(completedLeaves);
+        }
+        return root.clone();
+    }
+
+    /**
+     * @return Hex encoded root hash, see {@link #digest()}
+     */
+    public String hexDigest() {
+        return TreeHash.toHex(digest());
+    }
+
+    /**
+     * Finish hashing and return any buffered leaf to the pool
+     */
+    @Override
+    public void close() {
+        digest();
+    }
+}
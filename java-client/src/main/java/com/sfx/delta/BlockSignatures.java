@@ -0,0 +1,42 @@
+package com.sfx.delta;
+
+import com.sfx.api.BlockSignaturesResponse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Computes block signatures of a local file, in the same form the server
+ * returns for its stored copies
+ */
+public class BlockSignatures {
+
+    /**
+     * Compute weak and strong signatures of every block of a file
+     * @param file The file to sign
+     * @param blockSize Block size in bytes; the last block may be shorter
+     * @return Signatures of all blocks
+     */
+    public static BlockSignaturesResponse compute(Path file, int blockSize) throws IOException {
+        MessageDigest digest = DeltaEncoder.sha256();
+        HexFormat hex = HexFormat.of();
+        List<BlockSignaturesResponse.Block> blocks = new ArrayList<>();
+
+        try (MappedFile mapped = new MappedFile(file)) {
+            byte[] block = new byte[blockSize];
+            int index = 0;
+            for (long position = 0; position < mapped.size(); position += blockSize, index++) {
+                int length = (int) Math.min(blockSize, mapped.size() - position);
+                mapped.get(position, block, 0, length);
+                digest.update(block, 0, length);
+                blocks.add(new BlockSignaturesResponse.Block(index,
+                        RollingChecksum.of(block, 0, length), hex.formatHex(digest.digest())));
+            }
+            return new BlockSignaturesResponse(file.getFileName().toString(), blockSize, mapped.size(), blocks);
+        }
+    }
+}
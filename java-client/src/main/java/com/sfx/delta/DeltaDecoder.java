@@ -0,0 +1,88 @@
+package com.sfx.delta;
+
+import com.sfx.io.BufferPool;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Rebuilds a file from a base copy and a delta written by {@link DeltaEncoder}.
+ * This mirrors what the server does when it receives a delta upload.
+ */
+public class DeltaDecoder {
+
+    /**
+     * Apply a delta to a base file
+     * @param base The file the signatures were computed from
+     * @param delta The delta stream
+     * @param out Destination of the rebuilt file
+     * @return Number of bytes written
+     */
+    public static long apply(Path base, InputStream delta, OutputStream out) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+
+        byte[] magic = new byte[DeltaEncoder.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, DeltaEncoder.MAGIC) || in.readUnsignedByte() != DeltaEncoder.VERSION) {
+            throw new IOException("Not a supported delta stream");
+        }
+        int blockSize = in.readInt();
+        long targetSize = in.readLong();
+
+        long written = 0;
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer pooled = pool.acquire(Math.max(blockSize, 64 * 1024));
+        byte[] buffer = pooled.array();
+        try (FileChannel baseChannel = FileChannel.open(base, StandardOpenOption.READ)) {
+            long baseSize = baseChannel.size();
+
+            while (true) {
+                byte op = in.readByte();
+                if (op == DeltaEncoder.OP_END) {
+                    break;
+                } else if (op == DeltaEncoder.OP_COPY) {
+                    long start = (long) in.readInt() * blockSize;
+                    long end = Math.min(baseSize, start + (long) in.readInt() * blockSize);
+                    if (start < 0 || start >= end) {
+                        throw new IOException("Copy instruction outside the base file");
+                    }
+                    for (long position = start; position < end; ) {
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(pooled.limit(), end - position));
+                        int read = baseChannel.read(chunk, position);
+                        if (read < 0) {
+                            throw new IOException("Base file ended early");
+                        }
+                        out.write(buffer, 0, read);
+                        position += read;
+                        written += read;
+                    }
+                } else if (op == DeltaEncoder.OP_LITERAL) {
+                    int length = in.readInt();
+                    while (length > 0) {
+                        int chunk = Math.min(length, pooled.limit());
+                        in.readFully(buffer, 0, chunk);
+                        out.write(buffer, 0, chunk);
+                        length -= chunk;
+                        written += chunk;
+                    }
+                } else {
+                    throw new IOException("Unknown delta operation: " + op);
+                }
+            }
+        } finally {
+            pool.release(pooled);
+        }
+
+        if (written != targetSize) {
+            throw new IOException("Rebuilt " + written + " bytes but expected " + targetSize);
+        }
+        return written;
+    }
+}
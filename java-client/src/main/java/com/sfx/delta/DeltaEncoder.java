@@ -0,0 +1,260 @@
+package com.sfx.delta;
+
+import com.sfx.api.BlockSignaturesResponse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes an rsync-style delta of a local file against the block signatures
+ * of the server's copy. The local file is scanned through a memory mapping with
+ * a rolling checksum; blocks the server already has become copy instructions
+ * and everything else is sent as literal data.
+ *
+ * Delta format (big-endian): magic {@code SFXD}, version byte, block size (int),
+ * target size (long), then operations until {@link #OP_END}:
+ * {@link #OP_COPY} with first block index and block count (ints), or
+ * {@link #OP_LITERAL} with a length (int) followed by that many bytes.
+ */
+public class DeltaEncoder {
+    public static final byte[] MAGIC = {'S', 'F', 'X', 'D'};
+    public static final int VERSION = 1;
+    public static final byte OP_COPY = 'C';
+    public static final byte OP_LITERAL = 'L';
+    public static final byte OP_END = 'E';
+
+    private static final int MAX_LITERAL = 64 * 1024;
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+
+    private final int blockSize;
+    private final long baseSize;
+    private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+    private final Map<Integer, byte[]> strongByIndex = new HashMap<>();
+    private final int lastBlockLength;
+    private BlockSignaturesResponse.Block lastPartialBlock;
+
+    private DataOutputStream output;
+    private final byte[] literal = new byte[MAX_LITERAL];
+    private int literalLength;
+    private int copyStart = -1;
+    private int copyCount;
+    private long literalBytes;
+    private long copiedBytes;
+
+    /**
+     * Create an encoder for the given signatures of the server's copy
+     */
+    public DeltaEncoder(BlockSignaturesResponse signatures) {
+        this.blockSize = signatures.getBlockSize();
+        this.baseSize = signatures.getSizeBytes();
+        this.lastBlockLength = (int) (baseSize % blockSize);
+
+        HexFormat hex = HexFormat.of();
+        for (BlockSignaturesResponse.Block block : signatures.getBlocks()) {
+            boolean partial = lastBlockLength != 0 && block.getIndex() == baseSize / blockSize;
+            if (partial) {
+                lastPartialBlock = block;
+            } else {
+                blocksByWeak.computeIfAbsent(block.getWeak(), k -> new ArrayList<>()).add(block.getIndex());
+            }
+            strongByIndex.put(block.getIndex(), hex.parseHex(block.getStrong()));
+        }
+    }
+
+    /**
+     * Pick a block size for a file: about the square root of its size, so the
+     * signature list and the per-block overhead stay balanced
+     */
+    public static int chooseBlockSize(long fileSize) {
+        long size = (long) Math.sqrt((double) fileSize) & ~1023L;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * Write the delta that turns the server's copy into the local file
+     * @param file The new local version
+     * @param out Destination of the delta, flushed but not closed
+     */
+    public void encode(Path file, OutputStream out) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(out, MAX_LITERAL));
+        literalLength = 0;
+        copyStart = -1;
+        copyCount = 0;
+        literalBytes = 0;
+        copiedBytes = 0;
+
+        MessageDigest digest = sha256();
+        try (MappedFile mapped = new MappedFile(file)) {
+            long size = mapped.size();
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(blockSize);
+            output.writeLong(size);
+
+            byte[] window = new byte[blockSize];
+            RollingChecksum checksum = new RollingChecksum();
+            boolean fresh = true;
+            long position = 0;
+
+            while (position + blockSize <= size) {
+                if (fresh) {
+                    mapped.get(position, window, 0, blockSize);
+                    checksum.reset(window, 0, blockSize);
+                    fresh = false;
+                }
+
+                int match = findBlock(checksum.value(), mapped, position, window, digest);
+                if (match >= 0) {
+                    addCopy(match);
+                    position += blockSize;
+                    fresh = true;
+                    continue;
+                }
+
+                byte outByte = mapped.get(position);
+                addLiteral(outByte);
+                if (position + blockSize < size) {
+                    checksum.roll(outByte, mapped.get(position + blockSize));
+                }
+                position++;
+            }
+
+            int remaining = (int) (size - position);
+            if (remaining > 0) {
+                if (!matchesLastBlock(mapped, position, remaining, digest)) {
+                    for (long p = position; p < size; p++) {
+                        addLiteral(mapped.get(p));
+                    }
+                }
+            }
+        }
+
+        flushLiteral();
+        flushCopy();
+        output.writeByte(OP_END);
+        output.flush();
+    }
+
+    private int findBlock(int weak, MappedFile mapped, long position, byte[] window, MessageDigest digest) {
+        List<Integer> candidates = blocksByWeak.get(weak);
+        if (candidates == null) {
+            return -1;
+        }
+
+        // The window buffer is stale after rolling, so refresh it before hashing
+        mapped.get(position, window, 0, blockSize);
+        byte[] strong = digest.digest(window);
+        for (int index : candidates) {
+            if (Arrays.equals(strong, strongByIndex.get(index))) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesLastBlock(MappedFile mapped, long position, int remaining, MessageDigest digest)
+            throws IOException {
+        if (lastPartialBlock == null || remaining != lastBlockLength) {
+            return false;
+        }
+
+        byte[] tail = new byte[remaining];
+        mapped.get(position, tail, 0, remaining);
+        if (RollingChecksum.of(tail, 0, remaining) != lastPartialBlock.getWeak()
+                || !Arrays.equals(digest.digest(tail), strongByIndex.get(lastPartialBlock.getIndex()))) {
+            return false;
+        }
+
+        flushLiteral();
+        flushCopy();
+        copyStart = lastPartialBlock.getIndex();
+        copyCount = 1;
+        flushCopy();
+        copiedBytes += remaining - blockSize;
+        return true;
+    }
+
+    private void addCopy(int index) throws IOException {
+        flushLiteral();
+        if (copyCount > 0 && copyStart + copyCount == index) {
+            copyCount++;
+        } else {
+            flushCopy();
+            copyStart = index;
+            copyCount = 1;
+        }
+    }
+
+    private void addLiteral(byte value) throws IOException {
+        flushCopy();
+        literal[literalLength++] = value;
+        if (literalLength == literal.length) {
+            flushLiteral();
+        }
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyCount == 0) {
+            return;
+        }
+        output.writeByte(OP_COPY);
+        output.writeInt(copyStart);
+        output.writeInt(copyCount);
+        copiedBytes += (long) copyCount * blockSize;
+        copyCount = 0;
+        copyStart = -1;
+    }
+
+    private void flushLiteral() throws IOException {
+        if (literalLength == 0) {
+            return;
+        }
+        output.writeByte(OP_LITERAL);
+        output.writeInt(literalLength);
+        output.write(literal, 0, literalLength);
+        literalBytes += literalLength;
+        literalLength = 0;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getBaseSize() {
+        return baseSize;
+    }
+
+    /**
+     * @return Bytes sent as literal data by the last {@link #encode} call
+     */
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    /**
+     * @return Bytes reused from the server's copy by the last {@link #encode} call
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.sfx.delta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mapping of a whole file. Files larger than one mapping can
+ * cover are mapped as consecutive segments, so positions are plain longs.
+ */
+public class MappedFile implements AutoCloseable {
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    public MappedFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+
+        int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        this.segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Read one byte
+     */
+    public byte get(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Copy a range of bytes, which may span segments
+     */
+    public void get(long position, byte[] destination, int offset, int length) {
+        while (length > 0) {
+            MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            int chunk = Math.min(length, segment.capacity() - segmentOffset);
+            segment.get(segmentOffset, destination, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * View a range without copying. The range must not span segments, which
+     * holds for any range inside an aligned power-of-two block of at most 1 GiB.
+     */
+    public ByteBuffer slice(long position, int length) {
+        if (length == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int segmentOffset = (int) (position % SEGMENT_SIZE);
+        MappedByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)];
+        if (segmentOffset + length > segment.capacity()) {
+            throw new IllegalArgumentException("Range spans mapped segments");
+        }
+        return segment.slice(segmentOffset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
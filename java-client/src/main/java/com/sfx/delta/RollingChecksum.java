@@ -0,0 +1,55 @@
+package com.sfx.delta;
+
+/**
+ * Adler-32 checksum over a fixed-size window that can be rolled forward one
+ * byte at a time. Values are identical to {@link java.util.zip.Adler32} and to
+ * Python's {@code zlib.adler32}, which the server uses for block signatures.
+ */
+public class RollingChecksum {
+    private static final int MOD_ADLER = 65521;
+
+    private int a = 1;
+    private int b;
+    private int length;
+
+    /**
+     * Reset the checksum to cover the given window
+     */
+    public void reset(byte[] data, int offset, int length) {
+        a = 1;
+        b = 0;
+        this.length = length;
+        for (int i = offset; i < offset + length; i++) {
+            a = (a + (data[i] & 0xff)) % MOD_ADLER;
+            b = (b + a) % MOD_ADLER;
+        }
+    }
+
+    /**
+     * Slide the window by one byte
+     * @param outByte The byte leaving the window at the front
+     * @param inByte The byte entering the window at the back
+     */
+    public void roll(byte outByte, byte inByte) {
+        int out = outByte & 0xff;
+        int in = inByte & 0xff;
+        a = Math.floorMod(a - out + in, MOD_ADLER);
+        b = (int) Math.floorMod(b - (long) length * out + a - 1, (long) MOD_ADLER);
+    }
+
+    /**
+     * @return The checksum of the current window
+     */
+    public int value() {
+        return (b << 16) | a;
+    }
+
+    /**
+     * Compute the checksum of a block in one go
+     */
+    public static int of(byte[] data, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.value();
+    }
+}
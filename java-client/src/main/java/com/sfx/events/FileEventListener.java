@@ -0,0 +1,15 @@
+package com.sfx.events;
+
+import com.sfx.api.FileEvent;
+
+/**
+ * Receives file changes from an event stream, on the stream's thread
+ */
+@FunctionalInterface
+public interface FileEventListener {
+    /**
+     * Apply one change. On a reset event, reload the full file list: changes
+     * may have been missed while disconnected.
+     */
+    void onEvent(FileEvent event);
+}
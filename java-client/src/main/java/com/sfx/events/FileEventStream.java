@@ -0,0 +1,159 @@
+package com.sfx.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.api.FileEvent;
+import com.sfx.resilience.RetryPolicy;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Subscription to a server's file change events over Server-Sent Events. The
+ * stream runs on its own daemon thread and reconnects with backoff after a
+ * failure, resuming from the last event received; the server sends a reset
+ * event when it cannot resume, such as after a restart.
+ */
+public class FileEventStream implements FileWatch {
+    private static final long DEFAULT_RECONNECT_MILLIS = 1000;
+    private static final long MAX_RECONNECT_MILLIS = 30_000;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final FileEventListener listener;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Call call;
+    private volatile String lastEventId;
+    private volatile boolean connected;
+    // Consecutive failed connections; only touched by the stream thread
+    private int failures;
+
+    /**
+     * @param client HTTP client without a read timeout shorter than the server's keepalive interval
+     * @param url Event stream URL
+     * @param listener Receives every event
+     */
+    public FileEventStream(OkHttpClient client, String url, FileEventListener listener) {
+        this.client = client;
+        this.url = url;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "sfx-file-events");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Connect in the background
+     * @return This stream
+     */
+    public FileEventStream start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * @return ID of the last event received, sent as Last-Event-ID when reconnecting
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @return true while the stream is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Call current = call;
+        if (current != null) {
+            current.cancel();
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        long reconnectMillis = DEFAULT_RECONNECT_MILLIS;
+        while (!closed) {
+            try {
+                long serverRetry = readEvents();
+                if (serverRetry >= 0) {
+                    reconnectMillis = serverRetry;
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    break;
+                }
+                if (failures == 0) {
+                    System.err.println("File event stream from " + url + " lost: " + e.getMessage());
+                }
+                failures++;
+            }
+
+            RetryPolicy backoff = new RetryPolicy(Integer.MAX_VALUE, reconnectMillis, MAX_RECONNECT_MILLIS, 0);
+            long delay = Math.max(reconnectMillis, backoff.delayMillis(Math.max(failures, 1), null));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read events until the connection ends
+     * @return The reconnection delay the server asked for, or -1
+     */
+    private long readEvents() throws IOException {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+
+        call = client.newCall(request.build());
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to open event stream: " + response.code());
+            }
+            connected = true;
+            // A healthy stream that ends later reconnects without a grown delay
+            failures = 0;
+
+            ServerSentEventReader reader = new ServerSentEventReader(new BufferedReader(
+                    new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8)));
+            ServerSentEventReader.Event event;
+            while ((event = reader.next()) != null && !closed) {
+                dispatch(event);
+            }
+            return reader.getRetryMillis();
+        } finally {
+            connected = false;
+        }
+    }
+
+    private void dispatch(ServerSentEventReader.Event event) throws IOException {
+        FileEvent fileEvent = objectMapper.readValue(event.getData(), FileEvent.class);
+        try {
+            listener.onEvent(fileEvent);
+        } catch (RuntimeException e) {
+            // A failing listener should not tear down the stream for later events
+            System.err.println("File event listener failed: " + e.getMessage());
+        }
+        // Advance only after the listener has seen the event, so a reconnect cannot skip it
+        if (event.getId() != null) {
+            lastEventId = event.getId();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.sfx.events;
+
+import java.io.Closeable;
+
+/**
+ * Subscription to file changes, ended by closing it
+ */
+public interface FileWatch extends Closeable {
+    /**
+     * @return true while changes are being received; while false, changes made
+     *         meanwhile are only reported by the reset event after reconnecting
+     */
+    boolean isConnected();
+}
@@ -0,0 +1,111 @@
+package com.sfx.events;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Parser for a text/event-stream body as specified by the HTML Living Standard
+ */
+public class ServerSentEventReader {
+    private final BufferedReader reader;
+    private long retryMillis = -1;
+
+    public ServerSentEventReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next event, skipping comments and events without data
+     * @return The event, or null at the end of the stream
+     */
+    public Event next() throws IOException {
+        String id = null;
+        String type = null;
+        StringBuilder data = null;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (data != null) {
+                    return new Event(id, type != null ? type : "message", data.toString());
+                }
+                id = null;
+                type = null;
+                continue;
+            }
+            if (line.startsWith(":")) {
+                // Comment, such as a keepalive
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            switch (field) {
+                case "id":
+                    id = value;
+                    break;
+                case "event":
+                    type = value;
+                    break;
+                case "data":
+                    if (data == null) {
+                        data = new StringBuilder(value);
+                    } else {
+                        data.append('\n').append(value);
+                    }
+                    break;
+                case "retry":
+                    if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                        retryMillis = Long.parseLong(value);
+                    }
+                    break;
+                default:
+                    // Unknown fields are ignored
+                    break;
+            }
+        }
+        // An unterminated event at the end of the stream is incomplete and dropped
+        return null;
+    }
+
+    /**
+     * @return The reconnection delay the server asked for, or -1 if it did not
+     */
+    public long getRetryMillis() {
+        return retryMillis;
+    }
+
+    /**
+     * One dispatched event
+     */
+    public static class Event {
+        private final String id;
+        private final String type;
+        private final String data;
+
+        public Event(String id, String type, String data) {
+            this.id = id;
+            this.type = type;
+            this.data = data;
+        }
+
+        /**
+         * @return The event ID, or null if the event had none
+         */
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getData() {
+            return data;
+        }
+    }
+}
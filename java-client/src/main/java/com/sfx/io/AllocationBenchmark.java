@@ -0,0 +1,138 @@
+package com.sfx.io;
+
+import com.sfx.crypto.AESEncryption;
+import com.sfx.transfer.CompressionTransformer;
+import com.sfx.transfer.EncryptionTransformer;
+import com.sfx.transfer.TransferPipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports heap allocation per transferred megabyte and GC time for the crypto
+ * and transfer paths, once with buffer reuse disabled and once with the shared
+ * pool enabled.
+ *
+ * Usage: {@code AllocationBenchmark [megabytes]}
+ */
+public class AllocationBenchmark {
+    private static final int MESSAGE_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        long bytes = (long) megabytes * 1024 * 1024;
+        byte[] key = new byte[32];
+        new Random(1).nextBytes(key);
+        BufferPool pool = BufferPool.shared();
+
+        // Warm up the JIT and the pool before measuring
+        runAll(32L * 1024 * 1024, key);
+
+        System.out.printf("%-24s %-9s %14s %10s %8s%n", "Scenario", "Pool", "Alloc MB/MB", "GC ms", "GCs");
+        for (boolean pooled : new boolean[]{false, true}) {
+            pool.setMaxRetainedBytes(pooled ? BufferPool.DEFAULT_MAX_RETAINED_BYTES : 0);
+            measure("AES string API", pooled, bytes, () -> encryptMessages(bytes, key));
+            measure("pipeline compress+AES", pooled, bytes, () -> runPipeline(bytes, key));
+            measure("stream copy", pooled, bytes, () -> copyStream(bytes));
+        }
+    }
+
+    private static void runAll(long bytes, byte[] key) throws Exception {
+        encryptMessages(bytes, key);
+        runPipeline(bytes, key);
+        copyStream(bytes);
+    }
+
+    private static void measure(String name, boolean pooled, long bytes, Workload workload) throws Exception {
+        System.gc();
+        try (AllocationMeter meter = new AllocationMeter()) {
+            workload.run();
+            // GC notifications arrive asynchronously
+            Thread.sleep(200);
+            System.out.printf("%-24s %-9s %14.2f %10d %8d%n", name, pooled ? "pooled" : "unpooled",
+                    (double) meter.getAllocatedBytes() / bytes, meter.getGcMillis(), meter.getCollections());
+        }
+    }
+
+    private static void encryptMessages(long bytes, byte[] key) throws Exception {
+        byte[] message = new byte[MESSAGE_SIZE];
+        for (long done = 0; done < bytes; done += MESSAGE_SIZE) {
+            AESEncryption.encrypt(message, key);
+        }
+    }
+
+    private static void runPipeline(long bytes, byte[] key) throws Exception {
+        TransferPipeline pipeline = new TransferPipeline(TransferPipeline.DEFAULT_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors(), 4,
+                List.of(new CompressionTransformer(), new EncryptionTransformer(key)));
+        pipeline.run(new PatternChannel(bytes), new DiscardChannel());
+    }
+
+    private static void copyStream(long bytes) throws Exception {
+        byte[] block = new byte[MESSAGE_SIZE];
+        OutputStream discard = OutputStream.nullOutputStream();
+        for (long done = 0; done < bytes; done += block.length) {
+            BufferPool.shared().copy(new ByteArrayInputStream(block), discard);
+        }
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    /**
+     * Source of compressible data that allocates nothing per read
+     */
+    private static class PatternChannel implements ReadableByteChannel {
+        private long remaining;
+
+        PatternChannel(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(dst.remaining(), remaining);
+            for (int i = 0; i < count; i++) {
+                dst.put((byte) ('a' + (remaining - i) % 23));
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class DiscardChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
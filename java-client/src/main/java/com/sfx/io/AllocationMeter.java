@@ -0,0 +1,103 @@
+package com.sfx.io;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures heap allocation and GC pause time of the whole JVM over an
+ * interval. Allocation is derived from GC notifications: everything a
+ * collection frees was allocated earlier, so bytes allocated equal the bytes
+ * collected plus the growth of the used heap. This counts threads that have
+ * already exited, which per-thread allocation counters would miss.
+ */
+public class AllocationMeter implements AutoCloseable {
+    private final AtomicLong collectedBytes = new AtomicLong();
+    private final AtomicLong pauseMillis = new AtomicLong();
+    private final AtomicLong collections = new AtomicLong();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = this::onNotification;
+    private final long startUsed;
+
+    /**
+     * Start measuring
+     */
+    public AllocationMeter() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+        this.startUsed = heapUsed();
+    }
+
+    private void onNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long before = 0;
+        long after = 0;
+        for (MemoryUsage usage : info.getGcInfo().getMemoryUsageBeforeGc().values()) {
+            before += usage.getUsed();
+        }
+        for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+            after += usage.getUsed();
+        }
+        collectedBytes.addAndGet(Math.max(0, before - after));
+        pauseMillis.addAndGet(info.getGcInfo().getDuration());
+        collections.incrementAndGet();
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return Approximate heap bytes allocated since the meter was created
+     */
+    public long getAllocatedBytes() {
+        return collectedBytes.get() + heapUsed() - startUsed;
+    }
+
+    /**
+     * @return Total duration of collections since the meter was created, in milliseconds.
+     *         Concurrent collectors report their whole cycle, so this is an upper bound on pauses.
+     */
+    public long getGcMillis() {
+        return pauseMillis.get();
+    }
+
+    /**
+     * @return Number of collections since the meter was created
+     */
+    public long getCollections() {
+        return collections.get();
+    }
+
+    /**
+     * Stop receiving GC notifications
+     */
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (Exception e) {
+                // Already removed
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.sfx.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of heap and direct byte buffers shared by the crypto and
+ * I/O paths, so sustained transfers reuse the same few buffers instead of
+ * allocating new ones for every chunk.
+ *
+ * Requests are rounded up to a power-of-two size class between
+ * {@link #MIN_CLASS_SIZE} and {@link #MAX_CLASS_SIZE}. An acquired buffer has
+ * position 0 and its limit set to the requested size; its capacity may be
+ * larger. Larger requests are allocated exactly and not kept after release.
+ * Every acquired buffer must be passed to {@link #release} exactly once, as the
+ * same object (not a slice or duplicate), and must not be used afterwards.
+ *
+ * With leak tracking enabled the pool remembers where each outstanding buffer
+ * was acquired, so tests can fail on buffers that were never released, and
+ * rejects buffers released twice. Tracking is enabled for the shared pool by
+ * the {@code sfx.bufferpool.trackLeaks} system property.
+ */
+public class BufferPool {
+    public static final int MIN_CLASS_SIZE = 4 * 1024;
+    public static final int MAX_CLASS_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_SHIFT + 1;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(
+            Long.getLong("sfx.bufferpool.maxRetainedBytes", DEFAULT_MAX_RETAINED_BYTES),
+            Boolean.getBoolean("sfx.bufferpool.trackLeaks"));
+
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> heapClasses = new ArrayList<>();
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> directClasses = new ArrayList<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Map<ByteBuffer, Throwable> trackedBuffers = Collections.synchronizedMap(new IdentityHashMap<>());
+    private volatile long maxRetainedBytes;
+    private volatile boolean trackLeaks;
+
+    /**
+     * Create a pool
+     * @param maxRetainedBytes Total capacity of released buffers kept for reuse; 0 disables reuse
+     * @param trackLeaks true to record where each outstanding buffer was acquired
+     */
+    public BufferPool(long maxRetainedBytes, boolean trackLeaks) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.trackLeaks = trackLeaks;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            heapClasses.add(new ConcurrentLinkedDeque<>());
+            directClasses.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    /**
+     * @return The pool shared by the whole client
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Acquire a heap buffer backed by an array, with {@code arrayOffset() == 0}
+     * @param size Bytes needed
+     */
+    public ByteBuffer acquire(int size) {
+        return acquire(size, false);
+    }
+
+    /**
+     * Acquire a direct buffer, for channel I/O without an extra copy
+     * @param size Bytes needed
+     */
+    public ByteBuffer acquireDirect(int size) {
+        return acquire(size, true);
+    }
+
+    private ByteBuffer acquire(int size, boolean direct) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative: " + size);
+        }
+
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = (direct ? directClasses : heapClasses).get(sizeClass).pollFirst();
+            if (buffer != null) {
+                retainedBytes.addAndGet(-buffer.capacity());
+            }
+        }
+        if (buffer == null) {
+            int capacity = sizeClass >= 0 ? MIN_CLASS_SIZE << sizeClass : size;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            allocatedBytes.addAndGet(capacity);
+        }
+
+        buffer.clear().limit(size);
+        acquisitions.incrementAndGet();
+        outstanding.incrementAndGet();
+        if (trackLeaks) {
+            trackedBuffers.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Null is ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (trackLeaks && trackedBuffers.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+        }
+        outstanding.decrementAndGet();
+
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0 || (MIN_CLASS_SIZE << sizeClass) != capacity || buffer.isReadOnly()) {
+            return;
+        }
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+        (buffer.isDirect() ? directClasses : heapClasses).get(sizeClass).offerFirst(buffer);
+    }
+
+    /**
+     * Copy a stream to the end through a pooled buffer
+     * @return Number of bytes copied
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        ByteBuffer buffer = acquire(TRANSFER_BUFFER_SIZE);
+        try {
+            byte[] bytes = buffer.array();
+            long copied = 0;
+            int read;
+            while ((read = in.read(bytes, 0, TRANSFER_BUFFER_SIZE)) != -1) {
+                out.write(bytes, 0, read);
+                copied += read;
+            }
+            return copied;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * @return Index of the smallest size class holding {@code size} bytes, or -1 if it is too large
+     */
+    private static int sizeClass(int size) {
+        if (size > MAX_CLASS_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Fail if any buffer acquired while leak tracking was on has not been released
+     * @throws IllegalStateException listing where the first leaked buffer was acquired
+     */
+    public void assertNoLeaks() {
+        List<Throwable> leaks;
+        synchronized (trackedBuffers) {
+            leaks = new ArrayList<>(trackedBuffers.values());
+        }
+        if (!leaks.isEmpty()) {
+            throw new IllegalStateException(leaks.size() + " pooled buffer(s) were not released", leaks.get(0));
+        }
+    }
+
+    /**
+     * Turn leak tracking on or off. Buffers acquired while tracking was off are never reported.
+     */
+    public void setLeakTracking(boolean trackLeaks) {
+        if (!trackLeaks) {
+            trackedBuffers.clear();
+        }
+        this.trackLeaks = trackLeaks;
+    }
+
+    /**
+     * Change how much released buffer capacity is kept; buffers already kept stay until reused
+     */
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return Buffers acquired and not yet released
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return Total capacity of buffers the pool had to allocate because none could be reused
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return Number of acquire calls
+     */
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return Total capacity of released buffers currently kept for reuse
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+}
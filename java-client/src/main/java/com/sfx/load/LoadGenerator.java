@@ -0,0 +1,384 @@
+package com.sfx.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.api.ApiClient;
+import com.sfx.api.FileUploadResponse;
+import com.sfx.api.KeyExchangeResponse;
+import com.sfx.crypto.DHKeyExchange;
+import com.sfx.resilience.ResilienceInterceptor;
+import com.sfx.resilience.RetryPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Drives a running server with many concurrent virtual users, each with its
+ * own client and connections, making key exchanges, uploads, listings and
+ * downloads in a configurable mix. Users send requests on a fixed schedule
+ * that together reaches the target rate. A request that starts late because
+ * the previous one was slow has its latency measured from when it should have
+ * started, so a stalled server shows up in the percentiles instead of
+ * silently lowering the request rate (coordinated omission).
+ *
+ * Results go to a JSON report, see {@link LoadReport}, and can be compared
+ * with the report of an earlier run.
+ *
+ * Usage: {@code LoadGenerator [--users n] [--rate requests/s] [--duration s] [--warmup s]
+ * [--mix key-exchange=1,upload=2,list=5,download=2] [--sizes 4K=50,256K=35,4M=15]
+ * [--report file] [--baseline file] [--seed n] [serverUrl]}
+ */
+public class LoadGenerator {
+    private static final int MAX_ERROR_SAMPLES = 5;
+    // Files per listing request, taken from the user's own uploads
+    private static final int LIST_PAGE_SIZE = 100;
+    private static final String USAGE = "Usage: LoadGenerator [--users n] [--rate requests/s] [--duration s]"
+            + " [--warmup s] [--mix op=weight,...] [--sizes size=weight,...] [--report file]"
+            + " [--baseline file] [--seed n] [serverUrl]";
+
+    private final LoadProfile profile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Long, File> uploadFiles = new HashMap<>();
+    private Path workDir;
+
+    public LoadGenerator(LoadProfile profile) {
+        this.profile = profile;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadProfile profile;
+        try {
+            profile = LoadProfile.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(profile);
+        LoadReport report = generator.run();
+        generator.objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(profile.getReportPath()), report);
+        printSummary(report);
+        System.out.println("Report written to " + profile.getReportPath());
+
+        if (profile.getBaselinePath() != null) {
+            LoadReport baseline = generator.objectMapper.readValue(new File(profile.getBaselinePath()), LoadReport.class);
+            printComparison(baseline, report);
+        }
+    }
+
+    /**
+     * Run the load test: prepare upload files and one stored file per user,
+     * run the users through the warm-up and measured periods, then delete what
+     * they uploaded
+     * @return Results of the measured period
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        String startedAt = Instant.now().toString();
+        workDir = Files.createTempDirectory("sfx-load");
+        List<VirtualUser> users = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(profile.getUsers(), runnable -> {
+            Thread thread = new Thread(runnable, "sfx-load-user");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Random random = new Random(profile.getSeed());
+            for (long size : profile.getSizes().keySet()) {
+                uploadFiles.put(size, createFile(size, random));
+            }
+            for (int i = 0; i < profile.getUsers(); i++) {
+                users.add(new VirtualUser(i));
+            }
+
+            // Every user starts with a stored file, so downloads have something to fetch
+            runAll(executor, users, VirtualUser::prepare);
+
+            long intervalNanos = (long) (1e9 * profile.getUsers() / profile.getRate());
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            long measureStart = start + TimeUnit.SECONDS.toNanos(profile.getWarmupSeconds());
+            long end = measureStart + TimeUnit.SECONDS.toNanos(profile.getDurationSeconds());
+            runAll(executor, users, user -> user.run(start, measureStart, end, intervalNanos));
+
+            LoadReport report = buildReport(startedAt, users);
+            runAll(executor, users, VirtualUser::cleanUp);
+            return report;
+        } finally {
+            executor.shutdownNow();
+            try (Stream<Path> files = Files.walk(workDir)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static void runAll(ExecutorService executor, List<VirtualUser> users, UserTask task)
+            throws IOException, InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (VirtualUser user : users) {
+            futures.add(executor.submit(() -> {
+                task.run(user);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException("Virtual user failed", e.getCause());
+            }
+        }
+    }
+
+    private File createFile(long size, Random random) throws IOException {
+        // Random content, so neither compression nor deduplication shortcuts the transfer
+        Path path = workDir.resolve("upload-" + size + ".bin");
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return path.toFile();
+    }
+
+    private LoadReport buildReport(String startedAt, List<VirtualUser> users) {
+        LoadReport report = new LoadReport(startedAt, profile);
+        double seconds = profile.getDurationSeconds();
+        Stats total = new Stats();
+        for (Operation operation : Operation.values()) {
+            Stats merged = new Stats();
+            for (VirtualUser user : users) {
+                merged.add(user.stats.get(operation));
+            }
+            total.add(merged);
+            if (profile.getMix().containsKey(operation)) {
+                report.getOperations().put(operation.getName(), merged.toOperationStats(seconds));
+            }
+        }
+        report.setTotal(total.toOperationStats(seconds));
+        return report;
+    }
+
+    private static void printSummary(LoadReport report) {
+        System.out.printf("%n%d users, target %.1f requests/s, %d s measured%n%n",
+                report.getUsers(), report.getTargetRate(), report.getDurationSeconds());
+        System.out.printf("%-14s %9s %7s %9s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Errors", "Req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, LoadReport.OperationStats> entry : report.getOperations().entrySet()) {
+            printRow(entry.getKey(), entry.getValue());
+        }
+        printRow("total", report.getTotal());
+    }
+
+    private static void printRow(String name, LoadReport.OperationStats stats) {
+        LoadReport.Latency latency = stats.getLatency();
+        System.out.printf("%-14s %9d %7d %9.1f %10.2f %10.2f %10.2f %10.2f%n", name, stats.getCount(),
+                stats.getErrors(), stats.getThroughputPerSecond(), latency.getP50(), latency.getP99(),
+                latency.getP999(), latency.getMax());
+    }
+
+    private static void printComparison(LoadReport baseline, LoadReport report) {
+        System.out.printf("%nChange against the baseline from %s%n", baseline.getStartedAt());
+        System.out.printf("%-14s %10s %10s %10s%n", "Operation", "Req/s", "p50", "p99");
+        Map<String, LoadReport.OperationStats> current = new HashMap<>(report.getOperations());
+        current.put("total", report.getTotal());
+        Map<String, LoadReport.OperationStats> previous = new HashMap<>(baseline.getOperations());
+        previous.put("total", baseline.getTotal());
+        for (Map.Entry<String, LoadReport.OperationStats> entry : current.entrySet()) {
+            LoadReport.OperationStats before = previous.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            LoadReport.OperationStats after = entry.getValue();
+            System.out.printf("%-14s %10s %10s %10s%n", entry.getKey(),
+                    change(before.getThroughputPerSecond(), after.getThroughputPerSecond()),
+                    change(before.getLatency().getP50(), after.getLatency().getP50()),
+                    change(before.getLatency().getP99(), after.getLatency().getP99()));
+        }
+    }
+
+    private static String change(double before, double after) {
+        return before == 0 ? "n/a" : String.format("%+.1f%%", 100 * (after - before) / before);
+    }
+
+    /**
+     * A simulated user with its own client, random sequence and results
+     */
+    private final class VirtualUser {
+        private final String userId;
+        private final int index;
+        private final ApiClient apiClient;
+        private final Random random;
+        private final List<String> stored = new ArrayList<>();
+        private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+        private final File downloadFile;
+
+        private VirtualUser(int index) {
+            this.index = index;
+            this.userId = "load-user-" + index;
+            // Errors are measured rather than retried, and never short-circuited
+            this.apiClient = new ApiClient(profile.getServerUrl(),
+                    new ResilienceInterceptor(RetryPolicy.none(), Integer.MAX_VALUE, 0, 1024));
+            this.random = new Random(profile.getSeed() + index);
+            this.downloadFile = workDir.resolve("download-" + index + ".tmp").toFile();
+            for (Operation operation : Operation.values()) {
+                stats.put(operation, new Stats());
+            }
+        }
+
+        private void prepare() throws IOException {
+            upload();
+        }
+
+        private void run(long start, long measureStart, long end, long intervalNanos) {
+            // Spread the users' schedules evenly over one interval
+            long offset = intervalNanos * index / profile.getUsers();
+            for (long n = 0; ; n++) {
+                long intended = start + offset + n * intervalNanos;
+                if (intended >= end) {
+                    return;
+                }
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                Operation operation = profile.pickOperation(random);
+                long begin = System.nanoTime();
+                long bytes = 0;
+                String error = null;
+                try {
+                    bytes = execute(operation);
+                } catch (IOException | RuntimeException e) {
+                    error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                }
+                long finish = System.nanoTime();
+
+                if (intended >= measureStart) {
+                    stats.get(operation).record(finish - intended, finish - begin, bytes, error);
+                }
+            }
+        }
+
+        private long execute(Operation operation) throws IOException {
+            switch (operation) {
+                case KEY_EXCHANGE:
+                    KeyExchangeResponse response = apiClient.initiateKeyExchange();
+                    DHKeyExchange keyExchange;
+                    try {
+                        keyExchange = DHKeyExchange.forPeer(response.getPublicKey());
+                        keyExchange.computeSharedSecret(response.getPublicKey());
+                    } catch (GeneralSecurityException | IllegalArgumentException e) {
+                        throw new IOException("Key exchange failed: " + e.getMessage(), e);
+                    }
+                    if (!apiClient.completeKeyExchange(response.getSessionId(), keyExchange.getPublicKeyBase64())) {
+                        throw new IOException("Key exchange was not completed");
+                    }
+                    return 0;
+                case UPLOAD:
+                    return upload();
+                case LIST:
+                    apiClient.listFiles(userId, userId, null, LIST_PAGE_SIZE);
+                    return 0;
+                case DOWNLOAD:
+                    String filename = stored.get(random.nextInt(stored.size()));
+                    apiClient.downloadFile(filename, downloadFile, userId);
+                    long size = downloadFile.length();
+                    Files.deleteIfExists(downloadFile.toPath());
+                    return size;
+                default:
+                    throw new IllegalArgumentException("Unsupported operation: " + operation);
+            }
+        }
+
+        private long upload() throws IOException {
+            long size = profile.pickSize(random);
+            FileUploadResponse response = apiClient.uploadFile(uploadFiles.get(size), userId);
+            stored.add(response.getStoredFilename());
+            return size;
+        }
+
+        private void cleanUp() {
+            for (String filename : stored) {
+                try {
+                    apiClient.deleteFile(filename, userId);
+                } catch (IOException e) {
+                    // Leave it; the run's results do not depend on it
+                }
+            }
+        }
+    }
+
+    /**
+     * Results of one operation for one user, or merged over several
+     */
+    private static final class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final List<String> errorSamples = new ArrayList<>();
+        private long count;
+        private long errors;
+        private long bytes;
+
+        private void record(long latencyNanos, long serviceNanos, long transferred, String error) {
+            count++;
+            latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+            serviceTime.record(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+            if (error != null) {
+                errors++;
+                if (errorSamples.size() < MAX_ERROR_SAMPLES) {
+                    errorSamples.add(error);
+                }
+            } else {
+                bytes += transferred;
+            }
+        }
+
+        private void add(Stats other) {
+            latency.add(other.latency);
+            serviceTime.add(other.serviceTime);
+            count += other.count;
+            errors += other.errors;
+            bytes += other.bytes;
+            for (String sample : other.errorSamples) {
+                if (errorSamples.size() < MAX_ERROR_SAMPLES) {
+                    errorSamples.add(sample);
+                }
+            }
+        }
+
+        private LoadReport.OperationStats toOperationStats(double seconds) {
+            return new LoadReport.OperationStats(count, errors, seconds, bytes, latency, serviceTime,
+                    new ArrayList<>(errorSamples));
+        }
+    }
+
+    @FunctionalInterface
+    private interface UserTask {
+        void run(VirtualUser user) throws IOException;
+    }
+}
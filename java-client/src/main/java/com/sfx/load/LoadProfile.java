@@ -0,0 +1,247 @@
+package com.sfx.load;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Parsed options of a load test: how many virtual users, how fast they send
+ * requests, which operations they pick and how large their uploads are
+ */
+public class LoadProfile {
+    public static final String DEFAULT_SERVER_URL = "http://localhost:8000";
+    public static final String DEFAULT_MIX = "key-exchange=1,upload=2,list=5,download=2";
+    public static final String DEFAULT_SIZES = "4K=50,256K=35,4M=15";
+    public static final String DEFAULT_REPORT = "load-report.json";
+
+    private String serverUrl = DEFAULT_SERVER_URL;
+    private int users = 10;
+    private Double rate;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 10;
+    private Map<Operation, Integer> mix = parseMix(DEFAULT_MIX);
+    private Map<Long, Integer> sizes = parseSizes(DEFAULT_SIZES);
+    private String reportPath = DEFAULT_REPORT;
+    private String baselinePath;
+    private long seed = 1;
+
+    /**
+     * Parse command line arguments
+     * @param args Options, optionally followed by the server URL
+     * @return Parsed profile
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    public static LoadProfile parse(String[] args) {
+        LoadProfile profile = new LoadProfile();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--users":
+                    profile.users = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--rate":
+                    profile.rate = parsePositiveDouble(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--duration":
+                    profile.durationSeconds = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--warmup":
+                    profile.warmupSeconds = parseNonNegativeInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--mix":
+                    profile.mix = parseMix(requireValue(args, ++i, arg));
+                    break;
+                case "--sizes":
+                    profile.sizes = parseSizes(requireValue(args, ++i, arg));
+                    break;
+                case "--report":
+                    profile.reportPath = requireValue(args, ++i, arg);
+                    break;
+                case "--baseline":
+                    profile.baselinePath = requireValue(args, ++i, arg);
+                    break;
+                case "--seed":
+                    profile.seed = Long.parseLong(requireValue(args, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    profile.serverUrl = arg;
+            }
+        }
+
+        return profile;
+    }
+
+    /**
+     * Parse weighted operations, e.g. {@code upload=2,list=5}
+     */
+    static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (Map.Entry<String, Integer> entry : parseWeights(value, "--mix").entrySet()) {
+            mix.put(Operation.fromName(entry.getKey()), entry.getValue());
+        }
+        return mix;
+    }
+
+    /**
+     * Parse weighted upload sizes in bytes with an optional K, M or G suffix, e.g. {@code 4K=50,16M=1}
+     */
+    static Map<Long, Integer> parseSizes(String value) {
+        Map<Long, Integer> sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : parseWeights(value, "--sizes").entrySet()) {
+            sizes.merge(parseSize(entry.getKey()), entry.getValue(), Integer::sum);
+        }
+        return sizes;
+    }
+
+    static long parseSize(String value) {
+        String digits = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (digits.endsWith("K") || digits.endsWith("M") || digits.endsWith("G")) {
+            multiplier = 1L << (10 * ("KMG".indexOf(digits.charAt(digits.length() - 1)) + 1));
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long parsed = Long.parseLong(digits);
+            if (parsed < 0) {
+                throw new IllegalArgumentException("File size must not be negative: " + value);
+            }
+            return parsed * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid file size: " + value);
+        }
+    }
+
+    private static Map<String, Integer> parseWeights(String value, String option) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            int weight = pair.length == 2 ? parseNonNegativeInt(pair[1].trim(), option) : 1;
+            if (weight > 0) {
+                weights.put(pair[0].trim(), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException(option + " needs at least one entry with a positive weight");
+        }
+        return weights;
+    }
+
+    /**
+     * Pick an operation according to the mix
+     */
+    public Operation pickOperation(Random random) {
+        return pick(mix, random);
+    }
+
+    /**
+     * Pick an upload size according to the size distribution
+     */
+    public long pickSize(Random random) {
+        return pick(sizes, random);
+    }
+
+    private static <K> K pick(Map<K, Integer> weights, Random random) {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int target = random.nextInt(total);
+        for (Map.Entry<K, Integer> entry : weights.entrySet()) {
+            target -= entry.getValue();
+            if (target < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Weights changed while picking");
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int parsePositiveInt(String value, String option) {
+        int parsed = parseNonNegativeInt(value, option);
+        if (parsed < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return parsed;
+    }
+
+    private static int parseNonNegativeInt(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(option + " must not be negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    private static double parsePositiveDouble(String value, String option) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (!(parsed > 0) || Double.isInfinite(parsed)) {
+                throw new IllegalArgumentException(option + " must be positive");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+        }
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * @return Requests per second across all users; one per user and second unless set
+     */
+    public double getRate() {
+        return rate != null ? rate : users;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * @return Upload sizes in bytes mapped to their weights
+     */
+    public Map<Long, Integer> getSizes() {
+        return sizes;
+    }
+
+    public String getReportPath() {
+        return reportPath;
+    }
+
+    /**
+     * @return Report of an earlier run to compare against, or null
+     */
+    public String getBaselinePath() {
+        return baselinePath;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
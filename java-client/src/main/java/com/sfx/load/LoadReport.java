@@ -0,0 +1,251 @@
+package com.sfx.load;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a load test, written as JSON so runs against different releases
+ * can be compared. Latency is measured from when a request was scheduled to
+ * start, so time spent waiting behind a slow earlier request counts; service
+ * time is measured from when it actually started.
+ */
+public class LoadReport {
+    @JsonProperty("started_at")
+    private String startedAt;
+
+    @JsonProperty("server_url")
+    private String serverUrl;
+
+    @JsonProperty("users")
+    private int users;
+
+    @JsonProperty("target_rate")
+    private double targetRate;
+
+    @JsonProperty("duration_seconds")
+    private int durationSeconds;
+
+    @JsonProperty("warmup_seconds")
+    private int warmupSeconds;
+
+    @JsonProperty("mix")
+    private Map<String, Integer> mix = new LinkedHashMap<>();
+
+    @JsonProperty("file_sizes")
+    private Map<String, Integer> fileSizes = new LinkedHashMap<>();
+
+    @JsonProperty("java_version")
+    private String javaVersion;
+
+    @JsonProperty("processors")
+    private int processors;
+
+    @JsonProperty("total")
+    private OperationStats total;
+
+    @JsonProperty("operations")
+    private Map<String, OperationStats> operations = new LinkedHashMap<>();
+
+    // Default constructor for Jackson
+    public LoadReport() {}
+
+    public LoadReport(String startedAt, LoadProfile profile) {
+        this.startedAt = startedAt;
+        this.serverUrl = profile.getServerUrl();
+        this.users = profile.getUsers();
+        this.targetRate = profile.getRate();
+        this.durationSeconds = profile.getDurationSeconds();
+        this.warmupSeconds = profile.getWarmupSeconds();
+        for (Map.Entry<Operation, Integer> entry : profile.getMix().entrySet()) {
+            mix.put(entry.getKey().getName(), entry.getValue());
+        }
+        for (Map.Entry<Long, Integer> entry : profile.getSizes().entrySet()) {
+            fileSizes.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        this.javaVersion = System.getProperty("java.version");
+        this.processors = Runtime.getRuntime().availableProcessors();
+    }
+
+    public String getStartedAt() {
+        return startedAt;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public Map<String, Integer> getMix() {
+        return mix;
+    }
+
+    public Map<String, Integer> getFileSizes() {
+        return fileSizes;
+    }
+
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    public int getProcessors() {
+        return processors;
+    }
+
+    public OperationStats getTotal() {
+        return total;
+    }
+
+    public void setTotal(OperationStats total) {
+        this.total = total;
+    }
+
+    public Map<String, OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Counts, throughput and latency of one operation, or of all of them
+     */
+    public static class OperationStats {
+        @JsonProperty("count")
+        private long count;
+
+        @JsonProperty("errors")
+        private long errors;
+
+        @JsonProperty("throughput_per_second")
+        private double throughputPerSecond;
+
+        @JsonProperty("bytes_per_second")
+        private double bytesPerSecond;
+
+        @JsonProperty("latency_ms")
+        private Latency latency;
+
+        @JsonProperty("service_time_ms")
+        private Latency serviceTime;
+
+        @JsonProperty("error_samples")
+        private List<String> errorSamples = new ArrayList<>();
+
+        // Default constructor for Jackson
+        public OperationStats() {}
+
+        public OperationStats(long count, long errors, double seconds, long bytes,
+                              LatencyHistogram latency, LatencyHistogram serviceTime, List<String> errorSamples) {
+            this.count = count;
+            this.errors = errors;
+            this.throughputPerSecond = seconds > 0 ? count / seconds : 0;
+            this.bytesPerSecond = seconds > 0 ? bytes / seconds : 0;
+            this.latency = new Latency(latency);
+            this.serviceTime = new Latency(serviceTime);
+            this.errorSamples = errorSamples;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getThroughputPerSecond() {
+            return throughputPerSecond;
+        }
+
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public Latency getLatency() {
+            return latency;
+        }
+
+        public Latency getServiceTime() {
+            return serviceTime;
+        }
+
+        public List<String> getErrorSamples() {
+            return errorSamples;
+        }
+    }
+
+    /**
+     * Latency percentiles in milliseconds
+     */
+    public static class Latency {
+        @JsonProperty("p50")
+        private double p50;
+
+        @JsonProperty("p90")
+        private double p90;
+
+        @JsonProperty("p99")
+        private double p99;
+
+        @JsonProperty("p999")
+        private double p999;
+
+        @JsonProperty("max")
+        private double max;
+
+        @JsonProperty("mean")
+        private double mean;
+
+        // Default constructor for Jackson
+        public Latency() {}
+
+        public Latency(LatencyHistogram histogram) {
+            this.p50 = histogram.percentile(0.50) / 1000.0;
+            this.p90 = histogram.percentile(0.90) / 1000.0;
+            this.p99 = histogram.percentile(0.99) / 1000.0;
+            this.p999 = histogram.percentile(0.999) / 1000.0;
+            this.max = histogram.getMax() / 1000.0;
+            this.mean = histogram.getMean() / 1000.0;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+    }
+}
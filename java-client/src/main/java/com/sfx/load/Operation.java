@@ -0,0 +1,36 @@
+package com.sfx.load;
+
+/**
+ * Requests a virtual user can make during a load test
+ */
+public enum Operation {
+    KEY_EXCHANGE("key-exchange"),
+    UPLOAD("upload"),
+    LIST("list"),
+    DOWNLOAD("download");
+
+    private final String name;
+
+    Operation(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Name used on the command line and in reports
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no operation has the name
+     */
+    public static Operation fromName(String name) {
+        for (Operation operation : values()) {
+            if (operation.name.equals(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+}
@@ -0,0 +1,118 @@
+package com.sfx.resilience;
+
+/**
+ * AIMD concurrency limit for requests to one server. Each success raises the
+ * limit by about one per limit's worth of requests; an overload response or a
+ * latency well above the best recently seen halves it. Only requests started
+ * after the last decrease can decrease it again, so one slow period shrinks
+ * the limit once rather than once per request in flight.
+ *
+ * Latency is compared per size class: small calls by their round trip time,
+ * transfers by their time per megabyte against transfers of similar size, so
+ * a large upload is not mistaken for a slow server.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final int SIZE_CLASSES = 4;
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final long[] baselineNanos = new long[SIZE_CLASSES];
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    /**
+     * @param initialLimit Starting limit
+     * @param minLimit Lowest limit; at least 1
+     * @param maxLimit Highest limit
+     * @param latencyTolerance Factor over the baseline latency treated as congestion, e.g. 2.0
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.lastDecreaseNanos = System.nanoTime() - 1;
+    }
+
+    /**
+     * Wait until another request fits under the limit
+     * @return Start time to pass to {@link #release}
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the outcome of a request started by {@link #acquire()}
+     * @param startNanos Value returned by {@link #acquire()}
+     * @param bytes Bytes the request sent and received
+     * @param overloaded true if the server signalled overload or the request timed out
+     */
+    public void release(long startNanos, long bytes, boolean overloaded) {
+        record(startNanos, System.nanoTime(), bytes, overloaded);
+    }
+
+    /**
+     * Give back a permit without recording an outcome, e.g. when the request failed for unrelated reasons
+     */
+    public synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized void record(long startNanos, long endNanos, long bytes, boolean overloaded) {
+        inFlight--;
+        if (overloaded) {
+            decrease(startNanos, endNanos);
+        } else {
+            long megabytes = bytes / MEGABYTE;
+            int sizeClass = megabytes == 0 ? 0 : Math.min(SIZE_CLASSES - 1,
+                    1 + (63 - Long.numberOfLeadingZeros(megabytes)) / 3);
+            long latency = (endNanos - startNanos) / Math.max(1, megabytes);
+
+            long baseline = baselineNanos[sizeClass];
+            if (baseline == 0 || latency < baseline) {
+                baseline = Math.max(1, latency);
+            } else {
+                // Let the baseline follow lasting changes, such as a slower network
+                baseline += (long) ((latency - baseline) * BASELINE_DRIFT);
+            }
+            baselineNanos[sizeClass] = baseline;
+
+            if (latency > latencyTolerance * baseline) {
+                decrease(startNanos, endNanos);
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease(long startNanos, long nowNanos) {
+        if (startNanos - lastDecreaseNanos <= 0) {
+            return;
+        }
+        limit = Math.max(minLimit, limit / 2);
+        lastDecreaseNanos = nowNanos;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,23 @@
+package com.sfx.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while a server's circuit breaker is open
+ */
+public class CircuitOpenException extends IOException {
+    private final long retryInMillis;
+
+    public CircuitOpenException(String server, long retryInMillis) {
+        super("Server " + server + " is unavailable after repeated failures; retry in "
+                + Math.max(1, (retryInMillis + 999) / 1000) + " s");
+        this.retryInMillis = retryInMillis;
+    }
+
+    /**
+     * @return Milliseconds until the breaker lets a trial request through
+     */
+    public long getRetryInMillis() {
+        return retryInMillis;
+    }
+}
@@ -0,0 +1,312 @@
+package com.sfx.resilience;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * OkHttp application interceptor that makes calls resilient to brief server
+ * overload. Per server it keeps a {@link CircuitBreaker} and an
+ * {@link AdaptiveConcurrencyLimiter}; failed calls are retried according to a
+ * {@link RetryPolicy}.
+ *
+ * A request is retried after any transient failure only if repeating it is
+ * safe: its method is idempotent, or it carries an {@code Idempotency-Key}
+ * header the server uses to deduplicate. Other requests are only retried when
+ * the server refused them outright (429, 503) or the connection never opened.
+ */
+public class ResilienceInterceptor implements Interceptor {
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "PUT", "DELETE", "OPTIONS");
+
+    private final RetryPolicy retryPolicy;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int maxConcurrency;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Create an interceptor with default breaker and concurrency settings
+     */
+    public ResilienceInterceptor(RetryPolicy retryPolicy) {
+        this(retryPolicy, 5, 30_000, 64);
+    }
+
+    /**
+     * @param retryPolicy When to retry
+     * @param failureThreshold Consecutive failures that open a server's circuit
+     * @param openMillis How long an open circuit rejects calls
+     * @param maxConcurrency Upper bound of the adaptive per-server concurrency limit
+     */
+    public ResilienceInterceptor(RetryPolicy retryPolicy, int failureThreshold, long openMillis, int maxConcurrency) {
+        this.retryPolicy = retryPolicy;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request original = chain.request();
+        String server = serverKey(original.url());
+        CircuitBreaker breaker = getCircuitBreaker(server);
+        AdaptiveConcurrencyLimiter limiter = getLimiter(server);
+        boolean repeatable = isRepeatable(original);
+        boolean oneShot = original.body() != null && original.body().isOneShot();
+
+        // Count the bytes actually sent, since streamed bodies have no known length
+        CountingRequestBody countingBody = original.body() != null ? new CountingRequestBody(original.body()) : null;
+        Request request = countingBody != null
+                ? original.newBuilder().method(original.method(), countingBody).build()
+                : original;
+
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException(server, breaker.getRetryInMillis());
+            }
+
+            long start;
+            try {
+                start = limiter.acquire();
+            } catch (InterruptedException e) {
+                breaker.onCancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a request slot");
+            }
+
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                boolean neverSent = e instanceof ConnectException;
+                if (neverSent || e instanceof SocketTimeoutException) {
+                    limiter.release(start, 0, true);
+                } else {
+                    limiter.cancel();
+                }
+                breaker.onFailure();
+
+                long delay = attempt < retryPolicy.getMaxAttempts() && (repeatable || neverSent)
+                        ? retryPolicy.delayMillis(attempt, null) : -1;
+                if (delay < 0) {
+                    throw e;
+                }
+                sleep(delay);
+                continue;
+            }
+
+            int code = response.code();
+            boolean serverFault = code >= 500 || code == 429 || code == 408;
+            if (serverFault) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+
+            // A refused request was not processed and may be sent again, unless
+            // it has a one-shot body that was already used up
+            long sent = countingBody != null ? countingBody.getBytesWritten() : 0;
+            String retryAfter = response.header("Retry-After");
+            boolean retryable = retryPolicy.isRetryableStatus(code, retryAfter != null)
+                    && (repeatable || RetryPolicy.isRefusal(code) && (!oneShot || sent == 0));
+            long delay = retryable && attempt < retryPolicy.getMaxAttempts()
+                    ? retryPolicy.delayMillis(attempt, retryAfter) : -1;
+            if (delay < 0) {
+                if (response.body() == null) {
+                    limiter.release(start, sent, RetryPolicy.signalsOverload(code));
+                    return response;
+                }
+                // The permit is held until the body is consumed, so downloads count against the limit too
+                return response.newBuilder()
+                        .body(new PermitReleasingBody(response.body(), limiter, start, sent,
+                                RetryPolicy.signalsOverload(code)))
+                        .build();
+            }
+            limiter.release(start, sent, RetryPolicy.signalsOverload(code));
+            response.close();
+            sleep(delay);
+        }
+    }
+
+    /**
+     * @return true if sending the request twice has the same effect as sending it once
+     */
+    static boolean isRepeatable(Request request) {
+        RequestBody body = request.body();
+        if (body != null && body.isOneShot()) {
+            return false;
+        }
+        return IDEMPOTENT_METHODS.contains(request.method()) || request.header(IDEMPOTENCY_KEY_HEADER) != null;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private static String serverKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    /**
+     * @return The circuit breaker of a server, given as host:port
+     */
+    public CircuitBreaker getCircuitBreaker(String server) {
+        return breakers.computeIfAbsent(server, key -> new CircuitBreaker(failureThreshold, openMillis));
+    }
+
+    /**
+     * @return The concurrency limiter of a server, given as host:port
+     */
+    public AdaptiveConcurrencyLimiter getLimiter(String server) {
+        return limiters.computeIfAbsent(server,
+                key -> new AdaptiveConcurrencyLimiter(Math.min(8, maxConcurrency), 1, maxConcurrency, 2.0));
+    }
+
+    /**
+     * Response body that returns its concurrency permit once it is closed,
+     * recording the latency and size of the whole exchange
+     */
+    private static class PermitReleasingBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final long start;
+        private final boolean overloaded;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final long[] bytes;
+        private BufferedSource source;
+
+        PermitReleasingBody(ResponseBody delegate, AdaptiveConcurrencyLimiter limiter, long start,
+                            long requestBytes, boolean overloaded) {
+            this.delegate = delegate;
+            this.limiter = limiter;
+            this.start = start;
+            this.overloaded = overloaded;
+            this.bytes = new long[]{requestBytes};
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public synchronized BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read > 0) {
+                            bytes[0] += read;
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+            }
+            return source;
+        }
+
+        @Override
+        public void close() {
+            try {
+                source().close();
+            } catch (IOException e) {
+                // Closing only releases resources
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(start, bytes[0], overloaded);
+            }
+        }
+    }
+
+    /**
+     * Request body that counts the bytes it writes
+     */
+    private static class CountingRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private volatile long bytesWritten;
+
+        CountingRequestBody(RequestBody delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            long[] count = {0};
+            BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    count[0] += byteCount;
+                }
+            });
+            delegate.writeTo(countingSink);
+            countingSink.emit();
+            bytesWritten = count[0];
+        }
+
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.sfx.resilience;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how long to wait before retrying a failed request. Delays grow
+ * exponentially with "full jitter" (a random delay up to the exponential
+ * bound), so clients that failed together do not retry together. A server's
+ * {@code Retry-After} is honored as a lower bound.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxRetryAfterMillis;
+
+    /**
+     * Create a retry policy
+     * @param maxAttempts Attempts including the first one; 1 disables retries
+     * @param baseDelayMillis Upper bound of the first backoff delay
+     * @param maxDelayMillis Upper bound of any backoff delay
+     * @param maxRetryAfterMillis Longest {@code Retry-After} to wait for; longer ones fail immediately
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long maxRetryAfterMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+    }
+
+    /**
+     * @return Four attempts with backoff from 200 ms up to 10 s, honoring Retry-After up to a minute
+     */
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(4, 200, 10_000, 60_000);
+    }
+
+    /**
+     * @return A policy that never retries
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, 0, 0, 0);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param code HTTP status code
+     * @param hasRetryAfter true if the response carried a Retry-After header
+     * @return true if the status indicates a transient condition worth retrying
+     */
+    public boolean isRetryableStatus(int code, boolean hasRetryAfter) {
+        switch (code) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            case 409:
+                // The server is still processing an earlier attempt with the same idempotency key
+                return hasRetryAfter;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the status means the server refused the request without
+     *         processing it, so even a non-idempotent request can be repeated
+     */
+    public static boolean isRefusal(int code) {
+        return code == 429 || code == 503;
+    }
+
+    /**
+     * @return true if the status means the server is overloaded
+     */
+    public static boolean signalsOverload(int code) {
+        return code == 429 || code == 503 || code == 504;
+    }
+
+    /**
+     * Delay before the next attempt
+     * @param attempt Number of the attempt that just failed, starting at 1
+     * @param retryAfter The response's Retry-After header, or null
+     * @return Milliseconds to wait, or -1 if the server asked for a longer wait than this policy allows
+     */
+    public long delayMillis(int attempt, String retryAfter) {
+        long bound = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        long backoff = bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+
+        long serverDelay = parseRetryAfter(retryAfter);
+        if (serverDelay > maxRetryAfterMillis) {
+            return -1;
+        }
+        if (serverDelay >= 0) {
+            // Spread clients that were all told the same time over one base delay
+            return serverDelay + ThreadLocalRandom.current().nextLong(baseDelayMillis + 1);
+        }
+        return backoff;
+    }
+
+    /**
+     * Parse a Retry-After value given in seconds or as an HTTP date
+     * @return Milliseconds to wait, or -1 if absent or invalid
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not delta-seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
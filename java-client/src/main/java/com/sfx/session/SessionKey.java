@@ -0,0 +1,62 @@
+package com.sfx.session;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One generation of a user's session key. The key itself never changes, so a
+ * transfer that started with it can keep using it after a newer generation
+ * has replaced it; rotation only affects transfers that start later.
+ */
+public final class SessionKey {
+    private final byte[] key;
+    private final String sessionId;
+    private final int generation;
+    private final long createdNanos;
+    private final AtomicLong bytesUsed = new AtomicLong();
+
+    public SessionKey(byte[] key, String sessionId, int generation, long createdNanos) {
+        this.key = key.clone();
+        this.sessionId = sessionId;
+        this.generation = generation;
+        this.createdNanos = createdNanos;
+    }
+
+    /**
+     * @return A copy of the key bytes
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * @return ID of the key exchange on the server, which the server knows the key by
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return 1 for the first key of a session, counting up with every rotation
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} clock reading when the key was established
+     */
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * Count bytes protected with this key towards its rotation budget
+     */
+    public void recordUse(long bytes) {
+        bytesUsed.addAndGet(bytes);
+    }
+
+    public long getBytesUsed() {
+        return bytesUsed.get();
+    }
+}
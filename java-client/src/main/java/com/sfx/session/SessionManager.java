@@ -0,0 +1,265 @@
+package com.sfx.session;
+
+import com.sfx.api.ApiClient;
+import com.sfx.api.KeyExchangeResponse;
+import com.sfx.crypto.DHKeyExchange;
+import com.sfx.crypto.KeyDerivation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Session keys for many users on one or more servers, for processes such as
+ * gateways that move files on behalf of many users at once. Each server and
+ * user pair gets its own key from a Diffie-Hellman exchange, cached until it
+ * has protected a byte budget or reached a maximum age.
+ *
+ * Sessions live in a concurrent map, so looking up an established key takes
+ * no lock. Concurrent requests for a user without a key wait for a single
+ * exchange instead of starting one each. Worn keys are replaced in the
+ * background: until the new key is ready the old one is still handed out, and
+ * transfers holding the old key finish with it.
+ */
+public class SessionManager implements Closeable {
+    // Far below the 2^32 random IVs AES-GCM allows per key at 1 MB per chunk
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int KEY_LENGTH = 32;
+
+    private final Handshake handshake;
+    private final long byteBudget;
+    private final long maxAgeNanos;
+    private final LongSupplier clock;
+    // "server|user" -> session, as SfxCli keys its sessions
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ExecutorService handshakes;
+    private final ScheduledExecutorService rotation;
+
+    /**
+     * Create a manager that performs Diffie-Hellman exchanges with the default budgets
+     * @param clients API client for a server URL
+     */
+    public SessionManager(Function<String, ApiClient> clients) {
+        this(diffieHellman(clients), DEFAULT_BYTE_BUDGET, DEFAULT_MAX_AGE_MILLIS, DEFAULT_CHECK_INTERVAL_MILLIS,
+                System::nanoTime);
+    }
+
+    /**
+     * Create a manager
+     * @param handshake Establishes a shared secret with a server for a user
+     * @param byteBudget Bytes a key may protect before it is rotated
+     * @param maxAgeMillis Age after which a key is rotated
+     * @param checkIntervalMillis Time between background checks for worn keys, or 0 to check only on use
+     * @param clock Nanosecond clock for key ages
+     */
+    public SessionManager(Handshake handshake, long byteBudget, long maxAgeMillis, long checkIntervalMillis,
+                          LongSupplier clock) {
+        this.handshake = handshake;
+        this.byteBudget = byteBudget;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.clock = clock;
+        // Key pair generation is CPU bound, so exchanges run on one thread per core
+        this.handshakes = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "sfx-session-handshake");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rotation = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sfx-session-rotation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkIntervalMillis > 0) {
+            rotation.scheduleWithFixedDelay(this::rotateWorn, checkIntervalMillis, checkIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Exchange used by {@link #SessionManager(Function)}: a Diffie-Hellman
+     * handshake through the server's key exchange endpoints
+     * @param clients API client for a server URL
+     */
+    public static Handshake diffieHellman(Function<String, ApiClient> clients) {
+        return (serverUrl, userId) -> {
+            ApiClient apiClient = clients.apply(serverUrl);
+            KeyExchangeResponse response = apiClient.initiateKeyExchange();
+            // No key is derived unless the agreement succeeds with a usable secret
+            DHKeyExchange keyExchange;
+            byte[] sharedSecret;
+            try {
+                keyExchange = DHKeyExchange.forPeer(response.getPublicKey());
+                sharedSecret = keyExchange.computeSharedSecret(response.getPublicKey());
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                throw new IOException("Key exchange with " + serverUrl + " failed: " + e.getMessage(), e);
+            }
+            if (!apiClient.completeKeyExchange(response.getSessionId(), keyExchange.getPublicKeyBase64(), userId)) {
+                throw new IOException("Failed to complete key exchange with " + serverUrl);
+            }
+            return new SharedSecret(keyExchange.deriveEncryptionKey(sharedSecret), response.getSessionId());
+        };
+    }
+
+    /**
+     * Get the current key for a user, establishing one if there is none. A worn
+     * key is returned as is while its replacement is negotiated in the background.
+     * @param serverUrl Server the key is shared with
+     * @param userId User the key belongs to
+     */
+    public SessionKey key(String serverUrl, String userId) throws IOException {
+        Session session = sessions.computeIfAbsent(sessionKey(serverUrl, userId),
+                k -> new Session(serverUrl, userId));
+        SessionKey current = session.current;
+        if (current != null) {
+            if (isWorn(current)) {
+                exchange(session);
+            }
+            return current;
+        }
+
+        try {
+            return exchange(session).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while establishing a session key");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException("Key exchange failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Establish a new key for a user now, e.g. after the server lost the session.
+     * Transfers holding the current key are not affected.
+     * @return The new key
+     */
+    public CompletableFuture<SessionKey> rotate(String serverUrl, String userId) {
+        return exchange(sessions.computeIfAbsent(sessionKey(serverUrl, userId), k -> new Session(serverUrl, userId)));
+    }
+
+    /**
+     * Forget a user's key, so the next request performs a new exchange
+     */
+    public void remove(String serverUrl, String userId) {
+        sessions.remove(sessionKey(serverUrl, userId));
+    }
+
+    /**
+     * Start replacing every key past its byte budget or age
+     */
+    public void rotateWorn() {
+        for (Session session : sessions.values()) {
+            SessionKey current = session.current;
+            if (current != null && isWorn(current)) {
+                exchange(session);
+            }
+        }
+    }
+
+    /**
+     * @return Number of server and user pairs with a session
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        rotation.shutdownNow();
+        handshakes.shutdownNow();
+    }
+
+    private boolean isWorn(SessionKey key) {
+        return key.getBytesUsed() >= byteBudget || clock.getAsLong() - key.getCreatedNanos() >= maxAgeNanos;
+    }
+
+    /**
+     * Start an exchange for the session unless one is already running
+     * @return The running exchange
+     */
+    private CompletableFuture<SessionKey> exchange(Session session) {
+        while (true) {
+            CompletableFuture<SessionKey> running = session.exchange.get();
+            if (running != null) {
+                return running;
+            }
+            CompletableFuture<SessionKey> started = new CompletableFuture<>();
+            if (session.exchange.compareAndSet(null, started)) {
+                handshakes.execute(() -> complete(session, started));
+                return started;
+            }
+        }
+    }
+
+    private void complete(Session session, CompletableFuture<SessionKey> exchange) {
+        try {
+            SharedSecret secret = handshake.perform(session.serverUrl, session.userId);
+            SessionKey previous = session.current;
+            int generation = previous == null ? 1 : previous.getGeneration() + 1;
+            SessionKey key = new SessionKey(deriveUserKey(secret.getSecret(), session.userId, secret.getSessionId()),
+                    secret.getSessionId(), generation, clock.getAsLong());
+            session.current = key;
+            session.exchange.set(null);
+            exchange.complete(key);
+        } catch (Throwable e) {
+            // The old key, if any, stays in use and the next check tries again
+            session.exchange.set(null);
+            exchange.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Bind the exchanged secret to the user and the exchange, so no two keys
+     * coincide. The server derives the same key when the exchange completes.
+     */
+    private static byte[] deriveUserKey(byte[] secret, String userId, String sessionId)
+            throws GeneralSecurityException {
+        return KeyDerivation.hkdf(secret, null, "sfx-session-key " + userId + " " + sessionId, KEY_LENGTH);
+    }
+
+    private static String sessionKey(String serverUrl, String userId) {
+        return serverUrl + "|" + userId;
+    }
+
+    /**
+     * Performs a key exchange with a server for a user
+     */
+    @FunctionalInterface
+    public interface Handshake {
+        /**
+         * @return Shared secret established with the server
+         */
+        SharedSecret perform(String serverUrl, String userId) throws IOException;
+    }
+
+    /**
+     * The key of one server and user pair and its exchange in progress, if any
+     */
+    private static final class Session {
+        private final String serverUrl;
+        private final String userId;
+        private volatile SessionKey current;
+        private final AtomicReference<CompletableFuture<SessionKey>> exchange = new AtomicReference<>();
+
+        private Session(String serverUrl, String userId) {
+            this.serverUrl = serverUrl;
+            this.userId = userId;
+        }
+    }
+}
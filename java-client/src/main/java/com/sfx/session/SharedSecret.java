@@ -0,0 +1,26 @@
+package com.sfx.session;
+
+/**
+ * Outcome of a key exchange with a server: the shared secret, and the ID the
+ * server knows the exchange by, which names the key in later requests
+ */
+public final class SharedSecret {
+    private final byte[] secret;
+    private final String sessionId;
+
+    public SharedSecret(byte[] secret, String sessionId) {
+        this.secret = secret.clone();
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * @return A copy of the secret bytes
+     */
+    public byte[] getSecret() {
+        return secret.clone();
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+}
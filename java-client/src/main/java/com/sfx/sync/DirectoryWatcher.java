@@ -0,0 +1,142 @@
+package com.sfx.sync;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Records paths changed below a directory tree using a {@link WatchService},
+ * so a sync can stat only those paths instead of rescanning the whole tree.
+ */
+public class DirectoryWatcher implements AutoCloseable {
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<Path> changedPaths = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+    private volatile boolean overflowed;
+    private volatile long lastEventNanos = System.nanoTime();
+
+    /**
+     * Start watching a directory and all directories below it
+     */
+    public DirectoryWatcher(Path root) throws IOException {
+        this.root = root;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerTree(root);
+
+        this.thread = new Thread(this::processEvents, "sfx-sync-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = watchedDirectories.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    lastEventNanos = System.nanoTime();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                        overflowed = true;
+                        continue;
+                    }
+
+                    Path changed = directory.resolve((Path) event.context());
+                    if (changed.getFileName().toString().startsWith(SyncIndex.INDEX_FILENAME)) {
+                        // Written by the sync itself
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try (Stream<Path> created = Files.walk(changed)) {
+                            registerTree(changed);
+                            // Files created before the directory was registered produce no events
+                            created.forEach(changedPaths::add);
+                        } catch (IOException | UncheckedIOException e) {
+                            overflowed = true;
+                        }
+                    }
+                    changedPaths.add(changed);
+                }
+
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher closed
+        }
+    }
+
+    /**
+     * Take the paths changed since the last call
+     * @return Changed paths, or null if events were lost and a full rescan is needed
+     */
+    public Set<Path> drainChanges() {
+        if (overflowed) {
+            overflowed = false;
+            changedPaths.clear();
+            return null;
+        }
+
+        Set<Path> drained = new HashSet<>();
+        Iterator<Path> iterator = changedPaths.iterator();
+        while (iterator.hasNext()) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    /**
+     * Wait until changes are pending and no new event arrived for the quiet period
+     * @param quietMillis Time without events before the changes are considered settled
+     */
+    public void awaitSettledChanges(long quietMillis) throws InterruptedException {
+        while (changedPaths.isEmpty() && !overflowed
+                || System.nanoTime() - lastEventNanos < TimeUnit.MILLISECONDS.toNanos(quietMillis)) {
+            Thread.sleep(Math.min(quietMillis, 100));
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,347 @@
+package com.sfx.sync;
+
+import com.sfx.api.ApiClient;
+import com.sfx.api.FileListResponse;
+import com.sfx.api.FileUploadResponse;
+import com.sfx.io.BufferPool;
+import com.sfx.transfer.TransferScheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Incremental one-way synchronization of a local directory tree to the server.
+ *
+ * Each run compares the local files with the {@link SyncIndex} by size and
+ * modification time, hashes only the files whose metadata changed, and checks
+ * the index against the server listing so files missing on the server are sent
+ * again. Only new or changed files are uploaded, on a bounded thread pool;
+ * changed files that are still on the server are sent as a delta, and the copy
+ * they replace is deleted. Files that failed are retried on the next run.
+ * <p>
+ * Runs after the first one of a watching engine only look at the reported
+ * changes and trust the index for what is on the server, so they cost nothing
+ * in proportion to the size of the tree or of the server listing.
+ */
+public class SyncEngine implements AutoCloseable {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    // Below this size the extra signature request costs more than re-sending the file
+    private static final long DELTA_MIN_SIZE = 1024 * 1024;
+
+    private final ApiClient apiClient;
+    private final String userId;
+    private final Path root;
+    private final PathMatcher matcher;
+    private final int parallelism;
+    private final SyncIndex index;
+    private DirectoryWatcher watcher;
+    private boolean fullScanDone;
+    // Paths whose upload failed, tried again on the next run
+    private final Set<String> retry = new HashSet<>();
+
+    /**
+     * Create a sync engine for a directory
+     * @param apiClient Client used for listing and uploading
+     * @param userId The user ID files are uploaded as
+     * @param root Directory to synchronize
+     * @param pattern Glob matched against paths relative to the root
+     * @param parallelism Maximum number of concurrent uploads
+     */
+    public SyncEngine(ApiClient apiClient, String userId, Path root, String pattern, int parallelism)
+            throws IOException {
+        this.apiClient = apiClient;
+        this.userId = userId;
+        this.root = root.toAbsolutePath().normalize();
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        this.parallelism = parallelism;
+        this.index = SyncIndex.load(this.root);
+    }
+
+    /**
+     * Start recording changes with a {@link DirectoryWatcher}. Runs after the
+     * first full scan then only look at the paths reported by the watcher.
+     */
+    public void startWatching() throws IOException {
+        if (watcher == null) {
+            watcher = new DirectoryWatcher(root);
+        }
+    }
+
+    /**
+     * Block until watched files changed and settled
+     */
+    public void awaitChanges(long quietMillis) throws InterruptedException {
+        if (watcher == null) {
+            throw new IllegalStateException("Watching has not been started");
+        }
+        watcher.awaitSettledChanges(quietMillis);
+    }
+
+    /**
+     * Run one synchronization pass
+     * @return The outcome of every file that was uploaded or failed
+     */
+    public SyncResult sync() throws IOException {
+        // A watcher only reports what happened after it started, so the first run scans everything
+        Set<Path> changes = watcher != null && fullScanDone ? watcher.drainChanges() : null;
+        Map<String, BasicFileAttributes> candidates;
+        // Stored files on the server, or null to trust the index
+        Set<String> serverFiles;
+        if (changes == null) {
+            serverFiles = listServerFiles();
+            candidates = scanTree();
+            index.paths().removeIf(path -> !candidates.containsKey(path));
+            retry.clear();
+        } else {
+            serverFiles = null;
+            for (String path : retry) {
+                changes.add(resolve(path));
+            }
+            retry.clear();
+            candidates = statChanged(changes);
+        }
+
+        SyncResult result = new SyncResult();
+        // Path to upload, mapped to the stored file it replaces, which a delta can be computed against
+        Map<String, String> toUpload = new LinkedHashMap<>();
+
+        if (serverFiles != null) {
+            for (String path : index.paths()) {
+                SyncIndex.Entry entry = index.get(path);
+                if (entry != null && !candidates.containsKey(path) && !serverFiles.contains(entry.getStoredFilename())) {
+                    // Unchanged locally but gone from the server
+                    toUpload.put(path, null);
+                }
+            }
+        }
+
+        for (Map.Entry<String, BasicFileAttributes> candidate : candidates.entrySet()) {
+            String path = candidate.getKey();
+            BasicFileAttributes attributes = candidate.getValue();
+            SyncIndex.Entry entry = index.get(path);
+            boolean onServer = entry != null
+                    && (serverFiles == null || serverFiles.contains(entry.getStoredFilename()));
+
+            if (onServer && entry.getSizeBytes() == attributes.size()
+                    && entry.getModifiedMillis() == attributes.lastModifiedTime().toMillis()) {
+                result.unchanged++;
+                continue;
+            }
+
+            if (onServer && entry.getSizeBytes() == attributes.size()
+                    && entry.getContentHash().equals(hashFile(resolve(path)))) {
+                // Touched but identical content: only the metadata needs refreshing
+                entry.setModifiedMillis(attributes.lastModifiedTime().toMillis());
+                result.unchanged++;
+                continue;
+            }
+
+            toUpload.put(path, onServer ? entry.getStoredFilename() : null);
+        }
+
+        upload(toUpload, result);
+        index.save();
+        fullScanDone = true;
+        return result;
+    }
+
+    private Set<String> listServerFiles() throws IOException {
+        FileListResponse response = apiClient.listFiles(userId);
+        Set<String> serverFiles = new HashSet<>();
+        if (response.getFiles() != null) {
+            for (FileListResponse.FileInfo fileInfo : response.getFiles()) {
+                serverFiles.add(fileInfo.getFilename());
+            }
+        }
+        return serverFiles;
+    }
+
+    private Map<String, BasicFileAttributes> scanTree() throws IOException {
+        Map<String, BasicFileAttributes> files = new LinkedHashMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String path = relativize(file);
+                if (attrs.isRegularFile() && isSynced(path)) {
+                    files.put(path, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private Map<String, BasicFileAttributes> statChanged(Set<Path> changes) throws IOException {
+        Map<String, BasicFileAttributes> files = new LinkedHashMap<>();
+        for (Path changed : changes) {
+            String path = relativize(changed);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(changed, BasicFileAttributes.class);
+                if (attrs.isRegularFile() && isSynced(path)) {
+                    files.put(path, attrs);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted file or directory: forget it and everything below it
+                index.paths().removeIf(indexed -> indexed.equals(path) || indexed.startsWith(path + "/"));
+            }
+        }
+        return files;
+    }
+
+    private void upload(Map<String, String> paths, SyncResult result) throws IOException {
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, paths.size()));
+        try {
+            Map<String, Future<SyncIndex.Entry>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, String> path : paths.entrySet()) {
+                // Sync uploads are background work that must yield to interactive transfers
+                futures.put(path.getKey(), executor.submit(() -> apiClient.getScheduler().run(
+                        TransferScheduler.Priority.BULK, transfer -> uploadOne(path.getKey(), path.getValue()))));
+            }
+
+            for (Map.Entry<String, Future<SyncIndex.Entry>> future : futures.entrySet()) {
+                try {
+                    index.put(future.getValue().get());
+                    result.uploaded.add(future.getKey());
+                } catch (ExecutionException e) {
+                    result.failed.put(future.getKey(), e.getCause().getMessage());
+                    retry.add(future.getKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while synchronizing " + root, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param baseStoredFilename Stored file the upload replaces, or null if there is none on the server
+     */
+    private SyncIndex.Entry uploadOne(String path, String baseStoredFilename) throws IOException {
+        Path file = resolve(path);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String hash = hashFile(file);
+
+        FileUploadResponse response = null;
+        if (baseStoredFilename != null && attributes.size() >= DELTA_MIN_SIZE) {
+            try {
+                response = apiClient.uploadDelta(file.toFile(), baseStoredFilename, userId);
+            } catch (IOException e) {
+                System.err.println("Delta upload of " + path + " failed, sending whole file: " + e.getMessage());
+            }
+        }
+        if (response == null) {
+            response = apiClient.uploadFile(file.toFile(), userId);
+        }
+        if (baseStoredFilename != null && !baseStoredFilename.equals(response.getStoredFilename())) {
+            try {
+                apiClient.deleteFile(baseStoredFilename, userId);
+            } catch (IOException e) {
+                System.err.println("Could not delete the replaced copy of " + path + ": " + e.getMessage());
+            }
+        }
+
+        return new SyncIndex.Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                hash, response.getStoredFilename());
+    }
+
+    private boolean isSynced(String path) {
+        return !path.startsWith(SyncIndex.INDEX_FILENAME) && matcher.matches(Path.of(path));
+    }
+
+    private String relativize(Path file) {
+        return root.relativize(file.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    private Path resolve(String path) {
+        return root.resolve(path);
+    }
+
+    /**
+     * Compute the SHA-256 hash of a file's content
+     * @return Hex encoded hash
+     */
+    static String hashFile(Path file) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer buffer = pool.acquireDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            while (channel.read(buffer) != -1) {
+                digest.update(buffer.flip());
+                buffer.clear();
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public SyncIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Outcome of one synchronization pass
+     */
+    public static class SyncResult {
+        private final List<String> uploaded = new ArrayList<>();
+        private final Map<String, String> failed = new LinkedHashMap<>();
+        private int unchanged;
+
+        public List<String> getUploaded() {
+            return uploaded;
+        }
+
+        public Map<String, String> getFailed() {
+            return failed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.sfx.sync;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the local files a directory sync has already uploaded.
+ * Entries are keyed by the path relative to the sync root, using '/' as separator.
+ */
+public class SyncIndex {
+    public static final String INDEX_FILENAME = ".sfx-sync-index.json";
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SyncIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Load the index stored in the sync root, or start an empty one
+     * @param root The directory being synchronized
+     * @return The loaded index
+     */
+    public static SyncIndex load(Path root) throws IOException {
+        SyncIndex index = new SyncIndex(root.resolve(INDEX_FILENAME));
+        if (Files.exists(index.indexFile)) {
+            Map<String, Entry> stored = index.objectMapper.readValue(
+                    index.indexFile.toFile(), new TypeReference<Map<String, Entry>>() {});
+            index.entries.putAll(stored);
+        }
+        return index;
+    }
+
+    /**
+     * Write the index back to disk, replacing the previous copy atomically
+     */
+    public void save() throws IOException {
+        Path tempFile = indexFile.resolveSibling(INDEX_FILENAME + ".tmp");
+        objectMapper.writeValue(tempFile.toFile(), entries);
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.getPath(), entry);
+    }
+
+    public void remove(String relativePath) {
+        entries.remove(relativePath);
+    }
+
+    public Set<String> paths() {
+        return entries.keySet();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * State of one local file at the time it was last synchronized
+     */
+    public static class Entry {
+        @JsonProperty("path")
+        private String path;
+
+        @JsonProperty("size_bytes")
+        private long sizeBytes;
+
+        @JsonProperty("modified_millis")
+        private long modifiedMillis;
+
+        @JsonProperty("content_hash")
+        private String contentHash;
+
+        @JsonProperty("stored_filename")
+        private String storedFilename;
+
+        // Default constructor for Jackson
+        public Entry() {}
+
+        public Entry(String path, long sizeBytes, long modifiedMillis, String contentHash, String storedFilename) {
+            this.path = path;
+            this.sizeBytes = sizeBytes;
+            this.modifiedMillis = modifiedMillis;
+            this.contentHash = contentHash;
+            this.storedFilename = storedFilename;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public void setSizeBytes(long sizeBytes) {
+            this.sizeBytes = sizeBytes;
+        }
+
+        public long getModifiedMillis() {
+            return modifiedMillis;
+        }
+
+        public void setModifiedMillis(long modifiedMillis) {
+            this.modifiedMillis = modifiedMillis;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public void setContentHash(String contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        public String getStoredFilename() {
+            return storedFilename;
+        }
+
+        public void setStoredFilename(String storedFilename) {
+            this.storedFilename = storedFilename;
+        }
+    }
+}
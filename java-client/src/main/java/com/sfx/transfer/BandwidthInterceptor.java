@@ -0,0 +1,147 @@
+package com.sfx.transfer;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * OkHttp interceptor that shapes request and response bodies with the token
+ * buckets of the transfer running on the calling thread, as given by
+ * {@link TransferScheduler#current()}. Calls made outside a scheduled
+ * transfer only pass the global limit.
+ *
+ * Bytes are metered where they are written to or read from the connection,
+ * in pieces no larger than a bucket's burst, so a rate change applies within
+ * a fraction of a second even during a large upload.
+ */
+public class BandwidthInterceptor implements Interceptor {
+    private final TransferScheduler scheduler;
+
+    public BandwidthInterceptor(TransferScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        List<TokenBucket> buckets = scheduler.bucketsFor(TransferScheduler.current());
+        Request request = chain.request();
+        if (request.body() != null) {
+            request = request.newBuilder()
+                    .method(request.method(), new ThrottledRequestBody(request.body(), buckets))
+                    .build();
+        }
+
+        Response response = chain.proceed(request);
+        if (response.body() == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(new ThrottledResponseBody(response.body(), buckets))
+                .build();
+    }
+
+    private static void acquire(List<TokenBucket> buckets, long bytes) throws IOException {
+        for (TokenBucket bucket : buckets) {
+            bucket.acquire(bytes);
+        }
+    }
+
+    /**
+     * @return Largest piece the buckets should meter at once
+     */
+    private static long maxChunk(List<TokenBucket> buckets, long byteCount) {
+        long chunk = byteCount;
+        for (TokenBucket bucket : buckets) {
+            chunk = Math.min(chunk, bucket.getMaxChunk());
+        }
+        return Math.max(1, chunk);
+    }
+
+    private static class ThrottledRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final List<TokenBucket> buckets;
+
+        ThrottledRequestBody(RequestBody delegate, List<TokenBucket> buckets) {
+            this.delegate = delegate;
+            this.buckets = buckets;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink throttled = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    while (byteCount > 0) {
+                        long chunk = maxChunk(buckets, byteCount);
+                        acquire(buckets, chunk);
+                        super.write(source, chunk);
+                        byteCount -= chunk;
+                    }
+                }
+            });
+            delegate.writeTo(throttled);
+            throttled.emit();
+        }
+    }
+
+    private static class ThrottledResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        ThrottledResponseBody(ResponseBody delegate, List<TokenBucket> buckets) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, maxChunk(buckets, byteCount));
+                    if (read > 0) {
+                        acquire(buckets, read);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.sfx.transfer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reversible transformation applied to each chunk of a transfer, such as
+ * compression or encryption. Implementations must be thread-safe because
+ * pipeline workers call them concurrently on different chunks.
+ *
+ * Both methods either return the given chunk or a new buffer acquired from
+ * {@link com.sfx.io.BufferPool#shared()}, which the caller releases. They never
+ * release the chunk they were given.
+ */
+public interface ChunkTransformer {
+
+    /**
+     * Transform one chunk before it is sent
+     * @param chunk Data to transform, consumed from its position to its limit
+     * @return The transformed data, ready to read
+     */
+    ByteBuffer encode(ByteBuffer chunk) throws Exception;
+
+    /**
+     * Reverse {@link #encode} on a received chunk
+     * @param chunk Data to restore, consumed from its position to its limit
+     * @return The original data, ready to read
+     */
+    ByteBuffer decode(ByteBuffer chunk) throws Exception;
+}
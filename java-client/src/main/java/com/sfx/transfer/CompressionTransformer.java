@@ -0,0 +1,83 @@
+package com.sfx.transfer;
+
+import com.sfx.io.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of transfer chunks. Each encoded chunk starts with the
+ * original length so it can be inflated into an exactly sized buffer.
+ */
+public class CompressionTransformer implements ChunkTransformer {
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final int level;
+
+    public CompressionTransformer() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public CompressionTransformer(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer chunk) {
+        int originalLength = chunk.remaining();
+        BufferPool pool = BufferPool.shared();
+        Deflater deflater = new Deflater(level);
+
+        // Incompressible data can grow slightly, so leave room for the deflate overhead
+        ByteBuffer output = pool.acquire(Integer.BYTES + originalLength + originalLength / 100 + 64);
+        try {
+            deflater.setInput(chunk);
+            deflater.finish();
+            output.putInt(originalLength);
+            while (!deflater.finished()) {
+                if (!output.hasRemaining()) {
+                    ByteBuffer larger = pool.acquire(output.capacity() * 2);
+                    output.flip();
+                    larger.put(output);
+                    pool.release(output);
+                    output = larger;
+                }
+                deflater.deflate(output);
+            }
+            return output.flip();
+        } catch (RuntimeException e) {
+            pool.release(output);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer chunk) throws DataFormatException {
+        // Deflate cannot expand data more than 1032-fold, so a larger claimed length is corrupt
+        int originalLength = chunk.getInt();
+        if (originalLength < 0 || originalLength > (long) chunk.remaining() * MAX_DEFLATE_RATIO + 64) {
+            throw new DataFormatException("Invalid chunk length: " + originalLength);
+        }
+        BufferPool pool = BufferPool.shared();
+        Inflater inflater = new Inflater();
+        ByteBuffer output = pool.acquire(originalLength);
+        try {
+            inflater.setInput(chunk);
+            while (output.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(output) == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Compressed chunk is truncated");
+                }
+            }
+            return output.flip();
+        } catch (DataFormatException | RuntimeException e) {
+            pool.release(output);
+            throw e;
+        } finally {
+            inflater.end();
+        }
+    }
+}
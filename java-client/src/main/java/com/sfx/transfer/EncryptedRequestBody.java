@@ -0,0 +1,120 @@
+package com.sfx.transfer;
+
+import com.sfx.crypto.AESEncryption;
+import com.sfx.io.BufferPool;
+import com.sfx.session.SessionKey;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request body that encrypts another body's bytes with a session key as they
+ * are sent. The bytes are cut into chunks, and each chunk is sent as a 4-byte
+ * big-endian length followed by a 12-byte IV and its AES-GCM ciphertext and
+ * tag. Each frame is bound to the upload, its position and whether it is the
+ * last one by {@link #frameAad}, so frames cannot be reordered, repeated,
+ * moved to another upload or cut off without the server noticing. The server
+ * decrypts the frames back into the other body's bytes.
+ */
+public class EncryptedRequestBody extends RequestBody {
+    private final RequestBody delegate;
+    private final SessionKey sessionKey;
+    private final String uploadId;
+    private final int chunkSize;
+
+    public EncryptedRequestBody(RequestBody delegate, SessionKey sessionKey, String uploadId) {
+        this(delegate, sessionKey, uploadId, TransferPipeline.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param delegate Body to encrypt
+     * @param sessionKey Key to encrypt with, which counts the encrypted bytes
+     * @param uploadId ID the server knows this upload by, its idempotency key
+     * @param chunkSize Plaintext bytes per frame
+     */
+    public EncryptedRequestBody(RequestBody delegate, SessionKey sessionKey, String uploadId, int chunkSize) {
+        this.delegate = delegate;
+        this.sessionKey = sessionKey;
+        this.uploadId = uploadId;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return Additional data binding a frame to its session, upload, position and finality
+     */
+    public static byte[] frameAad(String sessionId, String uploadId, long index, boolean last) {
+        byte[] id = (sessionId + " " + uploadId).getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(id.length + 9).put(id).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return delegate.isOneShot();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        int[] filled = {0};
+        long[] frames = {0};
+
+        // A full chunk is only sent once more bytes follow, since the last
+        // frame has to say that it is the last one
+        BufferedSink encryptingSink = Okio.buffer(new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                while (byteCount > 0) {
+                    if (filled[0] == chunk.length) {
+                        writeFrame(chunk, filled[0], frames[0]++, false, sink);
+                        filled[0] = 0;
+                    }
+                    int n = source.read(chunk, filled[0], (int) Math.min(chunk.length - filled[0], byteCount));
+                    filled[0] += n;
+                    byteCount -= n;
+                }
+            }
+        });
+        delegate.writeTo(encryptingSink);
+        encryptingSink.emit();
+        writeFrame(chunk, filled[0], frames[0], true, sink);
+    }
+
+    private void writeFrame(byte[] chunk, int length, long index, boolean last, BufferedSink sink)
+            throws IOException {
+        sessionKey.recordUse(length);
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer frame = pool.acquire(AESEncryption.encryptedLength(length));
+        try {
+            try {
+                AESEncryption.encrypt(ByteBuffer.wrap(chunk, 0, length), frame, sessionKey.getKey(),
+                        frameAad(sessionKey.getSessionId(), uploadId, index, last));
+            } catch (Exception e) {
+                throw new IOException("Failed to encrypt upload: " + e.getMessage(), e);
+            }
+            frame.flip();
+            sink.writeInt(frame.remaining());
+            while (frame.hasRemaining()) {
+                sink.write(frame);
+            }
+        } finally {
+            pool.release(frame);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sfx.transfer;
+
+import com.sfx.crypto.AESEncryption;
+import com.sfx.io.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AES-GCM encryption of transfer chunks. Every chunk gets its own random IV
+ * and authentication tag, so chunks can be encrypted in parallel.
+ */
+public class EncryptionTransformer implements ChunkTransformer {
+    private final byte[] key;
+
+    /**
+     * @param key AES key, for example derived from the Diffie-Hellman exchange
+     */
+    public EncryptionTransformer(byte[] key) {
+        this.key = key.clone();
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer chunk) throws Exception {
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer output = pool.acquire(AESEncryption.encryptedLength(chunk.remaining()));
+        try {
+            AESEncryption.encrypt(chunk, output, key);
+        } catch (Exception e) {
+            pool.release(output);
+            throw e;
+        }
+        return output.flip();
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer chunk) throws Exception {
+        BufferPool pool = BufferPool.shared();
+        ByteBuffer output = pool.acquire(AESEncryption.decryptedLength(chunk.remaining()));
+        try {
+            AESEncryption.decrypt(chunk, output, key);
+        } catch (Exception e) {
+            pool.release(output);
+            throw e;
+        }
+        return output.flip();
+    }
+}
@@ -0,0 +1,69 @@
+package com.sfx.transfer;
+
+import com.sfx.io.BufferPool;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Request body that streams a file from disk in large reads through a pooled
+ * direct buffer, so the whole file is never held in memory and each read is a
+ * single system call. The length is known up front and the body can be sent
+ * again on retry.
+ */
+public class FileRequestBody extends RequestBody {
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final MediaType mediaType;
+    private final BufferPool pool;
+
+    public FileRequestBody(File file, MediaType mediaType) {
+        this(file, mediaType, BufferPool.shared());
+    }
+
+    public FileRequestBody(File file, MediaType mediaType, BufferPool pool) {
+        this.file = file;
+        this.mediaType = mediaType;
+        this.pool = pool;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        ByteBuffer buffer = pool.acquireDirect(READ_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long expected = channel.size();
+            long sent = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sent += buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                buffer.clear();
+            }
+            // The declared length was taken earlier; a file that changed since would corrupt the request
+            if (sent != expected) {
+                throw new IOException(file + " changed while it was being sent");
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
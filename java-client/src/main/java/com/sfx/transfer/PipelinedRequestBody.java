@@ -0,0 +1,52 @@
+package com.sfx.transfer;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Request body that streams a file through a {@link TransferPipeline}
+ * directly into the OkHttp sink
+ */
+public class PipelinedRequestBody extends RequestBody {
+    private final File file;
+    private final TransferPipeline pipeline;
+    private final MediaType mediaType;
+    private volatile TransferPipeline.Result result;
+
+    public PipelinedRequestBody(File file, TransferPipeline pipeline, MediaType mediaType) {
+        this.file = file;
+        this.pipeline = pipeline;
+        this.mediaType = mediaType;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        // Transformed output size is only known once every chunk is encoded
+        return pipeline.isFramed() ? -1 : file.length();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            result = pipeline.run(channel, sink);
+        }
+    }
+
+    /**
+     * @return The result of the last completed write, or null
+     */
+    public TransferPipeline.Result getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package com.sfx.transfer;
+
+import com.sfx.io.BufferPool;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Request body that streams data of unknown length, such as a pipe or a
+ * producer writing a dump, with chunked transfer encoding. Data is sent as
+ * soon as it is read, so the transfer overlaps with producing it; a slow
+ * network blocks the reads and through them the producer. The source can
+ * only be read once, so the body is one-shot and never retried.
+ */
+public class StreamRequestBody extends RequestBody {
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final ReadableByteChannel source;
+    private final TransferPipeline pipeline;
+    private final MediaType mediaType;
+    private final BufferPool pool;
+    private final AtomicBoolean sent = new AtomicBoolean();
+    private volatile long bytesRead = -1;
+
+    /**
+     * @param source Channel to read until end of stream
+     * @param pipeline Pipeline to transform the data through, e.g. to encrypt it, or null to send it as is
+     * @param mediaType Content type of the body
+     */
+    public StreamRequestBody(ReadableByteChannel source, TransferPipeline pipeline, MediaType mediaType) {
+        this(source, pipeline, mediaType, BufferPool.shared());
+    }
+
+    public StreamRequestBody(ReadableByteChannel source, TransferPipeline pipeline, MediaType mediaType,
+                             BufferPool pool) {
+        this.source = source;
+        this.pipeline = pipeline;
+        this.mediaType = mediaType;
+        this.pool = pool;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return true;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        if (!sent.compareAndSet(false, true)) {
+            throw new IOException("Stream was already sent and cannot be read again");
+        }
+        if (pipeline != null) {
+            bytesRead = pipeline.run(source, sink).getBytesRead();
+            return;
+        }
+
+        ByteBuffer buffer = pool.acquireDirect(READ_SIZE);
+        try {
+            long read = 0;
+            int n;
+            while ((n = source.read(buffer)) != -1) {
+                read += n;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                buffer.clear();
+            }
+            bytesRead = read;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * @return Bytes read from the source by the completed write, or -1 before it completes
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
@@ -0,0 +1,99 @@
+package com.sfx.transfer;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket that limits a byte stream to a rate in bytes per second,
+ * letting up to a tenth of a second's worth through in a burst after idle
+ * time. The rate may be changed at any time, including while callers wait;
+ * a rate of 0 means unlimited.
+ *
+ * Callers are served in the order they asked, so a transfer that writes large
+ * chunks cannot starve one that writes small ones.
+ */
+public class TokenBucket {
+    private static final long MIN_BURST_BYTES = 8 * 1024;
+
+    private long bytesPerSecond;
+    // Bytes handed out so far, and bytes the rate has paid for so far; a caller
+    // may go once the paid count reaches its position among the handed out bytes
+    private long granted;
+    private double paid;
+    private long lastRefillNanos;
+
+    /**
+     * @param bytesPerSecond Initial rate, or 0 for unlimited
+     */
+    public TokenBucket(long bytesPerSecond) {
+        this.lastRefillNanos = System.nanoTime();
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Change the rate, taking effect for callers already waiting
+     * @param bytesPerSecond New rate, or 0 for unlimited
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative");
+        }
+        refill();
+        if (this.bytesPerSecond == 0) {
+            // Start limiting with a full burst rather than a debt from unlimited use
+            paid = granted + burst(bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        notifyAll();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return Largest number of bytes worth taking at once, so rate changes apply promptly
+     */
+    public synchronized int getMaxChunk() {
+        return bytesPerSecond == 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, burst(bytesPerSecond));
+    }
+
+    /**
+     * Wait until the given number of bytes may be sent or received
+     */
+    public synchronized void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond == 0 || bytes <= 0) {
+            return;
+        }
+        refill();
+        granted += bytes;
+        long position = granted;
+
+        try {
+            while (bytesPerSecond > 0) {
+                refill();
+                double missing = position - paid;
+                if (missing <= 0) {
+                    return;
+                }
+                long waitNanos = (long) Math.ceil(missing * 1_000_000_000L / bytesPerSecond);
+                wait(Math.max(1, waitNanos / 1_000_000), 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            paid = Math.min(paid + (now - lastRefillNanos) * (double) bytesPerSecond / 1_000_000_000L,
+                    granted + burst(bytesPerSecond));
+        }
+        lastRefillNanos = now;
+    }
+
+    private static long burst(long bytesPerSecond) {
+        return Math.max(MIN_BURST_BYTES, bytesPerSecond / 10);
+    }
+}
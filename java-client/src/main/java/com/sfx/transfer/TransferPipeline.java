@@ -0,0 +1,382 @@
+package com.sfx.transfer;
+
+import com.sfx.io.BufferPool;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-stage transfer pipeline. A reader stage fills pooled direct buffers
+ * from the source channel, worker stages hash and transform chunks in
+ * parallel, and the calling thread writes the results to the sink in order.
+ * Bounded queues and a cap on chunks in flight give backpressure, so a slow
+ * network stalls the reader instead of filling memory.
+ *
+ * Without transformers the output is the raw file content. With transformers
+ * every chunk is written as a 4-byte big-endian length followed by the encoded
+ * bytes, which {@link #decode} reverses.
+ */
+public class TransferPipeline {
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    // Longest frame decode accepts unless the chunks are larger, as the server
+    // caps encrypted upload frames; a corrupt length cannot claim gigabytes
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final Chunk END_OF_INPUT = new Chunk(-1, null);
+
+    private final int chunkSize;
+    private final int workers;
+    private final int queueCapacity;
+    private final List<ChunkTransformer> transformers;
+
+    /**
+     * Create a pipeline
+     * @param chunkSize Bytes per chunk
+     * @param workers Number of parallel worker stages
+     * @param queueCapacity Chunks that may wait between the reader and the workers
+     * @param transformers Transformations applied to each chunk, in order
+     */
+    public TransferPipeline(int chunkSize, int workers, int queueCapacity, List<ChunkTransformer> transformers) {
+        if (chunkSize < 1 || workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Chunk size, workers and queue capacity must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.transformers = List.copyOf(transformers);
+    }
+
+    /**
+     * Create a pipeline with one worker per core and default chunk size
+     */
+    public static TransferPipeline withTransformers(ChunkTransformer... transformers) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new TransferPipeline(DEFAULT_CHUNK_SIZE, cores, 2 * cores, List.of(transformers));
+    }
+
+    /**
+     * @return true if the output is framed, i.e. its length is not known in advance
+     */
+    public boolean isFramed() {
+        return !transformers.isEmpty();
+    }
+
+    /**
+     * Move all data from the source to the sink through the pipeline stages
+     * @param source Channel to read until end of stream
+     * @param sink Channel receiving the (framed) output
+     * @return Byte counts and per-chunk SHA-256 hashes of the source data
+     */
+    public Result run(ReadableByteChannel source, WritableByteChannel sink) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        BlockingQueue<Chunk> work = new ArrayBlockingQueue<>(queueCapacity);
+        Semaphore inFlight = new Semaphore(queueCapacity + workers);
+        Map<Long, Chunk> completed = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] chunkCount = {-1};
+        long[] bytesRead = {0};
+
+        ExecutorService stages = Executors.newFixedThreadPool(workers + 1, runnable -> {
+            Thread thread = new Thread(runnable, "sfx-transfer-stage");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            stages.submit(() -> {
+                try {
+                    long index = 0;
+                    boolean endOfStream = false;
+                    while (!endOfStream) {
+                        inFlight.acquire();
+                        ByteBuffer buffer = pool.acquireDirect(chunkSize);
+                        try {
+                            while (buffer.hasRemaining()) {
+                                if (source.read(buffer) < 0) {
+                                    endOfStream = true;
+                                    break;
+                                }
+                            }
+                        } catch (Throwable t) {
+                            pool.release(buffer);
+                            throw t;
+                        }
+                        buffer.flip();
+                        if (!buffer.hasRemaining()) {
+                            pool.release(buffer);
+                            inFlight.release();
+                            break;
+                        }
+                        bytesRead[0] += buffer.remaining();
+                        try {
+                            work.put(new Chunk(index++, buffer));
+                        } catch (InterruptedException e) {
+                            pool.release(buffer);
+                            throw e;
+                        }
+                    }
+                    synchronized (completed) {
+                        chunkCount[0] = index;
+                        completed.notifyAll();
+                    }
+                } catch (Throwable t) {
+                    fail(failure, completed, t);
+                } finally {
+                    for (int i = 0; i < workers; i++) {
+                        work.offer(END_OF_INPUT);
+                    }
+                }
+                return null;
+            });
+
+            for (int i = 0; i < workers; i++) {
+                stages.submit(() -> {
+                    try {
+                        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                        while (true) {
+                            Chunk chunk = work.take();
+                            if (chunk == END_OF_INPUT) {
+                                break;
+                            }
+                            process(chunk, digest, pool);
+                            synchronized (completed) {
+                                completed.put(chunk.index, chunk);
+                                completed.notifyAll();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        fail(failure, completed, t);
+                    }
+                    return null;
+                });
+            }
+
+            // Ordered writer stage on the calling thread
+            List<byte[]> chunkHashes = new ArrayList<>();
+            long bytesWritten = 0;
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            for (long next = 0; ; next++) {
+                Chunk chunk;
+                synchronized (completed) {
+                    while ((chunk = completed.remove(next)) == null) {
+                        if (failure.get() != null) {
+                            throw new IOException("Transfer pipeline failed: " + failure.get().getMessage(),
+                                    failure.get());
+                        }
+                        if (chunkCount[0] == next) {
+                            return new Result(bytesRead[0], bytesWritten, chunkHashes);
+                        }
+                        completed.wait();
+                    }
+                }
+
+                try {
+                    if (isFramed()) {
+                        header.clear();
+                        header.putInt(chunk.output.remaining()).flip();
+                        bytesWritten += writeFully(sink, header);
+                    }
+                    bytesWritten += writeFully(sink, chunk.output);
+                } finally {
+                    pool.release(chunk.output);
+                }
+                chunkHashes.add(chunk.hash);
+                inFlight.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during transfer", e);
+        } finally {
+            stages.shutdownNow();
+            releaseUnwritten(stages, work, completed, pool);
+        }
+    }
+
+    /**
+     * Hash and transform one chunk. Afterwards {@code chunk.output} is the only
+     * buffer the chunk still holds; on failure the chunk holds none.
+     */
+    private void process(Chunk chunk, MessageDigest digest, BufferPool pool) throws Exception {
+        digest.update(chunk.input.duplicate());
+        chunk.hash = digest.digest();
+
+        ByteBuffer data = chunk.input;
+        try {
+            for (ChunkTransformer transformer : transformers) {
+                ByteBuffer encoded = transformer.encode(data);
+                if (encoded != data) {
+                    // The encoded copy is independent, so the previous buffer can be reused right away
+                    pool.release(data);
+                    data = encoded;
+                }
+            }
+        } catch (Exception e) {
+            pool.release(data);
+            throw e;
+        }
+        chunk.output = data;
+    }
+
+    /**
+     * Return the buffers of chunks that were never written after a failure,
+     * once the stages holding them have stopped
+     */
+    private static void releaseUnwritten(ExecutorService stages, BlockingQueue<Chunk> work,
+                                         Map<Long, Chunk> completed, BufferPool pool) {
+        try {
+            if (!stages.awaitTermination(10, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Chunk chunk : work) {
+            if (chunk != END_OF_INPUT) {
+                pool.release(chunk.input);
+            }
+        }
+        for (Chunk chunk : completed.values()) {
+            pool.release(chunk.output);
+        }
+    }
+
+    private static void fail(AtomicReference<Throwable> failure, Map<Long, Chunk> completed, Throwable t) {
+        failure.compareAndSet(null, t);
+        synchronized (completed) {
+            completed.notifyAll();
+        }
+    }
+
+    private static int writeFully(WritableByteChannel sink, ByteBuffer buffer) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += sink.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Restore the original data from framed pipeline output
+     * @param in Framed data as written by {@link #run}
+     * @param out Destination of the original data
+     * @return Number of bytes written to {@code out}
+     */
+    public long decode(InputStream in, OutputStream out) throws IOException {
+        BufferPool pool = BufferPool.shared();
+        if (!isFramed()) {
+            return pool.copy(in, out);
+        }
+
+        DataInputStream frames = new DataInputStream(in);
+        long written = 0;
+        while (true) {
+            int length;
+            try {
+                length = frames.readInt();
+            } catch (EOFException e) {
+                return written;
+            }
+            if (length < 0 || length > maxFrameSize()) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+
+            ByteBuffer data = pool.acquire(length);
+            try {
+                frames.readFully(data.array(), 0, length);
+                for (int i = transformers.size() - 1; i >= 0; i--) {
+                    ByteBuffer decoded = transformers.get(i).decode(data);
+                    if (decoded != data) {
+                        pool.release(data);
+                        data = decoded;
+                    }
+                }
+
+                int remaining = data.remaining();
+                if (data.hasArray()) {
+                    out.write(data.array(), data.arrayOffset() + data.position(), remaining);
+                } else {
+                    Channels.newChannel(out).write(data);
+                }
+                written += remaining;
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to decode chunk: " + e.getMessage(), e);
+            } finally {
+                pool.release(data);
+            }
+        }
+    }
+
+    /**
+     * @return Longest frame this pipeline writes with room to spare, at least {@link #MAX_FRAME_SIZE}
+     */
+    private long maxFrameSize() {
+        return Math.max(MAX_FRAME_SIZE, 2L * chunkSize);
+    }
+
+    /**
+     * One chunk moving through the pipeline
+     */
+    private static class Chunk {
+        final long index;
+        final ByteBuffer input;
+        ByteBuffer output;
+        byte[] hash;
+
+        Chunk(long index, ByteBuffer input) {
+            this.index = index;
+            this.input = input;
+        }
+    }
+
+    /**
+     * Outcome of a pipeline run
+     */
+    public static class Result {
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final List<byte[]> chunkHashes;
+
+        Result(long bytesRead, long bytesWritten, List<byte[]> chunkHashes) {
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.chunkHashes = chunkHashes;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return SHA-256 hash of each source chunk, in order
+         */
+        public List<byte[]> getChunkHashes() {
+            return chunkHashes;
+        }
+    }
+}
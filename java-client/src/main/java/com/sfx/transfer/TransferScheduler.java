@@ -0,0 +1,252 @@
+package com.sfx.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules transfers by priority and shapes their bandwidth.
+ *
+ * Interactive transfers, such as a download the user is waiting for, start at
+ * once. Bulk transfers, such as background uploads during a sync, queue for a
+ * bounded number of slots. While any interactive transfer runs, bulk
+ * transfers together get only a small share of the global rate, so the
+ * interactive one gets most of the link; without a global rate there is no
+ * link capacity to share and only the scheduling order applies.
+ *
+ * Every transfer also has its own rate limit, and all limits can be changed
+ * while transfers run. {@link BandwidthInterceptor} applies the limits of the
+ * transfer running on the calling thread to each HTTP call's bodies.
+ */
+public class TransferScheduler implements Closeable {
+    public enum Priority { INTERACTIVE, BULK }
+
+    /**
+     * Share of the global rate left to bulk transfers while an interactive transfer runs
+     */
+    public static final double DEFAULT_BULK_SHARE = 0.1;
+
+    private static final ThreadLocal<Transfer<?>> CURRENT = new ThreadLocal<>();
+
+    private final TokenBucket globalBucket = new TokenBucket(0);
+    private final TokenBucket bulkBucket = new TokenBucket(0);
+    private final AtomicInteger activeInteractive = new AtomicInteger();
+    private final ExecutorService interactiveExecutor;
+    private final ExecutorService bulkExecutor;
+    private volatile double bulkShare = DEFAULT_BULK_SHARE;
+
+    /**
+     * @param maxBulkTransfers Bulk transfers that may run at the same time
+     */
+    public TransferScheduler(int maxBulkTransfers) {
+        if (maxBulkTransfers < 1) {
+            throw new IllegalArgumentException("At least one bulk transfer must be allowed");
+        }
+        this.interactiveExecutor = Executors.newCachedThreadPool(daemonThreads("sfx-interactive"));
+        this.bulkExecutor = Executors.newFixedThreadPool(maxBulkTransfers, daemonThreads("sfx-bulk"));
+    }
+
+    /**
+     * A unit of work that transfers data, given its transfer handle
+     */
+    @FunctionalInterface
+    public interface TransferTask<T> {
+        T run(Transfer<T> transfer) throws Exception;
+    }
+
+    /**
+     * Queue a task by priority; HTTP calls it makes are shaped as part of its transfer
+     * @return Handle to wait for the result or change the transfer's rate limit
+     */
+    public <T> Transfer<T> submit(Priority priority, TransferTask<T> task) {
+        Transfer<T> transfer = new Transfer<>(priority, task);
+        (priority == Priority.INTERACTIVE ? interactiveExecutor : bulkExecutor).execute(transfer.future);
+        return transfer;
+    }
+
+    /**
+     * Run a task on the calling thread as a transfer of the given priority,
+     * for callers that manage their own threads
+     */
+    public <T> T run(Priority priority, TransferTask<T> task) throws IOException {
+        Transfer<T> transfer = new Transfer<>(priority, task);
+        try {
+            return transfer.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Transfer failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The transfer running on the calling thread, or null
+     */
+    public static Transfer<?> current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Wait until a transfer may move the given number of bytes, for data that
+     * does not pass through {@link BandwidthInterceptor}
+     * @param transfer The transfer, or null for data outside any transfer
+     */
+    public void acquire(Transfer<?> transfer, long bytes) throws InterruptedIOException {
+        for (TokenBucket bucket : bucketsFor(transfer)) {
+            bucket.acquire(bytes);
+        }
+    }
+
+    /**
+     * @return Buckets a call must pass, from most to least specific; a null transfer counts as interactive
+     */
+    List<TokenBucket> bucketsFor(Transfer<?> transfer) {
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        if (transfer != null) {
+            buckets.add(transfer.bucket);
+            if (transfer.priority == Priority.BULK) {
+                buckets.add(bulkBucket);
+            }
+        }
+        buckets.add(globalBucket);
+        return buckets;
+    }
+
+    /**
+     * Limit all transfers together
+     * @param bytesPerSecond Rate in bytes per second, or 0 for unlimited
+     */
+    public void setGlobalRate(long bytesPerSecond) {
+        globalBucket.setRate(bytesPerSecond);
+        updateBulkRate();
+    }
+
+    public long getGlobalRate() {
+        return globalBucket.getRate();
+    }
+
+    /**
+     * @param share Fraction of the global rate bulk transfers may use while an interactive one runs
+     */
+    public void setBulkShare(double share) {
+        if (share <= 0 || share > 1) {
+            throw new IllegalArgumentException("Bulk share must be in (0, 1]");
+        }
+        bulkShare = share;
+        updateBulkRate();
+    }
+
+    /**
+     * @return Number of interactive transfers running
+     */
+    public int getActiveInteractive() {
+        return activeInteractive.get();
+    }
+
+    private synchronized void updateBulkRate() {
+        long global = globalBucket.getRate();
+        bulkBucket.setRate(activeInteractive.get() > 0 && global > 0
+                ? Math.max(1, (long) (global * bulkShare))
+                : 0);
+    }
+
+    @Override
+    public void close() {
+        interactiveExecutor.shutdownNow();
+        bulkExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A scheduled or running transfer: a future of the task's result that
+     * carries the transfer's own rate limit
+     */
+    public class Transfer<T> implements Future<T> {
+        private final Priority priority;
+        private final TokenBucket bucket = new TokenBucket(0);
+        private final TransferTask<T> task;
+        private final FutureTask<T> future = new FutureTask<>(this::call);
+
+        private Transfer(Priority priority, TransferTask<T> task) {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        private T call() throws Exception {
+            Transfer<?> previous = CURRENT.get();
+            boolean interactive = priority == Priority.INTERACTIVE;
+            if (interactive && activeInteractive.getAndIncrement() == 0) {
+                updateBulkRate();
+            }
+            CURRENT.set(this);
+            try {
+                return task.run(this);
+            } finally {
+                CURRENT.set(previous);
+                if (interactive && activeInteractive.decrementAndGet() == 0) {
+                    updateBulkRate();
+                }
+            }
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Limit this transfer, taking effect immediately if it is running
+         * @param bytesPerSecond Rate in bytes per second, or 0 for unlimited
+         */
+        public void setRateLimit(long bytesPerSecond) {
+            bucket.setRate(bytesPerSecond);
+        }
+
+        public long getRateLimit() {
+            return bucket.getRate();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return future.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return future.get(timeout, unit);
+        }
+    }
+}
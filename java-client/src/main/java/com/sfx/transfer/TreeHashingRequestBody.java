@@ -0,0 +1,64 @@
+package com.sfx.transfer;
+
+import com.sfx.crypto.TreeHasher;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * Request body that tree-hashes another body's bytes as they are sent, so the
+ * root hash is ready when the last byte leaves without a separate pass over
+ * the file.
+ */
+public class TreeHashingRequestBody extends RequestBody {
+    private final RequestBody delegate;
+    private volatile String rootHash;
+
+    public TreeHashingRequestBody(RequestBody delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return delegate.isOneShot();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // A fresh hasher per write, since OkHttp may send the body again on retry
+        try (TreeHasher hasher = new TreeHasher()) {
+            BufferedSink hashingSink = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    source.copyTo(hasher, 0, byteCount);
+                    super.write(source, byteCount);
+                }
+            });
+            delegate.writeTo(hashingSink);
+            hashingSink.emit();
+            rootHash = hasher.hexDigest();
+        }
+    }
+
+    /**
+     * @return Hex encoded root hash of the bytes sent by the last complete write, or null
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+}
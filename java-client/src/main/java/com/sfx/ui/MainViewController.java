@@ -1,10 +1,15 @@
 package com.sfx.ui;
 
 import com.sfx.api.ApiClient;
+import com.sfx.api.FileEvent;
 import com.sfx.api.FileListResponse;
 import com.sfx.api.FileUploadResponse;
-import com.sfx.api.KeyExchangeResponse;
-import com.sfx.crypto.DHKeyExchange;
+import com.sfx.cache.DownloadCache;
+import com.sfx.cluster.ClusterClient;
+import com.sfx.events.FileWatch;
+import com.sfx.session.SessionKey;
+import com.sfx.session.SessionManager;
+import com.sfx.transfer.TransferScheduler;
 
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -17,6 +22,9 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -40,10 +48,12 @@ public class MainViewController {
     @FXML private ProgressBar progressBar;
     
     private ApiClient apiClient;
-    private DHKeyExchange keyExchange;
-    // This key will be used in future versions for file encryption/decryption
-    // Currently kept as part of the key exchange implementation
-    private byte[] encryptionKey; 
+    // Session keys per user, rotated in the background. Connecting establishes
+    // the user's key, which proves the key exchange works; uploads from this
+    // window are sent unencrypted, as only streamed uploads take a key
+    private SessionManager sessionManager;
+    // Pushed file changes for the connected server, or null before connecting
+    private FileWatch fileWatch;
     private final ExecutorService executorService = Executors.newCachedThreadPool();
     private final ObservableList<FileViewModel> fileList = FXCollections.observableArrayList();
     private Stage primaryStage;
@@ -81,53 +91,56 @@ public class MainViewController {
             return;
         }
         
+        connect(serverUrl).whenComplete((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                Platform.runLater(() -> {
+                    showAlert(Alert.AlertType.ERROR, "Connection Error", "Failed to connect: " + cause.getMessage());
+                    setStatus("Connection failed", false);
+                });
+            }
+        });
+    }
+    
+    /**
+     * Connect to a server: check its health, establish the user's session key
+     * and subscribe to file changes
+     * @param serverUrl Server URL, or a comma-separated list of URLs for a cluster
+     * @return Completes on the UI thread once connected, or with the error that stopped it
+     */
+    public CompletableFuture<Void> connect(String serverUrl) {
         setStatus("Connecting to server...", true);
         System.out.println("Attempting to connect to: " + serverUrl);
         
-        // Initialize API client
-        apiClient = new ApiClient(serverUrl);
+        // Initialize API client, restoring repeat downloads from the local cache.
+        // A comma-separated list of URLs connects to a cluster.
+        closeFileWatch();
+        apiClient = ClusterClient.forServers(serverUrl);
+        apiClient.setDownloadCache(DownloadCache.shared());
+        if (sessionManager != null) {
+            sessionManager.close();
+        }
+        ApiClient client = apiClient;
+        sessionManager = new SessionManager(url -> client);
+        SessionManager keys = sessionManager;
+        String userId = userIdField.getText();
         
+        CompletableFuture<Void> connected = new CompletableFuture<>();
         executorService.submit(() -> {
             try {
                 // Check server health
                 System.out.println("Checking server health...");
-                boolean isHealthy = apiClient.healthCheck();
+                boolean isHealthy = client.healthCheck();
                 System.out.println("Server health check result: " + isHealthy);
                 
                 if (!isHealthy) {
-                    Platform.runLater(() -> {
-                        showAlert(Alert.AlertType.ERROR, "Connection Error", "Server is not healthy");
-                        setStatus("Connection failed", false);
-                    });
-                    return;
+                    throw new IOException("Server is not healthy");
                 }
                 
-                // Initialize key exchange
-                System.out.println("Initializing key exchange...");
-                keyExchange = new DHKeyExchange();
-                System.out.println("Key exchange initialized, calling server...");
-                KeyExchangeResponse response = apiClient.initiateKeyExchange();
-                System.out.println("Received key exchange response with session ID: " + response.getSessionId());
-                
-                // Compute shared secret and derive encryption key
-                System.out.println("Computing shared secret...");
-                byte[] sharedSecret = keyExchange.computeSharedSecret(response.getPublicKey());
-                encryptionKey = keyExchange.deriveEncryptionKey(sharedSecret);
-                System.out.println("Encryption key established: " + (encryptionKey != null ? "Yes (" + encryptionKey.length + " bytes)" : "No"));
-                
-                // Complete the key exchange
-                System.out.println("Completing key exchange with server...");
-                boolean success = apiClient.completeKeyExchange(
-                        response.getSessionId(), keyExchange.getPublicKeyBase64());
-                System.out.println("Key exchange completion result: " + success);
-                
-                if (!success) {
-                    Platform.runLater(() -> {
-                        showAlert(Alert.AlertType.ERROR, "Connection Error", "Failed to complete key exchange");
-                        setStatus("Key exchange failed", false);
-                    });
-                    return;
-                }
+                // Establish the user's session key
+                System.out.println("Establishing session key...");
+                SessionKey sessionKey = keys.key(serverUrl, userId);
+                System.out.println("Encryption key established: generation " + sessionKey.getGeneration());
                 
                 // Update UI on success
                 System.out.println("Connection successful, updating UI...");
@@ -139,19 +152,19 @@ public class MainViewController {
                     refreshButton.setDisable(false);
                     setStatus("Connected", false);
                     
-                    // Load file list
-                    refreshFileList();
+                    // The server pushes file changes for the rest of the session; its
+                    // first event loads the full list
+                    closeFileWatch();
+                    fileWatch = client.watchFiles(fileEvent -> Platform.runLater(() -> applyFileEvent(fileEvent)));
+                    connected.complete(null);
                 });
                 
             } catch (Exception e) {
-                e.printStackTrace();
                 System.out.println("Connection error: " + e.getMessage());
-                Platform.runLater(() -> {
-                    showAlert(Alert.AlertType.ERROR, "Connection Error", "Failed to connect: " + e.getMessage());
-                    setStatus("Connection failed", false);
-                });
+                connected.completeExceptionally(e);
             }
         });
+        return connected;
     }
     
     /**
@@ -166,14 +179,19 @@ public class MainViewController {
         if (selectedFile != null) {
             setStatus("Uploading file...", true);
             
-            executorService.submit(() -> {
+            // Uploads run in the background and yield bandwidth to downloads
+            apiClient.getScheduler().submit(TransferScheduler.Priority.BULK, transfer -> {
                 try {
                     String userId = userIdField.getText();
                     FileUploadResponse response = apiClient.uploadFile(selectedFile, userId);
                     
                     Platform.runLater(() -> {
+                        // The list picks the file up from the server's change event,
+                        // unless the event stream is down
                         setStatus("File uploaded: " + response.getStoredFilename(), false);
-                        refreshFileList();
+                        if (fileWatch == null || !fileWatch.isConnected()) {
+                            refreshFileList();
+                        }
                     });
                     
                 } catch (Exception e) {
@@ -183,6 +201,7 @@ public class MainViewController {
                         setStatus("Upload failed", false);
                     });
                 }
+                return null;
             });
         }
     }
@@ -206,7 +225,8 @@ public class MainViewController {
         if (saveFile != null) {
             setStatus("Downloading file...", true);
             
-            executorService.submit(() -> {
+            // The user is waiting for this file, so it starts at once and takes most of the bandwidth
+            apiClient.getScheduler().submit(TransferScheduler.Priority.INTERACTIVE, transfer -> {
                 try {
                     String userId = userIdField.getText();
                     boolean success = apiClient.downloadFile(selected.getFilename(), saveFile, userId);
@@ -227,10 +247,33 @@ public class MainViewController {
                         setStatus("Download failed", false);
                     });
                 }
+                return null;
             });
         }
     }
     
+    /**
+     * Release the server connection when the window closes
+     */
+    public void shutdown() {
+        closeFileWatch();
+        if (sessionManager != null) {
+            sessionManager.close();
+        }
+        executorService.shutdownNow();
+    }
+
+    private void closeFileWatch() {
+        if (fileWatch != null) {
+            try {
+                fileWatch.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close the file event stream: " + e.getMessage());
+            }
+            fileWatch = null;
+        }
+    }
+    
     /**
      * Handle refresh button click
      */
@@ -276,6 +319,45 @@ public class MainViewController {
         });
     }
     
+    /**
+     * Apply a pushed file change to the file list
+     */
+    private void applyFileEvent(FileEvent fileEvent) {
+        if (fileEvent.isReset()) {
+            refreshFileList();
+            return;
+        }
+
+        FileListResponse.FileInfo fileInfo = fileEvent.getFile();
+        int index = indexOf(fileInfo.getFilename());
+        if (FileEvent.FILE_REMOVED.equals(fileEvent.getType())) {
+            if (index >= 0) {
+                fileList.remove(index);
+            }
+            return;
+        }
+
+        FileViewModel viewModel = new FileViewModel(
+                fileInfo.getFilename(),
+                formatFileSize(fileInfo.getSizeBytes()),
+                fileInfo.getCreatedAt()
+        );
+        if (index >= 0) {
+            fileList.set(index, viewModel);
+        } else {
+            fileList.add(viewModel);
+        }
+    }
+
+    private int indexOf(String filename) {
+        for (int i = 0; i < fileList.size(); i++) {
+            if (fileList.get(i).getFilename().equals(filename)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
      * Set status message and progress indicator
      */
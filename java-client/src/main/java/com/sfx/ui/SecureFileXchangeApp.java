@@ -1,24 +1,49 @@
 package com.sfx.ui;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 /**
  * Main JavaFX application class for the SecureFileXchange client
  */
 public class SecureFileXchangeApp extends Application {
+    /**
+     * Environment variable that makes the application report the time to its
+     * first interactive frame and exit, for startup measurements and training runs
+     */
+    public static final String STARTUP_PROBE_ENV = "SFX_STARTUP_PROBE";
+
+    /**
+     * Start of the line reporting the time to the first frame, followed by the JVM uptime in milliseconds
+     */
+    public static final String FIRST_FRAME_MARKER = "sfx-first-frame";
+
+    /**
+     * Environment variable naming a server the startup probe connects to after
+     * the first frame, so the measurement includes the health check and key exchange
+     */
+    public static final String STARTUP_PROBE_SERVER_ENV = "SFX_STARTUP_PROBE_SERVER";
+
+    /**
+     * Start of the line reporting the time until connected, followed by the JVM uptime in milliseconds
+     */
+    public static final String CONNECTED_MARKER = "sfx-connected";
+
+    private MainViewController controller;
     
     @Override
     public void start(Stage primaryStage) throws IOException {
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/MainView.fxml"));
         Parent root = loader.load();
         
-        MainViewController controller = loader.getController();
+        controller = loader.getController();
         controller.init(primaryStage);
         
         Scene scene = new Scene(root, 800, 600);
@@ -27,12 +52,49 @@ public class SecureFileXchangeApp extends Application {
         primaryStage.setTitle("SecureFileXchange");
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        if (System.getenv(STARTUP_PROBE_ENV) != null) {
+            reportFirstFrame(scene);
+        }
+    }
+
+    /**
+     * Print the time to the first frame, and to the connection if a probe server
+     * is set, and exit. The frame is drawn after the first layout pulse; an event
+     * queued then runs once the window handles input.
+     */
+    private void reportFirstFrame(Scene scene) {
+        boolean[] reported = new boolean[1];
+        scene.addPostLayoutPulseListener(() -> {
+            if (reported[0]) {
+                return;
+            }
+            reported[0] = true;
+            Platform.runLater(() -> {
+                System.out.println(FIRST_FRAME_MARKER + " " + ManagementFactory.getRuntimeMXBean().getUptime());
+                String server = System.getenv(STARTUP_PROBE_SERVER_ENV);
+                if (server == null) {
+                    System.exit(0);
+                }
+                controller.connect(server).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        System.out.println("Probe connection failed: " + error.getMessage());
+                        System.exit(1);
+                    }
+                    System.out.println(CONNECTED_MARKER + " " + ManagementFactory.getRuntimeMXBean().getUptime());
+                    System.exit(0);
+                });
+            });
+        });
     }
 
     @Override
     public void stop() {
         // Cleanup resources when the application is closed
         System.out.println("Shutting down SecureFileXchange client");
+        if (controller != null) {
+            controller.shutdown();
+        }
     }
 
     /**
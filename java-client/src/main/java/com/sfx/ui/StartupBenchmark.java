@@ -0,0 +1,123 @@
+package com.sfx.ui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cold start of the desktop client: time from launching a new
+ * process to its first interactive frame. Each run starts the given command
+ * with {@link SecureFileXchangeApp#STARTUP_PROBE_ENV} set, so the application
+ * reports when its window is ready and exits. The first run is not counted,
+ * since it also loads files into the operating system's cache.
+ *
+ * With {@code --connect}, each run then connects to the given server as the
+ * Connect button does, and the time until connected is reported as well. This
+ * covers the classes only the connect path loads, and the key exchange.
+ *
+ * Usage: {@code StartupBenchmark [runs] [--connect serverUrl] command [args...]}, for example
+ * {@code StartupBenchmark 10 --connect http://localhost:8000 target/dist/bin/sfx}
+ */
+public class StartupBenchmark {
+    private static final long TIMEOUT_SECONDS = 120;
+
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        int commandStart = 0;
+        if (args.length > commandStart && args[commandStart].matches("\\d+")) {
+            runs = Integer.parseInt(args[commandStart]);
+            commandStart++;
+        }
+        String server = null;
+        if (args.length > commandStart + 1 && "--connect".equals(args[commandStart])) {
+            server = args[commandStart + 1];
+            commandStart += 2;
+        }
+        if (commandStart >= args.length || runs < 1) {
+            System.err.println("Usage: StartupBenchmark [runs] [--connect serverUrl] command [args...]");
+            System.exit(2);
+        }
+        List<String> command = Arrays.asList(args).subList(commandStart, args.length);
+
+        // Warm-up run, not counted
+        launch(command, server);
+
+        long[] wallMillis = new long[runs];
+        long[] uptimeMillis = new long[runs];
+        long[] connectedWallMillis = new long[runs];
+        long[] connectedUptimeMillis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] result = launch(command, server);
+            wallMillis[i] = result[0];
+            uptimeMillis[i] = result[1];
+            connectedWallMillis[i] = result[2];
+            connectedUptimeMillis[i] = result[3];
+        }
+
+        System.out.printf("%s%n%d runs%n%n", String.join(" ", command), runs);
+        System.out.printf("%-28s %10s %10s %10s%n", "First interactive frame", "min ms", "p50 ms", "max ms");
+        print("since process launch", wallMillis);
+        print("since JVM start", uptimeMillis);
+        if (server != null) {
+            System.out.printf("%n%-28s %10s %10s %10s%n", "Connected to " + server, "min ms", "p50 ms", "max ms");
+            print("since process launch", connectedWallMillis);
+            print("since JVM start", connectedUptimeMillis);
+        }
+    }
+
+    /**
+     * Start the command and wait for its first frame, and its connection if a server is given
+     * @param server Server to connect to after the first frame, or null
+     * @return Milliseconds since launch and the JVM uptime the application reported, at the
+     *         first frame and then when connected (zero without a server)
+     */
+    private static long[] launch(List<String> command, String server) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        builder.environment().put(SecureFileXchangeApp.STARTUP_PROBE_ENV, "1");
+        if (server != null) {
+            builder.environment().put(SecureFileXchangeApp.STARTUP_PROBE_SERVER_ENV, server);
+        }
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long[] result = new long[4];
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SecureFileXchangeApp.FIRST_FRAME_MARKER + " ")) {
+                    result[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    result[1] = uptime(line, SecureFileXchangeApp.FIRST_FRAME_MARKER);
+                    if (server == null) {
+                        process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        return result;
+                    }
+                } else if (line.startsWith(SecureFileXchangeApp.CONNECTED_MARKER + " ")) {
+                    result[2] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    result[3] = uptime(line, SecureFileXchangeApp.CONNECTED_MARKER);
+                    process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    return result;
+                }
+            }
+            throw new IOException("Exited with " + process.waitFor() + " before reporting "
+                    + (result[0] == 0 ? "its first frame" : "its connection"));
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static long uptime(String line, String marker) {
+        return Long.parseLong(line.substring(marker.length() + 1).trim());
+    }
+
+    private static void print(String name, long[] millis) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-28s %10d %10d %10d%n", name, sorted[0], sorted[(sorted.length - 1) / 2],
+                sorted[sorted.length - 1]);
+    }
+}
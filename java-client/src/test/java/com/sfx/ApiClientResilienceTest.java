@@ -0,0 +1,166 @@
+package com.sfx;
+
+import com.sfx.api.ApiClient;
+import com.sfx.resilience.CircuitOpenException;
+import com.sfx.resilience.ResilienceInterceptor;
+import com.sfx.resilience.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for ApiClient retries and circuit breaking against a local
+ * stand-in server that injects faults
+ * CI-compatible with no dependency on running server
+ */
+public class ApiClientResilienceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final Queue<Integer> faults = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+    private volatile int defaultStatus = 200;
+    private ApiClient apiClient;
+
+    /**
+     * Start a server that answers with the queued fault status codes first,
+     * then with the default status
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        apiClient = new ApiClient(baseUrl, new ResilienceInterceptor(new RetryPolicy(4, 5, 20, 2000), 3, 60_000, 8));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (key != null) {
+            idempotencyKeys.add(key);
+        }
+        exchange.getRequestBody().readAllBytes();
+
+        Integer fault = faults.poll();
+        int code = fault != null ? fault : defaultStatus;
+        String body;
+        String path = exchange.getRequestURI().getPath();
+        if (code != 200) {
+            if (code == 503 || code == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+            }
+            body = "{\"detail\":\"injected fault\"}";
+        } else if (path.equals("/health")) {
+            body = "{\"status\":\"ok\"}";
+        } else if (path.equals("/api/files/upload/raw")) {
+            body = "{\"filename\":\"a.txt\",\"stored_filename\":\"stored.txt\",\"message\":\"File uploaded successfully\"}";
+        } else {
+            body = "{\"status\":\"success\"}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Test that idempotent calls are retried through transient overload
+     */
+    @Test
+    public void testRetriesTransientFailures() throws Exception {
+        faults.add(503);
+        faults.add(502);
+
+        assertTrue(apiClient.healthCheck(), "Health check should succeed after retries");
+        assertEquals(3, requests.get(), "Two failures and one success should reach the server");
+    }
+
+    /**
+     * Test that uploads are retried with the same idempotency key
+     */
+    @Test
+    public void testUploadRetriesKeepIdempotencyKey() throws Exception {
+        Path file = tempDir.resolve("a.txt");
+        Files.writeString(file, "retry me");
+        faults.add(500);
+
+        assertEquals("stored.txt", apiClient.uploadFile(file.toFile(), "user").getStoredFilename(),
+                "Upload should succeed on the second attempt");
+        assertEquals(2, idempotencyKeys.size(), "Both attempts should carry a key");
+        assertEquals(idempotencyKeys.get(0), idempotencyKeys.get(1), "Retries should reuse the key");
+    }
+
+    /**
+     * Test that a non-idempotent call is not repeated after the server may have processed it
+     */
+    @Test
+    public void testNonIdempotentCallNotRetried() {
+        faults.add(500);
+
+        assertThrows(IOException.class, () -> apiClient.completeKeyExchange("session", "key"));
+        assertEquals(1, requests.get(), "The failed call should not be repeated");
+    }
+
+    /**
+     * Test that a refused stream upload reports the refusal instead of sending
+     * the already consumed stream again
+     */
+    @Test
+    public void testRefusedStreamNotResent() {
+        faults.add(503);
+
+        IOException e = assertThrows(IOException.class, () -> apiClient.uploadStream(
+                new ByteArrayInputStream("streamed once".getBytes(StandardCharsets.UTF_8)), "a.txt", "user", null));
+        assertTrue(e.getMessage().contains("503"), "The refusal should be reported: " + e.getMessage());
+        assertEquals(1, requests.get(), "The consumed stream should not be sent again");
+    }
+
+    /**
+     * Test that the circuit opens after repeated failures and stops calling the server
+     */
+    @Test
+    public void testCircuitOpens() {
+        defaultStatus = 500;
+
+        assertThrows(IOException.class, () -> apiClient.healthCheck(), "Health check should fail");
+        int sent = requests.get();
+        assertEquals(3, sent, "The circuit should open after three failures");
+
+        CircuitOpenException open = assertThrows(CircuitOpenException.class, () -> apiClient.listFiles("user"));
+        assertTrue(open.getRetryInMillis() > 0, "The breaker should say when to retry");
+        assertEquals(sent, requests.get(), "An open circuit should not reach the server");
+    }
+}
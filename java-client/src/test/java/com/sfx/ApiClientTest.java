@@ -16,6 +16,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
 import java.util.Collections;
 
 /**
@@ -83,6 +85,26 @@ public class ApiClientTest {
         assertFalse(publicKey.isEmpty(), "Public key should not be empty");
     }
     
+    /**
+     * Test that both sides agree on a secret and that a bad peer key fails the
+     * agreement instead of yielding a fixed secret (no server needed)
+     */
+    @Test
+    public void testDHKeyAgreement() throws Exception {
+        DHKeyExchange server = new DHKeyExchange();
+        DHKeyExchange client = DHKeyExchange.forPeer(server.getPublicKeyBase64());
+
+        byte[] clientSecret = client.computeSharedSecret(server.getPublicKeyBase64());
+        assertArrayEquals(server.computeSharedSecret(client.getPublicKeyBase64()), clientSecret,
+                "Both sides should compute the same secret");
+
+        String garbage = Base64.getEncoder().encodeToString(new byte[64]);
+        assertThrows(GeneralSecurityException.class, () -> client.computeSharedSecret(garbage),
+                "A malformed peer key should fail the agreement");
+        assertThrows(GeneralSecurityException.class, () -> client.computeSharedSecret("not base64!"),
+                "A peer key that is not Base64 should fail the agreement");
+    }
+    
     /**
      * Test file creation and basic operations (no server needed)
      */
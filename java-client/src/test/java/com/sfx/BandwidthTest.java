@@ -0,0 +1,139 @@
+package com.sfx;
+
+import com.sfx.transfer.TokenBucket;
+import com.sfx.transfer.TransferScheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for token bucket bandwidth limits and transfer scheduling
+ * CI-compatible with no dependency on running server
+ */
+public class BandwidthTest {
+
+    private TransferScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new TransferScheduler(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    /**
+     * Test that a bucket holds a stream to its rate once the burst is used up
+     */
+    @Test
+    public void testTokenBucketLimitsRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(1024 * 1024);
+        int burst = bucket.getMaxChunk();
+
+        long start = System.nanoTime();
+        bucket.acquire(burst);
+        assertTrue(elapsedMillis(start) < 50, "The burst should pass without waiting");
+
+        start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            bucket.acquire(64 * 1024);
+        }
+        long elapsed = elapsedMillis(start);
+        assertTrue(elapsed >= 200 && elapsed < 1000, "256 KB at 1 MB/s should take about 250 ms, took " + elapsed);
+    }
+
+    /**
+     * Test that raising the rate releases a caller that is already waiting
+     */
+    @Test
+    public void testRateChangeAppliesToWaiters() throws Exception {
+        TokenBucket bucket = new TokenBucket(1024);
+        bucket.acquire(bucket.getMaxChunk());
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                // About a minute at the initial rate
+                bucket.acquire(64 * 1024);
+                done.countDown();
+            } catch (Exception e) {
+                // Left uncounted, failing the test
+            }
+        });
+        waiter.start();
+
+        Thread.sleep(50);
+        assertEquals(1, done.getCount(), "The caller should still be waiting");
+        bucket.setRate(0);
+        assertTrue(done.await(2, TimeUnit.SECONDS), "Lifting the limit should release the caller");
+    }
+
+    /**
+     * Test that bulk transfers are limited to their share while an interactive transfer runs
+     */
+    @Test
+    public void testInteractiveTransferLimitsBulkShare() throws Exception {
+        scheduler.setGlobalRate(10 * 1024 * 1024);
+        scheduler.setBulkShare(0.25);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TransferScheduler.Transfer<Integer> interactive = scheduler.submit(TransferScheduler.Priority.INTERACTIVE,
+                transfer -> {
+                    started.countDown();
+                    release.await();
+                    return scheduler.getActiveInteractive();
+                });
+
+        assertTrue(started.await(2, TimeUnit.SECONDS), "The interactive transfer should start");
+        long bulkStart = System.nanoTime();
+        scheduler.run(TransferScheduler.Priority.BULK, transfer -> {
+            // 768 KB beyond the bulk burst at 2.5 MB/s
+            scheduler.acquire(transfer, 1024 * 1024);
+            return null;
+        });
+        long elapsed = elapsedMillis(bulkStart);
+        release.countDown();
+
+        assertEquals(Integer.valueOf(1), interactive.get(2, TimeUnit.SECONDS), "The interactive transfer should have been counted");
+        assertTrue(elapsed >= 150, "Bulk data should be held to its share, took " + elapsed + " ms");
+        assertEquals(0, scheduler.getActiveInteractive(), "No interactive transfer should remain");
+    }
+
+    /**
+     * Test that an interactive transfer starts while every bulk slot is busy
+     */
+    @Test
+    public void testInteractiveJumpsAheadOfBulk() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TransferScheduler.Transfer<String> bulk = scheduler.submit(TransferScheduler.Priority.BULK, transfer -> {
+            release.await();
+            return "bulk";
+        });
+        TransferScheduler.Transfer<String> queued = scheduler.submit(TransferScheduler.Priority.BULK,
+                transfer -> "queued");
+        TransferScheduler.Transfer<String> interactive = scheduler.submit(TransferScheduler.Priority.INTERACTIVE,
+                transfer -> {
+                    assertSame(transfer, TransferScheduler.current(), "The transfer should be current on its thread");
+                    return "interactive";
+                });
+
+        assertEquals("interactive", interactive.get(2, TimeUnit.SECONDS), "Interactive work should not queue");
+        assertFalse(queued.isDone(), "Queued bulk work should wait for a slot");
+
+        release.countDown();
+        assertEquals("bulk", bulk.get(2, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(2, TimeUnit.SECONDS));
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
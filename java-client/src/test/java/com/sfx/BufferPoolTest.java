@@ -0,0 +1,114 @@
+package com.sfx;
+
+import com.sfx.crypto.AESEncryption;
+import com.sfx.io.BufferPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Test class for the pooled buffer allocator
+ * CI-compatible with no dependency on running server
+ */
+public class BufferPoolTest {
+
+    private BufferPool pool;
+
+    @BeforeEach
+    public void setUp() {
+        pool = new BufferPool(BufferPool.DEFAULT_MAX_RETAINED_BYTES, true);
+        BufferPool.shared().setLeakTracking(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.assertNoLeaks();
+        BufferPool.shared().assertNoLeaks();
+    }
+
+    /**
+     * Test that requests are rounded up to size classes and released buffers are reused
+     */
+    @Test
+    public void testSizeClassesAndReuse() {
+        ByteBuffer small = pool.acquire(100);
+        assertEquals(100, small.limit(), "Limit should be the requested size");
+        assertEquals(BufferPool.MIN_CLASS_SIZE, small.capacity(), "Small requests use the smallest class");
+        assertEquals(0, small.arrayOffset(), "Heap buffers start at the array start");
+
+        ByteBuffer medium = pool.acquireDirect(5000);
+        assertTrue(medium.isDirect(), "Direct buffer should be direct");
+        assertEquals(8192, medium.capacity(), "Request should round up to the next power of two");
+
+        pool.release(small);
+        pool.release(medium);
+        long allocated = pool.getAllocatedBytes();
+
+        ByteBuffer reusedSmall = pool.acquire(4000);
+        ByteBuffer reusedMedium = pool.acquireDirect(8192);
+        assertSame(small, reusedSmall, "Heap buffer should be reused");
+        assertSame(medium, reusedMedium, "Direct buffer should be reused");
+        assertEquals(0, reusedSmall.position(), "Reused buffer should be cleared");
+        assertEquals(allocated, pool.getAllocatedBytes(), "Reuse should not allocate");
+
+        pool.release(reusedSmall);
+        pool.release(reusedMedium);
+        assertEquals(0, pool.getOutstanding(), "Nothing should be outstanding");
+    }
+
+    /**
+     * Test that oversized buffers and buffers beyond the retention limit are dropped
+     */
+    @Test
+    public void testRetentionLimits() {
+        ByteBuffer huge = pool.acquire(BufferPool.MAX_CLASS_SIZE + 1);
+        assertEquals(BufferPool.MAX_CLASS_SIZE + 1, huge.capacity(), "Oversized buffers are exact");
+        pool.release(huge);
+        assertEquals(0, pool.getRetainedBytes(), "Oversized buffers are not kept");
+
+        BufferPool noReuse = new BufferPool(0, false);
+        ByteBuffer first = noReuse.acquire(10);
+        noReuse.release(first);
+        assertNotSame(first, noReuse.acquire(10), "A pool without retention never reuses");
+    }
+
+    /**
+     * Test that leaks and double releases are detected
+     */
+    @Test
+    public void testLeakDetection() {
+        ByteBuffer leaked = pool.acquire(10);
+        IllegalStateException leak = assertThrows(IllegalStateException.class, pool::assertNoLeaks);
+        assertTrue(leak.getMessage().contains("1 pooled buffer"), "Leak should be reported");
+
+        pool.release(leaked);
+        assertThrows(IllegalStateException.class, () -> pool.release(leaked), "Double release should fail");
+        assertThrows(IllegalStateException.class, () -> pool.release(ByteBuffer.allocate(10)),
+                "Foreign buffers should be rejected");
+    }
+
+    /**
+     * Test that stream copies and encryption return their buffers
+     */
+    @Test
+    public void testSharedPoolUsers() throws Exception {
+        byte[] data = new byte[200_000];
+        new Random(7).nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, pool.copy(new ByteArrayInputStream(data), out), "All bytes should be copied");
+        assertArrayEquals(data, out.toByteArray(), "Copy should equal input");
+
+        byte[] key = new byte[32];
+        new Random(8).nextBytes(key);
+        String encrypted = AESEncryption.encrypt(data, key);
+        assertArrayEquals(data, AESEncryption.decrypt(encrypted, key), "Decrypted data should equal input");
+        assertEquals(0, BufferPool.shared().getOutstanding(), "Encryption should release its buffers");
+    }
+}
@@ -0,0 +1,129 @@
+package com.sfx;
+
+import com.sfx.api.ApiClient;
+import com.sfx.bundle.BundleReader;
+import com.sfx.bundle.BundleRequestBody;
+import com.sfx.crypto.TreeHash;
+import com.sfx.io.BufferPool;
+import okio.Buffer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test class for bundles of small files
+ * CI-compatible with no dependency on running server
+ */
+public class BundleTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() {
+        BufferPool.shared().setLeakTracking(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        BufferPool.shared().assertNoLeaks();
+        BufferPool.shared().setLeakTracking(false);
+    }
+
+    /**
+     * Test that every file written into a bundle reads back with its name, content and tree hash
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(42);
+        List<File> files = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int size : new int[]{0, 1, 4096, (int) BundleRequestBody.MAX_FILE_SIZE}) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            Path file = tempDir.resolve("file-" + size + ".bin");
+            Files.write(file, content);
+            files.add(file.toFile());
+            contents.add(content);
+        }
+
+        BundleRequestBody body = new BundleRequestBody(files);
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        assertEquals(body.contentLength(), buffer.size(), "Declared length should match the bundle");
+
+        BundleReader reader = new BundleReader(buffer.inputStream());
+        for (int i = 0; i < files.size(); i++) {
+            BundleReader.Entry entry = reader.next();
+            assertNotNull(entry, "Entry " + i + " should be present");
+            assertEquals(files.get(i).getName(), entry.getName(), "Name should match");
+            assertEquals(contents.get(i).length, entry.getSize(), "Size should match");
+            assertEquals(TreeHash.toHex(TreeHash.of(files.get(i).toPath())), entry.getRootHash(),
+                    "Hash should be the file's tree hash");
+            assertEquals(entry.getRootHash(), body.getRootHashes().get(i), "Sent hashes should be recorded");
+            assertArrayEquals(contents.get(i), reader.content().readAllBytes(), "Content should match");
+        }
+        assertNull(reader.next(), "Bundle should end after the last file");
+    }
+
+    /**
+     * Test that unread content is skipped and a truncated bundle is an error
+     */
+    @Test
+    public void testSkipAndTruncation() throws Exception {
+        Path first = tempDir.resolve("first.txt");
+        Path second = tempDir.resolve("second.txt");
+        Files.writeString(first, "first file");
+        Files.writeString(second, "second file");
+
+        Buffer buffer = new Buffer();
+        new BundleRequestBody(List.of(first.toFile(), second.toFile())).writeTo(buffer);
+        byte[] bundle = buffer.readByteArray();
+
+        BundleReader reader = new BundleReader(new ByteArrayInputStream(bundle));
+        assertEquals("first.txt", reader.next().getName(), "First entry should be read");
+        assertEquals("second.txt", reader.next().getName(), "Unread content should be skipped");
+        assertEquals("second file", new String(reader.content().readAllBytes()), "Second content should match");
+
+        BundleReader truncated = new BundleReader(new ByteArrayInputStream(Arrays.copyOf(bundle, bundle.length - 5)));
+        truncated.next();
+        truncated.next();
+        assertThrows(EOFException.class, () -> truncated.content().readAllBytes(),
+                "A bundle cut inside an entry should fail");
+        assertThrows(IOException.class, () -> new BundleReader(new ByteArrayInputStream(new byte[]{'P', 'K', 3, 4, 1})),
+                "Other formats should be rejected");
+    }
+
+    /**
+     * Test that small items are grouped into bundles and large ones sent alone
+     */
+    @Test
+    public void testBundleBatches() {
+        long large = BundleRequestBody.MAX_FILE_SIZE + 1;
+        List<Long> sizes = List.of(10L, 20L, large, 30L);
+        assertEquals(List.of(List.of(large), List.of(10L, 20L, 30L)), ApiClient.bundleBatches(sizes, size -> size),
+                "Small items should share one bundle and a large item should be sent alone");
+
+        List<Integer> many = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            many.add(i);
+        }
+        List<List<Integer>> byCount = ApiClient.bundleBatches(many, item -> 0);
+        assertEquals(3, byCount.size(), "Bundles should hold at most a thousand items");
+        assertEquals(many, byCount.stream().flatMap(List::stream).toList(), "Items should keep their order");
+    }
+}
@@ -0,0 +1,160 @@
+package com.sfx;
+
+import com.sfx.api.FileListResponse;
+import com.sfx.cluster.ClusterClient;
+import com.sfx.resilience.ResilienceInterceptor;
+import com.sfx.resilience.RetryPolicy;
+import com.sfx.transfer.TransferScheduler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Test class for the cluster client against local stand-in servers
+ * CI-compatible with no dependency on running server
+ */
+public class ClusterClientTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<StandIn> servers = new ArrayList<>();
+    private ClusterClient clusterClient;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        List<String> endpoints = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            StandIn server = new StandIn("node" + i);
+            servers.add(server);
+            endpoints.add(server.url());
+        }
+        clusterClient = new ClusterClient(endpoints, new ResilienceInterceptor(RetryPolicy.none()),
+                new TransferScheduler(2), 0);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        clusterClient.close();
+        for (StandIn server : servers) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Test that uploads spread over the servers and listings merge them back
+     */
+    @Test
+    public void testUploadsShardAndListingsMerge() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            Path file = tempDir.resolve("file-" + i + ".txt");
+            Files.writeString(file, "content " + i);
+            clusterClient.uploadFile(file.toFile(), "user");
+        }
+
+        for (StandIn server : servers) {
+            assertFalse(server.stored.isEmpty(), server.name + " should hold some files");
+        }
+        FileListResponse listing = clusterClient.listFiles("user");
+        assertEquals(30, listing.getFiles().size(), "The listing should include every server's files");
+    }
+
+    /**
+     * Test that an upload to an unreachable server goes to the next one and the
+     * listing carries on without it
+     */
+    @Test
+    public void testFailover() throws Exception {
+        servers.get(0).stop();
+        Set<String> uploaded = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            Path file = tempDir.resolve("failover-" + i + ".txt");
+            Files.writeString(file, "content " + i);
+            uploaded.add(clusterClient.uploadFile(file.toFile(), "user").getStoredFilename());
+        }
+
+        assertEquals(10, uploaded.size(), "Every upload should succeed");
+        assertFalse(clusterClient.getHealthyEndpoints().contains(servers.get(0).url()),
+                "The stopped server should be marked down");
+        Set<String> listed = clusterClient.listFiles("user").getFiles().stream()
+                .map(FileListResponse.FileInfo::getFilename)
+                .collect(Collectors.toSet());
+        assertEquals(uploaded, listed, "The surviving servers should list every upload");
+
+        assertTrue(clusterClient.healthCheck(), "The cluster should be healthy with two servers up");
+        servers.get(1).stop();
+        servers.get(2).stop();
+        assertFalse(clusterClient.healthCheck(), "The cluster should be down with no servers up");
+        assertThrows(IOException.class, () -> clusterClient.listFiles("user"));
+    }
+
+    /**
+     * Stand-in server that stores uploaded file names and lists them
+     */
+    private static final class StandIn {
+        private final String name;
+        private final HttpServer server;
+        private final List<String> stored = new CopyOnWriteArrayList<>();
+
+        private StandIn(String name) throws IOException {
+            this.name = name;
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        private String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            String body;
+            if (path.equals("/health")) {
+                body = "{\"status\":\"ok\"}";
+            } else if (path.equals("/api/files/upload/raw")) {
+                String storedFilename = name + "-" + stored.size() + ".txt";
+                stored.add(storedFilename);
+                body = "{\"filename\":\"upload.txt\",\"stored_filename\":\"" + storedFilename
+                        + "\",\"message\":\"File uploaded successfully\"}";
+            } else if (path.equals("/api/files/list")) {
+                body = stored.stream()
+                        .map(file -> "{\"filename\":\"" + file + "\",\"size_bytes\":1,\"created_at\":\"now\"}")
+                        .collect(Collectors.joining(",", "{\"files\":[", "]}"));
+            } else {
+                body = "{\"detail\":\"Not found\"}";
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(body.startsWith("{\"detail\"") ? 404 : 200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.sfx;
+
+import com.sfx.cluster.ConsistentHashRing;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test class for consistent hash placement
+ * CI-compatible with no dependency on running server
+ */
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 20_000;
+
+    /**
+     * Test that keys spread roughly evenly over the nodes
+     */
+    @Test
+    public void testKeysSpreadEvenly() {
+        ConsistentHashRing<String> ring = ring(4);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("user/file-" + i), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size(), "Every node should own keys");
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            assertTrue(count.getValue() > KEYS / 4 * 0.7 && count.getValue() < KEYS / 4 * 1.3,
+                    count.getKey() + " owns " + count.getValue() + " of " + KEYS + " keys");
+        }
+    }
+
+    /**
+     * Test that adding a node moves only the keys it takes over
+     */
+    @Test
+    public void testAddingNodeMovesFewKeys() {
+        ConsistentHashRing<String> ring = ring(4);
+        Map<String, String> before = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            before.put("key-" + i, ring.nodeFor("key-" + i));
+        }
+
+        ring.add("node-4", "node-4");
+        int moved = 0;
+        for (Map.Entry<String, String> placement : before.entrySet()) {
+            String now = ring.nodeFor(placement.getKey());
+            if (!now.equals(placement.getValue())) {
+                assertEquals("node-4", now, "Keys should only move to the new node");
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3, "About a fifth of the keys should move, moved " + moved);
+
+        ring.remove("node-4");
+        for (Map.Entry<String, String> placement : before.entrySet()) {
+            assertEquals(placement.getValue(), ring.nodeFor(placement.getKey()), "Removing the node should restore placements");
+        }
+    }
+
+    /**
+     * Test that the preference list names every node once, owner first
+     */
+    @Test
+    public void testPreferenceList() {
+        ConsistentHashRing<String> ring = ring(3);
+        for (int i = 0; i < 100; i++) {
+            List<String> preference = ring.preferenceList("key-" + i);
+            assertEquals(3, preference.size(), "Every node should be listed");
+            assertEquals(3, new HashSet<>(preference).size(), "No node should be listed twice");
+            assertEquals(ring.nodeFor("key-" + i), preference.get(0), "The owner should come first");
+        }
+
+        assertNull(new ConsistentHashRing<String>().nodeFor("key"), "An empty ring has no owner");
+        assertThrows(IllegalArgumentException.class, () -> ring.add("node-0", "again"));
+    }
+
+    private static ConsistentHashRing<String> ring(int nodes) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < nodes; i++) {
+            ring.add("node-" + i, "node-" + i);
+        }
+        return ring;
+    }
+}
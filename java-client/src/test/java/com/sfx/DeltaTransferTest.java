@@ -0,0 +1,119 @@
+package com.sfx;
+
+import com.sfx.api.BlockSignaturesResponse;
+import com.sfx.delta.BlockSignatures;
+import com.sfx.delta.DeltaDecoder;
+import com.sfx.delta.DeltaEncoder;
+import com.sfx.delta.RollingChecksum;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+/**
+ * Test class for rolling-hash delta encoding
+ * CI-compatible with no dependency on running server
+ */
+public class DeltaTransferTest {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test that rolling the checksum gives the same value as computing it directly
+     */
+    @Test
+    public void testRollingChecksum() {
+        byte[] data = randomBytes(10_000, 1);
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, 0, BLOCK_SIZE);
+
+        for (int offset = 1; offset + BLOCK_SIZE <= data.length; offset++) {
+            checksum.roll(data[offset - 1], data[offset + BLOCK_SIZE - 1]);
+            Adler32 adler = new Adler32();
+            adler.update(data, offset, BLOCK_SIZE);
+            assertEquals((int) adler.getValue(), checksum.value(), "Rolled checksum should match at offset " + offset);
+        }
+    }
+
+    /**
+     * Test that a small edit produces a small delta that rebuilds the new file
+     */
+    @Test
+    public void testDeltaRoundTrip() throws Exception {
+        byte[] original = randomBytes(200_000 + 123, 2);
+        byte[] modified = new byte[original.length + 10];
+        // Insert ten bytes in the middle, shifting everything after them
+        System.arraycopy(original, 0, modified, 0, 100_000);
+        System.arraycopy(randomBytes(10, 3), 0, modified, 100_000, 10);
+        System.arraycopy(original, 100_000, modified, 100_010, original.length - 100_000);
+
+        byte[] rebuilt = roundTrip(original, modified);
+        assertArrayEquals(modified, rebuilt, "Rebuilt file should equal the modified file");
+    }
+
+    /**
+     * Test delta encoding of unrelated, identical and empty files
+     */
+    @Test
+    public void testDeltaEdgeCases() throws Exception {
+        byte[] original = randomBytes(50_000, 4);
+        assertArrayEquals(original, roundTrip(original, original), "Identical file should rebuild");
+        assertArrayEquals(randomBytes(7_000, 5), roundTrip(original, randomBytes(7_000, 5)), "Unrelated file should rebuild");
+        assertArrayEquals(new byte[0], roundTrip(original, new byte[0]), "Empty file should rebuild");
+        assertArrayEquals(original, roundTrip(new byte[0], original), "File from empty base should rebuild");
+    }
+
+    /**
+     * Test that unchanged blocks are reused rather than sent
+     */
+    @Test
+    public void testDeltaSendsOnlyChanges() throws Exception {
+        byte[] original = randomBytes(1_000_000, 6);
+        byte[] modified = original.clone();
+        modified[500_000] ^= 1;
+
+        Path base = tempDir.resolve("base.bin");
+        Path updated = tempDir.resolve("updated.bin");
+        Files.write(base, original);
+        Files.write(updated, modified);
+
+        DeltaEncoder encoder = new DeltaEncoder(BlockSignatures.compute(base, BLOCK_SIZE));
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.encode(updated, delta);
+
+        assertEquals(BLOCK_SIZE, encoder.getLiteralBytes(), "Only the changed block should be sent");
+        assertEquals(original.length - BLOCK_SIZE, encoder.getCopiedBytes(), "All other blocks should be reused");
+        assertTrue(delta.size() < 3 * BLOCK_SIZE, "Delta should be small");
+    }
+
+    private byte[] roundTrip(byte[] original, byte[] modified) throws Exception {
+        Path base = tempDir.resolve("base.bin");
+        Path updated = tempDir.resolve("updated.bin");
+        Files.write(base, original);
+        Files.write(updated, modified);
+
+        BlockSignaturesResponse signatures = BlockSignatures.compute(base, BLOCK_SIZE);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(signatures).encode(updated, delta);
+
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        DeltaDecoder.apply(base, new ByteArrayInputStream(delta.toByteArray()), rebuilt);
+        return rebuilt.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
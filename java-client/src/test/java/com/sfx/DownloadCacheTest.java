@@ -0,0 +1,204 @@
+package com.sfx;
+
+import com.sfx.cache.DownloadCache;
+import com.sfx.crypto.KeyDerivation;
+import com.sfx.crypto.TreeHasher;
+import com.sfx.io.BufferPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+/**
+ * Test class for the encrypted download cache
+ * CI-compatible with no dependency on running server
+ */
+public class DownloadCacheTest {
+
+    private static final byte[] MASTER_KEY = new byte[32];
+
+    @TempDir
+    Path tempDir;
+
+    private Path cacheDir;
+
+    @BeforeEach
+    public void setUp() {
+        cacheDir = tempDir.resolve("cache");
+        BufferPool.shared().setLeakTracking(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        BufferPool.shared().assertNoLeaks();
+    }
+
+    /**
+     * Test HKDF against RFC 5869 test case 3
+     */
+    @Test
+    public void testHkdfVector() throws Exception {
+        byte[] secret = new byte[22];
+        Arrays.fill(secret, (byte) 0x0b);
+
+        assertEquals("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8",
+                HexFormat.of().formatHex(KeyDerivation.hkdf(secret, null, "", 42)), "Output should match the RFC");
+    }
+
+    /**
+     * Test that cached content spanning several records is restored exactly and stored encrypted
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = testData(2 * 1024 * 1024 + 12345);
+        DownloadCache cache = new DownloadCache(cacheDir, 64 * 1024 * 1024, MASTER_KEY);
+        String rootHash = cache(cache, "report.bin", data);
+
+        DownloadCache.NameEntry entry = cache.lookup(DownloadCache.identity("http://server", "user", "report.bin"));
+        assertNotNull(entry, "The download should be cached");
+        assertEquals(rootHash, entry.getRootHash(), "The entry should be addressed by its tree hash");
+
+        Path restored = tempDir.resolve("restored.bin");
+        assertEquals(data.length, cache.copyTo(rootHash, restored), "Every byte should be restored");
+        assertArrayEquals(data, Files.readAllBytes(restored), "Restored content should match");
+
+        try (InputStream in = cache.open(rootHash)) {
+            assertArrayEquals(data, in.readAllBytes(), "Streamed content should match");
+        }
+
+        byte[] stored = Files.readAllBytes(cacheDir.resolve(rootHash + ".enc"));
+        byte[] probe = Arrays.copyOfRange(data, 0, 64);
+        assertFalse(indexOf(stored, probe) >= 0, "Content should not be stored in plain text");
+    }
+
+    /**
+     * Test that the same content under two names is stored once and survives reopening
+     */
+    @Test
+    public void testContentAddressingAndReload() throws Exception {
+        byte[] data = testData(100_000);
+        DownloadCache cache = new DownloadCache(cacheDir, 64 * 1024 * 1024, MASTER_KEY);
+        cache(cache, "a.bin", data);
+        String rootHash = cache(cache, "b.bin", data);
+        assertEquals(1, cache.getEntryCount(), "Identical content should be stored once");
+
+        DownloadCache reopened = new DownloadCache(cacheDir, 64 * 1024 * 1024, MASTER_KEY);
+        assertEquals(rootHash, reopened.lookup(DownloadCache.identity("http://server", "user", "a.bin")).getRootHash(),
+                "The index should survive reopening");
+        assertNotNull(reopened.lookup(DownloadCache.identity("http://server", "user", "b.bin")));
+        assertNull(reopened.lookup(DownloadCache.identity("http://server", "other", "a.bin")),
+                "Another user's download should not match");
+    }
+
+    /**
+     * Test that the least recently used content is evicted first
+     */
+    @Test
+    public void testLruEviction() throws Exception {
+        DownloadCache cache = new DownloadCache(cacheDir, 250_000, MASTER_KEY);
+        cache(cache, "old.bin", testData(100_000));
+        String recent = cache(cache, "recent.bin", testData(100_001));
+        cache.copyTo(recent, tempDir.resolve("touch.bin"));
+        cache(cache, "new.bin", testData(100_002));
+
+        assertNull(cache.lookup(DownloadCache.identity("http://server", "user", "old.bin")),
+                "The least recently used entry should be evicted");
+        assertNotNull(cache.lookup(DownloadCache.identity("http://server", "user", "recent.bin")),
+                "A recently read entry should stay");
+        assertNotNull(cache.lookup(DownloadCache.identity("http://server", "user", "new.bin")));
+        assertTrue(cache.getStoredBytes() <= 250_000, "The cache should stay within its limit");
+    }
+
+    /**
+     * Test that truncated content, or content read with another key, is detected
+     */
+    @Test
+    public void testTamperingDetected() throws Exception {
+        byte[] data = testData(1024 * 1024 + 100);
+        DownloadCache cache = new DownloadCache(cacheDir, 64 * 1024 * 1024, MASTER_KEY);
+        String rootHash = cache(cache, "secret.bin", data);
+        Path stored = cacheDir.resolve(rootHash + ".enc");
+
+        byte[] otherKey = new byte[32];
+        otherKey[0] = 1;
+        DownloadCache wrongKey = new DownloadCache(cacheDir, 64 * 1024 * 1024, otherKey);
+        assertThrows(IOException.class, () -> wrongKey.copyTo(rootHash, tempDir.resolve("x.bin")),
+                "Another key should not decrypt the content");
+
+        // Drop the last record, leaving a well-formed but incomplete file
+        try (FileChannel channel = FileChannel.open(stored, StandardOpenOption.WRITE)) {
+            channel.truncate(1024 * 1024 + 28);
+        }
+        assertThrows(IOException.class, () -> cache.copyTo(rootHash, tempDir.resolve("y.bin")),
+                "Truncation should be detected");
+    }
+
+    /**
+     * Test that a writer that is closed without commit leaves nothing behind
+     */
+    @Test
+    public void testAbortedWriteDiscarded() throws Exception {
+        DownloadCache cache = new DownloadCache(cacheDir, 64 * 1024 * 1024, MASTER_KEY);
+        String rootHash = treeHash(new byte[10]);
+        try (DownloadCache.Writer writer = cache.newWriter(rootHash, 10)) {
+            writer.write(new byte[10]);
+        }
+
+        assertEquals(0, cache.getEntryCount(), "Nothing should be cached");
+        try (var files = Files.list(cacheDir)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")), "The temporary file should be removed");
+        }
+        assertNull(cache.newWriter(rootHash, 128L * 1024 * 1024), "Content over the limit should not be cached");
+    }
+
+    /**
+     * Cache content the way a download does: stream it through a writer and commit
+     * @return The content's tree hash
+     */
+    private static String cache(DownloadCache cache, String filename, byte[] data) throws Exception {
+        String rootHash = treeHash(data);
+        DownloadCache.Writer writer = cache.newWriter(rootHash, data.length);
+        try (InputStream in = writer.capturing(new ByteArrayInputStream(data))) {
+            in.transferTo(java.io.OutputStream.nullOutputStream());
+        }
+        writer.commit(DownloadCache.identity("http://server", "user", filename), "\"" + rootHash + "\"");
+        return rootHash;
+    }
+
+    private static String treeHash(byte[] data) {
+        try (TreeHasher hasher = new TreeHasher()) {
+            hasher.write(data, 0, data.length);
+            return hasher.hexDigest();
+        }
+    }
+
+    private static byte[] testData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        ByteBuffer buffer = ByteBuffer.wrap(haystack);
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            if (buffer.slice(i, needle.length).equals(ByteBuffer.wrap(needle))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,73 @@
+package com.sfx;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sfx.api.FileEvent;
+import com.sfx.events.ServerSentEventReader;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+/**
+ * Test class for parsing pushed file change events
+ * CI-compatible with no dependency on running server
+ */
+public class FileEventsTest {
+
+    /**
+     * Test that events are parsed as the server formats them, skipping comments
+     */
+    @Test
+    public void testReadServerEvents() throws Exception {
+        String stream = "retry: 2000\n\n"
+                + "id: abc-1\nevent: file_added\n"
+                + "data: {\"sequence\":1,\"type\":\"file_added\",\"file\":{\"filename\":\"a.txt\",\"size_bytes\":5,"
+                + "\"created_at\":\"2024-01-01T00:00:00\",\"root_hash\":\"00ff\"}}\n\n"
+                + ": keepalive\n\n"
+                + "id: abc-2\nevent: file_removed\n"
+                + "data: {\"sequence\":2,\"type\":\"file_removed\",\"file\":{\"filename\":\"a.txt\"}}\n\n";
+        ServerSentEventReader reader = new ServerSentEventReader(new BufferedReader(new StringReader(stream)));
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        ServerSentEventReader.Event first = reader.next();
+        assertEquals("abc-1", first.getId());
+        assertEquals("file_added", first.getType());
+        FileEvent added = objectMapper.readValue(first.getData(), FileEvent.class);
+        assertEquals(FileEvent.FILE_ADDED, added.getType());
+        assertEquals("a.txt", added.getFile().getFilename());
+        assertEquals(5, added.getFile().getSizeBytes());
+        assertEquals("00ff", added.getFile().getRootHash());
+        assertEquals(2000, reader.getRetryMillis(), "The server's reconnect delay should be read");
+
+        ServerSentEventReader.Event second = reader.next();
+        assertEquals("abc-2", second.getId(), "The keepalive comment should be skipped");
+        assertEquals(FileEvent.FILE_REMOVED, objectMapper.readValue(second.getData(), FileEvent.class).getType());
+
+        assertNull(reader.next(), "The stream should end");
+    }
+
+    /**
+     * Test multi-line data, default event type and an event cut off by a dropped connection
+     */
+    @Test
+    public void testEventFraming() throws Exception {
+        String stream = "data:first\ndata: second\n\n"
+                + "id: 7\nevent: reset\ndata: {\"sequence\":7,\"type\":\"reset\",\"file\":null}\n\n"
+                + "id: 8\ndata: incomplete";
+        ServerSentEventReader reader = new ServerSentEventReader(new BufferedReader(new StringReader(stream)));
+
+        ServerSentEventReader.Event message = reader.next();
+        assertEquals("first\nsecond", message.getData(), "Data lines should be joined");
+        assertEquals("message", message.getType(), "Events without a type should default to message");
+        assertNull(message.getId());
+
+        FileEvent reset = new ObjectMapper().readValue(reader.next().getData(), FileEvent.class);
+        assertTrue(reset.isReset(), "The reset event should be recognized");
+        assertNull(reset.getFile());
+
+        assertNull(reader.next(), "An unterminated event should not be dispatched");
+        assertEquals(-1, reader.getRetryMillis());
+    }
+}
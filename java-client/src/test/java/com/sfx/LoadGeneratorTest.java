@@ -0,0 +1,93 @@
+package com.sfx;
+
+import com.sfx.load.LatencyHistogram;
+import com.sfx.load.LoadProfile;
+import com.sfx.load.Operation;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test class for the load generator's latency histogram and profile options
+ * CI-compatible with no dependency on running server
+ */
+public class LoadGeneratorTest {
+
+    /**
+     * Test that percentiles stay within the histogram's precision across magnitudes
+     */
+    @Test
+    public void testPercentilesArePrecise() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(Long.valueOf(100_000), Long.valueOf(histogram.getCount()));
+        assertEquals(Long.valueOf(1), Long.valueOf(histogram.getMin()));
+        assertEquals(Long.valueOf(100_000), Long.valueOf(histogram.getMax()));
+        assertEquals(50_000.5, histogram.getMean(), 0.001);
+        for (double fraction : new double[]{0.001, 0.5, 0.9, 0.99, 0.999, 1.0}) {
+            long expected = (long) Math.ceil(fraction * 100_000);
+            long actual = histogram.percentile(fraction);
+            assertTrue(actual >= expected && actual <= expected * 1.016,
+                    "p" + fraction + " should be within 1.6%: " + actual + " for " + expected);
+        }
+        assertEquals(Long.valueOf(0), Long.valueOf(new LatencyHistogram().percentile(0.99)));
+    }
+
+    /**
+     * Test that merged histograms keep slow outliers visible in the tail
+     */
+    @Test
+    public void testMergeKeepsTail() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            fast.record(1_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(2_000_000);
+        }
+
+        fast.add(slow);
+        assertEquals(Long.valueOf(1000), Long.valueOf(fast.getCount()));
+        assertTrue(fast.percentile(0.99) <= 1_016, "p99 should still be a fast request");
+        assertTrue(fast.percentile(0.999) >= 2_000_000, "p99.9 should show the stall");
+        assertEquals(Long.valueOf(2_000_000), Long.valueOf(fast.getMax()));
+    }
+
+    /**
+     * Test option parsing and that picks follow the configured weights
+     */
+    @Test
+    public void testProfileOptions() {
+        LoadProfile profile = LoadProfile.parse(new String[]{
+                "--users", "8", "--duration", "30", "--mix", "upload=1,list=3,download=0",
+                "--sizes", "4K=1,1M=1", "http://localhost:9000"});
+
+        assertEquals("http://localhost:9000", profile.getServerUrl());
+        assertEquals(8, profile.getUsers());
+        assertEquals(8.0, profile.getRate(), 0.0, "The rate should default to one request per user and second");
+        assertEquals(30, profile.getDurationSeconds());
+        assertFalse(profile.getMix().containsKey(Operation.DOWNLOAD), "Zero weights should be dropped");
+        assertTrue(profile.getSizes().containsKey(Long.valueOf(4096)));
+        assertTrue(profile.getSizes().containsKey(Long.valueOf(1024 * 1024)));
+
+        Random random = new Random(1);
+        Map<Operation, Integer> picks = new EnumMap<>(Operation.class);
+        for (int i = 0; i < 4000; i++) {
+            picks.merge(profile.pickOperation(random), 1, Integer::sum);
+        }
+        assertEquals(2, picks.size());
+        assertEquals(3.0, picks.get(Operation.LIST) / (double) picks.get(Operation.UPLOAD), 0.3);
+
+        assertThrows(IllegalArgumentException.class, () -> LoadProfile.parse(new String[]{"--mix", "delete=1"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadProfile.parse(new String[]{"--sizes", "4X=1"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadProfile.parse(new String[]{"--rate", "0"}));
+    }
+}
@@ -0,0 +1,120 @@
+package com.sfx;
+
+import com.sfx.resilience.AdaptiveConcurrencyLimiter;
+import com.sfx.resilience.CircuitBreaker;
+import com.sfx.resilience.RetryPolicy;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Test class for retry, circuit breaker and concurrency limit policies
+ * CI-compatible with no dependency on running server
+ */
+public class ResilienceTest {
+
+    /**
+     * Test that backoff stays within the exponential bound and Retry-After is honored
+     */
+    @Test
+    public void testRetryDelays() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000, 5000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.delayMillis(1, null) <= 100, "First backoff should be at most the base delay");
+            assertTrue(policy.delayMillis(3, null) <= 400, "Third backoff should be at most four base delays");
+            assertTrue(policy.delayMillis(10, null) <= 1000, "Backoff should be capped");
+        }
+
+        long delay = policy.delayMillis(1, "2");
+        assertTrue(delay >= 2000 && delay <= 2100, "Retry-After in seconds should be a lower bound");
+
+        String date = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(3).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        assertTrue(policy.delayMillis(1, date) >= 1000, "Retry-After as a date should be honored");
+
+        assertEquals(-1, policy.delayMillis(1, "60"), "Waits beyond the limit should not be retried");
+        assertTrue(policy.isRetryableStatus(503, false), "503 should be retryable");
+        assertFalse(policy.isRetryableStatus(404, false), "404 should not be retryable");
+        assertTrue(policy.isRetryableStatus(409, true), "409 with Retry-After means the first attempt is running");
+    }
+
+    /**
+     * Test that the breaker opens after repeated failures and lets one trial through later
+     */
+    @Test
+    public void testCircuitBreaker() {
+        long[] now = {0};
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000, () -> now[0]);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest(), "Closed circuit should allow requests");
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(), "Three failures should open the circuit");
+        assertFalse(breaker.allowRequest(), "Open circuit should reject requests");
+        assertEquals(1000, breaker.getRetryInMillis(), "Retry time should be the open period");
+
+        now[0] = 1000;
+        assertTrue(breaker.allowRequest(), "One trial should be allowed after the open period");
+        assertFalse(breaker.allowRequest(), "Only one trial at a time");
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(), "A failed trial should reopen the circuit");
+
+        now[0] = 2000;
+        assertTrue(breaker.allowRequest(), "Another trial after the next open period");
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "A successful trial should close the circuit");
+    }
+
+    /**
+     * Test additive increase and multiplicative decrease of the concurrency limit
+     */
+    @Test
+    public void testAdaptiveConcurrency() throws Exception {
+        // Tolerate any latency so only overload signals decrease the limit here
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 16, 1e9);
+
+        // Fast successes grow the limit
+        for (int i = 0; i < 40; i++) {
+            long start = limiter.acquire();
+            limiter.release(start, 0, false);
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 4, "Successes should raise the limit");
+
+        // Several overloaded requests in flight together halve the limit only once
+        long[] starts = new long[3];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        for (long start : starts) {
+            limiter.release(start, 0, true);
+        }
+        assertEquals(Math.max(1, grown / 2), limiter.getLimit(), "One overload period should halve the limit once");
+
+        long start = limiter.acquire();
+        limiter.release(start, 0, true);
+        assertEquals(Math.max(1, grown / 4), limiter.getLimit(), "A later overload should halve it again");
+        assertEquals(0, limiter.getInFlight(), "All permits should be returned");
+    }
+
+    /**
+     * Test that a request much slower than the baseline shrinks the limit
+     */
+    @Test
+    public void testLatencyRiseShrinksLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 8, 2.0);
+
+        long start = limiter.acquire();
+        limiter.release(start, 0, false);
+        int before = limiter.getLimit();
+
+        start = limiter.acquire();
+        Thread.sleep(50);
+        limiter.release(start, 0, false);
+        assertTrue(limiter.getLimit() < before, "A slow request should shrink the limit");
+    }
+}
@@ -0,0 +1,148 @@
+package com.sfx;
+
+import com.sfx.session.SessionKey;
+import com.sfx.session.SessionManager;
+import com.sfx.session.SharedSecret;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test class for the multi-user session manager with a stand-in key exchange
+ * CI-compatible with no dependency on running server
+ */
+public class SessionManagerTest {
+
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong();
+    private SessionManager manager;
+
+    @AfterEach
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    /**
+     * Test that concurrent requests for one user share a single exchange and users get distinct keys
+     */
+    @Test
+    public void testConcurrentRequestsShareOneExchange() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        manager = new SessionManager((server, user) -> {
+            handshakes.incrementAndGet();
+            await(release);
+            return secret(server + user);
+        }, Long.MAX_VALUE, TimeUnit.HOURS.toMillis(1), 0, now::get);
+
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<SessionKey>> keys = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                keys.add(callers.submit(() -> manager.key("http://server", "alice")));
+            }
+            Future<SessionKey> other = callers.submit(() -> manager.key("http://server", "bob"));
+            Thread.sleep(100);
+            release.countDown();
+
+            SessionKey first = keys.get(0).get();
+            for (Future<SessionKey> key : keys) {
+                assertSame(first, key.get(), "Every caller should get the same key");
+            }
+            assertFalse(Arrays.equals(first.getKey(), other.get().getKey()), "Users should have their own keys");
+            assertEquals(2, handshakes.get(), "There should be one exchange per user");
+            assertEquals(2, manager.size(), "There should be one session per user");
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a key past its byte or time budget is replaced in the background
+     * while the old key is still handed out and unchanged
+     */
+    @Test
+    public void testRotationAfterBudget() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        manager = new SessionManager((server, user) -> {
+            if (handshakes.incrementAndGet() > 1) {
+                await(release);
+            }
+            return secret(user);
+        }, 1000, 60_000, 0, now::get);
+
+        SessionKey first = manager.key("http://server", "alice");
+        byte[] firstBytes = first.getKey();
+        first.recordUse(1000);
+
+        // The worn key keeps being used while the rotation waits on the server
+        assertSame(first, manager.key("http://server", "alice"), "The old key should be used until rotation ends");
+        manager.rotateWorn();
+        release.countDown();
+
+        SessionKey second = waitForGeneration(2);
+        assertFalse(Arrays.equals(firstBytes, second.getKey()), "A rotated key should differ");
+        assertArrayEquals(firstBytes, first.getKey(), "The old key should stay intact for transfers using it");
+        assertEquals(2, handshakes.get(), "Rotation should take a single exchange");
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        manager.rotateWorn();
+        assertEquals(3, waitForGeneration(3).getGeneration(), "An old key should be rotated by age");
+    }
+
+    /**
+     * Test that a failed first exchange is reported and the next request tries again
+     */
+    @Test
+    public void testFailedExchangeIsRetried() throws Exception {
+        manager = new SessionManager((server, user) -> {
+            if (handshakes.incrementAndGet() == 1) {
+                throw new IOException("Server unavailable");
+            }
+            return secret(user);
+        }, Long.MAX_VALUE, TimeUnit.HOURS.toMillis(1), 0, now::get);
+
+        assertThrows(IOException.class, () -> manager.key("http://server", "alice"), "The failure should surface");
+        assertEquals(1, manager.key("http://server", "alice").getGeneration(), "The next request should succeed");
+    }
+
+    private SessionKey waitForGeneration(int generation) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            SessionKey key = manager.key("http://server", "alice");
+            if (key.getGeneration() >= generation) {
+                return key;
+            }
+            Thread.sleep(5);
+        }
+        fail("Key did not reach generation " + generation);
+        return null;
+    }
+
+    private SharedSecret secret(String seed) {
+        // A fresh secret per exchange, as a real key exchange would produce
+        return new SharedSecret((seed + "/" + handshakes.get()).getBytes(), "session-" + handshakes.get());
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
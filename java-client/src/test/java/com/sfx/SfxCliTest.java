@@ -0,0 +1,165 @@
+package com.sfx;
+
+import com.sfx.cli.CliCommands;
+import com.sfx.cli.CliDaemon;
+import com.sfx.cli.CliOptions;
+import com.sfx.cli.SfxCli;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Test class for the headless command line client
+ * CI-compatible with no dependency on running server
+ */
+public class SfxCliTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Test option parsing
+     */
+    @Test
+    public void testParseOptions() {
+        CliOptions options = CliOptions.parse(new String[] {
+                "--server", "http://example:8000", "-u", "batch", "--parallel", "8", "--json", "put", "a.txt", "*.csv"
+        });
+
+        assertEquals("http://example:8000", options.getServerUrl(), "Server URL should match");
+        assertEquals("batch", options.getUserId(), "User ID should match");
+        assertEquals(8, options.getParallelism(), "Parallelism should match");
+        assertTrue(options.isJson(), "JSON output should be enabled");
+        assertEquals("put", options.getCommand(), "Command should match");
+        assertEquals(List.of("a.txt", "*.csv"), options.getArguments(), "Arguments should match");
+        assertNull(options.getRateLimit(), "The rate limit should be left unchanged by default");
+
+        assertEquals(Long.valueOf(512 * 1024L), CliOptions.parse(new String[] {"--limit-rate", "512k", "ls"}).getRateLimit(),
+                "Rate suffixes should be binary multiples");
+    }
+
+    /**
+     * Test that invalid options are rejected
+     */
+    @Test
+    public void testParseInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> CliOptions.parse(new String[] {"--parallel", "0", "ls"}));
+        assertThrows(IllegalArgumentException.class, () -> CliOptions.parse(new String[] {"--server"}));
+        assertThrows(IllegalArgumentException.class, () -> CliOptions.parse(new String[] {"--bogus", "ls"}));
+        assertThrows(IllegalArgumentException.class, () -> CliOptions.parse(new String[] {"--limit-rate", "fast", "ls"}));
+    }
+
+    /**
+     * Test local glob expansion
+     */
+    @Test
+    public void testExpandLocalGlob() throws IOException {
+        Files.createDirectories(tempDir.resolve("logs/2023"));
+        Files.writeString(tempDir.resolve("a.csv"), "a");
+        Files.writeString(tempDir.resolve("b.txt"), "b");
+        Files.writeString(tempDir.resolve("logs/app.gz"), "c");
+        Files.writeString(tempDir.resolve("logs/2023/old.gz"), "d");
+
+        assertEquals(List.of(tempDir.resolve("a.csv")),
+                CliCommands.expandLocalGlob(tempDir, "*.csv"), "Single directory glob should match");
+        assertEquals(List.of(tempDir.resolve("logs/app.gz")),
+                CliCommands.expandLocalGlob(tempDir, "logs/*.gz"), "Glob should not descend into subdirectories");
+        assertEquals(List.of(tempDir.resolve("logs/2023/old.gz"), tempDir.resolve("logs/app.gz")),
+                CliCommands.expandLocalGlob(tempDir, "logs/**.gz"), "Double star should descend into subdirectories");
+        assertEquals(List.of(tempDir.resolve("b.txt")),
+                CliCommands.expandLocalGlob(tempDir, "b.txt"), "Plain file name should match itself");
+        assertTrue(CliCommands.expandLocalGlob(tempDir, "missing/*.txt").isEmpty(), "Missing directory should match nothing");
+    }
+
+    /**
+     * Test that server file names cannot lead a download outside its destination
+     */
+    @Test
+    public void testDownloadTarget() throws IOException {
+        Path destination = tempDir.resolve("downloads");
+
+        assertEquals(destination.resolve("a.txt"), CliCommands.downloadTarget(destination, "a.txt"),
+                "Plain name should land in the destination");
+        assertEquals(destination.resolve("logs/b.txt"), CliCommands.downloadTarget(destination, "logs/./b.txt"),
+                "Name inside a subdirectory should be allowed");
+        assertThrows(IOException.class, () -> CliCommands.downloadTarget(destination, "../../.bashrc"),
+                "Parent references should be refused");
+        assertThrows(IOException.class, () -> CliCommands.downloadTarget(destination, "logs/../../x"),
+                "Parent references past the destination should be refused");
+        assertThrows(IOException.class, () -> CliCommands.downloadTarget(destination, tempDir.resolve("x").toString()),
+                "Absolute names should be refused");
+        assertThrows(IOException.class, () -> CliCommands.downloadTarget(destination, "."),
+                "The destination itself should be refused");
+    }
+
+    /**
+     * Test that usage errors return exit code 2 without contacting a server
+     */
+    @Test
+    public void testUsageError() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode = new SfxCli().run(new String[0], tempDir, new PrintStream(new ByteArrayOutputStream()),
+                new PrintStream(err));
+
+        assertEquals(2, exitCode, "Missing command should be a usage error");
+        assertTrue(err.toString().contains("Usage"), "Usage should be printed");
+    }
+
+    /**
+     * Test that the daemon only runs jobs carrying its token, and refuses --watch
+     */
+    @Test
+    public void testDaemonRequiresToken() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        Path tokenFile = tempDir.resolve("daemon.token");
+        CliDaemon daemon = new CliDaemon(new SfxCli(), port, tokenFile, new PrintStream(new ByteArrayOutputStream()));
+        Thread serving = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serving.start();
+        for (int i = 0; i < 500 && !Files.exists(tokenFile); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.exists(tokenFile), "The daemon should write its token file");
+
+        Path wrongToken = tempDir.resolve("wrong.token");
+        Files.writeString(wrongToken, "00");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(2, CliDaemon.forward(port, wrongToken, List.of("help"), tempDir,
+                new PrintStream(new ByteArrayOutputStream()), new PrintStream(err)), "A wrong token should be rejected");
+        assertTrue(err.toString().contains("token"), "The rejection should be reported");
+
+        err.reset();
+        assertEquals(2, CliDaemon.forward(port, tokenFile, List.of("--watch", "ls"), tempDir,
+                new PrintStream(new ByteArrayOutputStream()), new PrintStream(err)), "--watch should be refused");
+        assertTrue(err.toString().contains("--watch"), "The refusal should be reported");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, CliDaemon.forward(port, tokenFile, List.of("help"), tempDir,
+                new PrintStream(out), new PrintStream(new ByteArrayOutputStream())), "A job with the token should run");
+        assertTrue(out.toString().contains("Usage"), "Job output should be relayed");
+
+        assertEquals(0, CliDaemon.forward(port, tokenFile, List.of("stop"), tempDir,
+                new PrintStream(new ByteArrayOutputStream()), new PrintStream(new ByteArrayOutputStream())));
+        serving.join(5000);
+        assertFalse(Files.exists(tokenFile), "The token file should be removed when the daemon stops");
+    }
+}
@@ -0,0 +1,182 @@
+package com.sfx;
+
+import com.sfx.api.ApiClient;
+import com.sfx.api.FileListResponse;
+import com.sfx.api.FileUploadResponse;
+import com.sfx.sync.SyncEngine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for incremental directory synchronization
+ * CI-compatible with no dependency on running server
+ */
+public class SyncEngineTest {
+
+    private static final String USER_ID = "java-test-user";
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * In-memory stand-in for the server that records uploads
+     */
+    private static class FakeApiClient extends ApiClient {
+        final Map<String, Long> storedFiles = new ConcurrentHashMap<>();
+        final List<String> uploads = new ArrayList<>();
+        final List<String> deleted = new ArrayList<>();
+        final AtomicInteger listings = new AtomicInteger();
+        volatile String failing;
+
+        FakeApiClient() {
+            super("http://localhost:8000");
+        }
+
+        @Override
+        public synchronized FileUploadResponse uploadFile(File file, String userId) throws IOException {
+            if (file.getName().equals(failing)) {
+                failing = null;
+                throw new IOException("Simulated upload failure");
+            }
+            String storedFilename = "stored-" + storedFiles.size() + "-" + file.getName();
+            storedFiles.put(storedFilename, file.length());
+            uploads.add(file.getName());
+            return new FileUploadResponse(file.getName(), storedFilename, "File uploaded successfully");
+        }
+
+        @Override
+        public synchronized void deleteFile(String filename, String userId) {
+            storedFiles.remove(filename);
+            deleted.add(filename);
+        }
+
+        @Override
+        public FileListResponse listFiles(String userId) {
+            listings.incrementAndGet();
+            List<FileListResponse.FileInfo> files = new ArrayList<>();
+            storedFiles.forEach((name, size) -> files.add(new FileListResponse.FileInfo(name, size, "2023-01-01T00:00:00")));
+            return new FileListResponse(files);
+        }
+    }
+
+    /**
+     * Test that only new and changed files are uploaded on later runs
+     */
+    @Test
+    public void testIncrementalSync() throws Exception {
+        Files.createDirectories(tempDir.resolve("sub"));
+        Files.writeString(tempDir.resolve("a.txt"), "first");
+        Files.writeString(tempDir.resolve("sub/b.txt"), "second");
+        FakeApiClient apiClient = new FakeApiClient();
+
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 2)) {
+            SyncEngine.SyncResult first = engine.sync();
+            assertEquals(2, first.getUploaded().size(), "All files should be uploaded on the first run");
+
+            SyncEngine.SyncResult second = engine.sync();
+            assertTrue(second.getUploaded().isEmpty(), "Nothing should be uploaded when nothing changed");
+            assertEquals(2, second.getUnchanged(), "Both files should be unchanged");
+
+            Files.writeString(tempDir.resolve("sub/b.txt"), "second, edited");
+            Files.writeString(tempDir.resolve("c.txt"), "third");
+            SyncEngine.SyncResult third = engine.sync();
+            assertEquals(List.of("c.txt", "sub/b.txt"), third.getUploaded().stream().sorted().toList(),
+                    "Only the new and the changed file should be uploaded");
+        }
+    }
+
+    /**
+     * Test that a touched file with identical content is not uploaded again
+     */
+    @Test
+    public void testTouchedFileNotUploaded() throws Exception {
+        Path file = tempDir.resolve("a.txt");
+        Files.writeString(file, "content");
+        FakeApiClient apiClient = new FakeApiClient();
+
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 1)) {
+            engine.sync();
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+
+            SyncEngine.SyncResult result = engine.sync();
+            assertTrue(result.getUploaded().isEmpty(), "Touched file should not be uploaded");
+            assertEquals(1, apiClient.uploads.size(), "Only the first upload should have happened");
+        }
+    }
+
+    /**
+     * Test that the index survives between engine instances and files lost on the server are sent again
+     */
+    @Test
+    public void testIndexPersistenceAndServerLoss() throws Exception {
+        Files.writeString(tempDir.resolve("a.txt"), "content");
+        FakeApiClient apiClient = new FakeApiClient();
+
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 1)) {
+            engine.sync();
+        }
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 1)) {
+            assertTrue(engine.sync().getUploaded().isEmpty(), "Reloaded index should make the file unchanged");
+
+            apiClient.storedFiles.clear();
+            assertEquals(List.of("a.txt"), engine.sync().getUploaded(), "File missing on the server should be uploaded");
+        }
+    }
+
+    /**
+     * Test that a re-uploaded file replaces its stored copy on the server
+     */
+    @Test
+    public void testReplacedCopyDeleted() throws Exception {
+        Path file = tempDir.resolve("a.txt");
+        Files.writeString(file, "content");
+        FakeApiClient apiClient = new FakeApiClient();
+
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 1)) {
+            engine.sync();
+            String firstCopy = engine.getIndex().get("a.txt").getStoredFilename();
+
+            Files.writeString(file, "changed content");
+            assertEquals(List.of("a.txt"), engine.sync().getUploaded(), "Changed file should be uploaded");
+            assertEquals(List.of(firstCopy), apiClient.deleted, "The replaced copy should be deleted");
+            assertEquals(1, apiClient.storedFiles.size(), "Only the new copy should remain");
+        }
+    }
+
+    /**
+     * Test that a watching engine retries failed files and lists the server only on its first run
+     */
+    @Test
+    public void testWatchedRunsRetryFailures() throws Exception {
+        Path file = tempDir.resolve("a.txt");
+        Files.writeString(file, "content");
+        FakeApiClient apiClient = new FakeApiClient();
+
+        try (SyncEngine engine = new SyncEngine(apiClient, USER_ID, tempDir, "**", 1)) {
+            engine.startWatching();
+            engine.sync();
+
+            apiClient.failing = "a.txt";
+            Files.writeString(file, "changed content");
+            engine.awaitChanges(100);
+            assertEquals(List.of("a.txt"), List.copyOf(engine.sync().getFailed().keySet()), "The upload should fail");
+
+            // Nothing changed since, but the failed file is tried again
+            assertEquals(List.of("a.txt"), engine.sync().getUploaded(), "The failed file should be retried");
+            assertEquals(1, apiClient.listings.get(), "Only the first run should list the server");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.sfx;
+
+import com.sfx.crypto.AESEncryption;
+import com.sfx.crypto.TreeHasher;
+import com.sfx.io.BufferPool;
+import com.sfx.session.SessionKey;
+import com.sfx.transfer.CompressionTransformer;
+import com.sfx.transfer.EncryptedRequestBody;
+import com.sfx.transfer.EncryptionTransformer;
+import com.sfx.transfer.StreamRequestBody;
+import com.sfx.transfer.TransferPipeline;
+import com.sfx.transfer.TreeHashingRequestBody;
+import okhttp3.MediaType;
+import okio.Buffer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.AEADBadTagException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test class for the parallel transfer pipeline
+ * CI-compatible with no dependency on running server
+ */
+public class TransferPipelineTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @BeforeEach
+    public void setUp() {
+        BufferPool.shared().setLeakTracking(true);
+    }
+
+    /**
+     * Every pooled buffer must be back in the pool after a run, including failed runs
+     */
+    @AfterEach
+    public void tearDown() {
+        BufferPool.shared().assertNoLeaks();
+    }
+
+    /**
+     * Test that without transformers the output is the unchanged input
+     */
+    @Test
+    public void testPassThrough() throws Exception {
+        byte[] data = testData(100_000);
+        TransferPipeline pipeline = new TransferPipeline(CHUNK_SIZE, 4, 2, List.of());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferPipeline.Result result = pipeline.run(
+                Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(out));
+
+        assertArrayEquals(data, out.toByteArray(), "Output should equal input");
+        assertEquals(data.length, result.getBytesRead(), "All bytes should be read");
+        assertEquals((data.length + CHUNK_SIZE - 1) / CHUNK_SIZE, result.getChunkHashes().size(),
+                "There should be one hash per chunk");
+    }
+
+    /**
+     * Test that compressed and encrypted chunks decode back to the input in order
+     */
+    @Test
+    public void testCompressAndEncryptRoundTrip() throws Exception {
+        byte[] data = testData(250_000);
+        byte[] key = new byte[32];
+        new Random(1).nextBytes(key);
+        TransferPipeline pipeline = new TransferPipeline(CHUNK_SIZE, 8, 4,
+                List.of(new CompressionTransformer(), new EncryptionTransformer(key)));
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        TransferPipeline.Result result = pipeline.run(
+                Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(framed));
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        pipeline.decode(new ByteArrayInputStream(framed.toByteArray()), decoded);
+        assertArrayEquals(data, decoded.toByteArray(), "Decoded output should equal input");
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] firstChunk = digest.digest(Arrays.copyOf(data, CHUNK_SIZE));
+        assertArrayEquals(firstChunk, result.getChunkHashes().get(0), "Chunk hash should be of the plaintext");
+    }
+
+    /**
+     * Test that a failing transformer surfaces as an IOException
+     */
+    @Test
+    public void testTransformerFailure() {
+        TransferPipeline pipeline = new TransferPipeline(CHUNK_SIZE, 2, 2, List.of(new EncryptionTransformer(new byte[5])));
+
+        assertThrows(IOException.class, () -> pipeline.run(
+                Channels.newChannel(new ByteArrayInputStream(testData(20_000))),
+                Channels.newChannel(new ByteArrayOutputStream())));
+    }
+
+    /**
+     * Test that a corrupt frame length fails instead of allocating what it claims
+     */
+    @Test
+    public void testOversizedFrame() {
+        TransferPipeline pipeline = TransferPipeline.withTransformers(new CompressionTransformer());
+        byte[] frame = ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE - 8).putInt(0).array();
+        assertThrows(IOException.class, () -> pipeline.decode(new ByteArrayInputStream(frame), new ByteArrayOutputStream()),
+                "An oversized frame should be rejected");
+
+        byte[] claim = ByteBuffer.allocate(12).putInt(8).putInt(Integer.MAX_VALUE - 8).putInt(0).array();
+        assertThrows(IOException.class, () -> pipeline.decode(new ByteArrayInputStream(claim), new ByteArrayOutputStream()),
+                "A compressed chunk claiming more than deflate can produce should be rejected");
+    }
+
+    /**
+     * Test an empty source
+     */
+    @Test
+    public void testEmptySource() throws Exception {
+        TransferPipeline pipeline = TransferPipeline.withTransformers(new CompressionTransformer());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransferPipeline.Result result = pipeline.run(
+                Channels.newChannel(new ByteArrayInputStream(new byte[0])), Channels.newChannel(out));
+
+        assertEquals(0, result.getBytesRead(), "Nothing should be read");
+        assertEquals(0, out.size(), "Nothing should be written");
+    }
+
+    /**
+     * Test that a stream is encrypted and sent while a producer is still writing
+     * it, and cannot be sent a second time
+     */
+    @Test
+    public void testStreamRequestBody() throws Exception {
+        byte[] data = testData(300_000);
+        byte[] key = new byte[32];
+        new Random(2).nextBytes(key);
+        TransferPipeline pipeline = new TransferPipeline(CHUNK_SIZE, 4, 2, List.of(new EncryptionTransformer(key)));
+
+        // The pipe holds one chunk, so the producer only finishes once the body has been sending
+        PipedOutputStream producer = new PipedOutputStream();
+        PipedInputStream pipe = new PipedInputStream(producer, CHUNK_SIZE);
+        Thread writer = new Thread(() -> {
+            try (producer) {
+                for (int offset = 0; offset < data.length; offset += 1000) {
+                    producer.write(data, offset, Math.min(1000, data.length - offset));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.start();
+
+        StreamRequestBody body = new StreamRequestBody(Channels.newChannel(pipe), pipeline,
+                MediaType.get("application/octet-stream"));
+        assertEquals(-1, body.contentLength(), "Length should be unknown");
+        assertTrue(body.isOneShot(), "A stream should not be replayed");
+
+        Buffer sent = new Buffer();
+        body.writeTo(sent);
+        writer.join();
+        assertEquals(data.length, body.getBytesRead(), "All produced bytes should be read");
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        pipeline.decode(sent.inputStream(), decoded);
+        assertArrayEquals(data, decoded.toByteArray(), "Decrypted stream should equal the produced data");
+        assertThrows(IOException.class, () -> body.writeTo(new Buffer()), "A second send should fail");
+    }
+
+    /**
+     * Test that a compressed stream sent encrypted with a session key decrypts
+     * back to what the server stores, that the hash covers that content, and
+     * that reordered or cut off frames fail authentication
+     */
+    @Test
+    public void testEncryptedRequestBody() throws Exception {
+        byte[] data = testData(300_000);
+        byte[] key = new byte[32];
+        new Random(3).nextBytes(key);
+        SessionKey sessionKey = new SessionKey(key, "session-1", 1, System.nanoTime());
+        TransferPipeline pipeline = new TransferPipeline(CHUNK_SIZE, 4, 2, List.of(new CompressionTransformer()));
+
+        StreamRequestBody stream = new StreamRequestBody(Channels.newChannel(new ByteArrayInputStream(data)), pipeline,
+                MediaType.get("application/octet-stream"));
+        TreeHashingRequestBody hashed = new TreeHashingRequestBody(stream);
+        EncryptedRequestBody body = new EncryptedRequestBody(hashed, sessionKey, "upload-1", CHUNK_SIZE);
+        assertEquals(-1, body.contentLength(), "Length should be unknown");
+        assertTrue(body.isOneShot(), "A stream should not be replayed");
+
+        Buffer sent = new Buffer();
+        body.writeTo(sent);
+        List<byte[]> frames = splitFrames(sent.readByteArray());
+        assertTrue(frames.size() > 2, "The stream should span several frames");
+
+        byte[] stored = decryptFrames(frames, key, "upload-1");
+        assertEquals(stored.length, sessionKey.getBytesUsed(), "Every sent byte should count towards the key");
+
+        TreeHasher hasher = new TreeHasher();
+        hasher.write(stored, 0, stored.length);
+        assertEquals(hasher.hexDigest(), hashed.getRootHash(), "The hash should be of the decrypted content");
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        pipeline.decode(new ByteArrayInputStream(stored), decoded);
+        assertArrayEquals(data, decoded.toByteArray(), "Decrypted stream should decompress to the input");
+
+        List<byte[]> swapped = new ArrayList<>(frames);
+        Collections.swap(swapped, 0, 1);
+        assertThrows(AEADBadTagException.class, () -> decryptFrames(swapped, key, "upload-1"),
+                "Reordered frames should fail");
+        assertThrows(AEADBadTagException.class, () -> decryptFrames(frames.subList(0, frames.size() - 1), key, "upload-1"),
+                "A stream cut off at a frame boundary should fail");
+        assertThrows(AEADBadTagException.class, () -> decryptFrames(frames, key, "upload-2"),
+                "Frames of another upload should fail");
+    }
+
+    /**
+     * Split a length-prefixed stream into its frames
+     */
+    private static List<byte[]> splitFrames(byte[] stream) {
+        ByteBuffer in = ByteBuffer.wrap(stream);
+        List<byte[]> frames = new ArrayList<>();
+        while (in.hasRemaining()) {
+            byte[] frame = new byte[in.getInt()];
+            in.get(frame);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * Decrypt frames as the server does, the last one flagged as last
+     */
+    private static byte[] decryptFrames(List<byte[]> frames, byte[] key, String uploadId) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] frame = frames.get(i);
+            ByteBuffer plain = ByteBuffer.allocate(AESEncryption.decryptedLength(frame.length));
+            AESEncryption.decrypt(ByteBuffer.wrap(frame), plain, key,
+                    EncryptedRequestBody.frameAad("session-1", uploadId, i, i == frames.size() - 1));
+            out.write(plain.array(), 0, plain.flip().remaining());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compressible data with some randomness, so chunks encode to different sizes
+     */
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(42);
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 'a' + i % 7);
+        }
+        return data;
+    }
+}
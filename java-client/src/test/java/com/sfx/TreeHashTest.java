@@ -0,0 +1,108 @@
+package com.sfx;
+
+import com.sfx.crypto.TreeHash;
+import com.sfx.crypto.TreeHasher;
+import com.sfx.io.BufferPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test class for the parallel tree hash
+ * CI-compatible with no dependency on running server
+ */
+public class TreeHashTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() {
+        BufferPool.shared().setLeakTracking(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        BufferPool.shared().assertNoLeaks();
+    }
+
+    /**
+     * Test that an uneven leaf count splits at the largest power of two
+     */
+    @Test
+    public void testTreeShape() throws Exception {
+        byte[] data = testData(2 * TreeHash.LEAF_SIZE + 100);
+        byte[] first = TreeHash.leaf(ByteBuffer.wrap(data, 0, TreeHash.LEAF_SIZE));
+        byte[] second = TreeHash.leaf(ByteBuffer.wrap(data, TreeHash.LEAF_SIZE, TreeHash.LEAF_SIZE));
+        byte[] third = TreeHash.leaf(ByteBuffer.wrap(data, 2 * TreeHash.LEAF_SIZE, 100));
+        byte[] expected = TreeHash.node(TreeHash.node(first, second), third);
+
+        assertArrayEquals(expected, TreeHash.root(List.of(first, second, third)), "Root from leaves");
+        Path file = tempDir.resolve("three-leaves.bin");
+        Files.write(file, data);
+        assertArrayEquals(expected, TreeHash.of(file), "Root of the file");
+    }
+
+    /**
+     * Test that streaming, whole-file and differently parallel hashing agree
+     */
+    @Test
+    public void testStreamingMatchesFile() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int size : new int[]{0, 1, TreeHash.LEAF_SIZE, 7 * TreeHash.LEAF_SIZE + 12345}) {
+                byte[] data = testData(size);
+                Path file = tempDir.resolve("data-" + size + ".bin");
+                Files.write(file, data);
+
+                TreeHasher hasher = new TreeHasher(pool);
+                try (InputStream in = hasher.hashing(new ByteArrayInputStream(data))) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+                byte[] streamed = hasher.digest();
+
+                assertArrayEquals(TreeHash.of(file), streamed, "Streaming hash of " + size + " bytes");
+                assertArrayEquals(TreeHash.of(file, pool), streamed, "Hash on another pool of " + size + " bytes");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test that any changed byte changes the root
+     */
+    @Test
+    public void testDetectsCorruption() throws Exception {
+        byte[] data = testData(3 * TreeHash.LEAF_SIZE);
+        Path original = tempDir.resolve("original.bin");
+        Files.write(original, data);
+
+        byte[] corrupted = Arrays.copyOf(data, data.length);
+        corrupted[2 * TreeHash.LEAF_SIZE + 5] ^= 1;
+        Path copy = tempDir.resolve("corrupted.bin");
+        Files.write(copy, corrupted);
+
+        assertFalse(Arrays.equals(TreeHash.of(original), TreeHash.of(copy)), "Corruption should change the root");
+    }
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,127 @@
+import queue
+import sys
+import threading
+import time
+from datetime import datetime
+
+from app.audit_logs.database import SessionLocal
+from app.audit_logs.models import AuditLog
+
+# Entries written per transaction at most
+DEFAULT_MAX_BATCH = 500
+
+# Seconds the writer waits for more entries before committing a partial batch
+DEFAULT_FLUSH_INTERVAL = 0.05
+
+# Entries held in memory before new ones are dropped rather than making
+# request handlers wait for the writer
+DEFAULT_MAX_QUEUE = 100000
+
+# Attempts to write a batch before it is reported and dropped
+WRITE_ATTEMPTS = 3
+
+_STOP = object()
+
+
+class AuditLogWriter:
+    # Writes audit entries on a background thread, so requests only enqueue
+    # them. Entries queued together are inserted in one transaction: the writer
+    # commits when a batch is full or the flush interval has passed since its
+    # first entry, whichever comes first.
+    def __init__(self, session_factory, max_batch=DEFAULT_MAX_BATCH, flush_interval=DEFAULT_FLUSH_INTERVAL,
+                 max_queue=DEFAULT_MAX_QUEUE):
+        self._session_factory = session_factory
+        self._max_batch = max_batch
+        self._flush_interval = flush_interval
+        self._queue = queue.Queue(maxsize=max_queue)
+        self._lock = threading.Lock()
+        self._written = 0
+        self._batches = 0
+        self._dropped = 0
+        self._thread = threading.Thread(target=self._run, name="audit-log-writer", daemon=True)
+        self._thread.start()
+
+    def log(self, event_type, user_id=None, success=True, details=None, ip_address=None):
+        # The timestamp is taken now, not when the entry reaches the database.
+        # This runs on the event loop, so a full queue drops the entry instead
+        # of blocking every request until the writer catches up
+        try:
+            self._queue.put_nowait({
+                "event_type": event_type,
+                "user_id": user_id,
+                "timestamp": datetime.now(),
+                "ip_address": ip_address,
+                "details": details,
+                "success": success
+            })
+        except queue.Full:
+            with self._lock:
+                self._dropped += 1
+
+    @property
+    def queue_depth(self):
+        return self._queue.qsize()
+
+    def stats(self):
+        with self._lock:
+            return {
+                "queue_depth": self.queue_depth,
+                "written": self._written,
+                "batches": self._batches,
+                "dropped": self._dropped
+            }
+
+    def flush(self):
+        # Wait until every entry queued so far is written
+        self._queue.join()
+
+    def close(self):
+        self._queue.put(_STOP)
+        self._thread.join()
+
+    def _run(self):
+        while True:
+            entry = self._queue.get()
+            if entry is _STOP:
+                self._queue.task_done()
+                return
+            batch = [entry]
+            stop = False
+            deadline = time.monotonic() + self._flush_interval
+            while len(batch) < self._max_batch:
+                remaining = deadline - time.monotonic()
+                try:
+                    entry = self._queue.get(timeout=remaining) if remaining > 0 else self._queue.get_nowait()
+                except queue.Empty:
+                    break
+                if entry is _STOP:
+                    stop = True
+                    break
+                batch.append(entry)
+
+            self._write(batch)
+            for _ in range(len(batch) + (1 if stop else 0)):
+                self._queue.task_done()
+            if stop:
+                return
+
+    def _write(self, batch):
+        for attempt in range(1, WRITE_ATTEMPTS + 1):
+            try:
+                with self._session_factory() as db:
+                    db.execute(AuditLog.__table__.insert(), batch)
+                    db.commit()
+                with self._lock:
+                    self._written += len(batch)
+                    self._batches += 1
+                return
+            except Exception as e:
+                if attempt == WRITE_ATTEMPTS:
+                    with self._lock:
+                        self._dropped += len(batch)
+                    print(f"Dropped {len(batch)} audit log entries: {e}", file=sys.stderr)
+                else:
+                    time.sleep(0.1 * attempt)
+
+
+audit_writer = AuditLogWriter(SessionLocal)
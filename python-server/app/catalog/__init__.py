@@ -0,0 +1 @@
+# Initialize catalog package
@@ -0,0 +1,107 @@
+import os
+from datetime import datetime
+
+from sqlalchemy import select
+
+from app.catalog.models import FileRecord
+from app.integrity.tree_hash import load_root_hash
+
+# Largest page a listing may request
+MAX_PAGE_SIZE = 10000
+
+# Rows inserted per statement when importing files found on disk
+_BACKFILL_BATCH = 5000
+
+# Columns a listing returns, selected as plain rows to skip ORM object overhead
+_LIST_COLUMNS = (FileRecord.filename, FileRecord.size_bytes, FileRecord.created_at, FileRecord.root_hash)
+
+
+def add_file(db, filename, user_id, original_filename, size_bytes, root_hash):
+    # Stage a new file's record; committed with the caller's audit entry
+    record = FileRecord(
+        filename=filename,
+        user_id=user_id,
+        original_filename=original_filename,
+        size_bytes=size_bytes,
+        created_at=datetime.now(),
+        root_hash=root_hash
+    )
+    db.add(record)
+    return record
+
+
+def get_file(db, filename):
+    return db.get(FileRecord, filename)
+
+
+def list_files(db, owner=None, cursor=None, limit=None):
+    # One page of files in filename order, after the cursor. Returns the
+    # entries and the cursor for the next page, or None on the last page.
+    query = select(*_LIST_COLUMNS)
+    if owner is not None:
+        query = query.where(FileRecord.user_id == owner)
+    if cursor is not None:
+        query = query.where(FileRecord.filename > cursor)
+    query = query.order_by(FileRecord.filename)
+    if limit is not None:
+        # One row more than requested tells whether another page follows
+        query = query.limit(limit + 1)
+
+    rows = db.execute(query).all()
+    next_cursor = None
+    if limit is not None and len(rows) > limit:
+        rows = rows[:limit]
+        next_cursor = rows[-1].filename
+    return [_entry(*row) for row in rows], next_cursor
+
+
+def to_file_info(record):
+    # List entry for a record, as sent by the list endpoint and change events
+    return _entry(record.filename, record.size_bytes, record.created_at, record.root_hash)
+
+
+def _entry(filename, size_bytes, created_at, root_hash):
+    return {
+        "filename": filename,
+        "size_bytes": size_bytes,
+        "created_at": created_at.isoformat(),
+        "root_hash": root_hash
+    }
+
+
+def backfill(db, uploads_dir):
+    # Import files stored before the catalog existed. Runs a directory scan
+    # only while the catalog is empty, so later startups stay constant-time.
+    if db.execute(select(FileRecord.filename).limit(1)).first() is not None:
+        return 0
+    if not os.path.isdir(uploads_dir):
+        return 0
+
+    batch = []
+    count = 0
+    with os.scandir(uploads_dir) as entries:
+        for entry in entries:
+            # Hidden files are the server's own temporary files
+            if entry.name.startswith(".") or not entry.is_file():
+                continue
+            stat = entry.stat()
+            batch.append({
+                "filename": entry.name,
+                "user_id": None,
+                "original_filename": None,
+                "size_bytes": stat.st_size,
+                "created_at": datetime.fromtimestamp(stat.st_ctime),
+                "root_hash": load_root_hash(uploads_dir, entry.name)
+            })
+            if len(batch) >= _BACKFILL_BATCH:
+                count += _insert(db, batch)
+                batch = []
+    count += _insert(db, batch)
+    db.commit()
+    return count
+
+
+def _insert(db, rows):
+    if rows:
+        db.execute(FileRecord.__table__.insert(), rows)
+    return len(rows)
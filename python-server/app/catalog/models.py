@@ -0,0 +1,22 @@
+from sqlalchemy import BigInteger, Column, DateTime, Index, String
+from sqlalchemy.ext.declarative import declarative_base
+
+Base = declarative_base()
+
+class FileRecord(Base):
+    __tablename__ = "file_catalog"
+
+    filename = Column(String(255), primary_key=True)  # Stored (unique) filename
+    user_id = Column(String(50), nullable=True)  # Uploader, or None for files found on disk
+    original_filename = Column(String(255), nullable=True)
+    size_bytes = Column(BigInteger, nullable=False)
+    created_at = Column(DateTime, nullable=False)
+    root_hash = Column(String(64), nullable=True)
+
+    # Listings page through filenames in order, per user or overall
+    __table_args__ = (
+        Index("ix_file_catalog_user_filename", "user_id", "filename"),
+    )
+
+    def __repr__(self):
+        return f"FileRecord(filename={self.filename}, user_id={self.user_id}, size_bytes={self.size_bytes})"
@@ -1,12 +1,30 @@
+import hashlib
 import os
 import secrets
+import threading
 from cryptography.hazmat.primitives.asymmetric import dh
 from cryptography.hazmat.primitives import hashes, serialization
+from cryptography.hazmat.primitives.kdf.hkdf import HKDF
+
+SESSION_KEY_LENGTH = 32
+
+_parameters = None
+_parameters_lock = threading.Lock()
+
+def shared_parameters():
+    # Generating 2048-bit group parameters takes seconds of CPU, far longer
+    # than the rest of an exchange, so all exchanges share one group generated
+    # on first use. Every exchange still gets its own key pair.
+    global _parameters
+    with _parameters_lock:
+        if _parameters is None:
+            _parameters = dh.generate_parameters(generator=2, key_size=2048)
+        return _parameters
 
 class DHKeyExchange:
-    def __init__(self):
-        # Generate parameters
-        self.parameters = dh.generate_parameters(generator=2, key_size=2048)
+    def __init__(self, parameters=None):
+        # Use the given group parameters, or the process-wide group
+        self.parameters = parameters if parameters is not None else shared_parameters()
         # Generate private key
         self.private_key = self.parameters.generate_private_key()
         # Get public key
@@ -27,13 +45,26 @@ class DHKeyExchange:
         )
     
     def compute_shared_key(self, peer_public_key_bytes):
-        # Deserialize peer's public key
-        peer_public_key = serialization.load_pem_public_key(peer_public_key_bytes)
+        # Deserialize peer's public key: PEM, or DER as the Java client sends it
+        if peer_public_key_bytes.lstrip().startswith(b"-----BEGIN"):
+            peer_public_key = serialization.load_pem_public_key(peer_public_key_bytes)
+        else:
+            peer_public_key = serialization.load_der_public_key(peer_public_key_bytes)
         # Compute shared key
         shared_key = self.private_key.exchange(peer_public_key)
         # Derive a key using HKDF
         return shared_key
 
+def derive_session_key(shared_key, user_id, session_id):
+    # The Java client's SessionManager derives the same key: the SHA-256 of the
+    # shared secret, bound to the user and the exchange with HKDF-SHA256
+    return HKDF(
+        algorithm=hashes.SHA256(),
+        length=SESSION_KEY_LENGTH,
+        salt=None,
+        info=f"sfx-session-key {user_id} {session_id}".encode("utf-8")
+    ).derive(hashlib.sha256(shared_key).digest())
+
 # Example usage
 def create_dh_exchange():
     return DHKeyExchange()
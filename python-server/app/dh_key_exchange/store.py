@@ -0,0 +1,64 @@
+import threading
+import time
+
+# Handshakes not completed within this time are dropped, so clients that
+# start an exchange and never finish it do not accumulate
+PENDING_TTL_SECONDS = 5 * 60
+
+# Clients rotate session keys at least hourly; a key outlives that so uploads
+# that started with it can finish
+SESSION_KEY_TTL_SECONDS = 2 * 60 * 60
+
+
+class KeyExchangeStore:
+    # In-flight key exchanges by session ID. Synchronous endpoints run on
+    # worker threads, so every access holds the lock; each session can be
+    # completed exactly once.
+    def __init__(self, ttl_seconds=PENDING_TTL_SECONDS, clock=time.monotonic):
+        self._ttl_seconds = ttl_seconds
+        self._clock = clock
+        self._pending = {}
+        self._lock = threading.Lock()
+
+    def add(self, session_id, exchange):
+        now = self._clock()
+        with self._lock:
+            self._expire(now)
+            self._pending[session_id] = (exchange, now + self._ttl_seconds)
+
+    def take(self, session_id):
+        # Remove and return the exchange, or None if it is unknown, already
+        # completed or expired
+        with self._lock:
+            entry = self._pending.pop(session_id, None)
+        if entry is None or entry[1] <= self._clock():
+            return None
+        return entry[0]
+
+    def get(self, session_id):
+        # Return the exchange without removing it, or None if it is unknown or
+        # expired
+        with self._lock:
+            entry = self._pending.get(session_id)
+        if entry is None or entry[1] <= self._clock():
+            return None
+        return entry[0]
+
+    def __len__(self):
+        with self._lock:
+            self._expire(self._clock())
+            return len(self._pending)
+
+    def _expire(self, now):
+        # Every entry lives equally long and dicts keep insertion order, so
+        # the expired ones are at the front
+        while self._pending:
+            session_id = next(iter(self._pending))
+            if self._pending[session_id][1] > now:
+                break
+            del self._pending[session_id]
+
+
+# (user ID, session key) of completed exchanges by session ID, which encrypted
+# uploads name to say which key they are encrypted with
+session_keys = KeyExchangeStore(ttl_seconds=SESSION_KEY_TTL_SECONDS)
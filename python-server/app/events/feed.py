@@ -0,0 +1,113 @@
+import asyncio
+import json
+import threading
+import uuid
+from collections import deque
+
+# Events kept for clients catching up after a reconnect. A client further
+# behind than this reloads the full file list instead.
+DEFAULT_MAX_EVENTS = 10000
+
+# Seconds between comments on an idle stream, so proxies and clients can
+# tell a quiet stream from a dead connection
+KEEPALIVE_SECONDS = 15
+
+# Milliseconds a client should wait before reconnecting
+RECONNECT_MILLIS = 2000
+
+FILE_ADDED = "file_added"
+FILE_UPDATED = "file_updated"
+FILE_REMOVED = "file_removed"
+# Tells the client its view may be stale and it should reload the full list
+RESET = "reset"
+
+
+class ChangeFeed:
+    # Numbered log of file changes for Server-Sent Events subscribers. Sequence
+    # numbers restart with the server, so event IDs carry the feed's epoch: an
+    # ID from another epoch means the client missed an unknown number of changes.
+    def __init__(self, max_events=DEFAULT_MAX_EVENTS):
+        self.epoch = uuid.uuid4().hex[:12]
+        self._events = deque(maxlen=max_events)
+        self._sequence = 0
+        self._lock = threading.Lock()
+        self._waiters = set()
+
+    def publish(self, event_type, file_info):
+        with self._lock:
+            self._sequence += 1
+            event = {"sequence": self._sequence, "type": event_type, "file": file_info}
+            self._events.append(event)
+            waiters = list(self._waiters)
+        # Publishers may run on worker threads; wake subscribers on their own loops
+        for loop, wakeup in waiters:
+            loop.call_soon_threadsafe(wakeup.set)
+        return event
+
+    @property
+    def last_sequence(self):
+        with self._lock:
+            return self._sequence
+
+    def event_id(self, sequence):
+        return f"{self.epoch}-{sequence}"
+
+    def parse_event_id(self, event_id):
+        # Sequence number of an event ID from this epoch, or None if the client
+        # cannot catch up from it
+        if not event_id:
+            return None
+        epoch, _, sequence = event_id.strip().rpartition("-")
+        if epoch != self.epoch or not sequence.isdigit():
+            return None
+        sequence = int(sequence)
+        return sequence if sequence <= self.last_sequence else None
+
+    def since(self, sequence):
+        # Events after a sequence number, or None if some were already dropped
+        with self._lock:
+            oldest = self._events[0]["sequence"] if self._events else self._sequence + 1
+            if sequence < oldest - 1:
+                return None
+            return [event for event in self._events if event["sequence"] > sequence]
+
+    async def wait(self, sequence, timeout):
+        # Wait until an event after the sequence number exists or the timeout passes
+        wakeup = asyncio.Event()
+        waiter = (asyncio.get_running_loop(), wakeup)
+        with self._lock:
+            if self._sequence > sequence:
+                return True
+            self._waiters.add(waiter)
+        try:
+            await asyncio.wait_for(wakeup.wait(), timeout)
+            return True
+        except asyncio.TimeoutError:
+            return False
+        finally:
+            with self._lock:
+                self._waiters.discard(waiter)
+
+    async def stream(self, last_event_id, is_disconnected):
+        # Server-Sent Events from after the client's last event. A client that
+        # cannot catch up gets a reset first.
+        yield f"retry: {RECONNECT_MILLIS}\n\n"
+        sequence = self.parse_event_id(last_event_id)
+        while not await is_disconnected():
+            events = self.since(sequence) if sequence is not None else None
+            if events is None:
+                sequence = self.last_sequence
+                yield self.format({"sequence": sequence, "type": RESET, "file": None})
+                continue
+            for event in events:
+                sequence = event["sequence"]
+                yield self.format(event)
+            if not await self.wait(sequence, KEEPALIVE_SECONDS):
+                yield ": keepalive\n\n"
+
+    def format(self, event):
+        data = json.dumps(event, separators=(",", ":"))
+        return f"id: {self.event_id(event['sequence'])}\nevent: {event['type']}\ndata: {data}\n\n"
+
+
+change_feed = ChangeFeed()
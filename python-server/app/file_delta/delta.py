@@ -0,0 +1,119 @@
+import hashlib
+import os
+import struct
+import zlib
+
+from starlette.concurrency import run_in_threadpool
+
+# Delta stream format shared with the Java client's DeltaEncoder (big-endian):
+# magic b"SFXD", version byte, block size (int), target size (long), then
+# operations until b"E": b"C" + first block index + block count (ints), or
+# b"L" + length (int) + that many literal bytes.
+MAGIC = b"SFXD"
+VERSION = 1
+OP_COPY = b"C"
+OP_LITERAL = b"L"
+OP_END = b"E"
+
+MIN_BLOCK_SIZE = 512
+MAX_BLOCK_SIZE = 1024 * 1024
+COPY_CHUNK_SIZE = 1024 * 1024
+MAX_LITERAL_SIZE = 16 * 1024 * 1024
+
+
+def compute_signatures(file_path, block_size):
+    # Weak Adler-32 checksum and strong SHA-256 hash of every block
+    blocks = []
+    with open(file_path, "rb") as f:
+        index = 0
+        while True:
+            block = f.read(block_size)
+            if not block:
+                break
+            blocks.append({
+                "index": index,
+                "weak": _to_signed_int(zlib.adler32(block)),
+                "strong": hashlib.sha256(block).hexdigest()
+            })
+            index += 1
+    return blocks
+
+
+def _to_signed_int(value):
+    # Java reads the checksum into a signed 32-bit int
+    return value - (1 << 32) if value >= (1 << 31) else value
+
+
+class DeltaFormatError(Exception):
+    pass
+
+
+class _StreamReader:
+    # Reads exact byte counts from an async iterator of chunks
+    def __init__(self, stream):
+        self._stream = stream.__aiter__()
+        self._buffer = bytearray()
+
+    async def read_exactly(self, size):
+        while len(self._buffer) < size:
+            try:
+                self._buffer.extend(await self._stream.__anext__())
+            except StopAsyncIteration:
+                raise DeltaFormatError("Delta stream ended early")
+        data = bytes(self._buffer[:size])
+        del self._buffer[:size]
+        return data
+
+
+def _copy_range(base, target, start, length):
+    base.seek(start)
+    while length > 0:
+        chunk = base.read(min(COPY_CHUNK_SIZE, length))
+        target.write(chunk)
+        length -= len(chunk)
+
+
+async def apply_delta(base_path, stream, target_path):
+    # Rebuild a file from the base copy and a delta stream, returning its size.
+    # File access runs in the thread pool so other requests are served meanwhile.
+    reader = _StreamReader(stream)
+    if await reader.read_exactly(len(MAGIC)) != MAGIC:
+        raise DeltaFormatError("Not a delta stream")
+    version, block_size, target_size = struct.unpack(">BiQ", await reader.read_exactly(13))
+    if version != VERSION or block_size <= 0:
+        raise DeltaFormatError(f"Unsupported delta version {version} or block size {block_size}")
+
+    written = 0
+    base_size = await run_in_threadpool(os.path.getsize, base_path)
+    base = await run_in_threadpool(open, base_path, "rb")
+    try:
+        target = await run_in_threadpool(open, target_path, "wb")
+        try:
+            while True:
+                op = await reader.read_exactly(1)
+                if op == OP_END:
+                    break
+                elif op == OP_COPY:
+                    first_block, count = struct.unpack(">ii", await reader.read_exactly(8))
+                    start = first_block * block_size
+                    end = min(base_size, start + count * block_size)
+                    if first_block < 0 or count <= 0 or start >= end:
+                        raise DeltaFormatError("Copy instruction outside the base file")
+                    await run_in_threadpool(_copy_range, base, target, start, end - start)
+                    written += end - start
+                elif op == OP_LITERAL:
+                    (length,) = struct.unpack(">i", await reader.read_exactly(4))
+                    if length < 0 or length > MAX_LITERAL_SIZE:
+                        raise DeltaFormatError(f"Invalid literal length {length}")
+                    await run_in_threadpool(target.write, await reader.read_exactly(length))
+                    written += length
+                else:
+                    raise DeltaFormatError(f"Unknown delta operation: {op!r}")
+        finally:
+            await run_in_threadpool(target.close)
+    finally:
+        await run_in_threadpool(base.close)
+
+    if written != target_size:
+        raise DeltaFormatError(f"Rebuilt {written} bytes but expected {target_size}")
+    return written
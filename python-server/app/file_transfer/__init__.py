@@ -0,0 +1 @@
+# Initialize file_transfer package
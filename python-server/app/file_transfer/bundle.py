@@ -0,0 +1,181 @@
+import os
+import struct
+
+from starlette.concurrency import run_in_threadpool
+
+from app.integrity.tree_hash import TreeHasher
+
+# Bundle format shared with the Java client's com.sfx.bundle package
+# (big-endian): magic b"SFXB", version byte, then entries until b"E": b"F" +
+# name length (int) + UTF-8 name + content size (long) + 32-byte tree hash of
+# the content + the content. Uploads name each entry after the local file and
+# downloads after the stored file.
+MAGIC = b"SFXB"
+VERSION = 1
+OP_FILE = b"F"
+OP_END = b"E"
+HASH_SIZE = 32
+
+MAX_ENTRIES = 10000
+MAX_NAME_LENGTH = 1024
+# Bundles are for small files; larger ones are uploaded on their own
+MAX_ENTRY_SIZE = 16 * 1024 * 1024
+
+# Bytes of small entries collected before they are hashed and written, or
+# read, in one worker thread hop
+BATCH_SIZE = 4 * 1024 * 1024
+
+MEDIA_TYPE = "application/x-sfx-bundle"
+
+
+class BundleFormatError(Exception):
+    pass
+
+
+class _StreamReader:
+    # Reads exact byte counts from an async iterator of chunks
+    def __init__(self, stream):
+        self._stream = stream.__aiter__()
+        self._buffer = bytearray()
+
+    async def read_exactly(self, size):
+        while len(self._buffer) < size:
+            try:
+                self._buffer.extend(await self._stream.__anext__())
+            except StopAsyncIteration:
+                raise BundleFormatError("Bundle ended early")
+        data = bytes(self._buffer[:size])
+        del self._buffer[:size]
+        return data
+
+
+async def receive_bundle(stream, new_path):
+    # Write every entry of an uploaded bundle to its own file. new_path(name)
+    # returns the (path, stored filename) for an entry. Entries are written in
+    # batches on worker threads, so thousands of tiny files cost a few thread
+    # hops rather than one each. Returns one dict per entry; on failure the
+    # files written so far are removed.
+    reader = _StreamReader(stream)
+    entries = []
+    pending = []
+    pending_bytes = 0
+    try:
+        if await reader.read_exactly(len(MAGIC)) != MAGIC:
+            raise BundleFormatError("Not a bundle")
+        version = (await reader.read_exactly(1))[0]
+        if version != VERSION:
+            raise BundleFormatError(f"Unsupported bundle version {version}")
+
+        while True:
+            op = await reader.read_exactly(1)
+            if op == OP_END:
+                break
+            if op != OP_FILE:
+                raise BundleFormatError(f"Unknown bundle entry {op!r}")
+            if len(entries) >= MAX_ENTRIES:
+                raise BundleFormatError(f"More than {MAX_ENTRIES} entries")
+
+            (name_length,) = struct.unpack(">i", await reader.read_exactly(4))
+            if not 0 < name_length <= MAX_NAME_LENGTH:
+                raise BundleFormatError(f"Invalid name length {name_length}")
+            name = (await reader.read_exactly(name_length)).decode("utf-8")
+            (size,) = struct.unpack(">q", await reader.read_exactly(8))
+            if not 0 <= size <= MAX_ENTRY_SIZE:
+                raise BundleFormatError(f"Entry {name} of {size} bytes is not a small file")
+            expected_hash = (await reader.read_exactly(HASH_SIZE)).hex()
+            content = await reader.read_exactly(size)
+
+            path, stored_filename = new_path(name)
+            entry = {
+                "filename": name,
+                "stored_filename": stored_filename,
+                "path": path,
+                "size_bytes": size,
+                "expected_hash": expected_hash
+            }
+            entries.append(entry)
+            pending.append((entry, content))
+            pending_bytes += size
+            if pending_bytes >= BATCH_SIZE:
+                await run_in_threadpool(_write_entries, pending)
+                pending, pending_bytes = [], 0
+
+        await run_in_threadpool(_write_entries, pending)
+        return entries
+    except BaseException:
+        await run_in_threadpool(remove_entries, entries)
+        raise
+
+
+def _write_entries(pending):
+    for entry, content in pending:
+        hasher = TreeHasher()
+        hasher.update(content)
+        entry["root_hash"] = hasher.hexdigest()
+        with open(entry["path"], "wb") as target:
+            target.write(content)
+
+
+def remove_entries(entries):
+    for entry in entries:
+        if os.path.exists(entry["path"]):
+            os.remove(entry["path"])
+
+
+async def stream_bundle(entries):
+    # Stream stored files as a bundle. Each entry is a dict with filename,
+    # path, size_bytes and root_hash. Small files are read in batches on
+    # worker threads; larger ones in chunks.
+    yield MAGIC + bytes([VERSION])
+    batch = []
+    batch_bytes = 0
+    for entry in entries:
+        if entry["size_bytes"] > BATCH_SIZE:
+            if batch:
+                yield await run_in_threadpool(_read_entries, batch)
+                batch, batch_bytes = [], 0
+            yield _entry_header(entry)
+            async for chunk in _read_chunks(entry["path"], entry["size_bytes"]):
+                yield chunk
+            continue
+
+        batch.append(entry)
+        batch_bytes += entry["size_bytes"]
+        if batch_bytes >= BATCH_SIZE:
+            yield await run_in_threadpool(_read_entries, batch)
+            batch, batch_bytes = [], 0
+    if batch:
+        yield await run_in_threadpool(_read_entries, batch)
+    yield OP_END
+
+
+def _entry_header(entry):
+    name = entry["filename"].encode("utf-8")
+    return (OP_FILE + struct.pack(">i", len(name)) + name + struct.pack(">q", entry["size_bytes"])
+            + bytes.fromhex(entry["root_hash"]))
+
+
+def _read_entries(batch):
+    data = bytearray()
+    for entry in batch:
+        data += _entry_header(entry)
+        with open(entry["path"], "rb") as source:
+            content = source.read(entry["size_bytes"] + 1)
+        if len(content) != entry["size_bytes"]:
+            raise RuntimeError(f"{entry['filename']} changed size while it was being sent")
+        data += content
+    return bytes(data)
+
+
+async def _read_chunks(path, size):
+    source = await run_in_threadpool(open, path, "rb")
+    try:
+        remaining = size
+        while remaining > 0:
+            chunk = await run_in_threadpool(source.read, min(BATCH_SIZE, remaining))
+            if not chunk:
+                raise RuntimeError(f"{path} ended before the expected {size} bytes")
+            remaining -= len(chunk)
+            yield chunk
+    finally:
+        source.close()
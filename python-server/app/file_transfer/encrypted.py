@@ -0,0 +1,62 @@
+import struct
+
+from cryptography.exceptions import InvalidTag
+from cryptography.hazmat.primitives.ciphers.aead import AESGCM
+from starlette.concurrency import run_in_threadpool
+
+# Encrypted upload format shared with the Java client's
+# com.sfx.transfer.EncryptedRequestBody: frames of a 4-byte big-endian length
+# followed by a 12-byte IV and the AES-GCM ciphertext with its 16-byte tag.
+# The frames decrypt, in order, to the upload's content. Each frame's
+# associated data (frame_aad) binds it to the session, the upload, its index
+# and whether it is the last frame, so reordered, repeated, foreign or cut off
+# frames fail authentication.
+IV_SIZE = 12
+TAG_SIZE = 16
+
+# Clients encrypt 1 MB at a time; a much longer frame is not one of theirs
+MAX_FRAME_SIZE = 16 * 1024 * 1024
+
+
+class EncryptedStreamError(Exception):
+    pass
+
+
+def frame_aad(session_id, upload_id, index, last):
+    return f"{session_id} {upload_id}".encode("utf-8") + struct.pack(">qB", index, 1 if last else 0)
+
+
+async def decrypt_frames(stream, key, session_id, upload_id):
+    # Yield the content of an encrypted upload frame by frame as it arrives.
+    # A frame is only known not to be the last once the next one has started,
+    # so one frame is held back. Decryption runs on worker threads like the
+    # disk writes that follow it.
+    cipher = AESGCM(key)
+    pending = bytearray()
+    held = None
+    index = 0
+    async for chunk in stream:
+        pending.extend(chunk)
+        while len(pending) >= 4:
+            (length,) = struct.unpack_from(">i", pending)
+            if not IV_SIZE + TAG_SIZE <= length <= MAX_FRAME_SIZE:
+                raise EncryptedStreamError(f"Invalid frame length {length}")
+            if len(pending) < 4 + length:
+                break
+            if held is not None:
+                yield await run_in_threadpool(_decrypt, cipher, held, frame_aad(session_id, upload_id, index, False))
+                index += 1
+            held = bytes(pending[4:4 + length])
+            del pending[:4 + length]
+    if pending:
+        raise EncryptedStreamError("Upload ended inside a frame")
+    if held is None:
+        raise EncryptedStreamError("Upload has no frames")
+    yield await run_in_threadpool(_decrypt, cipher, held, frame_aad(session_id, upload_id, index, True))
+
+
+def _decrypt(cipher, frame, aad):
+    try:
+        return cipher.decrypt(frame[:IV_SIZE], frame[IV_SIZE:], aad)
+    except InvalidTag:
+        raise EncryptedStreamError("Frame failed authentication")
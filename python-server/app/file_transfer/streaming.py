@@ -0,0 +1,149 @@
+import os
+import re
+from urllib.parse import quote
+
+from starlette.concurrency import run_in_threadpool
+from starlette.responses import Response
+
+from app.integrity.tree_hash import LEAF_SIZE, TreeHasher
+
+# Bytes collected from the request before they are hashed and written in one
+# worker thread hop; whole leaves keep the hasher from copying partial ones
+WRITE_CHUNK_SIZE = 4 * LEAF_SIZE
+
+# Bytes read per worker thread hop, which is how every download is sent under
+# uvicorn (run.py) since it does not offer the ASGI zerocopy extension
+READ_CHUNK_SIZE = 1024 * 1024
+
+_RANGE = re.compile(r"^bytes=(\d*)-(\d*)$")
+
+
+async def receive_file(stream, file_path):
+    # Write a request body to a file as it arrives, tree-hashing it on the way.
+    # Disk writes and hashing run on worker threads so the event loop keeps
+    # serving other requests. Returns the size and the root hash.
+    hasher = TreeHasher()
+    size_bytes = 0
+    pending = bytearray()
+
+    def write(target, data):
+        hasher.update(data)
+        target.write(data)
+
+    target = await run_in_threadpool(open, file_path, "wb")
+    try:
+        async for chunk in stream:
+            pending.extend(chunk)
+            size_bytes += len(chunk)
+            if len(pending) >= WRITE_CHUNK_SIZE:
+                data = bytes(pending)
+                pending.clear()
+                await run_in_threadpool(write, target, data)
+        await run_in_threadpool(write, target, bytes(pending))
+    finally:
+        await run_in_threadpool(target.close)
+    return size_bytes, hasher.hexdigest()
+
+
+def parse_range(range_header, size):
+    # The (start, end) byte positions of a single-range request, inclusive.
+    # Returns None to serve the whole file, as RFC 9110 allows for headers that
+    # are malformed or ask for several ranges, and raises ValueError for a
+    # range that lies outside the file.
+    if not range_header:
+        return None
+    match = _RANGE.match(range_header.strip())
+    if match is None:
+        return None
+    first, last = match.groups()
+    if not first and not last:
+        return None
+    if not first:
+        # Suffix range: the last N bytes
+        length = int(last)
+        if length == 0:
+            raise ValueError("Empty suffix range")
+        return max(0, size - length), size - 1
+    start = int(first)
+    end = min(int(last), size - 1) if last else size - 1
+    if start >= size or (last and int(last) < start):
+        raise ValueError("Range not satisfiable")
+    return start, end
+
+
+class RangedFileResponse(Response):
+    # File response that honors single byte ranges. The file is read in large
+    # chunks on worker threads and sent as ordinary body messages. sendfile is
+    # not used under uvicorn: ASGI gives the app no access to the socket, and
+    # uvicorn does not offer the http.response.zerocopy extension, so the file
+    # is only handed over for zero-copy sending when run under a server that
+    # advertises that extension.
+    def __init__(self, path, size, headers, range_header=None, if_range=None, filename=None):
+        super().__init__(status_code=200, headers=headers, media_type="application/octet-stream")
+        self.path = path
+        self.raw_headers.append((b"accept-ranges", b"bytes"))
+        if filename:
+            self.raw_headers.append((b"content-disposition", _content_disposition(filename).encode("latin-1")))
+
+        byte_range = None
+        # A range only applies to the representation the client already has part of
+        etag = self.headers.get("etag")
+        if if_range is None or if_range.strip() == etag:
+            try:
+                byte_range = parse_range(range_header, size)
+            except ValueError:
+                self.status_code = 416
+                self.start, self.length = 0, 0
+                self._set_length(0)
+                self.raw_headers.append((b"content-range", f"bytes */{size}".encode("latin-1")))
+                return
+
+        if byte_range is None:
+            self.start, self.length = 0, size
+        else:
+            self.status_code = 206
+            self.start, self.length = byte_range[0], byte_range[1] - byte_range[0] + 1
+            self.raw_headers.append(
+                (b"content-range", f"bytes {byte_range[0]}-{byte_range[1]}/{size}".encode("latin-1")))
+        self._set_length(self.length)
+
+    def _set_length(self, length):
+        self.raw_headers = [(name, value) for name, value in self.raw_headers if name != b"content-length"]
+        self.raw_headers.append((b"content-length", str(length).encode("latin-1")))
+
+    async def __call__(self, scope, receive, send):
+        await send({"type": "http.response.start", "status": self.status_code, "headers": self.raw_headers})
+        if self.length == 0 or scope.get("method") == "HEAD":
+            await send({"type": "http.response.body", "body": b"", "more_body": False})
+            return
+
+        file = await run_in_threadpool(open, self.path, "rb")
+        try:
+            # Never taken under uvicorn, which does not offer this extension
+            if "http.response.zerocopy" in scope.get("extensions", {}):
+                await send({
+                    "type": "http.response.zerocopy",
+                    "file": file,
+                    "offset": self.start,
+                    "count": self.length,
+                    "more_body": False
+                })
+                return
+
+            offset, remaining = self.start, self.length
+            while remaining > 0:
+                chunk = await run_in_threadpool(os.pread, file.fileno(), min(READ_CHUNK_SIZE, remaining), offset)
+                if not chunk:
+                    raise RuntimeError(f"{self.path} ended before the expected {self.length} bytes")
+                offset += len(chunk)
+                remaining -= len(chunk)
+                await send({"type": "http.response.body", "body": chunk, "more_body": remaining > 0})
+        finally:
+            file.close()
+
+
+def _content_disposition(filename):
+    quoted = quote(filename)
+    if quoted != filename:
+        return f"attachment; filename*=utf-8''{quoted}"
+    return f'attachment; filename="{filename}"'
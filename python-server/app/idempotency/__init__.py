@@ -0,0 +1 @@
+# Initialize idempotency package
@@ -0,0 +1,74 @@
+import threading
+import time
+
+from fastapi import HTTPException, status
+
+# Responses of completed requests are replayed for this long, so a client
+# retrying after a lost response gets the original result instead of a duplicate
+DEFAULT_TTL_SECONDS = 24 * 60 * 60
+DEFAULT_MAX_ENTRIES = 10000
+
+# Seconds a client should wait before retrying while the first attempt runs
+IN_PROGRESS_RETRY_AFTER = 1
+
+
+class IdempotencyCache:
+    # In-memory record of requests by Idempotency-Key. Each key is either in
+    # progress or holds the response to replay.
+    def __init__(self, ttl_seconds=DEFAULT_TTL_SECONDS, max_entries=DEFAULT_MAX_ENTRIES):
+        self._ttl_seconds = ttl_seconds
+        self._max_entries = max_entries
+        self._entries = {}
+        self._lock = threading.Lock()
+
+    def reserve(self, key):
+        # Claim a key for a new request. Returns the stored response if the
+        # request already completed, None if the caller should process it, and
+        # raises 409 with Retry-After if another attempt is still running.
+        if key is None:
+            return None
+        now = time.monotonic()
+        with self._lock:
+            self._expire(now)
+            entry = self._entries.get(key)
+            if entry is None:
+                self._entries[key] = {"response": None, "expires_at": now + self._ttl_seconds}
+                return None
+            if entry["response"] is None:
+                raise HTTPException(
+                    status_code=status.HTTP_409_CONFLICT,
+                    detail="A request with this Idempotency-Key is still in progress",
+                    headers={"Retry-After": str(IN_PROGRESS_RETRY_AFTER)}
+                )
+            return entry["response"]
+
+    def complete(self, key, response):
+        if key is None:
+            return
+        with self._lock:
+            self._entries[key] = {"response": response, "expires_at": time.monotonic() + self._ttl_seconds}
+
+    def release(self, key):
+        # Forget a failed request so it can be attempted again
+        if key is None:
+            return
+        with self._lock:
+            self._entries.pop(key, None)
+
+    def _expire(self, now):
+        expired = [key for key, entry in self._entries.items() if entry["expires_at"] <= now]
+        for key in expired:
+            del self._entries[key]
+        # Dicts keep insertion order, so the oldest keys go first when full
+        while len(self._entries) >= self._max_entries:
+            del self._entries[next(iter(self._entries))]
+
+
+idempotency_cache = IdempotencyCache()
+
+
+def scoped_key(operation, user_id, idempotency_key):
+    # Keys are only unique per client, so scope them by operation and user
+    if not idempotency_key:
+        return None
+    return f"{operation}:{user_id}:{idempotency_key}"
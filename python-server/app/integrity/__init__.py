@@ -0,0 +1 @@
+# Initialize integrity package
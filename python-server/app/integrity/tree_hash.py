@@ -0,0 +1,97 @@
+import hashlib
+import os
+
+# SHA-256 Merkle tree hash shared with the Java client's TreeHash: 1 MiB
+# leaves hashed as SHA-256(0x00 || data), inner nodes as
+# SHA-256(0x01 || left || right), splitting an odd level at the largest power
+# of two below its size (RFC 6962). Empty content is a single empty leaf.
+LEAF_SIZE = 1024 * 1024
+LEAF_PREFIX = b"\x00"
+NODE_PREFIX = b"\x01"
+
+# Root hashes of stored files live next to them, named after the stored file
+HASHES_DIRNAME = ".hashes"
+
+
+def leaf_hash(data):
+    return hashlib.sha256(LEAF_PREFIX + data).digest()
+
+
+def node_hash(left, right):
+    return hashlib.sha256(NODE_PREFIX + left + right).digest()
+
+
+def root_hash(leaves):
+    if not leaves:
+        return leaf_hash(b"")
+    if len(leaves) == 1:
+        return leaves[0]
+    split = 1 << ((len(leaves) - 1).bit_length() - 1)
+    return node_hash(root_hash(leaves[:split]), root_hash(leaves[split:]))
+
+
+class TreeHasher:
+    # Incremental tree hash for data that arrives in arbitrary pieces
+    def __init__(self):
+        self._leaves = []
+        self._pending = bytearray()
+
+    def update(self, data):
+        self._pending.extend(data)
+        while len(self._pending) >= LEAF_SIZE:
+            self._leaves.append(leaf_hash(bytes(self._pending[:LEAF_SIZE])))
+            del self._pending[:LEAF_SIZE]
+
+    def hexdigest(self):
+        leaves = list(self._leaves)
+        if self._pending or not leaves:
+            leaves.append(leaf_hash(bytes(self._pending)))
+        return root_hash(leaves).hex()
+
+
+def tree_hash_file(file_path):
+    hasher = TreeHasher()
+    with open(file_path, "rb") as f:
+        while True:
+            chunk = f.read(LEAF_SIZE)
+            if not chunk:
+                break
+            hasher.update(chunk)
+    return hasher.hexdigest()
+
+
+def _hash_path(uploads_dir, filename):
+    return os.path.join(uploads_dir, HASHES_DIRNAME, filename)
+
+
+def store_root_hash(uploads_dir, filename, value):
+    os.makedirs(os.path.join(uploads_dir, HASHES_DIRNAME), exist_ok=True)
+    path = _hash_path(uploads_dir, filename)
+    temp_path = f"{path}.tmp"
+    with open(temp_path, "w") as f:
+        f.write(value)
+    os.replace(temp_path, path)
+
+
+def load_root_hash(uploads_dir, filename):
+    # Stored hash of a file, or None for files uploaded before hashes were kept
+    try:
+        with open(_hash_path(uploads_dir, filename)) as f:
+            return f.read().strip() or None
+    except FileNotFoundError:
+        return None
+
+
+def remove_root_hash(uploads_dir, filename):
+    try:
+        os.remove(_hash_path(uploads_dir, filename))
+    except FileNotFoundError:
+        pass
+
+
+def get_or_compute_root_hash(uploads_dir, filename):
+    value = load_root_hash(uploads_dir, filename)
+    if value is None:
+        value = tree_hash_file(os.path.join(uploads_dir, filename))
+        store_root_hash(uploads_dir, filename, value)
+    return value
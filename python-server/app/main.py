@@ -6,11 +6,19 @@ import uvicorn
 from app.routes import key_exchange, file_exchange
 
 # Import database models
-from app.audit_logs.database import engine
+from app.audit_logs.database import SessionLocal, engine
 from app.audit_logs.models import Base as AuditBase
+from app.audit_logs.writer import audit_writer
+from app.catalog import catalog
+from app.catalog.models import Base as CatalogBase
 
 # Create database tables
 AuditBase.metadata.create_all(bind=engine)
+CatalogBase.metadata.create_all(bind=engine)
+
+# Catalog files uploaded before the catalog existed
+with SessionLocal() as db:
+    catalog.backfill(db, file_exchange.UPLOADS_DIR)
 
 app = FastAPI(title="SecureFileXchange API", description="API for secure file exchange", version="0.1.0")
 
@@ -35,5 +43,14 @@ def read_root():
 def health_check():
     return {"status": "ok"}
 
+@app.get("/health/audit")
+def audit_health():
+    # Audit entries waiting for the background writer, and what it has written
+    return audit_writer.stats()
+
+@app.on_event("shutdown")
+def flush_audit_log():
+    audit_writer.close()
+
 if __name__ == "__main__":
     uvicorn.run("app.main:app", host="0.0.0.0", port=8000, reload=True)
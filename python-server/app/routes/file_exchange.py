@@ -1,13 +1,28 @@
-from fastapi import APIRouter, HTTPException, status, Depends, UploadFile, File, Form
-from fastapi.responses import FileResponse
+from fastapi import APIRouter, HTTPException, status, Depends, UploadFile, File, Form, Header, Request
+from fastapi.responses import Response, StreamingResponse
+from pydantic import BaseModel
 from sqlalchemy.orm import Session
+from starlette.concurrency import run_in_threadpool
+from typing import List
 import os
 import uuid
-import shutil
-from datetime import datetime
 
 from app.audit_logs.database import get_db
-from app.audit_logs.models import AuditLog
+from app.audit_logs.writer import audit_writer
+from app.catalog import catalog
+from app.dh_key_exchange.store import session_keys
+from app.events.feed import FILE_ADDED, FILE_REMOVED, FILE_UPDATED, change_feed
+from app.file_delta.delta import (
+    MIN_BLOCK_SIZE, MAX_BLOCK_SIZE, DeltaFormatError, apply_delta, compute_signatures
+)
+from app.file_transfer import bundle
+from app.file_transfer.encrypted import EncryptedStreamError, decrypt_frames
+from app.file_transfer.streaming import RangedFileResponse, receive_file
+from app.idempotency.cache import idempotency_cache, scoped_key
+from app.integrity.tree_hash import (
+    LEAF_SIZE, TreeHasher, get_or_compute_root_hash, load_root_hash, remove_root_hash, store_root_hash,
+    tree_hash_file
+)
 
 router = APIRouter(prefix="/api/files", tags=["file-exchange"])
 
@@ -15,114 +30,587 @@ router = APIRouter(prefix="/api/files", tags=["file-exchange"])
 UPLOADS_DIR = "uploads"
 os.makedirs(UPLOADS_DIR, exist_ok=True)
 
+# Response header carrying the tree hash of a downloaded file
+TREE_HASH_HEADER = "X-Content-Tree-Hash"
+
 @router.post("/upload")
 async def upload_file(
     file: UploadFile = File(...),
     user_id: str = Form(default="anonymous"),
+    root_hash: str = Form(default=None),
+    idempotency_key: str = Header(default=None),
     db: Session = Depends(get_db)
 ):
-    # Generate a unique filename to prevent overwrites
-    file_ext = os.path.splitext(file.filename)[1] if file.filename else ""
-    unique_filename = f"{uuid.uuid4()}{file_ext}"
-    file_path = os.path.join(UPLOADS_DIR, unique_filename)
+    # A retried upload gets the first attempt's result instead of storing the file twice
+    key = scoped_key("upload", user_id, idempotency_key)
+    replay = idempotency_cache.reserve(key)
+    if replay is not None:
+        return replay
+    try:
+        # Copying the multipart file blocks, so it runs off the event loop
+        result = await run_in_threadpool(_store_upload, file, user_id, root_hash, db)
+    except BaseException:
+        idempotency_cache.release(key)
+        raise
+    idempotency_cache.complete(key, result)
+    return result
+
+def _store_upload(file, user_id, root_hash, db):
+    file_path, unique_filename = _new_upload_path(file.filename)
     
-    # Save the file
+    # Save the file, hashing it as it is written
+    hasher = TreeHasher()
+    size_bytes = 0
     try:
         with open(file_path, "wb") as buffer:
-            shutil.copyfileobj(file.file, buffer)
+            while True:
+                chunk = file.file.read(LEAF_SIZE)
+                if not chunk:
+                    break
+                hasher.update(chunk)
+                buffer.write(chunk)
+                size_bytes += len(chunk)
     except Exception as e:
-        # Log the error
-        db.add(AuditLog(
+        _fail_upload(file_path, user_id, e)
+    
+    return _finish_upload(file_path, unique_filename, file.filename, user_id, size_bytes,
+                          hasher.hexdigest(), root_hash, db)
+
+@router.post("/upload/raw")
+async def upload_raw_file(
+    request: Request,
+    filename: str,
+    user_id: str = "anonymous",
+    x_content_tree_hash: str = Header(default=None),
+    x_encryption_session: str = Header(default=None),
+    idempotency_key: str = Header(default=None),
+    db: Session = Depends(get_db)
+):
+    # The request body is the file itself, streamed to disk as it arrives
+    # without multipart parsing or a spooled temporary copy. The client's root
+    # hash comes in a header because the body leaves no room for it. A body
+    # encrypted with the user's session key names its key exchange in a header
+    # and is decrypted on the way to disk.
+    session_key = None
+    if x_encryption_session is not None:
+        entry = session_keys.get(x_encryption_session)
+        if entry is None or entry[0] != user_id:
+            raise HTTPException(
+                status_code=status.HTTP_401_UNAUTHORIZED,
+                detail="Unknown encryption session"
+            )
+        # The frames are bound to the upload by its idempotency key
+        if idempotency_key is None:
+            raise HTTPException(
+                status_code=status.HTTP_400_BAD_REQUEST,
+                detail="Encrypted uploads need an Idempotency-Key"
+            )
+        session_key = entry[1]
+
+    key = scoped_key("upload", user_id, idempotency_key)
+    replay = idempotency_cache.reserve(key)
+    if replay is not None:
+        return replay
+    try:
+        file_path, unique_filename = _new_upload_path(filename)
+        stream = request.stream()
+        if session_key is not None:
+            stream = decrypt_frames(stream, session_key, x_encryption_session, idempotency_key)
+        try:
+            size_bytes, stored_hash = await receive_file(stream, file_path)
+        except EncryptedStreamError as e:
+            _fail_upload(file_path, user_id, e, status.HTTP_400_BAD_REQUEST)
+        except Exception as e:
+            _fail_upload(file_path, user_id, e)
+        result = await run_in_threadpool(_finish_upload, file_path, unique_filename, filename, user_id,
+                                         size_bytes, stored_hash, x_content_tree_hash, db)
+    except BaseException:
+        idempotency_cache.release(key)
+        raise
+    idempotency_cache.complete(key, result)
+    return result
+
+def _new_upload_path(filename):
+    # Generate a unique filename to prevent overwrites
+    file_ext = os.path.splitext(filename)[1] if filename else ""
+    unique_filename = f"{uuid.uuid4()}{file_ext}"
+    return os.path.join(UPLOADS_DIR, unique_filename), unique_filename
+
+def _fail_upload(file_path, user_id, error, status_code=status.HTTP_500_INTERNAL_SERVER_ERROR):
+    # Drop the partial file, log the error and report it
+    if os.path.exists(file_path):
+        os.remove(file_path)
+    audit_writer.log(
+        event_type="file_upload",
+        user_id=user_id,
+        success=False,
+        details=f"Error: {str(error)}"
+    )
+    raise HTTPException(
+        status_code=status_code,
+        detail=f"Failed to upload file: {str(error)}"
+    )
+
+def _finish_upload(file_path, unique_filename, filename, user_id, size_bytes, stored_hash, root_hash, db):
+    # Reject content that does not match the hash the client computed
+    if root_hash is not None and root_hash.lower() != stored_hash:
+        os.remove(file_path)
+        audit_writer.log(
             event_type="file_upload",
             user_id=user_id,
             success=False,
-            details=f"Error: {str(e)}"
-        ))
-        db.commit()
+            details=f"Integrity check failed for {filename}: expected {root_hash}, received {stored_hash}"
+        )
         raise HTTPException(
-            status_code=status.HTTP_500_INTERNAL_SERVER_ERROR,
-            detail=f"Failed to upload file: {str(e)}"
+            status_code=status.HTTP_422_UNPROCESSABLE_ENTITY,
+            detail="Uploaded content does not match root_hash"
         )
-    
-    # Log successful upload
-    db.add(AuditLog(
+    store_root_hash(UPLOADS_DIR, unique_filename, stored_hash)
+
+    record = catalog.add_file(db, unique_filename, user_id, filename, size_bytes, stored_hash)
+    db.commit()
+    audit_writer.log(
         event_type="file_upload",
         user_id=user_id,
         success=True,
-        details=f"Uploaded file: {file.filename}, stored as: {unique_filename}"
-    ))
-    db.commit()
-    
+        details=f"Uploaded file: {filename}, stored as: {unique_filename}"
+    )
+    change_feed.publish(FILE_ADDED, catalog.to_file_info(record))
+
     return {
-        "filename": file.filename,
+        "filename": filename,
         "stored_filename": unique_filename,
+        "size_bytes": size_bytes,
+        "root_hash": stored_hash,
         "message": "File uploaded successfully"
     }
 
+@router.post("/upload/bundle")
+async def upload_bundle(
+    request: Request,
+    user_id: str = "anonymous",
+    idempotency_key: str = Header(default=None),
+    db: Session = Depends(get_db)
+):
+    # Many small files in one request, each stored as its own file. The
+    # catalog entries are committed together, so the whole bundle is stored or
+    # none of it.
+    key = scoped_key("bundle", user_id, idempotency_key)
+    replay = idempotency_cache.reserve(key)
+    if replay is not None:
+        return replay
+    try:
+        result = await _store_bundle(request, user_id, db)
+    except BaseException:
+        idempotency_cache.release(key)
+        raise
+    idempotency_cache.complete(key, result)
+    return result
+
+async def _store_bundle(request, user_id, db):
+    try:
+        entries = await bundle.receive_bundle(request.stream(), _new_upload_path)
+    except bundle.BundleFormatError as e:
+        audit_writer.log(
+            event_type="file_upload",
+            user_id=user_id,
+            success=False,
+            details=f"Invalid bundle: {str(e)}"
+        )
+        raise HTTPException(
+            status_code=status.HTTP_400_BAD_REQUEST,
+            detail=f"Invalid bundle: {str(e)}"
+        )
+
+    # Reject the bundle if any content does not match the hash the client computed
+    mismatched = [entry for entry in entries if entry["expected_hash"] != entry["root_hash"]]
+    if mismatched:
+        await run_in_threadpool(bundle.remove_entries, entries)
+        audit_writer.log(
+            event_type="file_upload",
+            user_id=user_id,
+            success=False,
+            details=f"Integrity check failed for {len(mismatched)} bundled files, first {mismatched[0]['filename']}"
+        )
+        raise HTTPException(
+            status_code=status.HTTP_422_UNPROCESSABLE_ENTITY,
+            detail=f"Content of {mismatched[0]['filename']} does not match its root hash"
+        )
+
+    try:
+        return await run_in_threadpool(_finish_bundle, entries, user_id, db)
+    except BaseException:
+        db.rollback()
+        await run_in_threadpool(bundle.remove_entries, entries)
+        raise
+
+def _finish_bundle(entries, user_id, db):
+    records = []
+    for entry in entries:
+        store_root_hash(UPLOADS_DIR, entry["stored_filename"], entry["root_hash"])
+        records.append(catalog.add_file(db, entry["stored_filename"], user_id, entry["filename"],
+                                        entry["size_bytes"], entry["root_hash"]))
+    db.commit()
+
+    files = []
+    for entry, record in zip(entries, records):
+        audit_writer.log(
+            event_type="file_upload",
+            user_id=user_id,
+            success=True,
+            details=f"Uploaded file: {entry['filename']}, stored as: {entry['stored_filename']}"
+        )
+        change_feed.publish(FILE_ADDED, catalog.to_file_info(record))
+        files.append({
+            "filename": entry["filename"],
+            "stored_filename": entry["stored_filename"],
+            "size_bytes": entry["size_bytes"],
+            "root_hash": entry["root_hash"],
+            "message": "File uploaded successfully"
+        })
+    return {"files": files, "message": f"{len(files)} files uploaded successfully"}
+
+@router.get("/signatures/{filename}")
+async def get_block_signatures(
+    filename: str,
+    block_size: int = 4096,
+    user_id: str = "anonymous"
+):
+    file_path = os.path.join(UPLOADS_DIR, filename)
+
+    if not os.path.isfile(file_path):
+        raise HTTPException(
+            status_code=status.HTTP_404_NOT_FOUND,
+            detail="File not found"
+        )
+    if not MIN_BLOCK_SIZE <= block_size <= MAX_BLOCK_SIZE:
+        raise HTTPException(
+            status_code=status.HTTP_400_BAD_REQUEST,
+            detail=f"Block size must be between {MIN_BLOCK_SIZE} and {MAX_BLOCK_SIZE}"
+        )
+
+    # The root hash names the version the blocks describe; it is read first, so
+    # a file replaced in between makes a delta against these blocks fail its
+    # base check rather than apply to the wrong content
+    root_hash = await run_in_threadpool(get_or_compute_root_hash, UPLOADS_DIR, filename)
+
+    # Hashing every block of a large file takes a while, so keep it off the event loop
+    blocks = await run_in_threadpool(compute_signatures, file_path, block_size)
+    return {
+        "filename": filename,
+        "block_size": block_size,
+        "size_bytes": os.path.getsize(file_path),
+        "root_hash": root_hash,
+        "blocks": blocks
+    }
+
+@router.post("/delta/{filename}")
+async def upload_delta(
+    filename: str,
+    request: Request,
+    user_id: str = "anonymous",
+    if_match: str = Header(default=None),
+    x_content_tree_hash: str = Header(default=None),
+    idempotency_key: str = Header(default=None),
+    db: Session = Depends(get_db)
+):
+    # A delta refers to blocks of one version of the file, named by If-Match
+    # with the root hash from its signatures. X-Content-Tree-Hash is the root
+    # hash of the content it rebuilds.
+    # Applying a delta twice would corrupt the file, so retries replay the first result
+    key = scoped_key(f"delta:{filename}", user_id, idempotency_key)
+    replay = idempotency_cache.reserve(key)
+    if replay is not None:
+        return replay
+    try:
+        base_hash = if_match.strip().strip('"').lower() if if_match else None
+        result = await _apply_delta_upload(filename, request, user_id, db, base_hash, x_content_tree_hash)
+    except BaseException:
+        idempotency_cache.release(key)
+        raise
+    idempotency_cache.complete(key, result)
+    return result
+
+async def _apply_delta_upload(filename, request, user_id, db, base_hash, expected_hash):
+    file_path = os.path.join(UPLOADS_DIR, filename)
+
+    record = catalog.get_file(db, filename)
+    if record is None:
+        raise HTTPException(
+            status_code=status.HTTP_404_NOT_FOUND,
+            detail="File not found"
+        )
+    _check_delta_base(record, filename, user_id, base_hash)
+
+    # Rebuild next to the original and swap it in only once the delta is complete
+    temp_path = os.path.join(UPLOADS_DIR, f".{filename}.{uuid.uuid4()}.delta")
+    try:
+        size_bytes = await apply_delta(file_path, request.stream(), temp_path)
+        stored_hash = await run_in_threadpool(tree_hash_file, temp_path)
+        if expected_hash is not None and expected_hash.lower() != stored_hash:
+            audit_writer.log(
+                event_type="file_delta_upload",
+                user_id=user_id,
+                success=False,
+                details=f"Root hash mismatch for delta of {filename}"
+            )
+            raise HTTPException(
+                status_code=status.HTTP_422_UNPROCESSABLE_ENTITY,
+                detail="Rebuilt file does not match its tree hash"
+            )
+        # Another delta may have replaced the file while this one was applied.
+        # Nothing below awaits, so no other request runs until the swap is done.
+        db.refresh(record)
+        _check_delta_base(record, filename, user_id, base_hash)
+        os.replace(temp_path, file_path)
+        store_root_hash(UPLOADS_DIR, filename, stored_hash)
+    except DeltaFormatError as e:
+        audit_writer.log(
+            event_type="file_delta_upload",
+            user_id=user_id,
+            success=False,
+            details=f"Invalid delta for {filename}: {str(e)}"
+        )
+        raise HTTPException(
+            status_code=status.HTTP_400_BAD_REQUEST,
+            detail=f"Invalid delta: {str(e)}"
+        )
+    finally:
+        if os.path.exists(temp_path):
+            os.remove(temp_path)
+
+    record.size_bytes = size_bytes
+    record.root_hash = stored_hash
+    db.commit()
+    audit_writer.log(
+        event_type="file_delta_upload",
+        user_id=user_id,
+        success=True,
+        details=f"Updated file from delta: {filename}"
+    )
+    change_feed.publish(FILE_UPDATED, catalog.to_file_info(record))
+
+    return {
+        "filename": filename,
+        "stored_filename": filename,
+        "size_bytes": size_bytes,
+        "root_hash": stored_hash,
+        "message": "File updated from delta"
+    }
+
+def _check_delta_base(record, filename, user_id, base_hash):
+    # Refuse a delta built against another version of the file. Files imported
+    # from disk have their hash only next to the file until first downloaded.
+    current_hash = record.root_hash or load_root_hash(UPLOADS_DIR, filename)
+    if base_hash is not None and current_hash != base_hash:
+        audit_writer.log(
+            event_type="file_delta_upload",
+            user_id=user_id,
+            success=False,
+            details=f"Delta for {filename} was built against another version"
+        )
+        raise HTTPException(
+            status_code=status.HTTP_412_PRECONDITION_FAILED,
+            detail="File changed since its signatures were read"
+        )
+
 @router.get("/download/{filename}")
 async def download_file(
     filename: str,
     user_id: str = "anonymous",
+    if_none_match: str = Header(default=None),
+    range_header: str = Header(default=None, alias="Range"),
+    if_range: str = Header(default=None),
     db: Session = Depends(get_db)
 ):
     file_path = os.path.join(UPLOADS_DIR, filename)
     
-    # Check if file exists
-    if not os.path.exists(file_path):
-        db.add(AuditLog(
+    # Check the catalog rather than the file system
+    record = catalog.get_file(db, filename)
+    if record is None:
+        audit_writer.log(
             event_type="file_download",
             user_id=user_id,
             success=False,
             details=f"File not found: {filename}"
-        ))
-        db.commit()
+        )
         raise HTTPException(
             status_code=status.HTTP_404_NOT_FOUND,
             detail="File not found"
         )
     
+    # The tree hash identifies the content, so it doubles as a strong validator
+    root_hash = record.root_hash
+    if root_hash is None:
+        # Files imported from disk without a stored hash get one on first download,
+        # hashed off the event loop like uploads
+        root_hash = await run_in_threadpool(get_or_compute_root_hash, UPLOADS_DIR, filename)
+        record.root_hash = root_hash
+        db.commit()
+    etag = f'"{root_hash}"'
+    headers = {TREE_HASH_HEADER: root_hash, "ETag": etag}
+    
+    if if_none_match is not None and _etag_matches(if_none_match, etag):
+        audit_writer.log(
+            event_type="file_download",
+            user_id=user_id,
+            success=True,
+            details=f"Not modified: {filename}"
+        )
+        return Response(status_code=status.HTTP_304_NOT_MODIFIED, headers=headers)
+    
     # Log successful download
-    db.add(AuditLog(
+    audit_writer.log(
         event_type="file_download",
         user_id=user_id,
         success=True,
         details=f"Downloaded file: {filename}"
-    ))
-    db.commit()
+    )
     
-    return FileResponse(
+    # Read in chunks on worker threads, as uvicorn offers no zero-copy send; a
+    # Range header fetches part of the file, such as the rest of an interrupted
+    # download
+    return RangedFileResponse(
         path=file_path,
-        filename=filename,
-        media_type="application/octet-stream"
+        size=record.size_bytes,
+        headers=headers,
+        range_header=range_header,
+        if_range=if_range,
+        filename=filename
     )
 
+class BundleDownloadRequest(BaseModel):
+    filenames: List[str]
+
+@router.post("/download/bundle")
+async def download_bundle(
+    request: BundleDownloadRequest,
+    user_id: str = "anonymous",
+    db: Session = Depends(get_db)
+):
+    # Several stored files streamed back in one response, in the order asked
+    if len(request.filenames) > bundle.MAX_ENTRIES:
+        raise HTTPException(
+            status_code=status.HTTP_400_BAD_REQUEST,
+            detail=f"At most {bundle.MAX_ENTRIES} files per bundle"
+        )
+
+    entries = []
+    for filename in request.filenames:
+        record = catalog.get_file(db, filename)
+        if record is None:
+            audit_writer.log(
+                event_type="file_download",
+                user_id=user_id,
+                success=False,
+                details=f"File not found: {filename}"
+            )
+            raise HTTPException(
+                status_code=status.HTTP_404_NOT_FOUND,
+                detail=f"File not found: {filename}"
+            )
+        if record.root_hash is None:
+            # Files imported from disk without a stored hash get one on first download,
+            # hashed off the event loop like uploads
+            record.root_hash = await run_in_threadpool(get_or_compute_root_hash, UPLOADS_DIR, filename)
+            db.commit()
+        entries.append({
+            "filename": filename,
+            "path": os.path.join(UPLOADS_DIR, filename),
+            "size_bytes": record.size_bytes,
+            "root_hash": record.root_hash
+        })
+
+    for entry in entries:
+        audit_writer.log(
+            event_type="file_download",
+            user_id=user_id,
+            success=True,
+            details=f"Downloaded file: {entry['filename']} in a bundle"
+        )
+
+    return StreamingResponse(bundle.stream_bundle(entries), media_type=bundle.MEDIA_TYPE)
+
+def _etag_matches(if_none_match, etag):
+    """Check an If-None-Match header against an ETag, using weak comparison as RFC 9110 requires"""
+    if if_none_match.strip() == "*":
+        return True
+    candidates = [candidate.strip() for candidate in if_none_match.split(",")]
+    return any(candidate.removeprefix("W/") == etag for candidate in candidates)
+
 @router.get("/list")
 async def list_files(
     user_id: str = "anonymous",
+    owner: str = None,
+    cursor: str = None,
+    limit: int = None,
     db: Session = Depends(get_db)
 ):
+    if limit is not None and not 1 <= limit <= catalog.MAX_PAGE_SIZE:
+        raise HTTPException(
+            status_code=status.HTTP_400_BAD_REQUEST,
+            detail=f"Limit must be between 1 and {catalog.MAX_PAGE_SIZE}"
+        )
+
     # Log the list request
-    db.add(AuditLog(
+    audit_writer.log(
         event_type="file_list",
         user_id=user_id,
         success=True
-    ))
-    db.commit()
+    )
     
-    # Get all files in the uploads directory
+    # Serve the listing from the catalog's indexes: files of one owner if
+    # given, in filename order, one page after the cursor if a limit is given
     try:
-        files = []
-        for filename in os.listdir(UPLOADS_DIR):
-            file_path = os.path.join(UPLOADS_DIR, filename)
-            if os.path.isfile(file_path):
-                files.append({
-                    "filename": filename,
-                    "size_bytes": os.path.getsize(file_path),
-                    "created_at": datetime.fromtimestamp(os.path.getctime(file_path)).isoformat()
-                })
-        return {"files": files}
+        files, next_cursor = catalog.list_files(db, owner=owner, cursor=cursor, limit=limit)
+        return {"files": files, "next_cursor": next_cursor}
     except Exception as e:
         raise HTTPException(
             status_code=status.HTTP_500_INTERNAL_SERVER_ERROR,
             detail=f"Failed to list files: {str(e)}"
         )
+
+@router.delete("/{filename}")
+async def delete_file(
+    filename: str,
+    user_id: str = "anonymous",
+    db: Session = Depends(get_db)
+):
+    file_path = os.path.join(UPLOADS_DIR, filename)
+
+    record = catalog.get_file(db, filename)
+    if record is None:
+        raise HTTPException(
+            status_code=status.HTTP_404_NOT_FOUND,
+            detail="File not found"
+        )
+
+    # Drop the catalog entry first so listings stop showing the file before it goes
+    db.delete(record)
+    db.commit()
+    audit_writer.log(
+        event_type="file_delete",
+        user_id=user_id,
+        success=True,
+        details=f"Deleted file: {filename}"
+    )
+    if os.path.exists(file_path):
+        os.remove(file_path)
+    remove_root_hash(UPLOADS_DIR, filename)
+    change_feed.publish(FILE_REMOVED, {"filename": filename})
+
+    return {"filename": filename, "message": "File deleted successfully"}
+
+@router.get("/events")
+async def file_events(
+    request: Request,
+    last_event_id: str = Header(default=None)
+):
+    # Server-Sent Events for file changes, so clients update their file list
+    # instead of polling it. Reconnecting with Last-Event-ID resumes after the
+    # last event received.
+    return StreamingResponse(
+        change_feed.stream(last_event_id, request.is_disconnected),
+        media_type="text/event-stream",
+        headers={"Cache-Control": "no-cache", "X-Accel-Buffering": "no"}
+    )
@@ -1,15 +1,19 @@
 from fastapi import APIRouter, HTTPException, status, Response
 from fastapi.responses import JSONResponse
 from pydantic import BaseModel
+from typing import Optional
 import base64
 import os
 
-from app.dh_key_exchange.dh import DHKeyExchange, create_dh_exchange
+from app.dh_key_exchange.dh import DHKeyExchange, create_dh_exchange, derive_session_key
+from app.dh_key_exchange.store import KeyExchangeStore, session_keys
 
 router = APIRouter(prefix="/api/key-exchange", tags=["key-exchange"])
 
-# Store active key exchanges (in a real app, this would be in a database)
-active_exchanges = {}
+# Store active key exchanges (in a real app, this would be in a database).
+# Abandoned ones expire, and each can be completed only once even when many
+# users' handshakes run at the same time.
+active_exchanges = KeyExchangeStore()
 
 class PublicKeyResponse(BaseModel):
     session_id: str
@@ -19,6 +23,8 @@ class PublicKeyResponse(BaseModel):
 class PeerPublicKeyRequest(BaseModel):
     session_id: str
     public_key: str
+    # Keep the derived session key for this user's encrypted uploads
+    user_id: Optional[str] = None
 
 @router.post("/init", response_model=PublicKeyResponse, status_code=status.HTTP_201_CREATED)
 def initialize_key_exchange():
@@ -29,7 +35,7 @@ def initialize_key_exchange():
     session_id = base64.urlsafe_b64encode(os.urandom(16)).decode('utf-8')
     
     # Store the exchange in active exchanges
-    active_exchanges[session_id] = dh_exchange
+    active_exchanges.add(session_id, dh_exchange)
     
     # Return the public key and parameters
     return {
@@ -40,16 +46,14 @@ def initialize_key_exchange():
 
 @router.post("/complete")
 def complete_key_exchange(request: PeerPublicKeyRequest):
-    # Check if session exists
-    if request.session_id not in active_exchanges:
+    # Take the DH exchange, so a concurrent or repeated completion finds nothing
+    dh_exchange = active_exchanges.take(request.session_id)
+    if dh_exchange is None:
         raise HTTPException(
             status_code=status.HTTP_404_NOT_FOUND,
             detail="Session not found"
         )
     
-    # Get the DH exchange
-    dh_exchange = active_exchanges[request.session_id]
-    
     try:
         # Decode the peer's public key
         peer_public_key_bytes = base64.b64decode(request.public_key)
@@ -57,11 +61,12 @@ def complete_key_exchange(request: PeerPublicKeyRequest):
         # Compute the shared key
         shared_key = dh_exchange.compute_shared_key(peer_public_key_bytes)
         
-        # In a real application, we'd store this key securely
-        # For now, we'll just confirm success
-        
-        # Clean up (remove the session)
-        del active_exchanges[request.session_id]
+        # Keep the user's session key in memory until it expires
+        if request.user_id is not None:
+            session_keys.add(request.session_id, (
+                request.user_id,
+                derive_session_key(shared_key, request.user_id, request.session_id)
+            ))
         
         return {"status": "success", "message": "Key exchange completed successfully"}
     except Exception as e:
@@ -7,12 +7,18 @@ def main():
     
     # Set Python path to include the project directory
     sys.path.append(os.path.dirname(os.path.dirname(os.path.abspath(__file__))))
+    # Also the server directory itself, so "app" imports when started from elsewhere
+    sys.path.append(os.path.dirname(os.path.abspath(__file__)))
     
+    # SFX_PORT lets several servers run side by side as a cluster, each from
+    # its own working directory so uploads and databases stay separate
+    port = int(os.environ.get("SFX_PORT", "8000"))
+
     # Run the application using uvicorn
     uvicorn.run(
         "app.main:app",
         host="0.0.0.0",
-        port=8000,
+        port=port,
         reload=True,
         log_level="info"
     )
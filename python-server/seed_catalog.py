@@ -0,0 +1,43 @@
+import argparse
+import os
+import sys
+import uuid
+from datetime import datetime
+
+# Fill the file catalog with synthetic entries for listing benchmarks. Only
+# catalog rows are created, so the entries can be listed but not downloaded.
+# Run from the server's working directory, next to sfx.db.
+
+BATCH_SIZE = 10000
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Add synthetic files to the SFX catalog")
+    parser.add_argument("count", type=int, help="Number of entries to add")
+    parser.add_argument("--users", type=int, default=100, help="Number of owners to spread them over")
+    args = parser.parse_args()
+
+    sys.path.append(os.path.dirname(os.path.abspath(__file__)))
+    from app.audit_logs.database import engine
+    from app.catalog.models import Base, FileRecord
+
+    Base.metadata.create_all(bind=engine)
+    now = datetime.now()
+    with engine.begin() as connection:
+        for start in range(0, args.count, BATCH_SIZE):
+            rows = []
+            for i in range(start, min(start + BATCH_SIZE, args.count)):
+                rows.append({
+                    "filename": f"{uuid.uuid4()}.bin",
+                    "user_id": f"bench-user-{i % args.users}",
+                    "original_filename": f"file-{i}.bin",
+                    "size_bytes": 1024,
+                    "created_at": now,
+                    "root_hash": uuid.uuid4().hex * 2
+                })
+            connection.execute(FileRecord.__table__.insert(), rows)
+    print(f"Added {args.count} catalog entries for {args.users} users")
+
+
+if __name__ == "__main__":
+    main()
@@ -1,10 +1,21 @@
+import asyncio
+import base64
 import os
 import json
+import struct
+import threading
+import time
+import uuid
 import pytest
 from fastapi.testclient import TestClient
 
 # Import the FastAPI app
 from app.main import app
+from app.events.feed import change_feed
+from app.audit_logs.models import AuditLog, Base as AuditBase
+from app.audit_logs.writer import AuditLogWriter
+from sqlalchemy import create_engine, func, select
+from sqlalchemy.orm import sessionmaker
 
 # Create a test client
 client = TestClient(app)
@@ -75,6 +86,458 @@ def test_file_operations():
         if os.path.exists(test_file_path):
             os.remove(test_file_path)
 
+def test_delta_upload():
+    import struct
+    from app.integrity.tree_hash import TreeHasher
+
+    def tree_hash(data):
+        hasher = TreeHasher()
+        hasher.update(data)
+        return hasher.hexdigest()
+
+    original = bytes(range(256)) * 40  # 10240 bytes, five 2048-byte blocks
+    response = client.post("/api/files/upload", files={"file": ("delta.bin", original)}, data={"user_id": "test_user"})
+    assert response.status_code == 200
+    stored_filename = response.json()["stored_filename"]
+
+    signatures = client.get(f"/api/files/signatures/{stored_filename}", params={"block_size": 2048})
+    assert signatures.status_code == 200
+    assert len(signatures.json()["blocks"]) == 5
+
+    # Keep the first four blocks and replace the last one
+    literal = b"new tail"
+    delta = (b"SFXD" + struct.pack(">BiQ", 1, 2048, 4 * 2048 + len(literal))
+             + b"C" + struct.pack(">ii", 0, 4)
+             + b"L" + struct.pack(">i", len(literal)) + literal
+             + b"E")
+    base = f'"{signatures.json()["root_hash"]}"'
+    rebuilt = original[:4 * 2048] + literal
+
+    # A delta whose result does not match its hash leaves the file alone
+    response = client.post(f"/api/files/delta/{stored_filename}", content=delta,
+                           headers={"If-Match": base, "X-Content-Tree-Hash": "00" * 32})
+    assert response.status_code == 422
+
+    response = client.post(f"/api/files/delta/{stored_filename}", content=delta,
+                           headers={"If-Match": base, "X-Content-Tree-Hash": tree_hash(rebuilt)})
+    assert response.status_code == 200
+    assert response.json()["size_bytes"] == 4 * 2048 + len(literal)
+
+    download_response = client.get(f"/api/files/download/{stored_filename}")
+    assert download_response.content == rebuilt
+
+    # The same delta again refers to the version it just replaced
+    response = client.post(f"/api/files/delta/{stored_filename}", content=delta, headers={"If-Match": base})
+    assert response.status_code == 412
+    assert client.get(f"/api/files/download/{stored_filename}").content == rebuilt
+
+    bad_delta = client.post(f"/api/files/delta/{stored_filename}", content=b"SFXD")
+    assert bad_delta.status_code == 400
+
+    print("✓ Delta upload test passed")
+
+def test_integrity_hashes():
+    from app.integrity.tree_hash import LEAF_SIZE, leaf_hash, node_hash
+
+    # Two full leaves and a partial one exercise the uneven tree split
+    content = os.urandom(2 * LEAF_SIZE + 100)
+    leaves = [leaf_hash(content[i:i + LEAF_SIZE]) for i in range(0, len(content), LEAF_SIZE)]
+    expected = node_hash(node_hash(leaves[0], leaves[1]), leaves[2]).hex()
+
+    response = client.post("/api/files/upload", files={"file": ("hashed.bin", content)},
+                           data={"user_id": "test_user", "root_hash": expected})
+    assert response.status_code == 200
+    assert response.json()["root_hash"] == expected
+    stored_filename = response.json()["stored_filename"]
+
+    download_response = client.get(f"/api/files/download/{stored_filename}")
+    assert download_response.headers["X-Content-Tree-Hash"] == expected
+
+    listed = [f for f in client.get("/api/files/list").json()["files"] if f["filename"] == stored_filename]
+    assert listed[0]["root_hash"] == expected
+
+    mismatch = client.post("/api/files/upload", files={"file": ("hashed.bin", content[:-1])},
+                           data={"user_id": "test_user", "root_hash": expected})
+    assert mismatch.status_code == 422
+
+    print("✓ Integrity hash test passed")
+
+def test_idempotent_upload():
+    headers = {"Idempotency-Key": "retry-test-key"}
+    first = client.post("/api/files/upload", files={"file": ("retry.txt", b"retried upload")},
+                        data={"user_id": "test_user"}, headers=headers)
+    assert first.status_code == 200
+
+    # A retry with the same key returns the first result instead of storing another copy
+    retry = client.post("/api/files/upload", files={"file": ("retry.txt", b"retried upload")},
+                        data={"user_id": "test_user"}, headers=headers)
+    assert retry.status_code == 200
+    assert retry.json()["stored_filename"] == first.json()["stored_filename"]
+
+    other = client.post("/api/files/upload", files={"file": ("retry.txt", b"retried upload")},
+                        data={"user_id": "test_user"})
+    assert other.json()["stored_filename"] != first.json()["stored_filename"]
+
+    print("✓ Idempotent upload test passed")
+
+def test_conditional_download():
+    upload_response = client.post(
+        "/api/files/upload",
+        files={"file": ("cached.bin", b"cache me" * 1000, "application/octet-stream")},
+        data={"user_id": "test_user"}
+    )
+    assert upload_response.status_code == 200
+    stored_filename = upload_response.json()["stored_filename"]
+
+    download_response = client.get(f"/api/files/download/{stored_filename}")
+    assert download_response.status_code == 200
+    root_hash = upload_response.json()["root_hash"]
+    etag = download_response.headers["ETag"]
+    assert etag == f'"{root_hash}"'
+
+    cached_response = client.get(f"/api/files/download/{stored_filename}", headers={"If-None-Match": etag})
+    assert cached_response.status_code == 304
+    assert cached_response.content == b""
+    assert cached_response.headers["X-Content-Tree-Hash"] == root_hash
+
+    stale_response = client.get(f"/api/files/download/{stored_filename}", headers={"If-None-Match": '"stale"'})
+    assert stale_response.status_code == 200
+
+    print("✓ Conditional download test passed")
+
+def test_change_events():
+    feed = change_feed
+    start = feed.last_sequence
+    upload_response = client.post(
+        "/api/files/upload",
+        files={"file": ("watched.txt", b"watch me", "text/plain")},
+        data={"user_id": "test_user"}
+    )
+    stored_filename = upload_response.json()["stored_filename"]
+    delete_response = client.delete(f"/api/files/{stored_filename}")
+    assert delete_response.status_code == 200
+    assert client.delete(f"/api/files/{stored_filename}").status_code == 404
+
+    events = feed.since(start)
+    assert [event["type"] for event in events] == ["file_added", "file_removed"]
+    assert events[0]["file"]["filename"] == stored_filename
+    assert events[0]["file"]["root_hash"] == upload_response.json()["root_hash"]
+
+    async def read(last_event_id, count):
+        # Collect the first messages of a stream, then disconnect
+        messages = []
+        async def is_disconnected():
+            return False
+        async for message in feed.stream(last_event_id, is_disconnected):
+            messages.append(message)
+            if len(messages) == count:
+                break
+        return messages
+
+    # Resuming from the first event replays only the second
+    resumed = asyncio.run(read(feed.event_id(events[0]["sequence"]), 2))
+    assert resumed[1].startswith(f"id: {feed.event_id(events[1]['sequence'])}\nevent: file_removed\n")
+
+    # An ID from before a restart cannot be resumed, so the client is told to reload
+    restarted = asyncio.run(read("0123456789ab-5", 2))
+    assert "event: reset" in restarted[1]
+
+    print("✓ Change events test passed")
+
+def test_catalog_listing():
+    owner = f"catalog_user_{uuid.uuid4().hex[:8]}"
+    stored = []
+    for i in range(3):
+        response = client.post(
+            "/api/files/upload",
+            files={"file": (f"page{i}.txt", f"page {i}".encode(), "text/plain")},
+            data={"user_id": owner}
+        )
+        stored.append(response.json()["stored_filename"])
+
+    first = client.get("/api/files/list", params={"owner": owner, "limit": 2}).json()
+    assert len(first["files"]) == 2
+    assert first["next_cursor"] == first["files"][-1]["filename"]
+    second = client.get("/api/files/list", params={"owner": owner, "limit": 2, "cursor": first["next_cursor"]}).json()
+    assert len(second["files"]) == 1
+    assert second["next_cursor"] is None
+
+    listed = [entry["filename"] for entry in first["files"] + second["files"]]
+    assert listed == sorted(stored), "Pages should cover the owner's files in filename order"
+    assert first["files"][0]["root_hash"] is not None
+
+    everyone = client.get("/api/files/list").json()
+    assert set(stored) <= {entry["filename"] for entry in everyone["files"]}
+    assert client.get("/api/files/list", params={"limit": 0}).status_code == 400
+    assert client.get("/api/files/download/not-in-catalog.txt").status_code == 404
+
+    print("✓ Catalog listing test passed")
+
+def test_raw_upload_and_range_download():
+    content = os.urandom(3 * 1024 * 1024 + 5)
+    response = client.post(
+        "/api/files/upload/raw",
+        params={"filename": "raw.bin", "user_id": "raw_user"},
+        content=content,
+        headers={"Content-Type": "application/octet-stream"}
+    )
+    assert response.status_code == 200
+    stored = response.json()["stored_filename"]
+    assert stored.endswith(".bin")
+    assert response.json()["size_bytes"] == len(content)
+    root_hash = response.json()["root_hash"]
+
+    # A mismatching client hash is rejected and nothing is stored
+    rejected = client.post(
+        "/api/files/upload/raw",
+        params={"filename": "raw.bin"},
+        content=content,
+        headers={"X-Content-Tree-Hash": "00" * 32}
+    )
+    assert rejected.status_code == 422
+
+    full = client.get(f"/api/files/download/{stored}")
+    assert full.status_code == 200
+    assert full.headers["accept-ranges"] == "bytes"
+    assert full.content == content
+
+    part = client.get(f"/api/files/download/{stored}", headers={"Range": "bytes=1048570-1048589"})
+    assert part.status_code == 206
+    assert part.headers["content-range"] == f"bytes 1048570-1048589/{len(content)}"
+    assert part.content == content[1048570:1048590]
+
+    tail = client.get(f"/api/files/download/{stored}", headers={"Range": "bytes=-5", "If-Range": f'"{root_hash}"'})
+    assert tail.status_code == 206
+    assert tail.content == content[-5:]
+    stale = client.get(f"/api/files/download/{stored}", headers={"Range": "bytes=-5", "If-Range": '"stale"'})
+    assert stale.status_code == 200, "A range of a changed file should get the whole file"
+
+    beyond = client.get(f"/api/files/download/{stored}", headers={"Range": f"bytes={len(content)}-"})
+    assert beyond.status_code == 416
+    assert beyond.headers["content-range"] == f"bytes */{len(content)}"
+
+    print("✓ Raw upload and range download test passed")
+
+def test_bundle_upload_and_download():
+    from app.file_transfer import bundle
+    from app.integrity.tree_hash import TreeHasher
+
+    def tree_hash(data):
+        hasher = TreeHasher()
+        hasher.update(data)
+        return hasher.hexdigest()
+
+    def entry(name, data, root_hash=None):
+        encoded = name.encode("utf-8")
+        return (b"F" + struct.pack(">i", len(encoded)) + encoded + struct.pack(">q", len(data))
+                + bytes.fromhex(root_hash or tree_hash(data)) + data)
+
+    files = [(f"small{i}.txt", f"content {i}".encode() * i) for i in range(50)]
+    body = bundle.MAGIC + bytes([bundle.VERSION]) + b"".join(entry(name, data) for name, data in files) + b"E"
+    response = client.post("/api/files/upload/bundle", params={"user_id": "bundle_user"}, content=body)
+    assert response.status_code == 200
+    uploaded = response.json()["files"]
+    assert [item["filename"] for item in uploaded] == [name for name, _ in files]
+    assert all(item["root_hash"] == tree_hash(data) for item, (_, data) in zip(uploaded, files))
+
+    # One bad entry rejects the whole bundle
+    bad = bundle.MAGIC + bytes([bundle.VERSION]) + entry("a.txt", b"a") + entry("b.txt", b"b", "00" * 32) + b"E"
+    assert client.post("/api/files/upload/bundle", content=bad).status_code == 422
+    assert client.post("/api/files/upload/bundle", content=b"SFXB\x01F").status_code == 400
+
+    stored = [item["stored_filename"] for item in uploaded]
+    download = client.post("/api/files/download/bundle", json={"filenames": stored})
+    assert download.status_code == 200
+    expected = bundle.MAGIC + bytes([bundle.VERSION]) + b"".join(
+        entry(name, data) for name, (_, data) in zip(stored, files)) + b"E"
+    assert download.content == expected
+
+    missing = client.post("/api/files/download/bundle", json={"filenames": stored[:1] + ["missing.txt"]})
+    assert missing.status_code == 404
+
+    print("✓ Bundle upload and download test passed")
+
+def test_raw_upload_of_unknown_length():
+    # A generator body is sent with chunked transfer encoding and no Content-Length
+    chunks = [os.urandom(64 * 1024) for _ in range(20)]
+    response = client.post(
+        "/api/files/upload/raw",
+        params={"filename": "dump.sql", "user_id": "stream_user"},
+        content=iter(chunks)
+    )
+    assert response.status_code == 200
+    assert response.json()["size_bytes"] == sum(len(chunk) for chunk in chunks)
+
+    download = client.get(f"/api/files/download/{response.json()['stored_filename']}")
+    assert download.content == b"".join(chunks)
+    print("✓ Unknown-length upload test passed")
+
+def test_key_exchange_store():
+    from app.dh_key_exchange.store import KeyExchangeStore
+
+    now = [0.0]
+    store = KeyExchangeStore(ttl_seconds=60, clock=lambda: now[0])
+    store.add("first", "exchange-1")
+    now[0] = 30
+    store.add("second", "exchange-2")
+
+    assert store.take("first") == "exchange-1"
+    assert store.take("first") is None, "An exchange should complete only once"
+
+    # Handshakes that are never completed expire
+    now[0] = 95
+    assert store.take("second") is None
+    store.add("third", "exchange-3")
+    assert len(store) == 1
+    print("✓ Key exchange store test passed")
+
+def test_key_exchange_completion():
+    from cryptography.hazmat.primitives import serialization
+
+    init_response = client.post("/api/key-exchange/init")
+    assert init_response.status_code == 201
+    data = init_response.json()
+
+    # Answer in the server's group, DER-encoded as the Java client sends it
+    parameters = serialization.load_pem_parameters(base64.b64decode(data["parameters"]))
+    peer_key = parameters.generate_private_key().public_key()
+    der = peer_key.public_bytes(
+        encoding=serialization.Encoding.DER,
+        format=serialization.PublicFormat.SubjectPublicKeyInfo
+    )
+    response = client.post("/api/key-exchange/complete", json={
+        "session_id": data["session_id"],
+        "public_key": base64.b64encode(der).decode("utf-8")
+    })
+    assert response.status_code == 200, response.text
+
+    # The server's key is sent as PEM, which the client decodes
+    server_key = serialization.load_pem_public_key(base64.b64decode(data["public_key"]))
+    assert server_key.parameters().parameter_numbers() == parameters.parameter_numbers()
+
+    # Each exchange completes only once
+    response = client.post("/api/key-exchange/complete", json={
+        "session_id": data["session_id"],
+        "public_key": base64.b64encode(der).decode("utf-8")
+    })
+    assert response.status_code == 404
+    print("✓ Key exchange completion test passed")
+
+def test_encrypted_raw_upload():
+    from cryptography.hazmat.primitives import serialization
+    from cryptography.hazmat.primitives.ciphers.aead import AESGCM
+    from app.dh_key_exchange.dh import derive_session_key
+    from app.file_transfer.encrypted import frame_aad
+
+    # Complete an exchange for a user, as the Java client's SessionManager does
+    data = client.post("/api/key-exchange/init").json()
+    parameters = serialization.load_pem_parameters(base64.b64decode(data["parameters"]))
+    peer_private = parameters.generate_private_key()
+    der = peer_private.public_key().public_bytes(
+        encoding=serialization.Encoding.DER,
+        format=serialization.PublicFormat.SubjectPublicKeyInfo
+    )
+    response = client.post("/api/key-exchange/complete", json={
+        "session_id": data["session_id"],
+        "public_key": base64.b64encode(der).decode("utf-8"),
+        "user_id": "crypt_user"
+    })
+    assert response.status_code == 200, response.text
+    server_key = serialization.load_pem_public_key(base64.b64decode(data["public_key"]))
+    key = derive_session_key(peer_private.exchange(server_key), "crypt_user", data["session_id"])
+
+    # Length-prefixed AES-GCM frames bound to the upload, as
+    # com.sfx.transfer.EncryptedRequestBody sends them
+    content = os.urandom(300_000)
+    pieces = [content[offset:offset + 100_000] for offset in range(0, len(content), 100_000)]
+
+    def frames(upload_id, parts=pieces):
+        encrypted = []
+        for index, part in enumerate(parts):
+            iv = os.urandom(12)
+            aad = frame_aad(data["session_id"], upload_id, index, index == len(parts) - 1)
+            encrypted.append(iv + AESGCM(key).encrypt(iv, part, aad))
+        return encrypted
+
+    def upload(frame_list, upload_id, user_id="crypt_user"):
+        headers = {"X-Encryption-Session": data["session_id"]}
+        if upload_id is not None:
+            headers["Idempotency-Key"] = upload_id
+        return client.post(
+            "/api/files/upload/raw",
+            params={"filename": "secret.bin", "user_id": user_id},
+            content=b"".join(struct.pack(">i", len(frame)) + frame for frame in frame_list),
+            headers=headers
+        )
+
+    response = upload(frames("upload-1"), "upload-1")
+    assert response.status_code == 200, response.text
+    assert response.json()["size_bytes"] == len(content)
+    download = client.get(f"/api/files/download/{response.json()['stored_filename']}")
+    assert download.content == content
+
+    # The key belongs to one user, and frames to one upload
+    assert upload(frames("upload-2"), "upload-2", user_id="other_user").status_code == 401
+    assert upload(frames("upload-3"), None).status_code == 400
+    assert upload(frames("upload-4"), "upload-5").status_code == 400
+
+    # Tampered, reordered and cut off streams are rejected
+    tampered = frames("upload-6")
+    tampered[1] = tampered[1][:50] + bytes([tampered[1][50] ^ 1]) + tampered[1][51:]
+    assert upload(tampered, "upload-6").status_code == 400
+    reordered = frames("upload-7")
+    reordered[0], reordered[1] = reordered[1], reordered[0]
+    assert upload(reordered, "upload-7").status_code == 400
+    assert upload(frames("upload-8")[:-1], "upload-8").status_code == 400
+    print("✓ Encrypted raw upload test passed")
+
+def test_audit_log_batching(tmp_path):
+    engine = create_engine(f"sqlite:///{tmp_path / 'audit.db'}")
+    AuditBase.metadata.create_all(bind=engine)
+    writer = AuditLogWriter(sessionmaker(bind=engine), max_batch=100, flush_interval=0.05)
+
+    for i in range(250):
+        writer.log("file_list", user_id=f"user{i}")
+    writer.flush()
+    stats = writer.stats()
+    assert stats["queue_depth"] == 0
+    assert stats["written"] == 250
+    assert 3 <= stats["batches"] < 250, "Entries should be committed in groups"
+
+    # Closing writes what is still queued
+    writer.log("file_download", user_id="last", success=False, details="File not found")
+    writer.close()
+    with engine.connect() as connection:
+        assert connection.execute(select(func.count()).select_from(AuditLog.__table__)).scalar() == 251
+
+    response = client.get("/health/audit")
+    assert response.status_code == 200
+    assert "queue_depth" in response.json()
+
+    print("✓ Audit log batching test passed")
+
+def test_audit_log_full_queue():
+    release = threading.Event()
+
+    def blocked_session():
+        release.wait()
+        raise RuntimeError("Database unavailable")
+
+    writer = AuditLogWriter(blocked_session, max_batch=1, flush_interval=0, max_queue=1)
+    writer.log("file_list", user_id="taken")
+    while writer.queue_depth:
+        time.sleep(0.01)
+    writer.log("file_list", user_id="queued")
+
+    # The writer is stuck and the queue is full, so logging must not block
+    started = time.monotonic()
+    writer.log("file_list", user_id="dropped")
+    assert time.monotonic() - started < 1
+    assert writer.stats()["dropped"] == 1
+
+    release.set()
+    print("✓ Audit log full queue test passed")
+
 # For CI compatibility - don't try to connect to localhost
 @pytest.mark.parametrize("ci_test", [True])
 def test_main(ci_test):